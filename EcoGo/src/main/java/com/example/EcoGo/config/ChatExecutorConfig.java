@@ -0,0 +1,36 @@
+package com.example.EcoGo.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Bounded pool for chatbot requests. The chat endpoint hands each request to this pool
+ * and returns the servlet thread to Tomcat, so a slow model server or Python backend
+ * can only exhaust chat capacity, not the whole API. Each chat still occupies one pool
+ * thread until it answers, since the orchestrator waits on its upstream calls, so
+ * {@code threads} is the number of chats allowed in flight at once.
+ * <p>
+ * The pool has a fixed size and, by default, no queue: ThreadPoolExecutor only grows past
+ * its core size once the queue is full, so a queue in front of a larger max would cap
+ * concurrency at the core size and park requests behind a slow upstream. With no queue a
+ * saturated pool rejects new chats at once and the endpoint answers 503.
+ */
+@Configuration
+public class ChatExecutorConfig {
+
+    @Bean(name = "chatExecutor")
+    public ThreadPoolTaskExecutor chatExecutor(
+            @Value("${chatbot.executor.threads:64}") int threads,
+            @Value("${chatbot.executor.queue-capacity:0}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("chat-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
+        return executor;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.EcoGo.config;
+
+import com.example.EcoGo.service.chatbot.ConversationStateStore;
+import com.example.EcoGo.service.chatbot.MongoConversationStateStore;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Conversation state is kept in MongoDB, so chat needs no session affinity and a restarted node
+ * picks up in-flight conversations where they were. Each turn costs one projected read and one
+ * conditional write; another shared store can be plugged in here instead of the Mongo one.
+ */
+@Configuration
+public class ConversationStateStoreConfig {
+
+    @Bean
+    public ConversationStateStore conversationStateStore(MongoTemplate mongoTemplate) {
+        return new MongoConversationStateStore(mongoTemplate);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.EcoGo.config;
+
+import com.example.EcoGo.interfacemethods.BadgeService;
+import com.example.EcoGo.service.GoodsService;
+import com.example.EcoGo.service.chatbot.ChatHistoryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Idempotent backfills for denormalized fields, run once per startup.
+ * Each step only writes documents that are out of date, so re-running is cheap.
+ */
+@Profile("!test")
+@Component
+public class DataBackfillRunner implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(DataBackfillRunner.class);
+
+    private final BadgeService badgeService;
+    private final GoodsService goodsService;
+    private final ChatHistoryService chatHistoryService;
+
+    public DataBackfillRunner(BadgeService badgeService, GoodsService goodsService,
+                              ChatHistoryService chatHistoryService) {
+        this.badgeService = badgeService;
+        this.goodsService = goodsService;
+        this.chatHistoryService = chatHistoryService;
+    }
+
+    @Override
+    public void run(String... args) {
+        try {
+            long updated = badgeService.backfillUserBadgeSubcategories();
+            if (updated > 0) {
+                logger.info("Backfilled subcategory on {} user badges", updated);
+            }
+        } catch (Exception e) {
+            logger.warn("User badge subcategory backfill failed: {}", e.getMessage());
+        }
+        try {
+            long counters = badgeService.backfillBadgePurchaseCounters();
+            if (counters > 0) {
+                logger.info("Backfilled purchase counters for {} badges", counters);
+            }
+        } catch (Exception e) {
+            logger.warn("Badge purchase counter backfill failed: {}", e.getMessage());
+        }
+        try {
+            long migrated = goodsService.backfillInventoryFromGoodsStock();
+            if (migrated > 0) {
+                logger.info("Moved legacy stock field of {} goods into inventory", migrated);
+            }
+        } catch (Exception e) {
+            logger.warn("Goods stock to inventory backfill failed: {}", e.getMessage());
+        }
+        try {
+            long conversations = chatHistoryService.backfillLegacyMessages();
+            if (conversations > 0) {
+                logger.info("Moved embedded messages of {} conversations into message buckets", conversations);
+            }
+        } catch (Exception e) {
+            logger.warn("Chat message bucket backfill failed: {}", e.getMessage());
+        }
+    }
+}
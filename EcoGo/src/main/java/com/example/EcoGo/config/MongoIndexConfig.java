@@ -0,0 +1,133 @@
+package com.example.EcoGo.config;
+
+import com.example.EcoGo.model.ChatConversation;
+import com.example.EcoGo.model.ChatMessageBucket;
+import com.example.EcoGo.model.Goods;
+import com.example.EcoGo.model.InventoryShard;
+import com.example.EcoGo.model.LeaderboardReward;
+import com.example.EcoGo.model.Order;
+import com.example.EcoGo.model.RedemptionSaga;
+import com.example.EcoGo.model.User;
+import com.example.EcoGo.model.UserBadge;
+import com.example.EcoGo.model.UserVoucher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+/**
+ * Creates the indexes declared on entity classes that queries or idempotency
+ * checks depend on. Spring Boot leaves auto-index-creation off, so without this
+ * the @CompoundIndex / @Indexed annotations are documentation only.
+ * Failures of plain indexes are logged, not thrown, so the app still starts when
+ * Mongo is slow; a unique index that cannot be built fails startup, because the
+ * code relies on it to reject duplicates.
+ */
+@Configuration
+public class MongoIndexConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoIndexConfig.class);
+
+    // Non-unique index that conversation_id_unique_idx replaced
+    static final String LEGACY_CONVERSATION_ID_INDEX = "conversation_id_idx";
+    static final String CONVERSATION_ID_INDEX = "conversation_id_unique_idx";
+
+    static final List<Class<?>> INDEXED_ENTITIES = List.of(
+            ChatConversation.class,
+            ChatMessageBucket.class,
+            Goods.class,
+            InventoryShard.class,
+            LeaderboardReward.class,
+            Order.class,
+            RedemptionSaga.class,
+            User.class,
+            UserBadge.class,
+            UserVoucher.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoMappingContext mappingContext;
+
+    @Value("${app.mongo.ensure-indexes:true}")
+    private boolean ensureIndexes;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndexes() {
+        if (!ensureIndexes) {
+            return;
+        }
+        prepareConversationIdIndex();
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        for (Class<?> entity : INDEXED_ENTITIES) {
+            IndexOperations indexOps = mongoTemplate.indexOps(entity);
+            for (IndexDefinition index : resolver.resolveIndexFor(entity)) {
+                try {
+                    indexOps.createIndex(index);
+                } catch (Exception e) {
+                    if (index.getIndexOptions().getBoolean("unique", false)) {
+                        throw new IllegalStateException("Failed to build unique index " + index.getIndexKeys()
+                                + " for " + entity.getSimpleName(), e);
+                    }
+                    logger.warn("Failed to ensure index {} for {}: {}", index.getIndexKeys(),
+                            entity.getSimpleName(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Before the unique conversationId index is first built, merges duplicate conversation headers
+     * left by concurrent first writes and drops the non-unique index it replaces.
+     */
+    private void prepareConversationIdIndex() {
+        IndexOperations indexOps = mongoTemplate.indexOps(ChatConversation.class);
+        List<String> names = indexOps.getIndexInfo().stream().map(IndexInfo::getName).toList();
+        if (names.contains(CONVERSATION_ID_INDEX)) {
+            return;
+        }
+        Aggregation duplicates = Aggregation.newAggregation(
+                Aggregation.group("conversationId").count().as("count"),
+                Aggregation.match(Criteria.where("count").gt(1)));
+        for (Document dup : mongoTemplate.aggregate(duplicates, ChatConversation.class, Document.class)) {
+            mergeConversationHeaders(dup.getString("_id"));
+        }
+        if (names.contains(LEGACY_CONVERSATION_ID_INDEX)) {
+            indexOps.dropIndex(LEGACY_CONVERSATION_ID_INDEX);
+        }
+    }
+
+    // Keeps the header with the newest state, carrying over the highest message count
+    private void mergeConversationHeaders(String conversationId) {
+        List<ChatConversation> headers = mongoTemplate.find(
+                new Query(Criteria.where("conversationId").is(conversationId))
+                        .with(Sort.by(Sort.Direction.DESC, "stateVersion", "messageCount")),
+                ChatConversation.class);
+        ChatConversation kept = headers.get(0);
+        long messageCount = headers.stream().mapToLong(ChatConversation::getMessageCount).max().orElse(0);
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(kept.getId())),
+                new Update().set("messageCount", messageCount), ChatConversation.class);
+        List<String> extra = headers.stream().skip(1).map(ChatConversation::getId).toList();
+        mongoTemplate.remove(new Query(Criteria.where("_id").in(extra)), ChatConversation.class);
+        logger.warn("Merged {} duplicate headers of conversation {}", extra.size(), conversationId);
+    }
+}
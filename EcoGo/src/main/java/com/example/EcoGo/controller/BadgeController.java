@@ -9,6 +9,7 @@ import com.example.EcoGo.model.UserBadge;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 import java.util.Map;
@@ -46,9 +47,13 @@ public class BadgeController {
         return ResponseMessage.success(badgeService.getShopList());
     }
 
-    // 我的背包
+    // 我的背包（ETag = 用户徽章版本号，未变化时返回 304，不查询 user_badges）
     @GetMapping("/mobile/badges/user/{user_id}")
-    public ResponseMessage<List<UserBadge>> getMyBadges(@PathVariable("user_id") String userId) {
+    public ResponseMessage<List<UserBadge>> getMyBadges(@PathVariable("user_id") String userId, WebRequest webRequest) {
+        String etag = "\"" + userId + "-" + badgeService.getBadgeVersion(userId) + "\"";
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
         return ResponseMessage.success(badgeService.getMyBadges(userId));
     }
 
@@ -2,20 +2,26 @@ package com.example.EcoGo.controller;
 
 import com.example.EcoGo.dto.ResponseMessage;
 import com.example.EcoGo.dto.chatbot.BookingDetailDto;
+import com.example.EcoGo.dto.chatbot.ChatHistoryDto;
 import com.example.EcoGo.dto.chatbot.ChatRequestDto;
 import com.example.EcoGo.dto.chatbot.ChatResponseDto;
 import com.example.EcoGo.service.chatbot.ChatBookingService;
+import com.example.EcoGo.service.chatbot.ChatHistoryService;
 import com.example.EcoGo.service.chatbot.ChatOrchestratorService;
 import com.example.EcoGo.utils.JwtUtils;
 import io.jsonwebtoken.Claims;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/v1/mobile/chatbot")
@@ -23,31 +29,75 @@ public class ChatbotController {
 
     private static final Logger log = LoggerFactory.getLogger(ChatbotController.class);
 
+    private static final String GUEST = "guest";
+
     @Autowired
     private ChatOrchestratorService orchestratorService;
 
     @Autowired
     private ChatBookingService bookingService;
 
+    @Autowired
+    private ChatHistoryService historyService;
+
     @Autowired
     private JwtUtils jwtUtils;
 
+    @Autowired
+    @Qualifier("chatExecutor")
+    private Executor chatExecutor;
+
     /**
      * Main chat endpoint.
      * POST /api/v1/mobile/chatbot/chat
+     *
+     * Handled on the chat pool so the servlet thread is released. The orchestrator
+     * itself is still synchronous: a pool thread stays blocked while the model server,
+     * Python backend or bus API responds, so chat capacity is bounded by the pool size.
      */
     @PostMapping("/chat")
-    public ResponseMessage<ChatResponseDto> chat(
+    public CompletableFuture<ResponseMessage<ChatResponseDto>> chat(
             @RequestHeader(value = "Authorization", required = false) String authHeader,
             @RequestBody ChatRequestDto request) {
 
         String userId = extractUserId(authHeader);
         boolean isAdmin = extractIsAdmin(authHeader);
 
-        ChatResponseDto response = orchestratorService.handleChat(
-                userId, isAdmin, request.getConversationId(), request.getMessage());
+        try {
+            return CompletableFuture.supplyAsync(() -> ResponseMessage.success(orchestratorService.handleChat(
+                    userId, isAdmin, request.getConversationId(), request.getMessage())), chatExecutor);
+        } catch (RejectedExecutionException e) {
+            log.warn("[CHATBOT] Chat pool saturated, rejecting request from {}", userId);
+            return CompletableFuture.completedFuture(new ResponseMessage<>(HttpStatus.SERVICE_UNAVAILABLE.value(),
+                    "Chatbot is busy, please try again shortly", null));
+        }
+    }
 
-        return ResponseMessage.success(response);
+    /**
+     * Page through a conversation's messages, oldest first within a page.
+     * GET /api/v1/mobile/chatbot/conversations/{conversationId}/messages?before=&limit=
+     *
+     * Without {@code before} the latest messages are returned; pass the page's
+     * {@code nextBefore} to load older ones. Requires a logged-in user: guest
+     * conversations have no owner to check against.
+     */
+    @GetMapping("/conversations/{conversationId}/messages")
+    public ResponseMessage<ChatHistoryDto> getHistory(
+            @RequestHeader(value = "Authorization", required = false) String authHeader,
+            @PathVariable String conversationId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Integer limit) {
+
+        String userId = extractUserId(authHeader);
+        if (GUEST.equals(userId)) {
+            return new ResponseMessage<>(HttpStatus.UNAUTHORIZED.value(), "Login required", null);
+        }
+        boolean isAdmin = extractIsAdmin(authHeader);
+        Optional<ChatHistoryDto> history = historyService.getHistory(userId, isAdmin, conversationId, before, limit);
+        if (history.isEmpty()) {
+            return new ResponseMessage<>(HttpStatus.NOT_FOUND.value(), "Conversation not found", null);
+        }
+        return ResponseMessage.success(history.get());
     }
 
     /**
@@ -118,7 +168,7 @@ public class ChatbotController {
                 log.debug("[CHATBOT] Invalid token; falling back to guest: {}", e.getMessage());
             }
         }
-        return "guest";
+        return GUEST;
     }
 
     private boolean extractIsAdmin(String authHeader) {
@@ -2,6 +2,7 @@ package com.example.EcoGo.controller;
 
 import com.example.EcoGo.dto.BatchStockUpdateRequest;
 import com.example.EcoGo.dto.GoodsRequestDto;
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
 import com.example.EcoGo.model.Goods;
@@ -9,6 +10,7 @@ import com.example.EcoGo.dto.ResponseMessage;
 import com.example.EcoGo.service.GoodsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.HashMap;
 import java.util.List;
@@ -35,90 +37,42 @@ public class GoodsController {
             @RequestParam(required = false) String category,
             @RequestParam(required = false) String keyword,
             @RequestParam(required = false) Boolean isForRedemption,
-            @RequestParam(required = false, defaultValue = "false") Boolean isVipActive) {
-
-        List<Goods> goodsList = goodsService.getAllGoods();
-        
-        // Apply filters
-        goodsList = filterNonVouchers(goodsList);
-        goodsList = filterByVipStatus(goodsList, isVipActive);
-        goodsList = filterByCategory(goodsList, category);
-        goodsList = filterByKeyword(goodsList, keyword);
-        goodsList = filterByRedemptionStatus(goodsList, isForRedemption);
-
-        // Build paginated response
-        Map<String, Object> data = buildPaginatedResponse(goodsList, page, size);
-        return new ResponseMessage<>(ErrorCode.SUCCESS.getCode(), ErrorCode.SUCCESS.getMessage(), data);
-    }
+            @RequestParam(required = false, defaultValue = "false") Boolean isVipActive,
+            WebRequest webRequest) {
 
-    private List<Goods> filterNonVouchers(List<Goods> goods) {
-        return goods.stream()
-                .filter(g -> g.getType() == null || !g.getType().trim().equalsIgnoreCase(VOUCHER_TYPE))
-                .collect(Collectors.toList());
+        if (notModified(webRequest)) {
+            return null;
+        }
+        // 筛选与分页由商品目录快照（或索引查询）完成，只返回当前页
+        PageResponse<Goods> result = goodsService.searchGoods(
+                normalizeCategoryFilter(category), keyword, isForRedemption,
+                !Boolean.FALSE.equals(isVipActive), page, size);
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("items", result.getList());
+        data.put("pagination", Map.of(
+                "page", page,
+                "size", size,
+                "total", (int) result.getTotal(),
+                "totalPages", (int) Math.ceil((double) result.getTotal() / size)));
+        return new ResponseMessage<>(ErrorCode.SUCCESS.getCode(), ErrorCode.SUCCESS.getMessage(), data);
     }
 
-    private List<Goods> filterByVipStatus(List<Goods> goods, Boolean isVipActive) {
-        if (Boolean.FALSE.equals(isVipActive)) {
-            return goods.stream()
-                    .filter(g -> g.getVipLevelRequired() == null || g.getVipLevelRequired() == 0)
-                    .collect(Collectors.toList());
-        }
-        return goods;
+    // 商品目录 ETag = 目录快照版本号，未变化时返回 304
+    private boolean notModified(WebRequest webRequest) {
+        long version = goodsService.getCatalogVersion();
+        return version >= 0 && webRequest.checkNotModified("\"goods-" + version + "\"");
     }
 
-    private List<Goods> filterByCategory(List<Goods> goods, String category) {
+    private String normalizeCategoryFilter(String category) {
         if (category == null || category.isEmpty()) {
-            return goods;
+            return null;
         }
-        
         String c = category.trim().toLowerCase();
         if ("all".equals(c) || ALL_ITEMS_FILTER.equals(c)) {
-            return goods;
+            return null;
         }
-        
-        return goods.stream()
-                .filter(g -> g.getCategory() != null && c.equals(g.getCategory().trim().toLowerCase()))
-                .collect(Collectors.toList());
-    }
-
-    private List<Goods> filterByKeyword(List<Goods> goods, String keyword) {
-        if (keyword == null || keyword.isEmpty()) {
-            return goods;
-        }
-        
-        String kw = keyword.toLowerCase();
-        return goods.stream()
-                .filter(good -> (good.getName() != null && good.getName().toLowerCase().contains(kw))
-                        || (good.getDescription() != null && good.getDescription().toLowerCase().contains(kw)))
-                .collect(Collectors.toList());
-    }
-
-    private List<Goods> filterByRedemptionStatus(List<Goods> goods, Boolean isForRedemption) {
-        if (isForRedemption == null) {
-            return goods;
-        }
-        
-        return goods.stream()
-                .filter(good -> isForRedemption.equals(good.getIsForRedemption()))
-                .collect(Collectors.toList());
-    }
-
-    private Map<String, Object> buildPaginatedResponse(List<Goods> goodsList, int page, int size) {
-        int total = goodsList.size();
-        int fromIndex = Math.max(0, (page - 1) * size);
-        int toIndex = Math.min(fromIndex + size, total);
-        
-        List<Goods> pageItems = (fromIndex < total) ? goodsList.subList(fromIndex, toIndex) : List.of();
-        
-        Map<String, Object> data = new HashMap<>();
-        data.put("items", pageItems);
-        data.put("pagination", Map.of(
-                "page", page,
-                "size", size,
-                "total", total,
-                "totalPages", (int) Math.ceil((double) total / size)));
-        
-        return data;
+        return c;
     }
 
     // 2. 获取单个商品详情
@@ -255,17 +209,26 @@ public ResponseMessage<Void> batchUpdateStock(
     return ResponseMessage.success(null);
 }
 
+    // 限量抢购：把热点商品的库存拆成多个分片计数器（shards <= 1 关闭）
+    @PutMapping("/admin/{id}/inventory-shards")
+    public ResponseMessage<Void> setInventoryShards(@PathVariable String id, @RequestParam int shards) {
+        if (id == null || id.isBlank()) {
+            throw new BusinessException(ErrorCode.PARAM_CANNOT_BE_NULL, "id");
+        }
+        goodsService.setInventoryShards(id, shards);
+        return ResponseMessage.success(null);
+    }
+
     // 9. Mobile端专用 - 获取可兑换商品
     @GetMapping("/mobile/redemption")
     public ResponseMessage<List<Map<String, Object>>> getRedemptionGoodsForMobile(
-            @RequestParam(required = false) Integer vipLevel) {
+            @RequestParam(required = false) Integer vipLevel,
+            WebRequest webRequest) {
 
-        List<Goods> allGoods = goodsService.getAllGoods();
-
-        List<Goods> redemptionGoods = allGoods.stream()
-                .filter(goods -> Boolean.TRUE.equals(goods.getIsForRedemption()))
-                .filter(goods -> goods.getStock() > 0)
-                .collect(Collectors.toList());
+        if (notModified(webRequest)) {
+            return null;
+        }
+        List<Goods> redemptionGoods = goodsService.getRedemptionGoods();
 
         List<Map<String, Object>> simplifiedGoods = redemptionGoods.stream()
                 .map(goods -> {
@@ -304,23 +267,14 @@ public ResponseMessage<Void> batchUpdateStock(
 
     @GetMapping("/coupons")
     public ResponseMessage<List<Goods>> getVoucherMarketplace(
-            @RequestParam(required = false, defaultValue = "false") Boolean isVipActive) {
+            @RequestParam(required = false, defaultValue = "false") Boolean isVipActive,
+            WebRequest webRequest) {
         try {
-            List<Goods> goodsList = goodsService.getAllGoods();
-
-            goodsList = goodsList.stream()
-                    .filter(g -> g.getType() != null && g.getType().equalsIgnoreCase(VOUCHER_TYPE))
-                    .filter(g -> Boolean.TRUE.equals(g.getIsActive()))
-                    .filter(g -> Boolean.TRUE.equals(g.getIsForRedemption()))
-                    .toList();
-
-            // ✅ VIP 过滤：非 VIP 只能看到 vipLevelRequired=0（或字段缺失）
-            if (Boolean.FALSE.equals(isVipActive)) {
-                goodsList = goodsList.stream()
-                        .filter(g -> g.getVipLevelRequired() == null || g.getVipLevelRequired() == 0)
-                        .toList();
+            if (notModified(webRequest)) {
+                return null;
             }
-
+            // ✅ VIP 过滤：非 VIP 只能看到 vipLevelRequired=0（或字段缺失）
+            List<Goods> goodsList = goodsService.getVoucherMarketplace(!Boolean.FALSE.equals(isVipActive));
             return new ResponseMessage<>(ErrorCode.SUCCESS.getCode(), ErrorCode.SUCCESS.getMessage(), goodsList);
         } catch (Exception e) {
             throw new BusinessException(ErrorCode.DB_ERROR, e.getMessage());
@@ -1,6 +1,7 @@
 package com.example.EcoGo.controller;
 
 import com.example.EcoGo.dto.OrderRequestDto;
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.dto.ResponseMessage;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
@@ -17,85 +18,52 @@ import java.util.stream.Collectors;
 @CrossOrigin(origins = "*")
 public class OrderController {
 
+    private static final int MAX_PAGE_SIZE = 100;
+
     @Autowired
     private OrderService orderService;
 
-    // 获取所有订单（支持筛选）
+    // 获取所有订单（支持筛选）；列表只返回摘要字段，详情走 /{id}
+    // 传 cursor（上一页返回的 nextCursor）时按 keyset 翻页，深翻页不再 skip
     @GetMapping
     public ResponseMessage<Map<String, Object>> getAllOrders(
             @RequestParam(required = false) String userId,
             @RequestParam(required = false) String status,
             @RequestParam(required = false) Boolean isRedemption,
+            @RequestParam(required = false) String cursor,
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "20") int size) {
 
         validatePagination(page, size);
 
-        List<Order> orders = fetchOrdersByFilter(userId, status);
-        orders = filterByRedemption(orders, isRedemption);
-        sortOrdersByCreatedAt(orders);
+        PageResponse<Order> result = orderService.searchOrders(
+                blankToNull(userId), blankToNull(status), isRedemption, cursor, page, size, true);
 
-        Map<String, Object> data = buildPaginatedResponse(orders, page, size);
+        Map<String, Object> data = new HashMap<>();
+        data.put("orders", result.getList());
+        data.put("pagination", buildPagination(result));
         return new ResponseMessage<>(ErrorCode.SUCCESS.getCode(), "获取订单列表成功", data);
     }
 
     private void validatePagination(int page, int size) {
         if (page <= 0) throw new BusinessException(ErrorCode.PARAM_ERROR, "page must be >= 1");
         if (size <= 0) throw new BusinessException(ErrorCode.PARAM_ERROR, "size must be >= 1");
+        if (size > MAX_PAGE_SIZE) throw new BusinessException(ErrorCode.PARAM_ERROR, "size must be <= " + MAX_PAGE_SIZE);
     }
 
-    private List<Order> fetchOrdersByFilter(String userId, String status) {
-        List<Order> orders;
-
-        if (userId != null && !userId.isEmpty()) {
-            orders = orderService.getOrdersByUserId(userId);
-        } else if (status != null && !status.isEmpty()) {
-            orders = orderService.getOrdersByStatus(status);
-        } else {
-            orders = orderService.getAllOrders();
-        }
-
-        return orders != null ? orders : Collections.emptyList();
+    private String blankToNull(String value) {
+        return (value == null || value.isBlank()) ? null : value;
     }
 
-    private List<Order> filterByRedemption(List<Order> orders, Boolean isRedemption) {
-        if (isRedemption == null) {
-            return orders;
-        }
-
-        return orders.stream()
-                .filter(order -> isRedemption.equals(order.getIsRedemptionOrder()))
-                .collect(Collectors.toList());
-    }
-
-    private void sortOrdersByCreatedAt(List<Order> orders) {
-        orders.sort((a, b) -> {
-            if (a.getCreatedAt() == null && b.getCreatedAt() == null) return 0;
-            if (a.getCreatedAt() == null) return 1;
-            if (b.getCreatedAt() == null) return -1;
-            return b.getCreatedAt().compareTo(a.getCreatedAt());
-        });
-    }
-
-    private Map<String, Object> buildPaginatedResponse(List<Order> orders, int page, int size) {
-        int total = orders.size();
-        int fromIndex = (page - 1) * size;
-        int toIndex = Math.min(fromIndex + size, total);
-
-        List<Order> pageOrders = (fromIndex < total) ? orders.subList(fromIndex, toIndex) : Collections.emptyList();
-
-        Map<String, Object> pagination = Map.of(
-                "page", page,
-                "size", size,
-                "total", total,
-                "totalPages", (int) Math.ceil((double) total / size)
-        );
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("orders", pageOrders);
-        data.put("pagination", pagination);
-
-        return data;
+    private Map<String, Object> buildPagination(PageResponse<Order> result) {
+        // nextCursor 可能为 null，不能用 Map.of
+        Map<String, Object> pagination = new HashMap<>();
+        pagination.put("page", result.getPage());
+        pagination.put("size", result.getSize());
+        pagination.put("total", (int) result.getTotal());
+        pagination.put("totalPages", (int) result.getTotalPages());
+        pagination.put("nextCursor", result.getNextCursor());
+        return pagination;
     }
 
     // 获取订单详情
@@ -172,18 +140,22 @@ public class OrderController {
     public ResponseMessage<Map<String, Object>> getUserOrderHistoryForMobile(
             @PathVariable String userId,
             @RequestParam(required = false) String status,
+            @RequestParam(required = false) String cursor,
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "10") int size) {
 
         validateUserAndPagination(userId, page, size);
 
-        List<Order> userOrders = orderService.getOrdersByUserId(userId);
-        userOrders = userOrders != null ? userOrders : Collections.emptyList();
-        
-        userOrders = filterOrdersByStatus(userOrders, status);
-        sortOrdersByCreatedAt(userOrders);
+        PageResponse<Order> result = orderService.searchOrders(
+                userId, blankToNull(status), null, cursor, page, size, true);
 
-        Map<String, Object> data = buildPaginatedMobileResponse(userOrders, page, size);
+        List<Map<String, Object>> simplifiedOrders = result.getList().stream()
+                .map(this::buildSimplifiedOrder)
+                .collect(Collectors.toList());
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("orders", simplifiedOrders);
+        data.put("pagination", buildPagination(result));
         return new ResponseMessage<>(ErrorCode.SUCCESS.getCode(), "获取用户订单历史成功", data);
     }
 
@@ -191,18 +163,7 @@ public class OrderController {
         if (userId == null || userId.isBlank()) {
             throw new BusinessException(ErrorCode.PARAM_CANNOT_BE_NULL, "userId");
         }
-        if (page <= 0) throw new BusinessException(ErrorCode.PARAM_ERROR, "page must be >= 1");
-        if (size <= 0) throw new BusinessException(ErrorCode.PARAM_ERROR, "size must be >= 1");
-    }
-
-    private List<Order> filterOrdersByStatus(List<Order> orders, String status) {
-        if (status == null || status.isEmpty()) {
-            return orders;
-        }
-
-        return orders.stream()
-                .filter(order -> status.equals(order.getStatus()))
-                .collect(Collectors.toList());
+        validatePagination(page, size);
     }
 
     private Map<String, Object> buildSimplifiedOrder(Order order) {
@@ -219,31 +180,6 @@ public class OrderController {
         return item;
     }
 
-    private Map<String, Object> buildPaginatedMobileResponse(List<Order> orders, int page, int size) {
-        int total = orders.size();
-        int fromIndex = (page - 1) * size;
-        int toIndex = Math.min(fromIndex + size, total);
-
-        List<Order> pageOrders = (fromIndex < total) ? orders.subList(fromIndex, toIndex) : Collections.emptyList();
-
-        List<Map<String, Object>> simplifiedOrders = pageOrders.stream()
-                .map(this::buildSimplifiedOrder)
-                .collect(Collectors.toList());
-
-        Map<String, Object> pagination = Map.of(
-                "page", page,
-                "size", size,
-                "total", total,
-                "totalPages", (int) Math.ceil((double) total / size)
-        );
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("orders", simplifiedOrders);
-        data.put("pagination", pagination);
-
-        return data;
-    }
-
     // 更新订单状态（单独接口）
     @PutMapping("/{id}/status")
     public ResponseMessage<Order> updateOrderStatus(
@@ -4,6 +4,7 @@ import com.example.EcoGo.dto.RecommendationRequestDto;
 import com.example.EcoGo.dto.RecommendationResponseDto;
 import com.example.EcoGo.dto.ResponseMessage;
 import com.example.EcoGo.service.chatbot.RagService;
+import com.example.EcoGo.utils.AliasIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -239,6 +240,19 @@ public class RecommendationController {
             "Walk along Tan Chin Tuan Wing road (~8 min)")
     );
 
+    // Aliases of NUS_LOCATIONS in declaration order, so earlier locations win ties
+    private static final AliasIndex<NusLocation> LOCATION_INDEX = buildLocationIndex();
+
+    private static AliasIndex<NusLocation> buildLocationIndex() {
+        AliasIndex.Builder<NusLocation> builder = AliasIndex.builder();
+        for (NusLocation loc : NUS_LOCATIONS) {
+            for (String alias : loc.aliases) {
+                builder.add(alias, loc);
+            }
+        }
+        return builder.build();
+    }
+
     // ══════════════════════════════════════════════════════════════════
     //  Main Endpoint
     // ══════════════════════════════════════════════════════════════════
@@ -269,17 +283,7 @@ public class RecommendationController {
 
     // ── Location matching ─────────────────────────────────────────────
     private NusLocation matchLocation(String destLower) {
-        for (NusLocation loc : NUS_LOCATIONS) {
-            for (String alias : loc.aliases) {
-                if (destLower.equals(alias)) return loc;
-            }
-        }
-        for (NusLocation loc : NUS_LOCATIONS) {
-            for (String alias : loc.aliases) {
-                if (destLower.contains(alias) || alias.contains(destLower)) return loc;
-            }
-        }
-        return null;
+        return LOCATION_INDEX.find(destLower);
     }
 
     // ══════════════════════════════════════════════════════════════════
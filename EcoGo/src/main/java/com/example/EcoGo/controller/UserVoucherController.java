@@ -40,15 +40,8 @@ public class UserVoucherController {
         try {
             LocalDateTime now = LocalDateTime.now();
 
-            // ✅ 自动把已过期但仍 ACTIVE 的券标记为 EXPIRED（保持一致性）
-            List<UserVoucher> activeAll = userVoucherRepository.findByUserIdAndStatus(userId, VoucherStatus.ACTIVE);
-            for (UserVoucher uv : activeAll) {
-                if (uv.getExpiresAt() != null && !uv.getExpiresAt().isAfter(now)) {
-                    uv.setStatus(VoucherStatus.EXPIRED);
-                    uv.setUpdatedAt(now);
-                    userVoucherRepository.save(uv);
-                }
-            }
+            // ✅ 自动把已过期但仍 ACTIVE 的券标记为 EXPIRED（保持一致性）：一次 updateMany，不逐张读改写
+            userVoucherRepository.expireActiveBefore(userId, now);
 
             tab = tab.trim().toLowerCase();
 
@@ -8,6 +8,8 @@ public class PageResponse<T> {
     private int page;
     private int size;
     private long totalPages;
+    // keyset 翻页的下一页游标，没有下一页或不支持时为 null
+    private String nextCursor;
 
     public PageResponse(List<T> list, long total, int page, int size) {
         this.list = list;
@@ -56,4 +58,12 @@ public class PageResponse<T> {
     public void setTotalPages(long totalPages) {
         this.totalPages = totalPages;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
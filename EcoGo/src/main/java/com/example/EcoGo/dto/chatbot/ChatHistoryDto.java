@@ -0,0 +1,65 @@
+package com.example.EcoGo.dto.chatbot;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of a conversation's messages, oldest first.
+ * Pass {@code nextBefore} as {@code before} to fetch the previous page; it is null on the first page.
+ */
+public class ChatHistoryDto {
+
+    private String conversationId;
+    private long total;
+    private List<Message> messages = new ArrayList<>();
+    private Long nextBefore;
+
+    public ChatHistoryDto() {}
+
+    public ChatHistoryDto(String conversationId, long total, List<Message> messages, Long nextBefore) {
+        this.conversationId = conversationId;
+        this.total = total;
+        this.messages = messages;
+        this.nextBefore = nextBefore;
+    }
+
+    public static class Message {
+        private long seq;
+        private String role;
+        private String text;
+        private Instant timestamp;
+
+        public Message() {}
+
+        public Message(long seq, String role, String text, Instant timestamp) {
+            this.seq = seq;
+            this.role = role;
+            this.text = text;
+            this.timestamp = timestamp;
+        }
+
+        public long getSeq() { return seq; }
+        public void setSeq(long seq) { this.seq = seq; }
+        public String getRole() { return role; }
+        public void setRole(String role) { this.role = role; }
+        public String getText() { return text; }
+        public void setText(String text) { this.text = text; }
+        public Instant getTimestamp() { return timestamp; }
+        public void setTimestamp(Instant timestamp) { this.timestamp = timestamp; }
+    }
+
+    // --- Getters/Setters ---
+
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
+
+    public long getTotal() { return total; }
+    public void setTotal(long total) { this.total = total; }
+
+    public List<Message> getMessages() { return messages; }
+    public void setMessages(List<Message> messages) { this.messages = messages; }
+
+    public Long getNextBefore() { return nextBefore; }
+    public void setNextBefore(Long nextBefore) { this.nextBefore = nextBefore; }
+}
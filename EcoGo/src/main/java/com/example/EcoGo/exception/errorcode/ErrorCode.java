@@ -29,6 +29,7 @@ public enum ErrorCode {
     PRODUCT_LIST_EMPTY(4302, "There are currently no products available"),
     PARAM_CANNOT_BE_NULL(4303, "Request parameter cannot be empty:%s"),
     PRODUCT_NAME_DUPLICATE(4304, "Product name already exists:%s"),
+    PRODUCT_BUSY(4305, "Too many redemption requests, please retry:%s"),
 
     // Activity module error (44xx)
     ACTIVITY_NOT_FOUND(4401, "Activity not found"),
@@ -2,6 +2,7 @@ package com.example.EcoGo.interfacemethods;
 
 import com.example.EcoGo.dto.BadgePurchaseStatDto;
 import com.example.EcoGo.model.Badge;
+import com.example.EcoGo.model.User;
 import com.example.EcoGo.model.UserBadge;
 import java.util.List;
 
@@ -27,6 +28,11 @@ public interface BadgeService {
      */
     List<UserBadge> getMyBadges(String userId);
 
+    /**
+     * 获取用户徽章版本号（背包有变化时更新），用作 ETag
+     */
+    long getBadgeVersion(String userId);
+
     /**
      * 创建新徽章（管理员用）
      */
@@ -64,6 +70,26 @@ public interface BadgeService {
      */
     List<UserBadge> checkAndUnlockCarbonBadges(String userId);
 
+    /**
+     * 同上，调用方已持有最新的用户对象时使用，省去一次用户查询
+     */
+    List<UserBadge> checkAndUnlockCarbonBadges(User user);
+
+    /**
+     * 补齐 user_badges 上冗余的 subcategory 字段，返回更新的文档数
+     */
+    long backfillUserBadgeSubcategories();
+
+    /**
+     * 首次启动时从 user_badges 聚合回填购买次数（以迁移标记判断是否已执行），返回回填的徽章数
+     */
+    long backfillBadgePurchaseCounters();
+
+    /**
+     * 用 user_badges 聚合结果以 $max 校正购买计数器（只增不减，可重复执行），返回涉及的徽章数
+     */
+    long reconcileBadgePurchaseCounters();
+
     /**
      * 获取所有徽章（管理员用）
      * @param category 可选，按大类过滤 (badge/cloth)
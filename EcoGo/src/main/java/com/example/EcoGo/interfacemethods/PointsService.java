@@ -24,6 +24,27 @@ public interface PointsService {
     UserPointsLog adjustPoints(String userId, long points, String source, String description, String relatedId,
             UserPointsLog.AdminAction adminAction);
 
+    /**
+     * Deduct points for a redemption saga. The balance change and a pending-redemption marker
+     * (the saga id) are written to the user document in one update, so a saga deducts at most
+     * once and recovery can tell from the user document whether the deduction happened.
+     *
+     * @return the log entry, or null if this saga had already deducted
+     */
+    UserPointsLog deductForRedemption(String userId, long points, String description, String sagaId);
+
+    /**
+     * Refund a redemption deduction, only while its marker is still on the user document.
+     *
+     * @return false if the saga never deducted or was already refunded
+     */
+    boolean refundRedemption(String userId, long points, String description, String sagaId);
+
+    /**
+     * Drop the marker of a completed redemption
+     */
+    void settleRedemption(String userId, String sagaId);
+
     /**
      * Get current points balance
      */
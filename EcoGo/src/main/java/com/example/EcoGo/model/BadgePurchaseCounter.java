@@ -0,0 +1,43 @@
+package com.example.EcoGo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * 每个徽章的购买次数计数器
+ * 在获得徽章时原子 $inc，统计接口直接读取，避免对 user_badges 全表 $group
+ */
+@Document(collection = "badge_purchase_counters")
+public class BadgePurchaseCounter {
+
+    @Id
+    private String badgeId;
+
+    @Field("purchase_count")
+    private long purchaseCount;
+
+    public BadgePurchaseCounter() {
+    }
+
+    public BadgePurchaseCounter(String badgeId, long purchaseCount) {
+        this.badgeId = badgeId;
+        this.purchaseCount = purchaseCount;
+    }
+
+    public String getBadgeId() {
+        return badgeId;
+    }
+
+    public void setBadgeId(String badgeId) {
+        this.badgeId = badgeId;
+    }
+
+    public long getPurchaseCount() {
+        return purchaseCount;
+    }
+
+    public void setPurchaseCount(long purchaseCount) {
+        this.purchaseCount = purchaseCount;
+    }
+}
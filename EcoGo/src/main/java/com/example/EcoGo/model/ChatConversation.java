@@ -1,6 +1,7 @@
 package com.example.EcoGo.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -9,22 +10,32 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Conversation header: owner, state and message counter. The messages themselves live in
+ * {@link ChatMessageBucket} documents, so this document stays small however long the chat runs.
+ * The state is shared by all nodes and only changed by compare-and-set on stateVersion.
+ */
 @Document(collection = "chat_conversations")
 public class ChatConversation {
 
     @Id
     private String id;
 
+    @Indexed(name = "conversation_id_unique_idx", unique = true)
     private String conversationId;
     private String userId;
     private Instant createdAt;
     private Instant updatedAt;
-    private List<Message> messages = new ArrayList<>();
+    // Messages allocated so far; message seq numbers run 0..messageCount-1
+    private long messageCount;
     private ConversationState state = new ConversationState();
+    // Bumped by every state save; 0 until the first one
+    private long stateVersion;
 
     // --- Nested classes ---
 
     public static class Message {
+        private Long seq;      // position in the conversation, assigned when written
         private String role;   // "user" | "assistant"
         private String text;
         private Instant timestamp;
@@ -38,6 +49,8 @@ public class ChatConversation {
             this.timestamp = Instant.now();
         }
 
+        public Long getSeq() { return seq; }
+        public void setSeq(Long seq) { this.seq = seq; }
         public String getRole() { return role; }
         public void setRole(String role) { this.role = role; }
         public String getText() { return text; }
@@ -51,6 +64,8 @@ public class ChatConversation {
     public static class ConversationState {
         private String intent; // booking | bus | user_update | null
         private Map<String, Object> partialData = new HashMap<>();
+        // Profile change awaiting confirmation: targetUserId plus the changed fields
+        private Map<String, Object> pendingUserUpdate;
 
         public ConversationState() {
             // Empty constructor intentionally left blank.
@@ -62,6 +77,8 @@ public class ChatConversation {
         public void setIntent(String intent) { this.intent = intent; }
         public Map<String, Object> getPartialData() { return partialData; }
         public void setPartialData(Map<String, Object> partialData) { this.partialData = partialData; }
+        public Map<String, Object> getPendingUserUpdate() { return pendingUserUpdate; }
+        public void setPendingUserUpdate(Map<String, Object> pendingUserUpdate) { this.pendingUserUpdate = pendingUserUpdate; }
     }
 
     // --- Getters/Setters ---
@@ -81,9 +98,12 @@ public class ChatConversation {
     public Instant getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
 
-    public List<Message> getMessages() { return messages; }
-    public void setMessages(List<Message> messages) { this.messages = messages; }
+    public long getMessageCount() { return messageCount; }
+    public void setMessageCount(long messageCount) { this.messageCount = messageCount; }
 
     public ConversationState getState() { return state; }
     public void setState(ConversationState state) { this.state = state; }
+
+    public long getStateVersion() { return stateVersion; }
+    public void setStateVersion(long stateVersion) { this.stateVersion = stateVersion; }
 }
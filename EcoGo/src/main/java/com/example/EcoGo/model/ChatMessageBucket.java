@@ -0,0 +1,54 @@
+package com.example.EcoGo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed-size slice of a conversation's messages: bucket n holds the messages with
+ * seq in [n * SIZE, (n + 1) * SIZE). Buckets are written with {@code $addToSet} so a
+ * retried flush does not duplicate messages.
+ */
+@Document(collection = "chat_message_buckets")
+@CompoundIndex(name = "conversation_bucket_idx", def = "{'conversationId': 1, 'bucketNo': 1}", unique = true)
+public class ChatMessageBucket {
+
+    public static final int SIZE = 100;
+
+    @Id
+    private String id;
+
+    private String conversationId;
+    private long bucketNo;
+    private List<ChatConversation.Message> messages = new ArrayList<>();
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    public static long bucketOf(long seq) {
+        return seq / SIZE;
+    }
+
+    // --- Getters/Setters ---
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
+
+    public long getBucketNo() { return bucketNo; }
+    public void setBucketNo(long bucketNo) { this.bucketNo = bucketNo; }
+
+    public List<ChatConversation.Message> getMessages() { return messages; }
+    public void setMessages(List<ChatConversation.Message> messages) { this.messages = messages; }
+
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+}
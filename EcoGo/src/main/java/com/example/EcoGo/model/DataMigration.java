@@ -0,0 +1,37 @@
+package com.example.EcoGo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * 一次性数据迁移的完成标记（_id 为迁移名），存在即表示已执行过
+ */
+@Document(collection = "data_migrations")
+public class DataMigration {
+
+    @Id
+    private String id;
+
+    private Date completedAt;
+
+    public DataMigration() {
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Date getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(Date completedAt) {
+        this.completedAt = completedAt;
+    }
+}
@@ -1,11 +1,19 @@
 package com.example.EcoGo.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
 
 @Document(collection = "goods")
+@CompoundIndexes({
+        // Catalogue browsing: equality on category / isForRedemption, pages walk _id in order
+        @CompoundIndex(name = "catalog_category_idx", def = "{'category': 1, 'isForRedemption': 1, '_id': 1}"),
+        @CompoundIndex(name = "catalog_redemption_idx", def = "{'isForRedemption': 1, '_id': 1}")
+})
 public class Goods {
 
     @Id
@@ -14,6 +22,8 @@ public class Goods {
     private String name;
     private String description;
     private Double price;
+    // Not persisted: inventory.quantity is the only stock source; filled in when goods are read
+    @Transient
     private Integer stock;
     private String category;
     private String type = "normal";
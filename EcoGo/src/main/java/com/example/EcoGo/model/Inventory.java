@@ -4,6 +4,7 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
+import java.util.List;
 
 @Document(collection = "inventory")
 public class Inventory {
@@ -12,6 +13,10 @@ public class Inventory {
     private String id;       
     private String goodsId;
     private Integer quantity;
+    // >1 means stock is split across inventory_shards and quantity holds only the unsharded remainder
+    private Integer shards;
+    // Stock changes of reservations still in flight, so they can be undone by reservation id
+    private List<PendingOp> pendingOps;
     private Date updatedAt;
 
     public Inventory() {}
@@ -32,6 +37,34 @@ public class Inventory {
     public Integer getQuantity() { return quantity; }
     public void setQuantity(Integer quantity) { this.quantity = quantity; }
 
+    public Integer getShards() { return shards; }
+    public void setShards(Integer shards) { this.shards = shards; }
+
+    public List<PendingOp> getPendingOps() { return pendingOps; }
+    public void setPendingOps(List<PendingOp> pendingOps) { this.pendingOps = pendingOps; }
+
     public Date getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(Date updatedAt) { this.updatedAt = updatedAt; }
+
+    /**
+     * A quantity change applied under an operation id (e.g. a redemption saga id),
+     * written in the same update as the change itself.
+     */
+    public static class PendingOp {
+        private String op;
+        private int qty;
+
+        public PendingOp() {}
+
+        public PendingOp(String op, int qty) {
+            this.op = op;
+            this.qty = qty;
+        }
+
+        public String getOp() { return op; }
+        public void setOp(String op) { this.op = op; }
+
+        public int getQty() { return qty; }
+        public void setQty(int qty) { this.qty = qty; }
+    }
 }
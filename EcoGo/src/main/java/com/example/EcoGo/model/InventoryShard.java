@@ -0,0 +1,60 @@
+package com.example.EcoGo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One sub-counter of a goods item's stock when the item is in sharded mode.
+ * Reservations for hot items spread over N of these documents instead of
+ * contending on the single inventory document.
+ */
+@Document(collection = "inventory_shards")
+public class InventoryShard {
+
+    @Id
+    private String id; // goodsId + "#" + shard
+
+    @Indexed(name = "goods_idx")
+    private String goodsId;
+
+    private int shard;
+    private Integer quantity;
+    private List<Inventory.PendingOp> pendingOps;
+    private Date updatedAt;
+
+    public InventoryShard() {}
+
+    public InventoryShard(String goodsId, int shard, int quantity) {
+        this.id = idFor(goodsId, shard);
+        this.goodsId = goodsId;
+        this.shard = shard;
+        this.quantity = quantity;
+        this.updatedAt = new Date();
+    }
+
+    public static String idFor(String goodsId, int shard) {
+        return goodsId + "#" + shard;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getGoodsId() { return goodsId; }
+    public void setGoodsId(String goodsId) { this.goodsId = goodsId; }
+
+    public int getShard() { return shard; }
+    public void setShard(int shard) { this.shard = shard; }
+
+    public Integer getQuantity() { return quantity; }
+    public void setQuantity(Integer quantity) { this.quantity = quantity; }
+
+    public List<Inventory.PendingOp> getPendingOps() { return pendingOps; }
+    public void setPendingOps(List<Inventory.PendingOp> pendingOps) { this.pendingOps = pendingOps; }
+
+    public Date getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Date updatedAt) { this.updatedAt = updatedAt; }
+}
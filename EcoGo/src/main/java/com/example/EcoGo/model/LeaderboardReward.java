@@ -1,14 +1,22 @@
 package com.example.EcoGo.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.LocalDateTime;
 
 @Document(collection = "leaderboard_rewards")
+// One reward per user per period: makes re-running a distribution idempotent
+@CompoundIndex(name = "type_period_user_uniq", def = "{'type': 1, 'period_key': 1, 'user_id': 1}", unique = true)
 public class LeaderboardReward {
 
+    public enum Status {
+        PENDING, // claimed, points may not be credited yet
+        PAID     // points credited and logged; records from before claims had a status count as paid
+    }
+
     @Id
     private String id;
 
@@ -33,6 +41,9 @@ public class LeaderboardReward {
     @Field("distributed_at")
     private LocalDateTime distributedAt;
 
+    @Field("status")
+    private Status status;
+
     // Getters and Setters
 
     public String getId() { return id; }
@@ -58,4 +69,7 @@ public class LeaderboardReward {
 
     public LocalDateTime getDistributedAt() { return distributedAt; }
     public void setDistributedAt(LocalDateTime distributedAt) { this.distributedAt = distributedAt; }
+
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
 }
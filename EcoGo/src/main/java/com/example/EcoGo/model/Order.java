@@ -1,11 +1,19 @@
 package com.example.EcoGo.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.util.Date;
 import java.util.List;
 
 @Document(collection = "orders")
+// 订单列表按 createdAt、_id 倒序 keyset 翻页：用户订单历史、按状态筛选、全部订单各一个索引
+@CompoundIndexes({
+    @CompoundIndex(name = "user_created_idx", def = "{'userId': 1, 'createdAt': -1, '_id': -1}"),
+    @CompoundIndex(name = "status_created_idx", def = "{'status': 1, 'createdAt': -1, '_id': -1}"),
+    @CompoundIndex(name = "created_idx", def = "{'createdAt': -1, '_id': -1}")
+})
 public class Order {
     
     @Id
@@ -0,0 +1,122 @@
+package com.example.EcoGo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent state of one points redemption. The document is written before any
+ * side effect and advanced after each one, so a redemption interrupted by a crash
+ * can be rolled forward or back by the recovery job. The id is also the order id,
+ * the points-log relatedId and the VIP redemption marker.
+ */
+@Document(collection = "redemption_sagas")
+// Recovery scan: open sagas that have not moved for a while
+@CompoundIndex(name = "status_updated_idx", def = "{'status': 1, 'updated_at': 1}")
+public class RedemptionSaga {
+
+    public enum Status {
+        STARTED,          // saga written, stock not yet reserved
+        STOCK_RESERVED,   // stock reserved, points not yet deducted
+        POINTS_DEDUCTED,  // points deducted, vouchers / VIP not yet granted
+        FULFILLED,        // vouchers and VIP granted, order not yet saved
+        COMPENSATING,     // rolling back
+        COMPLETED,
+        COMPENSATED,
+        FAILED;           // compensation interrupted, needs manual review
+
+        public boolean isOpen() {
+            return this != COMPLETED && this != COMPENSATED && this != FAILED;
+        }
+    }
+
+    @Id
+    private String id;
+
+    @Field("user_id")
+    private String userId;
+
+    @Field("status")
+    private Status status;
+
+    @Field("reserved_stock")
+    private Map<String, Integer> reservedStock;
+
+    @Field("points_cost")
+    private long pointsCost;
+
+    @Field("vip_days")
+    private int vipDays;
+
+    // Fully priced order, saved as-is when the saga is rolled forward
+    @Field("order")
+    private Order order;
+
+    // Ids are assigned up front so re-saving them is idempotent
+    @Field("vouchers")
+    private List<UserVoucher> vouchers;
+
+    @Field("stage_millis")
+    private Map<String, Long> stageMillis;
+
+    @Field("error")
+    private String error;
+
+    @Field("created_at")
+    private LocalDateTime createdAt;
+
+    @Field("updated_at")
+    private LocalDateTime updatedAt;
+
+    // Set only on terminal states; closed sagas expire after 30 days
+    @Field("closed_at")
+    @Indexed(name = "closed_ttl", expireAfter = "30d")
+    private LocalDateTime closedAt;
+
+    // Getters and Setters
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public Status getStatus() { return status; }
+    public void setStatus(Status status) { this.status = status; }
+
+    public Map<String, Integer> getReservedStock() { return reservedStock; }
+    public void setReservedStock(Map<String, Integer> reservedStock) { this.reservedStock = reservedStock; }
+
+    public long getPointsCost() { return pointsCost; }
+    public void setPointsCost(long pointsCost) { this.pointsCost = pointsCost; }
+
+    public int getVipDays() { return vipDays; }
+    public void setVipDays(int vipDays) { this.vipDays = vipDays; }
+
+    public Order getOrder() { return order; }
+    public void setOrder(Order order) { this.order = order; }
+
+    public List<UserVoucher> getVouchers() { return vouchers; }
+    public void setVouchers(List<UserVoucher> vouchers) { this.vouchers = vouchers; }
+
+    public Map<String, Long> getStageMillis() { return stageMillis; }
+    public void setStageMillis(Map<String, Long> stageMillis) { this.stageMillis = stageMillis; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+
+    public LocalDateTime getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+
+    public LocalDateTime getClosedAt() { return closedAt; }
+    public void setClosedAt(LocalDateTime closedAt) { this.closedAt = closedAt; }
+}
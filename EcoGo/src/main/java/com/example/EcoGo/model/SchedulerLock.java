@@ -0,0 +1,54 @@
+package com.example.EcoGo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.LocalDateTime;
+
+/**
+ * Cluster-wide lease for a scheduled job. One document per job name; it is never
+ * deleted, so the token keeps increasing across acquisitions. The token only scopes
+ * heartbeat and release to one acquisition; it is not checked by the job's own writes.
+ */
+@Document(collection = "scheduler_locks")
+public class SchedulerLock {
+
+    @Id
+    private String name; // job name, e.g. "leaderboard-daily"
+
+    @Field("owner")
+    private String owner; // node that currently holds (or last held) the lease
+
+    @Field("fencing_token")
+    private long fencingToken; // incremented on every acquisition
+
+    @Field("locked_at")
+    private LocalDateTime lockedAt;
+
+    @Field("lock_until")
+    private LocalDateTime lockUntil; // lease is free once this is in the past
+
+    @Field("heartbeat_at")
+    private LocalDateTime heartbeatAt;
+
+    // Getters and Setters
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getOwner() { return owner; }
+    public void setOwner(String owner) { this.owner = owner; }
+
+    public long getFencingToken() { return fencingToken; }
+    public void setFencingToken(long fencingToken) { this.fencingToken = fencingToken; }
+
+    public LocalDateTime getLockedAt() { return lockedAt; }
+    public void setLockedAt(LocalDateTime lockedAt) { this.lockedAt = lockedAt; }
+
+    public LocalDateTime getLockUntil() { return lockUntil; }
+    public void setLockUntil(LocalDateTime lockUntil) { this.lockUntil = lockUntil; }
+
+    public LocalDateTime getHeartbeatAt() { return heartbeatAt; }
+    public void setHeartbeatAt(LocalDateTime heartbeatAt) { this.heartbeatAt = heartbeatAt; }
+}
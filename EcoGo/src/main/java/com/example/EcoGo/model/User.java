@@ -1,12 +1,14 @@
 package com.example.EcoGo.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 @Document(collection = "users")
+@CompoundIndex(name = "vip_active_expiry_idx", def = "{'vip.isActive': 1, 'vip.expiryDate': 1}")
 public class User {
     @Id
     private String id;
@@ -39,6 +41,14 @@ public class User {
 
     private ActivityMetrics activityMetrics;
 
+    private BadgeProgress badgeProgress;
+
+    // Saga ids of redemptions whose points are deducted but not yet completed or refunded
+    private java.util.List<String> pendingRedemptions;
+
+    // "TYPE:periodKey" of leaderboard rewards credited but not yet marked paid
+    private java.util.List<String> rewardedPeriods;
+
     // Getters and Setters
 
     public String getId() {
@@ -49,6 +59,22 @@ public class User {
         this.id = id;
     }
 
+    public java.util.List<String> getPendingRedemptions() {
+        return pendingRedemptions;
+    }
+
+    public void setPendingRedemptions(java.util.List<String> pendingRedemptions) {
+        this.pendingRedemptions = pendingRedemptions;
+    }
+
+    public java.util.List<String> getRewardedPeriods() {
+        return rewardedPeriods;
+    }
+
+    public void setRewardedPeriods(java.util.List<String> rewardedPeriods) {
+        this.rewardedPeriods = rewardedPeriods;
+    }
+
     public String getUserid() {
         return userid;
     }
@@ -201,6 +227,14 @@ public class User {
         this.activityMetrics = activityMetrics;
     }
 
+    public BadgeProgress getBadgeProgress() {
+        return badgeProgress;
+    }
+
+    public void setBadgeProgress(BadgeProgress badgeProgress) {
+        this.badgeProgress = badgeProgress;
+    }
+
     // Nested Classes (unchanged)
 
     public static class Vip {
@@ -210,6 +244,7 @@ public class User {
         private String plan;
         private boolean autoRenew = false;
         private int pointsMultiplier = 1; // Default to 1x for normal users
+        private String lastRedemptionId; // Saga id of the last redemption that extended VIP (replay guard)
 
         public boolean isActive() {
             return isActive;
@@ -258,6 +293,39 @@ public class User {
         public void setPointsMultiplier(int pointsMultiplier) {
             this.pointsMultiplier = pointsMultiplier;
         }
+
+        public String getLastRedemptionId() {
+            return lastRedemptionId;
+        }
+
+        public void setLastRedemptionId(String lastRedemptionId) {
+            this.lastRedemptionId = lastRedemptionId;
+        }
+    }
+
+    /**
+     * Carbon badge unlock watermark: every achievement badge with a threshold up to
+     * carbonWatermark has been checked against catalogVersion of the badge catalog.
+     */
+    public static class BadgeProgress {
+        private double carbonWatermark;
+        private long catalogVersion;
+
+        public double getCarbonWatermark() {
+            return carbonWatermark;
+        }
+
+        public void setCarbonWatermark(double carbonWatermark) {
+            this.carbonWatermark = carbonWatermark;
+        }
+
+        public long getCatalogVersion() {
+            return catalogVersion;
+        }
+
+        public void setCatalogVersion(long catalogVersion) {
+            this.catalogVersion = catalogVersion;
+        }
     }
 
     public static class Stats {
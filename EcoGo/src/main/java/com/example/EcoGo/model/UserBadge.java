@@ -3,6 +3,7 @@ package com.example.EcoGo.model;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -13,6 +14,7 @@ import java.util.Date;
  */
 @Data
 @Document(collection = "user_badges")
+@CompoundIndex(name = "user_subcategory_display_idx", def = "{'user_id': 1, 'subcategory': 1, 'is_display': 1}")
 public class UserBadge {
 
     @Id
@@ -28,7 +30,7 @@ public class UserBadge {
     private String category;
 
     @Field("subcategory")
-    private String subcategory;
+    private String subcategory; // 冗余 badge.subCategory，用于佩戴互斥
 
     @Field("unlocked_at")
     private Date unlockedAt; // 购买时间
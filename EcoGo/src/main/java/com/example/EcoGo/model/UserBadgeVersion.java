@@ -0,0 +1,36 @@
+package com.example.EcoGo.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * 用户徽章版本号（背包接口的 ETag），每个用户一条
+ * 单独成文档、只用 $inc 修改：用户文档的整文档 save 不会把它回写成旧值
+ */
+@Document(collection = "user_badge_versions")
+public class UserBadgeVersion {
+
+    @Id
+    private String userId;
+
+    private long version;
+
+    public UserBadgeVersion() {
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
@@ -8,6 +8,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
 @Document(collection = "user_vouchers")
+// 券列表（my/used/expired）和过期标记都走这个索引；userId、status 不再单独建索引
 @CompoundIndex(name = "uid_status_exp_idx", def = "{'userId': 1, 'status': 1, 'expiresAt': 1}")
 public class UserVoucher {
 
@@ -17,7 +18,6 @@ public class UserVoucher {
     /**
      * 对应 users.userid（注意：不是 Mongo _id）
      */
-    @Indexed
     private String userId;
 
     /**
@@ -45,7 +45,6 @@ public class UserVoucher {
     /**
      * 券的状态：ACTIVE / USED / EXPIRED
      */
-    @Indexed
     private VoucherStatus status = VoucherStatus.ACTIVE;
 
     /**
@@ -65,8 +64,9 @@ public class UserVoucher {
     private LocalDateTime usedAt;
 
     /**
-     * 兑换码（可选：如果没有真实 code，你也可以不用它）
+     * 兑换码：由 {@link com.example.EcoGo.service.VoucherCodeGenerator} 随机生成（旧数据可能为空）
      */
+    @Indexed(name = "code_uniq", unique = true, sparse = true)
     private String code;
 
     /**
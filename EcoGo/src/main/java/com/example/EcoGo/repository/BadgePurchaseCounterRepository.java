@@ -0,0 +1,9 @@
+package com.example.EcoGo.repository;
+
+import com.example.EcoGo.model.BadgePurchaseCounter;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface BadgePurchaseCounterRepository extends MongoRepository<BadgePurchaseCounter, String> {
+}
@@ -22,8 +22,4 @@ public interface BadgeRepository extends MongoRepository<Badge, String> {
     List<Badge> findByAcquisitionMethod(String acquisitionMethod);
 
     List<Badge> findByIsActiveAndAcquisitionMethod(boolean isActive, String acquisitionMethod);
-
-    // 查找所有启用的、有 carbonThreshold 且阈值 <= 用户 totalCarbon 的徽章
-    List<Badge> findByIsActiveTrueAndAcquisitionMethodAndCarbonThresholdLessThanEqual(String acquisitionMethod,
-            double carbonThreshold);
 }
\ No newline at end of file
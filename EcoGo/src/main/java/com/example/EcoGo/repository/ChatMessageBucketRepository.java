@@ -0,0 +1,15 @@
+package com.example.EcoGo.repository;
+
+import com.example.EcoGo.model.ChatMessageBucket;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ChatMessageBucketRepository extends MongoRepository<ChatMessageBucket, String> {
+
+    List<ChatMessageBucket> findByConversationIdAndBucketNoInOrderByBucketNoAsc(String conversationId,
+                                                                               Collection<Long> bucketNos);
+}
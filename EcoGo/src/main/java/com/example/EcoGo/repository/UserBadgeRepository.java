@@ -15,9 +15,9 @@ public interface UserBadgeRepository extends MongoRepository<UserBadge, String>
     boolean existsByUserIdAndBadgeId(String userId, String badgeId);
     Optional<UserBadge> findByUserIdAndBadgeId(String userId, String badgeId);
 
-    List<UserBadge> findByUserIdAndIsDisplayTrueAndBadgeIdIn(String userId, List<String> badgeIds);
+    List<UserBadge> findByUserIdAndBadgeIdIn(String userId, List<String> badgeIds);
 
-    // 统计 user_badges 中每个 badge_id 的购买次数
+    // 统计 user_badges 中每个 badge_id 的购买次数（仅用于回填 badge_purchase_counters）
     // $group by badge_id → _id=badge_id值, purchaseCount=数量
     // DTO 通过 @Field("_id") 将 _id 映射为 badgeId
     @Aggregation(pipeline = {
@@ -18,9 +18,6 @@ public interface UserRepository extends MongoRepository<User, String> {
 
     Optional<User> findByPhoneOrUserid(String phone, String userid);
 
-    // Find active VIPs whose expiry date is before the given time
-    java.util.List<User> findByVipIsActiveTrueAndVipExpiryDateBefore(java.time.LocalDateTime time);
-
     java.util.List<User> findByFaculty(String faculty);
 
     // Find users by a list of user IDs
@@ -3,6 +3,8 @@ package com.example.EcoGo.repository;
 import com.example.EcoGo.model.UserVoucher;
 import com.example.EcoGo.model.VoucherStatus;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -16,4 +18,9 @@ public interface UserVoucherRepository extends MongoRepository<UserVoucher, Stri
     List<UserVoucher> findByUserIdAndStatusAndExpiresAtAfter(String userId, VoucherStatus status, LocalDateTime now);
 
     List<UserVoucher> findByUserIdAndStatusAndExpiresAtBefore(String userId, VoucherStatus status, LocalDateTime now);
+
+    // 把用户已过期但仍 ACTIVE 的券一次性标记为 EXPIRED（走 uid_status_exp_idx），返回修改数量
+    @Query("{ 'userId': ?0, 'status': 'ACTIVE', 'expiresAt': { '$lte': ?1 } }")
+    @Update("{ '$set': { 'status': 'EXPIRED', 'updatedAt': ?1 } }")
+    long expireActiveBefore(String userId, LocalDateTime now);
 }
@@ -0,0 +1,38 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.interfacemethods.BadgeService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+public class BadgePurchaseCounterReconcileScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(BadgePurchaseCounterReconcileScheduler.class);
+
+    private static final Duration LOCK_AT_MOST_FOR = Duration.ofMinutes(10);
+    private static final Duration LOCK_AT_LEAST_FOR = Duration.ofMinutes(1);
+
+    @Autowired
+    private BadgeService badgeService;
+
+    @Autowired
+    private SchedulerLockService lockService;
+
+    /**
+     * Raises every badge purchase counter to the user_badges count once a day. This picks up
+     * purchases the counters missed, e.g. those served by nodes still on the old version during
+     * a rolling deploy. Counters are only ever raised, so live increments are never lost.
+     */
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void reconcilePurchaseCounters() {
+        lockService.runExclusively("badge-purchase-counter-reconcile", LOCK_AT_MOST_FOR, LOCK_AT_LEAST_FOR, lease -> {
+            long badges = badgeService.reconcileBadgePurchaseCounters();
+            logger.info("Reconciled purchase counters of {} badges", badges);
+        });
+    }
+}
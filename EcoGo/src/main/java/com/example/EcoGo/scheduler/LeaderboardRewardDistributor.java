@@ -0,0 +1,317 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.dto.LeaderboardEntry;
+import com.example.EcoGo.model.LeaderboardReward;
+import com.example.EcoGo.model.User;
+import com.example.EcoGo.model.UserPointsLog;
+import com.mongodb.bulk.BulkWriteError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pays leaderboard rewards for one period with a fixed number of round trips,
+ * independent of how many winners there are:
+ * <ol>
+ *   <li>one read of existing reward records for (type, periodKey)</li>
+ *   <li>one read of the winners' current balances</li>
+ *   <li>one unordered insertMany of PENDING {@link LeaderboardReward} claims (unique on type/period/user)</li>
+ *   <li>one unordered bulk of user {@code $inc}s</li>
+ *   <li>one unordered insertMany of {@link UserPointsLog}s</li>
+ *   <li>one update flipping the claims to PAID, and one clearing the users' period markers</li>
+ * </ol>
+ * A claim only stops a second run from claiming the same user; it is flipped to PAID once the
+ * points and log are written. Each {@code $inc} is guarded by a "TYPE:periodKey" entry in the
+ * user's {@code rewardedPeriods}, added in the same update, and each log has an id derived from
+ * the period and user. So a run that stopped half way is finished by the next run of the period,
+ * or by {@link #finishPending}; both pick up the PENDING claims without crediting or logging
+ * anyone twice.
+ */
+@Component
+public class LeaderboardRewardDistributor {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaderboardRewardDistributor.class);
+    private static final String SOURCE = "leaderboard";
+    private static final String REWARDED_PERIODS = "rewardedPeriods";
+    private static final int DUPLICATE_KEY = 11000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    /**
+     * @param ranked leaderboard entries, best first (index 0 = rank 1)
+     * @param type "DAILY" or "MONTHLY"
+     * @param periodKey "2026-02-07" for daily, "2026-02" for monthly
+     * @param tiers rank bands to reward; ranks not covered by any tier get nothing
+     * @return number of users credited by this call, including claims left PENDING by an earlier run
+     */
+    public int distribute(List<LeaderboardEntry> ranked, String type, String periodKey, List<RewardTier> tiers) {
+        Map<String, Winner> winners = rankWinners(ranked, tiers);
+        if (winners.isEmpty()) {
+            return 0;
+        }
+
+        // 1. Drop users already paid for this period; resume claims an earlier run left PENDING
+        Map<String, Winner> resumed = new LinkedHashMap<>();
+        for (LeaderboardReward reward : findRewards(type, periodKey, winners.keySet())) {
+            winners.remove(reward.getUserId());
+            if (reward.getStatus() == LeaderboardReward.Status.PENDING) {
+                resumed.put(reward.getUserId(), new Winner(reward.getUserId(), reward.getRank(),
+                        reward.getPointsAwarded(), reward.getCarbonSaved()));
+            }
+        }
+
+        // 2. Drop unknown users and capture balances for the log's balanceAfter
+        String marker = type + ":" + periodKey;
+        Set<String> userIds = new HashSet<>(winners.keySet());
+        userIds.addAll(resumed.keySet());
+        Set<String> credited = new HashSet<>();
+        Map<String, Long> balances = findBalances(userIds, marker, credited);
+        winners.keySet().removeIf(userId -> {
+            if (!balances.containsKey(userId)) {
+                logger.warn("User {} not found, skipping reward", userId);
+                return true;
+            }
+            return false;
+        });
+        resumed.keySet().removeIf(userId -> !balances.containsKey(userId));
+
+        // 3. Claim rewards; anything that fails to insert is not credited
+        List<Winner> claimed = new ArrayList<>(resumed.values());
+        if (!winners.isEmpty()) {
+            LocalDateTime now = LocalDateTime.now();
+            List<Winner> pending = new ArrayList<>(winners.values());
+            List<LeaderboardReward> rewards = new ArrayList<>(pending.size());
+            for (Winner winner : pending) {
+                rewards.add(toReward(winner, type, periodKey, now));
+            }
+            Set<Integer> failed = insertRewards(rewards, type, periodKey);
+            for (int i = 0; i < pending.size(); i++) {
+                if (!failed.contains(i)) {
+                    claimed.add(pending.get(i));
+                }
+            }
+        }
+        if (claimed.isEmpty()) {
+            logger.info("No new {} rewards to distribute for {}", type, periodKey);
+            return 0;
+        }
+        if (!resumed.isEmpty()) {
+            logger.info("Finishing {} {} rewards left pending by an earlier run", resumed.size(), type);
+        }
+        pay(claimed, type, periodKey, balances, credited);
+        logger.info("Finished {} rewards for {}: {} users rewarded", type, periodKey, claimed.size());
+        return claimed.size();
+    }
+
+    /**
+     * Finishes every PENDING claim of {@code type}, whatever its period, e.g. those left by a run
+     * that stopped after claiming.
+     *
+     * @return number of claims finished
+     */
+    public int finishPending(String type) {
+        Query query = new Query(Criteria.where("type").is(type).and("status").is(LeaderboardReward.Status.PENDING));
+        Map<String, Map<String, Winner>> byPeriod = new LinkedHashMap<>();
+        for (LeaderboardReward reward : mongoTemplate.find(query, LeaderboardReward.class)) {
+            byPeriod.computeIfAbsent(reward.getPeriodKey(), k -> new LinkedHashMap<>())
+                    .put(reward.getUserId(), new Winner(reward.getUserId(), reward.getRank(),
+                            reward.getPointsAwarded(), reward.getCarbonSaved()));
+        }
+        int finished = 0;
+        for (Map.Entry<String, Map<String, Winner>> period : byPeriod.entrySet()) {
+            Map<String, Winner> claims = period.getValue();
+            Set<String> credited = new HashSet<>();
+            Map<String, Long> balances = findBalances(claims.keySet(), type + ":" + period.getKey(), credited);
+            claims.keySet().retainAll(balances.keySet());
+            if (claims.isEmpty()) {
+                continue;
+            }
+            pay(new ArrayList<>(claims.values()), type, period.getKey(), balances, credited);
+            logger.info("Finished {} pending {} rewards for {}", claims.size(), type, period.getKey());
+            finished += claims.size();
+        }
+        return finished;
+    }
+
+    // Steps 4-6 for claimed users; safe to repeat for the same claims
+    private void pay(List<Winner> claimed, String type, String periodKey,
+                     Map<String, Long> balances, Set<String> credited) {
+        String marker = type + ":" + periodKey;
+
+        // 4. Credit points, at most once per user and period
+        BulkOperations userOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class);
+        for (Winner winner : claimed) {
+            userOps.updateOne(new Query(Criteria.where("userid").is(winner.userId).and(REWARDED_PERIODS).ne(marker)),
+                    new Update().inc("currentPoints", winner.points).inc("totalPoints", winner.points)
+                            .addToSet(REWARDED_PERIODS, marker));
+        }
+        userOps.execute();
+
+        // 5. Points logs; a log written by an earlier run is a duplicate key
+        List<UserPointsLog> logs = new ArrayList<>(claimed.size());
+        for (Winner winner : claimed) {
+            long balance = balances.get(winner.userId);
+            logs.add(toLog(logId(type, periodKey, winner.userId), winner, type, periodKey,
+                    credited.contains(winner.userId) ? balance : balance + winner.points));
+        }
+        insertLogs(logs);
+
+        // 6. Mark the claims paid; the user markers are no longer needed after that
+        List<String> paid = claimed.stream().map(w -> w.userId).toList();
+        mongoTemplate.updateMulti(new Query(Criteria.where("type").is(type)
+                        .and("period_key").is(periodKey)
+                        .and("user_id").in(paid)
+                        .and("status").is(LeaderboardReward.Status.PENDING)),
+                new Update().set("status", LeaderboardReward.Status.PAID), LeaderboardReward.class);
+        mongoTemplate.updateMulti(new Query(Criteria.where("userid").in(paid)),
+                new Update().pull(REWARDED_PERIODS, marker), User.class);
+    }
+
+    private Map<String, Winner> rankWinners(List<LeaderboardEntry> ranked, List<RewardTier> tiers) {
+        Map<String, Winner> winners = new LinkedHashMap<>();
+        for (int i = 0; i < ranked.size(); i++) {
+            int rank = i + 1;
+            LeaderboardEntry entry = ranked.get(i);
+            if (entry.getUserId() == null || winners.containsKey(entry.getUserId())) {
+                continue;
+            }
+            long points = pointsFor(rank, tiers);
+            if (points > 0) {
+                winners.put(entry.getUserId(), new Winner(entry.getUserId(), rank, points, entry.getTotalCarbonSaved()));
+            }
+        }
+        return winners;
+    }
+
+    private static long pointsFor(int rank, List<RewardTier> tiers) {
+        for (RewardTier tier : tiers) {
+            if (tier.covers(rank)) {
+                return tier.pointsFor(rank);
+            }
+        }
+        return 0L;
+    }
+
+    /** Rewards of the period for these users, plus every claim of the period still PENDING. */
+    private List<LeaderboardReward> findRewards(String type, String periodKey, Set<String> userIds) {
+        Query query = new Query(Criteria.where("type").is(type)
+                .and("period_key").is(periodKey)
+                .orOperator(Criteria.where("user_id").in(userIds),
+                        Criteria.where("status").is(LeaderboardReward.Status.PENDING)));
+        query.fields().include("user_id").include("rank").include("points_awarded")
+                .include("carbon_saved").include("status");
+        return mongoTemplate.find(query, LeaderboardReward.class);
+    }
+
+    /** Current balances; users already carrying the period marker were credited by an earlier run. */
+    private Map<String, Long> findBalances(Set<String> userIds, String marker, Set<String> credited) {
+        Query query = new Query(Criteria.where("userid").in(userIds));
+        query.fields().include("userid").include("currentPoints").include(REWARDED_PERIODS);
+        Map<String, Long> balances = new HashMap<>();
+        for (User user : mongoTemplate.find(query, User.class)) {
+            balances.put(user.getUserid(), user.getCurrentPoints());
+            if (user.getRewardedPeriods() != null && user.getRewardedPeriods().contains(marker)) {
+                credited.add(user.getUserid());
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * @return indexes into {@code rewards} that were not inserted
+     */
+    private Set<Integer> insertRewards(List<LeaderboardReward> rewards, String type, String periodKey) {
+        Set<Integer> failed = new HashSet<>();
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LeaderboardReward.class)
+                    .insert(rewards)
+                    .execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                failed.add(error.getIndex());
+                LeaderboardReward reward = rewards.get(error.getIndex());
+                if (error.getCode() == DUPLICATE_KEY) {
+                    logger.info("User {} already rewarded for {} {}, skipping", reward.getUserId(), type, periodKey);
+                } else {
+                    logger.error("Failed to reward user {} (Rank #{}) for {} {}: {}",
+                            reward.getUserId(), reward.getRank(), type, periodKey, error.getMessage());
+                }
+            }
+        }
+        return failed;
+    }
+
+    private void insertLogs(List<UserPointsLog> logs) {
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserPointsLog.class)
+                    .insert(logs)
+                    .execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static String logId(String type, String periodKey, String userId) {
+        return SOURCE + ":" + type + ":" + periodKey + ":" + userId;
+    }
+
+    private static LeaderboardReward toReward(Winner winner, String type, String periodKey, LocalDateTime now) {
+        LeaderboardReward reward = new LeaderboardReward();
+        reward.setType(type);
+        reward.setPeriodKey(periodKey);
+        reward.setUserId(winner.userId);
+        reward.setRank(winner.rank);
+        reward.setPointsAwarded(winner.points);
+        reward.setCarbonSaved(winner.carbonSaved);
+        reward.setDistributedAt(now);
+        reward.setStatus(LeaderboardReward.Status.PENDING);
+        return reward;
+    }
+
+    private static UserPointsLog toLog(String id, Winner winner, String type, String periodKey, long balanceAfter) {
+        UserPointsLog log = new UserPointsLog();
+        log.setId(id);
+        log.setUserId(winner.userId);
+        log.setChangeType("gain");
+        log.setPoints(winner.points);
+        log.setSource(SOURCE);
+        log.setDescription(String.format("Leaderboard %s Rank #%d reward (%s)", type, winner.rank, periodKey));
+        log.setBalanceAfter(balanceAfter);
+        return log;
+    }
+
+    private static final class Winner {
+        private final String userId;
+        private final int rank;
+        private final long points;
+        private final double carbonSaved;
+
+        private Winner(String userId, int rank, long points, double carbonSaved) {
+            this.userId = userId;
+            this.rank = rank;
+            this.points = points;
+            this.carbonSaved = carbonSaved;
+        }
+    }
+}
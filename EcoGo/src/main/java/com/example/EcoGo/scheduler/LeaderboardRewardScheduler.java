@@ -3,10 +3,6 @@ package com.example.EcoGo.scheduler;
 import com.example.EcoGo.dto.LeaderboardEntry;
 import com.example.EcoGo.interfacemethods.LeaderboardInterface;
 import com.example.EcoGo.model.LeaderboardReward;
-import com.example.EcoGo.model.User;
-import com.example.EcoGo.model.UserPointsLog;
-import com.example.EcoGo.repository.UserPointsLogRepository;
-import com.example.EcoGo.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,37 +12,51 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.YearMonth;
 import java.util.List;
-import java.util.Optional;
 
 @Component
 public class LeaderboardRewardScheduler {
 
     private static final Logger logger = LoggerFactory.getLogger(LeaderboardRewardScheduler.class);
     private static final String TYPE_DAILY = "DAILY";
+    private static final Duration LOCK_AT_MOST_FOR = Duration.ofMinutes(10);
+    private static final Duration LOCK_AT_LEAST_FOR = Duration.ofMinutes(1);
+
+    /** Top 10: rank #1 gets 100, #10 gets 10. */
+    static final List<RewardTier> DAILY_TIERS = RewardTier.linear(10, 10L);
+    /** Top 10: rank #1 gets 1000, #10 gets 100. */
+    static final List<RewardTier> MONTHLY_TIERS = RewardTier.linear(10, 100L);
 
     @Autowired
     private LeaderboardInterface leaderboardService;
 
     @Autowired
-    private UserRepository userRepository;
+    private LeaderboardRewardDistributor rewardDistributor;
 
     @Autowired
-    private UserPointsLogRepository pointsLogRepository;
+    private MongoTemplate mongoTemplate;
 
     @Autowired
-    private MongoTemplate mongoTemplate;
+    private SchedulerLockService lockService;
 
     /**
      * Daily reward: runs at 00:05 every day, rewards top 10 for YESTERDAY.
      */
     @Scheduled(cron = "0 5 0 * * ?")
     public void distributeDailyRewards() {
+        lockService.runExclusively("leaderboard-daily-rewards", LOCK_AT_MOST_FOR, LOCK_AT_LEAST_FOR,
+                this::runDailyRewards);
+    }
+
+    void runDailyRewards(SchedulerLockService.Lease lease) {
         LocalDate yesterday = LocalDate.now().minusDays(1);
         String periodKey = yesterday.toString();
+        // A run that stopped after claiming is finished before anything else
+        rewardDistributor.finishPending(TYPE_DAILY);
 
         // Use MongoTemplate to check duplicates (avoids @Field annotation issue on period_key)
         if (rewardAlreadyDistributed(TYPE_DAILY, periodKey)) {
@@ -58,8 +68,12 @@ public class LeaderboardRewardScheduler {
         LocalDateTime start = yesterday.atStartOfDay();
         LocalDateTime end = yesterday.plusDays(1).atStartOfDay();
 
-        List<LeaderboardEntry> topUsers = leaderboardService.getTopUsers(start, end, 10);
-        distributeRewards(topUsers, TYPE_DAILY, periodKey);
+        List<LeaderboardEntry> topUsers = leaderboardService.getTopUsers(start, end, RewardTier.maxRank(DAILY_TIERS));
+        if (!lease.isHeld()) {
+            logger.warn("Lost lease before distributing daily rewards for {}. Aborting.", periodKey);
+            return;
+        }
+        rewardDistributor.distribute(topUsers, TYPE_DAILY, periodKey, DAILY_TIERS);
     }
 
     /**
@@ -67,8 +81,14 @@ public class LeaderboardRewardScheduler {
      */
     @Scheduled(cron = "0 10 0 1 * ?")
     public void distributeMonthlyRewards() {
+        lockService.runExclusively("leaderboard-monthly-rewards", LOCK_AT_MOST_FOR, LOCK_AT_LEAST_FOR,
+                this::runMonthlyRewards);
+    }
+
+    void runMonthlyRewards(SchedulerLockService.Lease lease) {
         YearMonth lastMonth = YearMonth.now().minusMonths(1);
         String periodKey = lastMonth.toString();
+        rewardDistributor.finishPending("MONTHLY");
 
         if (rewardAlreadyDistributed("MONTHLY", periodKey)) {
             logger.info("Monthly rewards for {} already distributed. Skipping.", periodKey);
@@ -79,8 +99,12 @@ public class LeaderboardRewardScheduler {
         LocalDateTime start = lastMonth.atDay(1).atStartOfDay();
         LocalDateTime end = lastMonth.atEndOfMonth().plusDays(1).atStartOfDay();
 
-        List<LeaderboardEntry> topUsers = leaderboardService.getTopUsers(start, end, 10);
-        distributeRewards(topUsers, "MONTHLY", periodKey);
+        List<LeaderboardEntry> topUsers = leaderboardService.getTopUsers(start, end, RewardTier.maxRank(MONTHLY_TIERS));
+        if (!lease.isHeld()) {
+            logger.warn("Lost lease before distributing monthly rewards for {}. Aborting.", periodKey);
+            return;
+        }
+        rewardDistributor.distribute(topUsers, "MONTHLY", periodKey, MONTHLY_TIERS);
     }
 
     /**
@@ -91,59 +115,4 @@ public class LeaderboardRewardScheduler {
         Query query = new Query(Criteria.where("type").is(type).and("period_key").is(periodKey));
         return mongoTemplate.exists(query, LeaderboardReward.class);
     }
-
-    private void distributeRewards(List<LeaderboardEntry> topUsers, String type, String periodKey) {
-        for (int i = 0; i < topUsers.size(); i++) {
-            int rank = i + 1;
-            long multiplier = TYPE_DAILY.equals(type) ? 10L : 100L;
-            long points = (11 - rank) * multiplier;
-            LeaderboardEntry entry = topUsers.get(i);
-
-            try {
-                // 1. Fetch user (same as challenge's adjustPoints logic)
-                Optional<User> userOpt = userRepository.findByUserid(entry.getUserId());
-                if (userOpt.isEmpty()) {
-                    logger.warn("User {} not found, skipping reward", entry.getUserId());
-                    continue;
-                }
-                User user = userOpt.get();
-
-                // 2. Update user points directly (same as PointsServiceImpl.adjustPoints)
-                long newBalance = user.getCurrentPoints() + points;
-                user.setCurrentPoints(newBalance);
-                user.setTotalPoints(user.getTotalPoints() + points);
-                userRepository.save(user);
-
-                // 3. Create points log (same as PointsServiceImpl.adjustPoints)
-                String description = String.format("Leaderboard %s Rank #%d reward (%s)", type, rank, periodKey);
-                UserPointsLog log = new UserPointsLog();
-                log.setId(java.util.UUID.randomUUID().toString());
-                log.setUserId(user.getUserid());
-                log.setChangeType("gain");
-                log.setPoints(points);
-                log.setSource("leaderboard");
-                log.setDescription(description);
-                log.setBalanceAfter(newBalance);
-                pointsLogRepository.save(log);
-
-                // 4. Save leaderboard reward record
-                LeaderboardReward reward = new LeaderboardReward();
-                reward.setType(type);
-                reward.setPeriodKey(periodKey);
-                reward.setUserId(entry.getUserId());
-                reward.setRank(rank);
-                reward.setPointsAwarded(points);
-                reward.setCarbonSaved(entry.getTotalCarbonSaved());
-                reward.setDistributedAt(LocalDateTime.now());
-                mongoTemplate.save(reward);
-
-                logger.info("Awarded {} points to user {} (Rank #{}) for {} {}, balanceAfter={}",
-                        points, entry.getUserId(), rank, type, periodKey, newBalance);
-            } catch (Exception e) {
-                logger.error("Failed to reward user {} (Rank #{}) for {} {}: {}",
-                        entry.getUserId(), rank, type, periodKey, e.getMessage());
-            }
-        }
-        logger.info("Finished {} rewards for {}: {} users rewarded", type, periodKey, topUsers.size());
-    }
 }
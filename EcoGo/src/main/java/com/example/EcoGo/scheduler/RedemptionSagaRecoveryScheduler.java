@@ -0,0 +1,36 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.service.OrderService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+public class RedemptionSagaRecoveryScheduler {
+
+    private static final Duration LOCK_AT_MOST_FOR = Duration.ofMinutes(5);
+    private static final Duration LOCK_AT_LEAST_FOR = Duration.ofSeconds(30);
+    // A live redemption finishes in seconds; anything idle this long was interrupted
+    static final Duration STUCK_AFTER = Duration.ofMinutes(2);
+    static final int BATCH_SIZE = 200;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private SchedulerLockService lockService;
+
+    /**
+     * Rolls interrupted redemptions forward or back once a minute, then clears the stock
+     * markers that finished redemptions failed to remove.
+     */
+    @Scheduled(fixedDelay = 60_000L, initialDelay = 60_000L)
+    public void recoverStuckRedemptions() {
+        lockService.runExclusively("redemption-saga-recovery", LOCK_AT_MOST_FOR, LOCK_AT_LEAST_FOR, lease -> {
+            orderService.recoverStuckRedemptions(STUCK_AFTER, BATCH_SIZE);
+            orderService.clearSettledStockMarkers(STUCK_AFTER, BATCH_SIZE);
+        });
+    }
+}
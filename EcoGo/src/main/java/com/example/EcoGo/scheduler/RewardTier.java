@@ -0,0 +1,56 @@
+package com.example.EcoGo.scheduler;
+
+import java.util.List;
+
+/**
+ * A band of leaderboard ranks [fromRank, toRank] (1-based, inclusive) and the points they earn.
+ * Points start at {@code basePoints} for {@code fromRank} and drop by {@code stepPoints} per rank,
+ * never going below zero. A step of 0 gives every rank in the band the same reward.
+ */
+public class RewardTier {
+
+    private final int fromRank;
+    private final int toRank;
+    private final long basePoints;
+    private final long stepPoints;
+
+    public RewardTier(int fromRank, int toRank, long basePoints, long stepPoints) {
+        if (fromRank < 1 || toRank < fromRank) {
+            throw new IllegalArgumentException("Invalid rank range: " + fromRank + "-" + toRank);
+        }
+        this.fromRank = fromRank;
+        this.toRank = toRank;
+        this.basePoints = basePoints;
+        this.stepPoints = stepPoints;
+    }
+
+    /**
+     * The original top-N scheme: rank r earns (N + 1 - r) * multiplier.
+     */
+    public static List<RewardTier> linear(int topN, long multiplier) {
+        return List.of(new RewardTier(1, topN, topN * multiplier, multiplier));
+    }
+
+    public boolean covers(int rank) {
+        return rank >= fromRank && rank <= toRank;
+    }
+
+    public long pointsFor(int rank) {
+        return Math.max(0L, basePoints - (rank - fromRank) * stepPoints);
+    }
+
+    /**
+     * Highest rank rewarded by any tier, i.e. how many leaderboard entries need to be fetched.
+     */
+    public static int maxRank(List<RewardTier> tiers) {
+        return tiers.stream().mapToInt(RewardTier::getToRank).max().orElse(0);
+    }
+
+    public int getFromRank() { return fromRank; }
+
+    public int getToRank() { return toRank; }
+
+    public long getBasePoints() { return basePoints; }
+
+    public long getStepPoints() { return stepPoints; }
+}
@@ -0,0 +1,178 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.model.SchedulerLock;
+import com.mongodb.client.result.UpdateResult;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Mongo-backed lease so a @Scheduled job runs on exactly one replica per trigger.
+ * <p>
+ * Acquisition is a single conditional upsert on {@code scheduler_locks}: it matches only
+ * when the lease has expired, and the upsert of a held lease fails on the _id unique key.
+ * Every acquisition bumps a token that scopes the heartbeat and the release to that
+ * acquisition, so a node whose lease expired cannot extend or release the next holder's
+ * lease. While the job runs, a heartbeat extends {@code lock_until}; if the heartbeat finds
+ * the lease taken over, the lease is marked lost.
+ * <p>
+ * The token does not fence the job's own writes: a holder that stalls past
+ * {@code lockAtMostFor} may still finish writes it already started after another node
+ * has taken over. Jobs must therefore be idempotent or use conditional writes, and long
+ * jobs should check {@link Lease#isHeld()} between steps.
+ * On release the lease is kept for at least {@code lockAtLeastFor} so replicas whose cron
+ * fires a little later do not run the same trigger again.
+ */
+@Component
+public class SchedulerLockService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulerLockService.class);
+    private static final long MIN_HEARTBEAT_MILLIS = 1000L;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName()
+            + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "scheduler-lock-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Runs {@code task} if this node wins the lease for {@code name}; otherwise does nothing.
+     *
+     * @param lockAtMostFor lease TTL; extended by heartbeat while the task runs
+     * @param lockAtLeastFor minimum time the lease stays held after acquisition
+     * @return true if the task ran on this node
+     */
+    public boolean runExclusively(String name, Duration lockAtMostFor, Duration lockAtLeastFor, Consumer<Lease> task) {
+        Optional<Lease> acquired = tryAcquire(name, lockAtMostFor);
+        if (acquired.isEmpty()) {
+            logger.debug("Lease {} is held by another node, skipping run", name);
+            return false;
+        }
+        Lease lease = acquired.get();
+        long period = Math.max(MIN_HEARTBEAT_MILLIS, lockAtMostFor.toMillis() / 3);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(
+                () -> heartbeat(lease, lockAtMostFor), period, period, TimeUnit.MILLISECONDS);
+        try {
+            task.accept(lease);
+        } finally {
+            heartbeat.cancel(false);
+            release(lease, lockAtLeastFor);
+        }
+        return true;
+    }
+
+    Optional<Lease> tryAcquire(String name, Duration lockAtMostFor) {
+        LocalDateTime now = LocalDateTime.now();
+        Query query = new Query(Criteria.where("_id").is(name).and("lock_until").lte(now));
+        Update update = new Update()
+                .set("owner", nodeId)
+                .set("locked_at", now)
+                .set("lock_until", now.plus(lockAtMostFor))
+                .set("heartbeat_at", now)
+                .inc("fencing_token", 1L);
+        try {
+            SchedulerLock lock = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().returnNew(true).upsert(true), SchedulerLock.class);
+            if (lock == null) {
+                return Optional.empty();
+            }
+            logger.info("Acquired lease {} (token {}) on {}", name, lock.getFencingToken(), nodeId);
+            return Optional.of(new Lease(name, lock.getFencingToken(), now));
+        } catch (DuplicateKeyException e) {
+            // Document exists and lock_until is in the future: another node holds it
+            return Optional.empty();
+        }
+    }
+
+    void heartbeat(Lease lease, Duration lockAtMostFor) {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            UpdateResult result = mongoTemplate.updateFirst(ownedBy(lease),
+                    new Update().set("lock_until", now.plus(lockAtMostFor)).set("heartbeat_at", now),
+                    SchedulerLock.class);
+            if (result.getMatchedCount() == 0) {
+                lease.held = false;
+                logger.warn("Lease {} (token {}) was taken over by another node", lease.name, lease.token);
+            }
+        } catch (Exception e) {
+            logger.warn("Heartbeat for lease {} failed: {}", lease.name, e.getMessage());
+        }
+    }
+
+    void release(Lease lease, Duration lockAtLeastFor) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime earliest = lease.lockedAt.plus(lockAtLeastFor);
+        try {
+            mongoTemplate.updateFirst(ownedBy(lease),
+                    new Update().set("lock_until", earliest.isAfter(now) ? earliest : now),
+                    SchedulerLock.class);
+        } catch (Exception e) {
+            logger.warn("Failed to release lease {}: {}", lease.name, e.getMessage());
+        }
+        lease.held = false;
+    }
+
+    private Query ownedBy(Lease lease) {
+        return new Query(Criteria.where("_id").is(lease.name)
+                .and("owner").is(nodeId)
+                .and("fencing_token").is(lease.token));
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeats.shutdownNow();
+    }
+
+    /**
+     * Handle passed to the exclusive task. {@link #isHeld()} turns false if a heartbeat
+     * discovers another node has taken the lease, so long tasks can stop early. This is a
+     * best-effort check, not a guarantee that no other node is running the job.
+     */
+    public static class Lease {
+        private final String name;
+        private final long token;
+        private final LocalDateTime lockedAt;
+        private volatile boolean held = true;
+
+        Lease(String name, long token, LocalDateTime lockedAt) {
+            this.name = name;
+            this.token = token;
+            this.lockedAt = lockedAt;
+        }
+
+        public String getName() { return name; }
+
+        public long getToken() { return token; }
+
+        public boolean isHeld() { return held; }
+    }
+}
@@ -1,22 +1,31 @@
 package com.example.EcoGo.scheduler;
 
 import com.example.EcoGo.model.User;
-import com.example.EcoGo.repository.UserRepository;
+import com.mongodb.client.result.UpdateResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.List;
 
 @Component
 public class VipExpirationScheduler {
 
     private static final Logger logger = LoggerFactory.getLogger(VipExpirationScheduler.class);
+    private static final Duration LOCK_AT_MOST_FOR = Duration.ofMinutes(10);
+    private static final Duration LOCK_AT_LEAST_FOR = Duration.ofMinutes(1);
 
     @Autowired
-    private UserRepository userRepository;
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SchedulerLockService lockService;
 
     /**
      * Check for expired VIPs every hour.
@@ -24,28 +33,26 @@ public class VipExpirationScheduler {
      */
     @Scheduled(cron = "0 0 * * * ?")
     public void checkVipExpiration() {
-        // logger.info("Running VIP Expiration Check...");
-
-        List<User> expiredVips = userRepository.findByVipIsActiveTrueAndVipExpiryDateBefore(LocalDateTime.now());
-
-        if (expiredVips.isEmpty()) {
-            return;
-        }
+        lockService.runExclusively("vip-expiration", LOCK_AT_MOST_FOR, LOCK_AT_LEAST_FOR,
+                lease -> deactivateExpiredVips());
+    }
 
-        logger.info("Found {} expired VIPs. Deactivating...", expiredVips.size());
-
-        for (User user : expiredVips) {
-            try {
-                if (user.getVip() != null) {
-                    user.getVip().setActive(false);
-                    // Optionally: Set pointsMultiplier back to 1?
-                    // user.getVip().setPointsMultiplier(1);
-                    userRepository.save(user);
-                    logger.info("Deactivated VIP for user: {}", user.getUserid());
-                }
-            } catch (Exception e) {
-                logger.error("Failed to deactivate VIP for user {}: {}", user.getUserid(), e.getMessage());
-            }
+    /**
+     * Deactivates all expired VIPs with one updateMany, served by the
+     * (vip.isActive, vip.expiryDate) index. Only the flag is written, so other
+     * fields of the user document are never overwritten by a stale copy.
+     */
+    long deactivateExpiredVips() {
+        LocalDateTime now = LocalDateTime.now();
+        Query query = new Query(Criteria.where("vip.isActive").is(true).and("vip.expiryDate").lt(now));
+        // Optionally: Set pointsMultiplier back to 1?
+        Update update = new Update().set("vip.isActive", false).set("updatedAt", now);
+
+        UpdateResult result = mongoTemplate.updateMulti(query, update, User.class);
+        long deactivated = result.getModifiedCount();
+        if (deactivated > 0) {
+            logger.info("Deactivated {} expired VIPs", deactivated);
         }
+        return deactivated;
     }
 }
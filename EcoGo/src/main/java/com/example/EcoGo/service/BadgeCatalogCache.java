@@ -0,0 +1,118 @@
+package com.example.EcoGo.service;
+
+import com.example.EcoGo.model.Badge;
+import com.example.EcoGo.repository.BadgeRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 成就徽章目录的内存缓存
+ * 启用中的 achievement 徽章按 carbonThreshold 升序存成数组，解锁检查只需二分查找。
+ * 本节点的增删改会调用 {@link #invalidate()}；其他节点的修改最多 {@link #MAX_AGE_MILLIS} 后生效。
+ */
+@Component
+public class BadgeCatalogCache {
+
+    static final long MAX_AGE_MILLIS = 5 * 60 * 1000L;
+    private static final String ACHIEVEMENT = "achievement";
+
+    @Autowired
+    private BadgeRepository badgeRepository;
+
+    private volatile Snapshot snapshot;
+
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null || System.currentTimeMillis() - current.loadedAt > MAX_AGE_MILLIS) {
+            current = Snapshot.of(badgeRepository.findByIsActiveAndAcquisitionMethod(true, ACHIEVEMENT));
+            snapshot = current;
+        }
+        return current;
+    }
+
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    /**
+     * 不可变的目录快照
+     * version 由 (badgeId, threshold) 列表计算，同样的目录在所有节点上得到同样的值，
+     * 因此可以和用户文档里的水位线一起持久化。
+     */
+    public static final class Snapshot {
+        private final Badge[] badges;
+        private final double[] thresholds;
+        private final long version;
+        private final long loadedAt;
+
+        private Snapshot(Badge[] badges, long version) {
+            this.badges = badges;
+            this.thresholds = new double[badges.length];
+            for (int i = 0; i < badges.length; i++) {
+                thresholds[i] = badges[i].getCarbonThreshold();
+            }
+            this.version = version;
+            this.loadedAt = System.currentTimeMillis();
+        }
+
+        public static Snapshot of(List<Badge> achievementBadges) {
+            Badge[] sorted = achievementBadges.stream()
+                    .filter(b -> b.getCarbonThreshold() != null && b.getBadgeId() != null)
+                    .sorted(Comparator.comparingDouble(Badge::getCarbonThreshold).thenComparing(Badge::getBadgeId))
+                    .toArray(Badge[]::new);
+            StringBuilder key = new StringBuilder();
+            for (Badge badge : sorted) {
+                key.append(badge.getBadgeId()).append(':').append(badge.getCarbonThreshold()).append('|');
+            }
+            return new Snapshot(sorted, key.toString().hashCode());
+        }
+
+        /**
+         * 阈值落在 (fromExclusive, toInclusive] 区间内的徽章
+         */
+        public List<Badge> thresholdsBetween(double fromExclusive, double toInclusive) {
+            if (toInclusive <= fromExclusive) {
+                return List.of();
+            }
+            int from = upperBound(fromExclusive);
+            int to = upperBound(toInclusive);
+            return from >= to ? List.of() : new ArrayList<>(Arrays.asList(badges).subList(from, to));
+        }
+
+        /**
+         * 阈值 <= carbon 的全部徽章
+         */
+        public List<Badge> thresholdsUpTo(double carbon) {
+            int to = upperBound(carbon);
+            return to == 0 ? List.of() : new ArrayList<>(Arrays.asList(badges).subList(0, to));
+        }
+
+        // 第一个阈值 > value 的下标
+        private int upperBound(double value) {
+            int lo = 0;
+            int hi = thresholds.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (thresholds[mid] <= value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public int size() {
+            return badges.length;
+        }
+    }
+}
@@ -5,13 +5,22 @@ import com.example.EcoGo.dto.PointsDto;
 import com.example.EcoGo.interfacemethods.BadgeService;
 import com.example.EcoGo.interfacemethods.PointsService;
 import com.example.EcoGo.model.Badge;
+import com.example.EcoGo.model.BadgePurchaseCounter;
+import com.example.EcoGo.model.DataMigration;
 import com.example.EcoGo.model.User;
 import com.example.EcoGo.model.UserBadge;
+import com.example.EcoGo.model.UserBadgeVersion;
+import com.example.EcoGo.repository.BadgePurchaseCounterRepository;
 import com.example.EcoGo.repository.BadgeRepository;
 import com.example.EcoGo.repository.UserBadgeRepository;
 import com.example.EcoGo.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,6 +33,8 @@ import java.util.stream.Collectors;
 @Service
 public class BadgeServiceImpl implements BadgeService {
 
+    private static final String PURCHASE_COUNTER_MIGRATION = "badge_purchase_counters";
+
     @Autowired
     private BadgeRepository badgeRepository;
     @Autowired
@@ -35,8 +46,11 @@ public class BadgeServiceImpl implements BadgeService {
     private PointsService pointsService;
 
     @Autowired
-    @Lazy
-    private BadgeService self;
+    private BadgeCatalogCache badgeCatalogCache;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private BadgePurchaseCounterRepository badgePurchaseCounterRepository;
 
     /**
      * 1. 购买徽章
@@ -79,7 +93,10 @@ public class BadgeServiceImpl implements BadgeService {
         newBadge.setCategory(badge.getCategory());
         newBadge.setSubcategory(badge.getSubCategory());
 
-        return userBadgeRepository.save(newBadge);
+        UserBadge saved = userBadgeRepository.save(newBadge);
+        incrementPurchaseCounters(List.of(badgeId));
+        bumpBadgeVersion(userId);
+        return saved;
     }
 
     /**
@@ -95,40 +112,38 @@ public class BadgeServiceImpl implements BadgeService {
         // 如果是“取下”，直接操作，无需互斥
         if (!isDisplay) {
             targetUserBadge.setDisplay(false);
-            return userBadgeRepository.save(targetUserBadge);
+            UserBadge saved = userBadgeRepository.save(targetUserBadge);
+            bumpBadgeVersion(userId);
+            return saved;
         }
 
         // ================= 同类互斥核心逻辑 =================
         // 按 subCategory 做互斥：head/face/body/rank 各只能装备一件
-
-        Badge targetBadgeDef = badgeRepository.findByBadgeId(badgeId)
-                .orElseThrow(() -> new RuntimeException("徽章定义不存在"));
-
-        String subCategory = targetBadgeDef.getSubCategory();
+        // user_badges 上冗余了 subcategory，旧数据缺失时才回查徽章定义
+
+        String subCategory = targetUserBadge.getSubcategory();
+        if (subCategory == null || subCategory.isEmpty()) {
+            Badge targetBadgeDef = badgeRepository.findByBadgeId(badgeId)
+                    .orElseThrow(() -> new RuntimeException("徽章定义不存在"));
+            subCategory = targetBadgeDef.getSubCategory();
+            targetUserBadge.setSubcategory(subCategory);
+        }
 
         if (subCategory != null && !subCategory.isEmpty()) {
-            // A. 找出同 subCategory 下所有的徽章ID (比如所有 head 类的)
-            List<Badge> sameSubCategoryBadges = badgeRepository.findBySubCategory(subCategory);
-            List<String> sameSubCategoryBadgeIds = sameSubCategoryBadges.stream()
-                    .map(Badge::getBadgeId)
-                    .toList();
-
-            // B. 找出用户身上正在戴着的、且属于同 subCategory 的旧徽章
-            List<UserBadge> conflictingBadges = userBadgeRepository
-                    .findByUserIdAndIsDisplayTrueAndBadgeIdIn(userId, sameSubCategoryBadgeIds);
-
-            // C. 统统卸下
-            for (UserBadge conflict : conflictingBadges) {
-                if (!conflict.getBadgeId().equals(badgeId)) {
-                    conflict.setDisplay(false);
-                    userBadgeRepository.save(conflict);
-                }
-            }
+            // 一次 updateMany 卸下同 subcategory 下正在佩戴的其他徽章
+            // 命中索引 (user_id, subcategory, is_display)
+            Query conflicts = new Query(Criteria.where("user_id").is(userId)
+                    .and("subcategory").is(subCategory)
+                    .and("is_display").is(true)
+                    .and("badge_id").ne(badgeId));
+            mongoTemplate.updateMulti(conflicts, new Update().set("is_display", false), UserBadge.class);
         }
         // ====================================================
 
         targetUserBadge.setDisplay(true);
-        return userBadgeRepository.save(targetUserBadge);
+        UserBadge saved = userBadgeRepository.save(targetUserBadge);
+        bumpBadgeVersion(userId);
+        return saved;
     }
 
     // ... 其他 getter 方法 (getShopList, getMyBadges) 保持不变 ...
@@ -137,13 +152,34 @@ public class BadgeServiceImpl implements BadgeService {
         return badgeRepository.findByIsActive(true);
     }
 
+    /**
+     * 纯读取：成就徽章在行程结算时解锁 (TripServiceImpl.updateUserTotalCarbonAndBadges → checkAndUnlockCarbonBadges)，这里不再顺带写入
+     */
     public List<UserBadge> getMyBadges(String userId) {
-        self.checkAndUnlockCarbonBadges(userId);
         return userBadgeRepository.findByUserId(userId);
     }
 
+    /**
+     * 用户徽章版本号，作为背包接口的 ETag
+     * 存在 user_badge_versions 里而不是用户文档上，用户文档被旧数据整体 save 时不会回退；从未变更过时返回 0
+     */
+    public long getBadgeVersion(String userId) {
+        UserBadgeVersion version = mongoTemplate.findById(userId, UserBadgeVersion.class);
+        return version == null ? 0L : version.getVersion();
+    }
+
+    /**
+     * 用户持有的徽章有任何变化（获得/佩戴/卸下）后调用，使背包 ETag 失效
+     */
+    private void bumpBadgeVersion(String userId) {
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(userId)), new Update().inc("version", 1L),
+                UserBadgeVersion.class);
+    }
+
     public Badge createBadge(Badge badge) {
-        return badgeRepository.save(badge);
+        Badge saved = badgeRepository.save(badge);
+        badgeCatalogCache.invalidate();
+        return saved;
     }
 
     /**
@@ -165,7 +201,62 @@ public class BadgeServiceImpl implements BadgeService {
      * 返回每个 badge 的购买次数，供管理员查看
      */
     public List<BadgePurchaseStatDto> getBadgePurchaseStats() {
-        return userBadgeRepository.countPurchasesByBadge();
+        // 读取计数器集合（每个徽章一条），不再对 user_badges 做 $group
+        List<BadgePurchaseStatDto> stats = new ArrayList<>();
+        for (BadgePurchaseCounter counter : badgePurchaseCounterRepository.findAll()) {
+            BadgePurchaseStatDto dto = new BadgePurchaseStatDto();
+            dto.setBadgeId(counter.getBadgeId());
+            dto.setPurchaseCount((int) counter.getPurchaseCount());
+            stats.add(dto);
+        }
+        return stats;
+    }
+
+    /**
+     * 首次部署时用一次 user_badges 聚合回填计数器（启动时执行）
+     * 以 data_migrations 上的标记判断是否执行过，而不是计数器是否为空：滚动部署时新节点可能已经
+     * $inc 出了部分计数器。回填用 $max，与实时购买并发、多节点同时回填都不会重复累加；
+     * 老版本节点在部署期间漏记的购买由每日的 {@link #reconcileBadgePurchaseCounters} 补上。
+     */
+    public long backfillBadgePurchaseCounters() {
+        if (mongoTemplate.exists(new Query(Criteria.where("_id").is(PURCHASE_COUNTER_MIGRATION)),
+                DataMigration.class)) {
+            return 0;
+        }
+        long seeded = reconcileBadgePurchaseCounters();
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(PURCHASE_COUNTER_MIGRATION)),
+                new Update().setOnInsert("completedAt", new Date()), DataMigration.class);
+        return seeded;
+    }
+
+    /**
+     * 把每个徽章的计数器提升到 user_badges 中的实际条数（$max，只增不减）
+     */
+    public long reconcileBadgePurchaseCounters() {
+        List<BadgePurchaseStatDto> counts = userBadgeRepository.countPurchasesByBadge();
+        if (counts.isEmpty()) {
+            return 0;
+        }
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BadgePurchaseCounter.class);
+        for (BadgePurchaseStatDto count : counts) {
+            ops.upsert(new Query(Criteria.where("_id").is(count.getBadgeId())),
+                    new Update().max("purchase_count", (long) count.getPurchaseCount()));
+        }
+        ops.execute();
+        return counts.size();
+    }
+
+    private void incrementPurchaseCounters(List<String> badgeIds) {
+        if (badgeIds.size() == 1) {
+            mongoTemplate.upsert(new Query(Criteria.where("_id").is(badgeIds.get(0))),
+                    new Update().inc("purchase_count", 1L), BadgePurchaseCounter.class);
+            return;
+        }
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BadgePurchaseCounter.class);
+        for (String badgeId : badgeIds) {
+            ops.upsert(new Query(Criteria.where("_id").is(badgeId)), new Update().inc("purchase_count", 1L));
+        }
+        ops.execute();
     }
 
     /**
@@ -195,6 +286,8 @@ public class BadgeServiceImpl implements BadgeService {
         if (updatedBadge.getIsActive() != null) {
             existingBadge.setIsActive(updatedBadge.getIsActive());
         }
+        boolean subCategoryChanged = updatedBadge.getSubCategory() != null
+                && !updatedBadge.getSubCategory().equals(existingBadge.getSubCategory());
         if (updatedBadge.getSubCategory() != null) {
             existingBadge.setSubCategory(updatedBadge.getSubCategory());
         }
@@ -205,7 +298,13 @@ public class BadgeServiceImpl implements BadgeService {
             existingBadge.setCarbonThreshold(updatedBadge.getCarbonThreshold());
         }
 
-        return badgeRepository.save(existingBadge);
+        Badge saved = badgeRepository.save(existingBadge);
+        badgeCatalogCache.invalidate();
+        if (subCategoryChanged) {
+            // 同步 user_badges 上冗余的 subcategory
+            syncUserBadgeSubcategory(badgeId, saved.getSubCategory());
+        }
+        return saved;
     }
 
     /**
@@ -217,42 +316,95 @@ public class BadgeServiceImpl implements BadgeService {
     public List<UserBadge> checkAndUnlockCarbonBadges(String userId) {
         User user = userRepository.findByUserid(userId)
                 .orElseThrow(() -> new RuntimeException("用户不存在"));
+        return checkAndUnlockCarbonBadges(user);
+    }
 
+    /**
+     * 基于水位线的解锁检查：
+     * 用户文档记录了上次检查到的碳减排量 (carbonWatermark) 和当时的目录版本。
+     * 目录未变时只需在缓存的阈值数组里二分查找 (watermark, totalCarbon] 区间，
+     * 区间为空（绝大多数情况）则不访问数据库；目录变化后退回到全量检查。
+     */
+    @Transactional
+    public List<UserBadge> checkAndUnlockCarbonBadges(User user) {
+        String userId = user.getUserid();
         double userCarbon = user.getTotalCarbon();
-
-        // 查找所有已启用的、achievement 类型的、用户碳减排已达标的徽章
-        List<Badge> qualifiedBadges = badgeRepository
-                .findByIsActiveTrueAndAcquisitionMethodAndCarbonThresholdLessThanEqual("achievement", userCarbon);
-
-        if (qualifiedBadges.isEmpty()) {
+        BadgeCatalogCache.Snapshot catalog = badgeCatalogCache.snapshot();
+        User.BadgeProgress progress = user.getBadgeProgress();
+        boolean watermarkValid = progress != null && progress.getCatalogVersion() == catalog.getVersion();
+
+        // 查找用户碳减排已达标、且水位线之后新达标的徽章
+        List<Badge> qualifiedBadges = watermarkValid
+                ? catalog.thresholdsBetween(progress.getCarbonWatermark(), userCarbon)
+                : catalog.thresholdsUpTo(userCarbon);
+        if (watermarkValid && qualifiedBadges.isEmpty()) {
+            // 水位线无需推进：下次检查的区间仍从旧水位线开始，结果相同
             return List.of();
         }
 
-        // 获取用户已拥有的徽章 ID 集合
-        List<UserBadge> ownedBadges = userBadgeRepository.findByUserId(userId);
-        Set<String> ownedBadgeIds = ownedBadges.stream()
-                .map(UserBadge::getBadgeId)
-                .collect(Collectors.toSet());
-
-        // 过滤出用户尚未拥有的徽章，逐个解锁
         List<UserBadge> newlyUnlocked = new ArrayList<>();
-        for (Badge badge : qualifiedBadges) {
-            if (!ownedBadgeIds.contains(badge.getBadgeId())) {
-                UserBadge newBadge = new UserBadge();
-                newBadge.setUserId(userId);
-                newBadge.setBadgeId(badge.getBadgeId());
-                newBadge.setUnlockedAt(new Date());
-                newBadge.setDisplay(false);
-                newBadge.setCreatedAt(new Date());
-                newBadge.setCategory(badge.getCategory());
-                newBadge.setSubcategory(badge.getSubCategory());
-                newlyUnlocked.add(userBadgeRepository.save(newBadge));
+        if (!qualifiedBadges.isEmpty()) {
+            // 只查询候选徽章中用户已拥有的部分
+            List<String> qualifiedIds = qualifiedBadges.stream().map(Badge::getBadgeId).toList();
+            Set<String> ownedBadgeIds = userBadgeRepository.findByUserIdAndBadgeIdIn(userId, qualifiedIds).stream()
+                    .map(UserBadge::getBadgeId)
+                    .collect(Collectors.toSet());
+
+            for (Badge badge : qualifiedBadges) {
+                if (!ownedBadgeIds.contains(badge.getBadgeId())) {
+                    UserBadge newBadge = new UserBadge();
+                    newBadge.setUserId(userId);
+                    newBadge.setBadgeId(badge.getBadgeId());
+                    newBadge.setUnlockedAt(new Date());
+                    newBadge.setDisplay(false);
+                    newBadge.setCreatedAt(new Date());
+                    newBadge.setCategory(badge.getCategory());
+                    newBadge.setSubcategory(badge.getSubCategory());
+                    newlyUnlocked.add(newBadge);
+                }
+            }
+            if (!newlyUnlocked.isEmpty()) {
+                newlyUnlocked = userBadgeRepository.saveAll(newlyUnlocked);
+                // 与原统计口径一致：按 user_badges 条数计数，成就解锁也计入
+                incrementPurchaseCounters(newlyUnlocked.stream().map(UserBadge::getBadgeId).toList());
             }
         }
 
+        // 推进水位线（只更新该字段，不覆盖用户文档其它字段）；有新徽章时更新背包版本号
+        Update update = new Update().set("badgeProgress.carbonWatermark", userCarbon)
+                .set("badgeProgress.catalogVersion", catalog.getVersion());
+        mongoTemplate.updateFirst(new Query(Criteria.where("userid").is(userId)), update, User.class);
+        if (!newlyUnlocked.isEmpty()) {
+            bumpBadgeVersion(userId);
+        }
+        User.BadgeProgress updated = progress != null ? progress : new User.BadgeProgress();
+        updated.setCarbonWatermark(userCarbon);
+        updated.setCatalogVersion(catalog.getVersion());
+        user.setBadgeProgress(updated);
+
         return newlyUnlocked;
     }
 
+    /**
+     * 为缺少或过期 subcategory 的 user_badges 补齐冗余字段（启动时执行，可重复执行）
+     * 每个徽章一次 updateMany，数据已一致时不产生写入
+     */
+    public long backfillUserBadgeSubcategories() {
+        long updated = 0;
+        for (Badge badge : badgeRepository.findAll()) {
+            if (badge.getBadgeId() != null && badge.getSubCategory() != null) {
+                updated += syncUserBadgeSubcategory(badge.getBadgeId(), badge.getSubCategory());
+            }
+        }
+        return updated;
+    }
+
+    private long syncUserBadgeSubcategory(String badgeId, String subCategory) {
+        Query query = new Query(Criteria.where("badge_id").is(badgeId).and("subcategory").ne(subCategory));
+        return mongoTemplate.updateMulti(query, new Update().set("subcategory", subCategory), UserBadge.class)
+                .getModifiedCount();
+    }
+
     /**
      * 5. 删除徽章（管理员用）
      */
@@ -263,6 +415,7 @@ public class BadgeServiceImpl implements BadgeService {
 
         // 删除徽章本身
         badgeRepository.delete(badge);
+        badgeCatalogCache.invalidate();
 
         // 可选：同时删除所有用户持有的该徽章
         // List<UserBadge> userBadges = userBadgeRepository.findByBadgeId(badgeId);
@@ -0,0 +1,202 @@
+package com.example.EcoGo.service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for one upstream dependency.
+ * <ul>
+ *   <li>Outcomes are counted in a rolling window of one-second buckets. Once the window holds
+ *       enough calls and the failure rate reaches the threshold, the breaker opens and calls are
+ *       rejected without touching the network.</li>
+ *   <li>After the open period a single probe is let through (half-open). Its success closes the
+ *       breaker and its failure opens it again.</li>
+ *   <li>{@link #timeout()} adapts to the upstream: twice the p99 of recent successful calls,
+ *       clamped to [minTimeout, maxTimeout]. It is maxTimeout until there are enough samples.</li>
+ * </ul>
+ * Every method is a short synchronized section, so the rejected path costs microseconds.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * @param windowSeconds     length of the rolling outcome window
+     * @param minCalls          calls needed in the window before the failure rate is judged
+     * @param failureRate       failure ratio (0-1) that opens the breaker
+     * @param openFor           how long to reject before probing
+     * @param minTimeout        lower bound for the adaptive timeout
+     * @param maxTimeout        upper bound, and the timeout used until latencies are known
+     */
+    public record Config(int windowSeconds, int minCalls, double failureRate, Duration openFor,
+                         Duration minTimeout, Duration maxTimeout) {
+
+        public static Config defaults(Duration maxTimeout) {
+            return new Config(30, 5, 0.5, Duration.ofSeconds(15), Duration.ofMillis(500), maxTimeout);
+        }
+    }
+
+    private static final int LATENCY_SAMPLES = 128;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    private static final int RECOMPUTE_EVERY = 16;
+
+    private final String name;
+    private final Config config;
+    private final LongSupplier clock; // nanoTime
+    private final Consumer<String> outcomes; // "success" / "failure" / "rejected", for metrics
+    private final long epoch; // window seconds count from here, so they are never negative
+
+    // Rolling window: bucket i covers second (bucketSecond[i]); guarded by this
+    private final long[] bucketSecond;
+    private final int[] bucketCalls;
+    private final int[] bucketFailures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int latencyNext;
+    private int sinceRecompute;
+    private long timeoutNanos;
+
+    public CircuitBreaker(String name, Config config) {
+        this(name, config, System::nanoTime, outcome -> { });
+    }
+
+    CircuitBreaker(String name, Config config, LongSupplier clock, Consumer<String> outcomes) {
+        this.name = name;
+        this.config = config;
+        this.clock = clock;
+        this.outcomes = outcomes;
+        this.epoch = clock.getAsLong();
+        this.bucketSecond = new long[config.windowSeconds()];
+        this.bucketCalls = new int[config.windowSeconds()];
+        this.bucketFailures = new int[config.windowSeconds()];
+        Arrays.fill(bucketSecond, -1);
+        this.timeoutNanos = config.maxTimeout().toNanos();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Whether a call may go out now. A caller that gets true must report exactly one of
+     * {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < config.openFor().toNanos()) {
+                outcomes.accept("rejected");
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                outcomes.accept("rejected");
+                return false;
+            }
+            probeInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess(long latencyNanos) {
+        outcomes.accept("success");
+        record(false);
+        recordLatency(latencyNanos);
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            probeInFlight = false;
+            resetWindow();
+        }
+    }
+
+    public synchronized void onFailure() {
+        outcomes.accept("failure");
+        record(true);
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED && shouldOpen()) {
+            open();
+        }
+    }
+
+    /** The call was abandoned (e.g. cancelled) and says nothing about the upstream. */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /** Timeout to use for the next call. */
+    public synchronized Duration timeout() {
+        return Duration.ofNanos(timeoutNanos);
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        probeInFlight = false;
+    }
+
+    private boolean shouldOpen() {
+        long now = currentSecond();
+        int calls = 0;
+        int failures = 0;
+        for (int i = 0; i < bucketSecond.length; i++) {
+            if (now - bucketSecond[i] < bucketSecond.length) {
+                calls += bucketCalls[i];
+                failures += bucketFailures[i];
+            }
+        }
+        return calls >= config.minCalls() && failures >= calls * config.failureRate();
+    }
+
+    private void record(boolean failure) {
+        long second = currentSecond();
+        int i = (int) (second % bucketSecond.length);
+        if (bucketSecond[i] != second) {
+            bucketSecond[i] = second;
+            bucketCalls[i] = 0;
+            bucketFailures[i] = 0;
+        }
+        bucketCalls[i]++;
+        if (failure) {
+            bucketFailures[i]++;
+        }
+    }
+
+    private void resetWindow() {
+        Arrays.fill(bucketSecond, -1);
+        Arrays.fill(bucketCalls, 0);
+        Arrays.fill(bucketFailures, 0);
+    }
+
+    private long currentSecond() {
+        return (clock.getAsLong() - epoch) / 1_000_000_000L;
+    }
+
+    private void recordLatency(long latencyNanos) {
+        latencies[latencyNext] = latencyNanos;
+        latencyNext = (latencyNext + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+        if (latencyCount >= MIN_LATENCY_SAMPLES && ++sinceRecompute >= RECOMPUTE_EVERY) {
+            sinceRecompute = 0;
+            long[] sorted = Arrays.copyOf(latencies, latencyCount);
+            Arrays.sort(sorted);
+            long p99 = sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.99) - 1)];
+            timeoutNanos = Math.max(config.minTimeout().toNanos(), Math.min(config.maxTimeout().toNanos(), 2 * p99));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.EcoGo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link CircuitBreaker} per upstream (model server, Python backend, NUS NextBus, OpenWeather),
+ * published to Micrometer:
+ * <ul>
+ *   <li>{@value #STATE_GAUGE}{upstream}: 0 closed, 1 open, 2 half-open</li>
+ *   <li>{@value #TIMEOUT_GAUGE}{upstream}: current adaptive timeout in ms</li>
+ *   <li>{@value #CALLS_COUNTER}{upstream, outcome}: success / failure / rejected</li>
+ * </ul>
+ */
+@Component
+public class CircuitBreakerRegistry {
+
+    static final String STATE_GAUGE = "ecogo.upstream.circuit.state";
+    static final String TIMEOUT_GAUGE = "ecogo.upstream.timeout";
+    static final String CALLS_COUNTER = "ecogo.upstream.calls";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakerRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Breaker for the upstream, created with default settings on first use.
+     *
+     * @param maxTimeout the upstream's configured timeout; the adaptive timeout never exceeds it
+     */
+    public CircuitBreaker forUpstream(String upstream, Duration maxTimeout) {
+        return breakers.computeIfAbsent(upstream, name -> create(name, maxTimeout));
+    }
+
+    private CircuitBreaker create(String upstream, Duration maxTimeout) {
+        CircuitBreaker breaker = new CircuitBreaker(upstream, CircuitBreaker.Config.defaults(maxTimeout),
+                System::nanoTime,
+                outcome -> Counter.builder(CALLS_COUNTER).tag("upstream", upstream).tag("outcome", outcome)
+                        .register(meterRegistry).increment());
+        Gauge.builder(STATE_GAUGE, breaker, b -> b.state().ordinal())
+                .tag("upstream", upstream)
+                .register(meterRegistry);
+        Gauge.builder(TIMEOUT_GAUGE, breaker, b -> b.timeout().toMillis())
+                .tag("upstream", upstream)
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        return breaker;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.EcoGo.service;
+
+import com.example.EcoGo.model.Goods;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 商品目录的内存快照
+ * 整个 goods 集合按 _id 排序读入一次，预先算好商品列表（按分类 × VIP）、兑换列表和优惠券列表，
+ * 读接口在稳定状态下不访问 Mongo。快照不可变，本节点的增删改/批量改库存后调用 {@link #invalidate()}，
+ * 下一次读取时整体替换；其他节点的修改最多 {@link #MAX_AGE_MILLIS} 后生效。
+ * 商品数超过 {@link #MAX_ITEMS} 时不做快照（{@link Snapshot#isComplete()} 为 false），调用方回退到索引查询。
+ */
+@Component
+public class GoodsCatalogCache {
+
+    static final long MAX_AGE_MILLIS = 60 * 1000L;
+    static final int MAX_ITEMS = 5000;
+    static final String ALL_CATEGORIES = "";
+    // 优惠券类型的唯一判定规则：忽略大小写和首尾空白；Mongo 回退查询用同一个正则
+    static final Pattern VOUCHER_TYPE = Pattern.compile("^\\s*voucher\\s*$", Pattern.CASE_INSENSITIVE);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private InventoryStore inventoryStore;
+
+    private volatile Snapshot snapshot;
+
+    static boolean isVoucher(Goods g) {
+        return g.getType() != null && VOUCHER_TYPE.matcher(g.getType()).matches();
+    }
+
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null || current.isExpired()) {
+            synchronized (this) {
+                current = snapshot;
+                if (current == null || current.isExpired()) {
+                    current = load();
+                    snapshot = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private Snapshot load() {
+        List<Goods> goods = mongoTemplate.find(
+                new Query().with(Sort.by(Sort.Direction.ASC, "_id")).limit(MAX_ITEMS + 1), Goods.class);
+        if (goods.size() > MAX_ITEMS) {
+            return Snapshot.incomplete();
+        }
+        // 库存只在 inventory 中，一次读全量填到 Goods.stock
+        Map<String, Integer> stock = inventoryStore.allQuantities();
+        goods.forEach(g -> g.setStock(stock.getOrDefault(g.getId(), 0)));
+        return Snapshot.of(goods);
+    }
+
+    /**
+     * 不可变的目录快照
+     * version 由每个商品的 (id, updatedAt, stock) 计算，同样的数据在所有节点上得到同样的值，可直接用作 ETag。
+     */
+    public static final class Snapshot {
+        private final boolean complete;
+        private final long version;
+        private final long loadedAt;
+        // key = 分类（ALL_CATEGORIES 表示全部），value = 非 voucher 商品
+        private final Map<String, List<Goods>> catalog;
+        private final Map<String, List<Goods>> catalogNoVip;
+        private final List<Goods> redemption;
+        private final List<Goods> coupons;
+        private final List<Goods> couponsNoVip;
+
+        private Snapshot(boolean complete, long version, Map<String, List<Goods>> catalog,
+                         Map<String, List<Goods>> catalogNoVip, List<Goods> redemption,
+                         List<Goods> coupons, List<Goods> couponsNoVip) {
+            this.complete = complete;
+            this.version = version;
+            this.loadedAt = System.currentTimeMillis();
+            this.catalog = catalog;
+            this.catalogNoVip = catalogNoVip;
+            this.redemption = redemption;
+            this.coupons = coupons;
+            this.couponsNoVip = couponsNoVip;
+        }
+
+        static Snapshot incomplete() {
+            return new Snapshot(false, -1L, Map.of(), Map.of(), List.of(), List.of(), List.of());
+        }
+
+        public static Snapshot of(List<Goods> goods) {
+            List<Goods> sorted = new ArrayList<>(goods);
+            sorted.sort((a, b) -> String.valueOf(a.getId()).compareTo(String.valueOf(b.getId())));
+
+            Map<String, List<Goods>> catalog = new HashMap<>();
+            Map<String, List<Goods>> catalogNoVip = new HashMap<>();
+            List<Goods> redemption = new ArrayList<>();
+            List<Goods> coupons = new ArrayList<>();
+            List<Goods> couponsNoVip = new ArrayList<>();
+            StringBuilder key = new StringBuilder();
+
+            for (Goods g : sorted) {
+                key.append(g.getId()).append(':')
+                        .append(g.getUpdatedAt() == null ? 0 : g.getUpdatedAt().getTime()).append(':')
+                        .append(g.getStock()).append('|');
+                boolean noVip = g.getVipLevelRequired() == null || g.getVipLevelRequired() == 0;
+
+                if (isVoucher(g)) {
+                    if (Boolean.TRUE.equals(g.getIsActive()) && Boolean.TRUE.equals(g.getIsForRedemption())) {
+                        coupons.add(g);
+                        if (noVip) {
+                            couponsNoVip.add(g);
+                        }
+                    }
+                } else {
+                    String category = g.getCategory() == null ? "" : g.getCategory().trim().toLowerCase();
+                    add(catalog, category, g);
+                    if (noVip) {
+                        add(catalogNoVip, category, g);
+                    }
+                }
+                if (Boolean.TRUE.equals(g.getIsForRedemption()) && g.getStock() != null && g.getStock() > 0) {
+                    redemption.add(g);
+                }
+            }
+            catalog.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            catalogNoVip.replaceAll((k, v) -> Collections.unmodifiableList(v));
+            return new Snapshot(true, key.toString().hashCode() & 0xffffffffL, catalog, catalogNoVip,
+                    Collections.unmodifiableList(redemption), Collections.unmodifiableList(coupons),
+                    Collections.unmodifiableList(couponsNoVip));
+        }
+
+
+        private static void add(Map<String, List<Goods>> view, String category, Goods g) {
+            view.computeIfAbsent(ALL_CATEGORIES, k -> new ArrayList<>()).add(g);
+            if (!category.isEmpty()) {
+                view.computeIfAbsent(category, k -> new ArrayList<>()).add(g);
+            }
+        }
+
+        /**
+         * 非 voucher 商品，按 _id 排序
+         *
+         * @param category 小写分类，null 或空串表示全部
+         */
+        public List<Goods> catalog(String category, boolean vipActive) {
+            Map<String, List<Goods>> view = vipActive ? catalog : catalogNoVip;
+            return view.getOrDefault(category == null ? ALL_CATEGORIES : category, List.of());
+        }
+
+        /**
+         * 可兑换且有库存的商品（含 voucher）
+         */
+        public List<Goods> redemption() {
+            return redemption;
+        }
+
+        /**
+         * 启用中、可兑换的 voucher
+         */
+        public List<Goods> coupons(boolean vipActive) {
+            return vipActive ? coupons : couponsNoVip;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - loadedAt > MAX_AGE_MILLIS;
+        }
+    }
+}
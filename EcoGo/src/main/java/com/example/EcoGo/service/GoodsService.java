@@ -2,7 +2,11 @@ package com.example.EcoGo.service;
 
 import com.example.EcoGo.model.Goods;
 import com.example.EcoGo.dto.BatchStockUpdateRequest;
+import com.example.EcoGo.dto.PageResponse;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public interface GoodsService {
     // 创建商品
@@ -16,12 +20,29 @@ public interface GoodsService {
     
     // 获取所有商品
     List<Goods> getAllGoods();
+
+    // 商品目录查询（排除 voucher；筛选与分页在 Mongo 中完成，page 从 1 开始）
+    // category / keyword / isForRedemption 为 null 表示不筛选；vipActive=false 时只返回无需 VIP 的商品
+    PageResponse<Goods> searchGoods(String category, String keyword, Boolean isForRedemption,
+                                    boolean vipActive, int page, int size);
+
+    // 可兑换且有库存的商品
+    List<Goods> getRedemptionGoods();
+
+    // 优惠券市场：启用中、可兑换的 voucher；vipActive=false 时只返回无需 VIP 的
+    List<Goods> getVoucherMarketplace(boolean vipActive);
+
+    // 商品目录版本号（用作 ETag），无法提供时返回 -1
+    long getCatalogVersion();
     
     // 删除所有商品
     void deleteAllGoods();
     
     // 根据ID获取商品
     Goods getGoodsById(String id);
+
+    // 按ID批量获取商品（一次查询，不含库存），key 为商品ID，不存在的ID不在结果中
+    Map<String, Goods> getGoodsByIds(Collection<String> ids);
     
     // 批量更新商品库存
     void batchUpdateStock(BatchStockUpdateRequest request);
@@ -29,6 +50,30 @@ public interface GoodsService {
     // 兑换用：扣库存
     void reserveStock(String goodsId, int quantity);
 
+    // 兑换用：多商品一次扣库存（goodsId -> 数量），全部成功或全部不扣
+    void reserveStock(Map<String, Integer> quantities);
+
+    // 兑换用：同上，扣减按 reservationId（saga id）记在库存上，之后确认或按它撤销
+    void reserveStock(Map<String, Integer> quantities, String reservationId);
+
+    // 兑换完成：去掉 reservationId 的标记
+    void confirmStock(Collection<String> goodsIds, String reservationId);
+
+    // 撤销 reservationId 扣过的库存；没扣成或已撤销的不会多加，可重复调用
+    void cancelStock(Collection<String> goodsIds, String reservationId);
+
+    // 库存上还留着标记的 reservationId -> goodsId，最多扫 limit 个库存文档
+    Map<String, Set<String>> findPendingReservations(int limit);
+
     // 兑换失败回滚库存
     void releaseStock(String goodsId, int quantity);
+
+    // 兑换失败回滚多商品库存
+    void releaseStock(Map<String, Integer> quantities);
+
+    // 抢购商品：设置库存分片数（<= 1 关闭分片）
+    void setInventoryShards(String goodsId, int shards);
+
+    // 把 goods 文档中遗留的 stock 字段迁移到 inventory，返回处理的商品数
+    long backfillInventoryFromGoodsStock();
 }
\ No newline at end of file
@@ -5,10 +5,13 @@ import com.example.EcoGo.model.Inventory;
 import com.example.EcoGo.repository.GoodsRepository;
 import com.example.EcoGo.repository.InventoryRepository;
 import com.example.EcoGo.dto.BatchStockUpdateRequest;
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.exception.BusinessException;
 
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Service;
 
@@ -16,14 +19,21 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.Date;
+import java.util.regex.Pattern;
 
 @Service
 public class GoodsServiceImpl implements GoodsService {
 
-    private static final String INVENTORY_QUANTITY_FIELD = "quantity";
+    private static final String OUT_OF_STOCK = "OUT_OF_STOCK";
 
     @Autowired
     private InventoryRepository inventoryRepository;
@@ -31,57 +41,128 @@ public class GoodsServiceImpl implements GoodsService {
     @Autowired
     private org.springframework.data.mongodb.core.MongoTemplate mongoTemplate;
 
+    @Autowired
+    private GoodsCatalogCache catalogCache;
+
+    @Autowired
+    private InventoryStore inventoryStore;
+
     @Override
     public void reserveStock(String goodsId, int quantity) {
-    if (quantity <= 0) quantity = 1;
-
-    Query query = new Query(
-            Criteria.where("goodsId").is(goodsId)
-                    .and(INVENTORY_QUANTITY_FIELD).gte(quantity)
-    );
+        reserveStock(goodsId, quantity, null);
+    }
 
-    Update update = new Update()
-            .inc(INVENTORY_QUANTITY_FIELD, -quantity)
-            .set("updatedAt", new Date());
+    private void reserveStock(String goodsId, int quantity, String reservationId) {
+        if (quantity <= 0) quantity = 1;
+        admit(goodsId);
 
-    FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true);
+        Integer remaining = reservationId == null
+                ? inventoryStore.reserve(goodsId, quantity)
+                : inventoryStore.reserve(goodsId, quantity, reservationId);
+        if (remaining == null) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, OUT_OF_STOCK);
+        }
+        if (remaining == 0) {
+            // 售罄：兑换列表需要立即去掉该商品
+            catalogCache.invalidate();
+        }
+    }
 
-    Inventory after = mongoTemplate.findAndModify(query, update, options, Inventory.class, "inventory");
-    if (after == null) {
-        throw new BusinessException(ErrorCode.PARAM_ERROR, "OUT_OF_STOCK");
+    // 多商品一次扣减：一条有序 bulk，任一商品库存不足则全部回滚
+    @Override
+    public void reserveStock(Map<String, Integer> quantities) {
+        reserveStock(quantities, null);
     }
 
-    // 同步 Goods.stock（兼容 mobile/redemption 的 goods.getStock() > 0 过滤）
-    goodsRepository.findById(goodsId).ifPresent(g -> {
-        g.setStock(after.getQuantity());
-        g.setUpdatedAt(new Date());
-        goodsRepository.save(g);
-        });
+    @Override
+    public void reserveStock(Map<String, Integer> quantities, String reservationId) {
+        Map<String, Integer> normalized = normalizeQuantities(quantities);
+        if (normalized.isEmpty()) {
+            return;
+        }
+        if (normalized.size() == 1) {
+            Map.Entry<String, Integer> only = normalized.entrySet().iterator().next();
+            reserveStock(only.getKey(), only.getValue(), reservationId);
+            return;
+        }
+
+        normalized.keySet().forEach(this::admit);
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        normalized.forEach((id, qty) -> deltas.put(id, -qty));
+        Optional<String> failed = reservationId == null
+                ? inventoryStore.applyAll(deltas)
+                : inventoryStore.applyAll(deltas, reservationId);
+        if (failed.isPresent()) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, OUT_OF_STOCK + ": " + failed.get());
+        }
+        if (inventoryStore.anySoldOut(normalized.keySet())) {
+            catalogCache.invalidate();
+        }
     }
 
     @Override
     public void releaseStock(String goodsId, int quantity) {
-        if (quantity <= 0) quantity = 1;
+        releaseStock(Map.of(goodsId, quantity));
+    }
 
-        Query query = new Query(Criteria.where("goodsId").is(goodsId));
+    @Override
+    public void releaseStock(Map<String, Integer> quantities) {
+        Map<String, Integer> normalized = normalizeQuantities(quantities);
+        if (normalized.isEmpty()) {
+            return;
+        }
+        inventoryStore.releaseAll(normalized);
+        // 归还只发生在兑换失败回滚，直接让快照失效，售罄的商品能重新出现
+        catalogCache.invalidate();
+    }
 
-        Update update = new Update()
-                .inc(INVENTORY_QUANTITY_FIELD, quantity)
-                .set("updatedAt", new Date());
+    @Override
+    public void confirmStock(Collection<String> goodsIds, String reservationId) {
+        if (goodsIds == null || goodsIds.isEmpty()) {
+            return;
+        }
+        inventoryStore.confirm(goodsIds, reservationId);
+    }
 
-        FindAndModifyOptions options = FindAndModifyOptions.options().returnNew(true);
+    @Override
+    public Map<String, Set<String>> findPendingReservations(int limit) {
+        return inventoryStore.pendingOps(limit);
+    }
 
-        Inventory after = mongoTemplate.findAndModify(query, update, options, Inventory.class, "inventory");
+    @Override
+    public void cancelStock(Collection<String> goodsIds, String reservationId) {
+        if (goodsIds == null || goodsIds.isEmpty()) {
+            return;
+        }
+        inventoryStore.cancel(goodsIds, reservationId);
+        // 与 releaseStock 一样，售罄的商品能重新出现
+        catalogCache.invalidate();
+    }
 
-        if (after != null) {
-            goodsRepository.findById(goodsId).ifPresent(g -> {
-                g.setStock(after.getQuantity());
-                g.setUpdatedAt(new Date());
-                goodsRepository.save(g);
-            });
-        }   
+    // 分片（抢购）商品先过本地令牌桶，超出限速直接拒绝
+    private void admit(String goodsId) {
+        if (!inventoryStore.admit(goodsId)) {
+            throw new BusinessException(ErrorCode.PRODUCT_BUSY, goodsId);
+        }
+    }
+
+    // 热点商品切换库存分片数（<= 1 关闭分片）
+    @Override
+    public void setInventoryShards(String goodsId, int shards) {
+        getGoodsById(goodsId);
+        inventoryStore.setShards(goodsId, shards);
+        catalogCache.invalidate();
     }
 
+    // 合并同一商品的数量；数量 <= 0 按 1 处理（与单商品接口一致）
+    private Map<String, Integer> normalizeQuantities(Map<String, Integer> quantities) {
+        Map<String, Integer> normalized = new LinkedHashMap<>();
+        if (quantities == null) {
+            return normalized;
+        }
+        quantities.forEach((id, qty) -> normalized.merge(id, (qty == null || qty <= 0) ? 1 : qty, Integer::sum));
+        return normalized;
+    }
 
     @Autowired
     private GoodsRepository goodsRepository;
@@ -109,19 +190,13 @@ public class GoodsServiceImpl implements GoodsService {
 
         Goods saved = goodsRepository.save(goods);
 
-    // ✅ 同步库存到 inventory（id = goodsId）
-        Inventory inv = new Inventory();
-        inv.setId(saved.getId());
-        inv.setGoodsId(saved.getId());
-        inv.setQuantity(saved.getStock() == null ? 0 : saved.getStock());
-        inv.setUpdatedAt(new Date());
-        inventoryRepository.save(inv);
-
-    // ✅ 兼容：Goods.stock 与 inventory.quantity 保持一致
-        saved.setStock(inv.getQuantity());
-        saved.setUpdatedAt(new Date());
-        return goodsRepository.save(saved);
-}
+        // ✅ 库存只存 inventory（id = goodsId），Goods.stock 不落库
+        inventoryStore.setAll(Map.of(saved.getId(), stock));
+
+        saved.setStock(stock);
+        catalogCache.invalidate();
+        return saved;
+    }
 
 
 
@@ -141,7 +216,6 @@ public class GoodsServiceImpl implements GoodsService {
             updatedGoods.setName(goods.getName());
             updatedGoods.setDescription(goods.getDescription());
             updatedGoods.setPrice(goods.getPrice());
-            updatedGoods.setStock(goods.getStock());
             updatedGoods.setCategory(goods.getCategory());
             updatedGoods.setBrand(goods.getBrand());
             updatedGoods.setImageUrl(goods.getImageUrl());
@@ -158,21 +232,15 @@ public class GoodsServiceImpl implements GoodsService {
             updatedGoods.setRedemptionPoints(goods.getRedemptionPoints());
             updatedGoods.setRedemptionLimit(goods.getRedemptionLimit());
             updatedGoods.setUpdatedAt(new Date());
-            updatedGoods.setUpdatedAt(new Date());
             Goods saved = goodsRepository.save(updatedGoods);
 
-            // ✅ 同步库存到 inventory（管理员可能改了 stock）
-            Inventory inv = new Inventory();
-            inv.setId(saved.getId());
-            inv.setGoodsId(saved.getId());
-            inv.setQuantity(saved.getStock() == null ? 0 : saved.getStock());
-            inv.setUpdatedAt(new Date());
-            inventoryRepository.save(inv);
-
-            // ✅ 兼容：Goods.stock 与 inventory.quantity 保持一致
-            saved.setStock(inv.getQuantity());
-            saved.setUpdatedAt(new Date());
-            return goodsRepository.save(saved);
+            // ✅ 库存只存 inventory（管理员可能改了 stock）；分片商品会按分片重新均分
+            int quantity = goods.getStock() == null ? 0 : goods.getStock();
+            inventoryStore.setAll(Map.of(saved.getId(), quantity));
+
+            saved.setStock(quantity);
+            catalogCache.invalidate();
+            return saved;
         } else {
             throw new RuntimeException("Product not found with id " + id);
         }
@@ -183,12 +251,129 @@ public class GoodsServiceImpl implements GoodsService {
     public void deleteGoods(String id) {
         goodsRepository.deleteById(id);
         inventoryRepository.deleteById(id);
+        inventoryStore.deleteShards(id);
+        catalogCache.invalidate();
     }
 
     // 获取所有商品
     @Override
     public List<Goods> getAllGoods() {
-        return goodsRepository.findAll();
+        return withStock(goodsRepository.findAll());
+    }
+
+    // 给一页商品填充库存视图
+    private List<Goods> withStock(List<Goods> goods) {
+        if (goods.isEmpty()) {
+            return goods;
+        }
+        Map<String, Integer> stock = inventoryStore.quantities(goods.stream().map(Goods::getId).toList());
+        goods.forEach(g -> g.setStock(stock.getOrDefault(g.getId(), 0)));
+        return goods;
+    }
+
+    // 商品目录查询：优先走内存快照；快照不可用（商品过多）时走索引查询，只取当前页
+    @Override
+    public PageResponse<Goods> searchGoods(String category, String keyword, Boolean isForRedemption,
+                                           boolean vipActive, int page, int size) {
+        int pageNo = Math.max(1, page);
+        int pageSize = Math.max(1, size);
+        GoodsCatalogCache.Snapshot snapshot = catalogCache.snapshot();
+        if (snapshot.isComplete()) {
+            return searchSnapshot(snapshot, category, keyword, isForRedemption, vipActive, pageNo, pageSize);
+        }
+        Query query = new Query(buildCatalogCriteria(category, keyword, isForRedemption, vipActive));
+        long skip = (long) (pageNo - 1) * pageSize;
+
+        List<Goods> items = withStock(mongoTemplate.find(
+                Query.of(query).with(Sort.by(Sort.Direction.ASC, "_id")).skip(skip).limit(pageSize),
+                Goods.class));
+
+        // 最后一页不满时 total 可直接推算；否则才需要 count
+        long total = (items.size() < pageSize && (skip == 0 || !items.isEmpty()))
+                ? skip + items.size()
+                : mongoTemplate.count(query, Goods.class);
+        return new PageResponse<>(items, total, pageNo, pageSize);
+    }
+
+    private PageResponse<Goods> searchSnapshot(GoodsCatalogCache.Snapshot snapshot, String category,
+                                               String keyword, Boolean isForRedemption, boolean vipActive,
+                                               int pageNo, int pageSize) {
+        String c = category == null || category.isBlank() ? null : category.trim().toLowerCase();
+        List<Goods> view = snapshot.catalog(c, vipActive);
+        if (isForRedemption != null || (keyword != null && !keyword.isEmpty())) {
+            String kw = keyword == null ? "" : keyword.toLowerCase();
+            view = view.stream()
+                    .filter(g -> isForRedemption == null || isForRedemption.equals(g.getIsForRedemption()))
+                    .filter(g -> kw.isEmpty()
+                            || (g.getName() != null && g.getName().toLowerCase().contains(kw))
+                            || (g.getDescription() != null && g.getDescription().toLowerCase().contains(kw)))
+                    .toList();
+        }
+        int total = view.size();
+        long from = (long) (pageNo - 1) * pageSize;
+        List<Goods> items = from >= total
+                ? List.of()
+                : view.subList((int) from, (int) Math.min(from + pageSize, total));
+        return new PageResponse<>(items, total, pageNo, pageSize);
+    }
+
+    @Override
+    public List<Goods> getRedemptionGoods() {
+        GoodsCatalogCache.Snapshot snapshot = catalogCache.snapshot();
+        if (snapshot.isComplete()) {
+            return snapshot.redemption();
+        }
+        // 库存在 inventory：先取有库存的 goodsId，再查可兑换商品
+        List<String> inStock = inventoryStore.inStockIds();
+        return withStock(mongoTemplate.find(new Query(Criteria.where("isForRedemption").is(true)
+                .and("_id").in(inStock)).with(Sort.by(Sort.Direction.ASC, "_id")), Goods.class));
+    }
+
+    @Override
+    public List<Goods> getVoucherMarketplace(boolean vipActive) {
+        GoodsCatalogCache.Snapshot snapshot = catalogCache.snapshot();
+        if (snapshot.isComplete()) {
+            return snapshot.coupons(vipActive);
+        }
+        Criteria criteria = Criteria.where("type").regex(GoodsCatalogCache.VOUCHER_TYPE)
+                .and("isActive").is(true)
+                .and("isForRedemption").is(true);
+        if (!vipActive) {
+            criteria = criteria.and("vipLevelRequired").in(null, 0);
+        }
+        return withStock(mongoTemplate.find(new Query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")),
+                Goods.class));
+    }
+
+    @Override
+    public long getCatalogVersion() {
+        return catalogCache.snapshot().getVersion();
+    }
+
+    private Criteria buildCatalogCriteria(String category, String keyword, Boolean isForRedemption,
+                                          boolean vipActive) {
+        List<Criteria> and = new ArrayList<>();
+        // 与快照同一规则：旧数据里 "Voucher"、" voucher " 也算优惠券
+        and.add(Criteria.where("type").not().regex(GoodsCatalogCache.VOUCHER_TYPE));
+        if (category != null && !category.isBlank()) {
+            // 创建/更新时 category 已统一转成小写
+            and.add(Criteria.where("category").is(category.trim().toLowerCase()));
+        }
+        if (isForRedemption != null) {
+            and.add(Criteria.where("isForRedemption").is(isForRedemption));
+        }
+        if (!vipActive) {
+            // in(null, 0) 同时匹配字段缺失的旧数据
+            and.add(Criteria.where("vipLevelRequired").in(null, 0));
+        }
+        if (keyword != null && !keyword.isEmpty()) {
+            // 保持原来的“不区分大小写的子串匹配”语义
+            Pattern pattern = Pattern.compile(Pattern.quote(keyword), Pattern.CASE_INSENSITIVE);
+            and.add(new Criteria().orOperator(
+                    Criteria.where("name").regex(pattern),
+                    Criteria.where("description").regex(pattern)));
+        }
+        return new Criteria().andOperator(and.toArray(new Criteria[0]));
     }
 
     // 删除所有商品
@@ -196,54 +381,97 @@ public class GoodsServiceImpl implements GoodsService {
     public void deleteAllGoods() {
         goodsRepository.deleteAll();
         inventoryRepository.deleteAll();
+        inventoryStore.deleteAllShards();
+        catalogCache.invalidate();
     }
 
 
     // 根据ID获取商品
     @Override
     public Goods getGoodsById(String id) {
-        return goodsRepository.findById(id)
+        Goods goods = goodsRepository.findById(id)
                 .orElseThrow(() -> new BusinessException(ErrorCode.PRODUCT_NOT_EXIST, id));
+        withStock(List.of(goods));
+        return goods;
+    }
+
+    @Override
+    public Map<String, Goods> getGoodsByIds(Collection<String> ids) {
+        Map<String, Goods> byId = new LinkedHashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return byId;
+        }
+        goodsRepository.findAllById(new LinkedHashSet<>(ids)).forEach(g -> byId.put(g.getId(), g));
+        return byId;
     }
 
     @Override
     public void batchUpdateStock(BatchStockUpdateRequest request) {
+        // 先整体校验，再用 bulk 写 inventory；不再读改写 goods 文档
+        Map<String, Integer> newStocks = new LinkedHashMap<>();
+        Map<String, Integer> deltas = new LinkedHashMap<>();
         for (BatchStockUpdateRequest.StockUpdateItem item : request.getUpdates()) {
-            Optional<Goods> goodsOpt = goodsRepository.findById(item.getGoodsId());
-            if (goodsOpt.isPresent()) {
-                Goods goods = goodsOpt.get();
-
-                // 计算最终库存
-                int finalStock;
-                if (item.getNewStock() != null) {
-                    finalStock = item.getNewStock();
-                } else if (item.getStockChange() != null) {
-                    finalStock = goods.getStock() + item.getStockChange();
-                } else {
-                    throw new RuntimeException("库存更新请求缺少 newStock 或 stockChange: " + item.getGoodsId());
-                }
-
-                if (finalStock < 0) {
+            if (item.getNewStock() != null) {
+                if (item.getNewStock() < 0) {
                     throw new RuntimeException("库存不能为负数: 商品ID " + item.getGoodsId());
                 }
-
-                // ✅ 先更新 goods.stock（兼容现有接口）
-                goods.setStock(finalStock);
-                goods.setUpdatedAt(new Date());
-                goodsRepository.save(goods);
-
-                // ✅ 再同步 inventory（真实库存源）
-                Inventory inv = new Inventory();
-                inv.setId(goods.getId());
-                inv.setGoodsId(goods.getId());
-                inv.setQuantity(finalStock);
-                inv.setUpdatedAt(new Date());
-                inventoryRepository.save(inv);
-
+                newStocks.put(item.getGoodsId(), item.getNewStock());
+            } else if (item.getStockChange() != null) {
+                deltas.merge(item.getGoodsId(), item.getStockChange(), Integer::sum);
             } else {
-                throw new RuntimeException("商品未找到: " + item.getGoodsId());
+                throw new RuntimeException("库存更新请求缺少 newStock 或 stockChange: " + item.getGoodsId());
+            }
+        }
+        requireGoodsExist(request.getUpdates().stream()
+                .map(BatchStockUpdateRequest.StockUpdateItem::getGoodsId).distinct().toList());
+
+        try {
+            // stockChange 是条件更新：任一商品会被扣成负数则全部不生效
+            Optional<String> failed = inventoryStore.applyAll(deltas);
+            if (failed.isPresent()) {
+                throw new RuntimeException("库存不能为负数: 商品ID " + failed.get());
+            }
+            inventoryStore.setAll(newStocks);
+        } finally {
+            catalogCache.invalidate();
+        }
+    }
+
+    private void requireGoodsExist(Collection<String> goodsIds) {
+        List<String> found = new ArrayList<>();
+        goodsRepository.findAllById(goodsIds).forEach(g -> found.add(g.getId()));
+        for (String id : goodsIds) {
+            if (!found.contains(id)) {
+                throw new RuntimeException("商品未找到: " + id);
             }
         }
     }
 
-}
\ No newline at end of file
+    // 旧数据：把 goods 文档里遗留的 stock 迁到 inventory（已有 inventory 的以 inventory 为准），然后去掉该字段
+    @Override
+    public long backfillInventoryFromGoodsStock() {
+        Query legacy = new Query(Criteria.where("stock").exists(true));
+        legacy.fields().include("_id").include("stock");
+        List<Document> docs = mongoTemplate.find(legacy, Document.class, "goods");
+        if (docs.isEmpty()) {
+            return 0;
+        }
+        Date now = new Date();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        for (Document doc : docs) {
+            String id = doc.get("_id").toString();
+            Object stock = doc.get("stock");
+            int quantity = stock instanceof Number n ? Math.max(0, n.intValue()) : 0;
+            bulk.upsert(new Query(Criteria.where("_id").is(id)), new Update()
+                    .setOnInsert("goodsId", id)
+                    .setOnInsert(InventoryStore.QUANTITY, quantity)
+                    .setOnInsert("updatedAt", now));
+        }
+        bulk.execute();
+        mongoTemplate.updateMulti(new Query(Criteria.where("stock").exists(true)),
+                new Update().unset("stock"), "goods");
+        catalogCache.invalidate();
+        return docs.size();
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.example.EcoGo.service;
+
+/**
+ * 业务编号生成器（订单号、积分流水 ID、审计 ID）
+ * 生成时不查库、不依赖随机数：同一节点内严格递增，不同节点靠节点号区分。
+ * 编号可以被猜出来，不能用作券码这类凭证，券码见 {@link VoucherCodeGenerator}。
+ */
+public interface IdGenerator {
+
+    /**
+     * 下一个 64 bit 编号，同一实例内严格递增
+     */
+    long nextId();
+
+    /**
+     * 下一个编号的 13 位 Crockford Base32 形式；定长，字典序与数值顺序一致
+     */
+    default String nextKey() {
+        return Base32.encode(nextId());
+    }
+
+    /**
+     * Crockford Base32（去掉易混淆的 I/L/O/U）
+     */
+    final class Base32 {
+
+        static final int LENGTH = 13;
+        private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+        private Base32() {
+        }
+
+        /**
+         * 0-31 对应的字符
+         */
+        static char digit(int value) {
+            return ALPHABET[value];
+        }
+
+        /**
+         * 64 bit -> 13 位（最高位一组只有 4 bit），按无符号数编码
+         */
+        public static String encode(long id) {
+            char[] chars = new char[LENGTH];
+            for (int i = LENGTH - 1; i >= 0; i--) {
+                chars[i] = ALPHABET[(int) (id & 0x1f)];
+                id >>>= 5;
+            }
+            return new String(chars);
+        }
+    }
+}
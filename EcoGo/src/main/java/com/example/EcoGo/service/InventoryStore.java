@@ -0,0 +1,638 @@
+package com.example.EcoGo.service;
+
+import com.example.EcoGo.model.Inventory;
+import com.example.EcoGo.model.InventoryShard;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 库存的唯一数据源：inventory 集合（_id = goodsId）
+ * Goods.stock 不再落库，只是读取时从这里填充的视图。
+ * 多商品扣减用一次有序 bulk 完成，要么全部成功，要么全部回滚。
+ * <p>
+ * 热点商品可以切到分片模式：库存拆到 inventory_shards 的 N 个子计数器上，扣减随机选一个分片，
+ * 不够时读出全部分片和 inventory.quantity（未分片的余量），从多个来源凑齐。分片商品的请求先过本地令牌桶，
+ * 确认总量不足后短时间内直接判定售罄，不再访问 Mongo。
+ * 分片上的所有写入（扣减、归还、切换分片、管理员改库存）都是 $inc，不会覆盖进行中的扣减。
+ * <p>
+ * 带 opId 的变更在同一次更新里把 {op, qty} 记到文档的 pendingOps 上，之后按 opId {@link #cancel} 撤销
+ * 或 {@link #confirm} 去掉标记；兑换用 saga id 作 opId，崩溃后恢复任务据此只归还真正扣过的库存。
+ */
+@Component
+public class InventoryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryStore.class);
+
+    static final String QUANTITY = "quantity";
+    static final int MAX_SHARDS = 64;
+    static final long SHARD_CONFIG_MAX_AGE_MILLIS = 10 * 1000L;
+    static final long SOLD_OUT_MEMO_MILLIS = 500L;
+    private static final String UPDATED_AT = "updatedAt";
+    private static final String SHARDS = "shards";
+    private static final String GOODS_ID = "goodsId";
+    static final String PENDING_OPS = "pendingOps";
+    static final String PENDING_OP = PENDING_OPS + ".op";
+    static final int GATHER_ROUNDS = 3;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${app.inventory.flash.permits-per-second:2000}")
+    private double permitsPerSecond = 2000;
+
+    @Value("${app.inventory.flash.burst:2000}")
+    private double burst = 2000;
+
+    // goodsId -> 分片数，只包含分片模式的商品
+    private volatile Map<String, Integer> shardCounts;
+    private volatile long shardCountsLoadedAt;
+    private final Map<String, TokenBucket> admission = new ConcurrentHashMap<>();
+    private final Map<String, Long> soldOutAt = new ConcurrentHashMap<>();
+
+    // 批量读取库存，没有 inventory 记录的商品视为 0
+    public Map<String, Integer> quantities(Collection<String> goodsIds) {
+        Map<String, Integer> result = new HashMap<>();
+        if (goodsIds == null || goodsIds.isEmpty()) {
+            return result;
+        }
+        for (Inventory inv : mongoTemplate.find(new Query(Criteria.where("_id").in(goodsIds)), Inventory.class)) {
+            result.put(inv.getId(), inv.getQuantity() == null ? 0 : inv.getQuantity());
+        }
+        List<String> sharded = shardedAmong(goodsIds);
+        if (!sharded.isEmpty()) {
+            addShardQuantities(result, new Query(Criteria.where(GOODS_ID).in(sharded)));
+        }
+        return result;
+    }
+
+    public Map<String, Integer> allQuantities() {
+        Map<String, Integer> result = new HashMap<>();
+        for (Inventory inv : mongoTemplate.findAll(Inventory.class)) {
+            result.put(inv.getId(), inv.getQuantity() == null ? 0 : inv.getQuantity());
+        }
+        addShardQuantities(result, new Query());
+        return result;
+    }
+
+    // 有库存的 goodsId（含分片商品）
+    public List<String> inStockIds() {
+        Query query = new Query(Criteria.where(QUANTITY).gt(0));
+        query.fields().include("_id");
+        List<String> ids = new ArrayList<>(mongoTemplate.find(query, Inventory.class).stream()
+                .map(Inventory::getId).toList());
+        if (!shardCounts().isEmpty()) {
+            mongoTemplate.findDistinct(new Query(Criteria.where(QUANTITY).gt(0)), GOODS_ID,
+                    InventoryShard.class, String.class).stream()
+                    .filter(id -> !ids.contains(id))
+                    .forEach(ids::add);
+        }
+        return ids;
+    }
+
+    private void addShardQuantities(Map<String, Integer> result, Query query) {
+        if (shardCounts().isEmpty()) {
+            return;
+        }
+        for (InventoryShard shard : mongoTemplate.find(query, InventoryShard.class)) {
+            int qty = shard.getQuantity() == null ? 0 : shard.getQuantity();
+            result.merge(shard.getGoodsId(), qty, Integer::sum);
+        }
+    }
+
+    private List<String> shardedAmong(Collection<String> goodsIds) {
+        Map<String, Integer> counts = shardCounts();
+        return goodsIds.stream().filter(counts::containsKey).toList();
+    }
+
+    /**
+     * 单商品条件扣减
+     *
+     * @return 扣减后的库存（分片商品只有扫完所有分片才会返回 0，否则返回正数）；
+     *         库存不足或没有 inventory 记录时返回 null
+     */
+    public Integer reserve(String goodsId, int quantity) {
+        return reserve(goodsId, quantity, null);
+    }
+
+    // 同上，opId 不为空时扣减记到 pendingOps，之后可按 opId 撤销
+    public Integer reserve(String goodsId, int quantity, String opId) {
+        int shards = shardCount(goodsId);
+        if (shards > 1) {
+            return reserveSharded(goodsId, shards, quantity, opId);
+        }
+        Query query = new Query(Criteria.where("_id").is(goodsId).and(QUANTITY).gte(quantity));
+        Update update = withOp(new Update().inc(QUANTITY, -quantity).set(UPDATED_AT, new Date()), opId, -quantity);
+        Inventory after = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Inventory.class);
+        if (after == null && refreshIfShardedElsewhere(goodsId)) {
+            // 其他节点刚把这个商品切到分片模式，本地配置还没刷新
+            return reserve(goodsId, quantity, opId);
+        }
+        return after == null ? null : after.getQuantity();
+    }
+
+    /**
+     * 分片商品的本地预准入：令牌桶限速
+     *
+     * @return false 表示本节点对该商品的请求已超过限速，应直接拒绝
+     */
+    public boolean admit(String goodsId) {
+        if (shardCount(goodsId) <= 1) {
+            return true;
+        }
+        return admission.computeIfAbsent(goodsId, id -> new TokenBucket(permitsPerSecond, burst)).tryAcquire();
+    }
+
+    Integer reserveSharded(String goodsId, int shards, int quantity, String opId) {
+        Long soldOut = soldOutAt.get(goodsId);
+        if (soldOut != null && System.currentTimeMillis() - soldOut < SOLD_OUT_MEMO_MILLIS) {
+            return null;
+        }
+        // 快路径：随机一个分片够扣
+        String shardId = InventoryShard.idFor(goodsId, ThreadLocalRandom.current().nextInt(shards));
+        InventoryShard after = mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(shardId).and(QUANTITY).gte(quantity)),
+                withOp(new Update().inc(QUANTITY, -quantity).set(UPDATED_AT, new Date()), opId, -quantity),
+                FindAndModifyOptions.options().returnNew(true), InventoryShard.class);
+        if (after != null) {
+            // 其余分片可能还有库存，这里不能判定售罄
+            return Math.max(after.getQuantity() == null ? 0 : after.getQuantity(), 1);
+        }
+        return gather(goodsId, quantity, opId);
+    }
+
+    /**
+     * 慢路径：读出该商品的全部分片和未分片余量，从多个来源凑齐 quantity
+     * 每个来源都是条件 $inc，中途被并发请求抢走时把已扣的归还再重读，最多 {@value #GATHER_ROUNDS} 轮。
+     * 只有读到的总量确实不足时才记售罄标记；竞争导致的失败只返回 null。
+     *
+     * @return 扣减后的总库存（读到的总量减去本次扣减），0 表示已售罄
+     */
+    private Integer gather(String goodsId, int quantity, String opId) {
+        for (int round = 0; round < GATHER_ROUNDS; round++) {
+            Map<String, Integer> available = sources(goodsId);
+            int total = available.values().stream().mapToInt(Integer::intValue).sum();
+            if (total < quantity) {
+                soldOutAt.put(goodsId, System.currentTimeMillis());
+                return null;
+            }
+            Map<String, Integer> taken = new LinkedHashMap<>();
+            int need = quantity;
+            for (Map.Entry<String, Integer> e : available.entrySet()) {
+                int qty = Math.min(e.getValue(), need);
+                if (qty > 0 && take(goodsId, e.getKey(), qty, opId)) {
+                    taken.put(e.getKey(), qty);
+                    need -= qty;
+                }
+                if (need == 0) {
+                    return total - quantity;
+                }
+            }
+            taken.forEach((source, qty) -> {
+                if (opId == null) {
+                    give(goodsId, source, qty);
+                } else {
+                    revert(sourceType(goodsId, source), source, opId, -qty);
+                }
+            });
+        }
+        return null;
+    }
+
+    // 来源 -> 当前数量：各分片（顺序打乱，分散并发请求）在前，未分片余量（key 为 goodsId）在最后
+    private Map<String, Integer> sources(String goodsId) {
+        List<InventoryShard> shards = new ArrayList<>(mongoTemplate.find(
+                new Query(Criteria.where(GOODS_ID).is(goodsId)), InventoryShard.class));
+        Collections.shuffle(shards, ThreadLocalRandom.current());
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (InventoryShard shard : shards) {
+            result.put(shard.getId(), shard.getQuantity() == null ? 0 : shard.getQuantity());
+        }
+        Inventory rest = mongoTemplate.findById(goodsId, Inventory.class);
+        result.put(goodsId, rest == null || rest.getQuantity() == null ? 0 : rest.getQuantity());
+        return result;
+    }
+
+    // 从一个来源（分片 id，或 goodsId 表示未分片余量）条件扣减
+    private boolean take(String goodsId, String source, int quantity, String opId) {
+        Query query = new Query(Criteria.where("_id").is(source).and(QUANTITY).gte(quantity));
+        Update update = withOp(new Update().inc(QUANTITY, -quantity).set(UPDATED_AT, new Date()), opId, -quantity);
+        return mongoTemplate.updateFirst(query, update, sourceType(goodsId, source)).getModifiedCount() > 0;
+    }
+
+    private static Class<?> sourceType(String goodsId, String source) {
+        return source.equals(goodsId) ? Inventory.class : InventoryShard.class;
+    }
+
+    // 加回一个来源；分片已在切换分片时删除的话，加到未分片余量上
+    private void give(String goodsId, String source, int quantity) {
+        Update update = new Update().inc(QUANTITY, quantity).set(UPDATED_AT, new Date());
+        if (!source.equals(goodsId) && mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(source)), update, InventoryShard.class).getMatchedCount() > 0) {
+            return;
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(goodsId)), update, Inventory.class);
+    }
+
+    private void releaseSharded(String goodsId, int shards, int quantity) {
+        give(goodsId, InventoryShard.idFor(goodsId, ThreadLocalRandom.current().nextInt(shards)), quantity);
+        soldOutAt.remove(goodsId);
+    }
+
+    /**
+     * 多商品库存变更，全部成功或全部不生效；成功后去掉标记
+     *
+     * @return 失败的 goodsId；全部成功时为空
+     */
+    public Optional<String> applyAll(Map<String, Integer> deltas) {
+        String opId = new ObjectId().toHexString();
+        Optional<String> failed = applyAll(deltas, opId);
+        if (failed.isEmpty()) {
+            confirm(deltas.keySet(), opId);
+        }
+        return failed;
+    }
+
+    /**
+     * 多商品库存变更，全部成功或全部不生效，成功后标记保留到调用方 confirm / cancel
+     * 扣减是条件更新（quantity >= -delta，不 upsert），增加是 upsert。每条更新顺带在文档的 pendingOps 上
+     * 记下 {opId, delta}，回滚时只对带有该 opId 的文档反向执行，所以不管 bulk 是部分失败、超时还是
+     * 结果未知，都只撤销真正生效的那些变更，重复撤销也不会多加。
+     * 分片商品在 bulk 成功后逐个扣减（同样带标记），失败整体回滚。
+     *
+     * @return 失败的 goodsId；全部成功时为空
+     */
+    public Optional<String> applyAll(Map<String, Integer> deltas, String opId) {
+        Map<String, Integer> plain = new LinkedHashMap<>();
+        Map<String, Integer> sharded = new LinkedHashMap<>();
+        deltas.forEach((id, delta) -> (shardCount(id) > 1 ? sharded : plain).put(id, delta));
+
+        Optional<String> failed = applyPlain(plain, opId);
+        if (failed.isPresent() || sharded.isEmpty()) {
+            return failed;
+        }
+
+        // 先扣减，全部成功后再做增加，这样失败时只需要撤销扣掉的部分
+        try {
+            for (Map.Entry<String, Integer> e : sharded.entrySet()) {
+                String id = e.getKey();
+                if (e.getValue() < 0 && reserveSharded(id, shardCount(id), -e.getValue(), opId) == null) {
+                    cancel(deltas.keySet(), opId);
+                    return Optional.of(id);
+                }
+            }
+        } catch (RuntimeException e) {
+            cancel(deltas.keySet(), opId);
+            throw e;
+        }
+        sharded.forEach((id, delta) -> {
+            if (delta > 0) {
+                releaseSharded(id, shardCount(id), delta);
+            }
+        });
+        return Optional.empty();
+    }
+
+    private Optional<String> applyPlain(Map<String, Integer> deltas, String opId) {
+        List<String> ids = new ArrayList<>(deltas.keySet());
+        if (ids.isEmpty()) {
+            return Optional.empty();
+        }
+        Date now = new Date();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Inventory.class);
+        for (String id : ids) {
+            int delta = deltas.get(id);
+            Update update = withOp(new Update().inc(QUANTITY, delta).set(UPDATED_AT, now), opId, delta);
+            if (delta < 0) {
+                bulk.updateOne(new Query(Criteria.where("_id").is(id).and(QUANTITY).gte(-delta)), update);
+            } else {
+                bulk.upsert(new Query(Criteria.where("_id").is(id)), update.set(GOODS_ID, id));
+            }
+        }
+
+        BulkWriteResult result;
+        try {
+            result = bulk.execute();
+        } catch (RuntimeException e) {
+            // 部分生效或结果未知（超时、主从切换）：按 opId 撤销已生效的部分后再抛出
+            undo(deltas, opId);
+            throw e;
+        }
+        if (result.getMatchedCount() + result.getUpserts().size() == ids.size()) {
+            return Optional.empty();
+        }
+
+        // 有扣减没有命中（库存不足或没有 inventory 记录）：没有打上 opId 的就是失败的商品
+        Query applied = new Query(Criteria.where("_id").in(ids).and(PENDING_OP).is(opId));
+        applied.fields().include("_id");
+        Set<String> appliedIds = new HashSet<>();
+        mongoTemplate.find(applied, Inventory.class).forEach(inv -> appliedIds.add(inv.getId()));
+        String failed = ids.stream().filter(id -> !appliedIds.contains(id)).findFirst().orElse(ids.get(0));
+        undo(deltas, opId);
+        return Optional.of(failed);
+    }
+
+    // 对打上 opId 的文档反向执行，并去掉标记，重复执行不会重复撤销
+    private void undo(Map<String, Integer> deltas, String opId) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        deltas.forEach((id, delta) -> bulk.updateOne(
+                new Query(Criteria.where("_id").is(id).and(PENDING_OP).is(opId)),
+                new Update().inc(QUANTITY, -delta).pull(PENDING_OPS, new Document("op", opId)).set(UPDATED_AT, now)));
+        try {
+            bulk.execute();
+        } catch (RuntimeException e) {
+            // 不覆盖调用方的原始错误；按 opId 可以人工补做
+            log.error("库存回滚失败 opId={} goods={}: {}", opId, deltas.keySet(), e.getMessage());
+        }
+    }
+
+    /**
+     * 按 opId 撤销库存变更：只处理还带着该 opId 的文档（含分片），按记下的数量反向执行
+     * 没生效的、已撤销的都不会再动，重复调用、与 {@link #applyAll} 结果未知时调用都是安全的。
+     */
+    public void cancel(Collection<String> goodsIds, String opId) {
+        if (goodsIds.isEmpty()) {
+            return;
+        }
+        for (Inventory inv : mongoTemplate.find(
+                new Query(Criteria.where("_id").in(goodsIds).and(PENDING_OP).is(opId)), Inventory.class)) {
+            revert(Inventory.class, inv.getId(), opId, sumOf(inv.getPendingOps(), opId));
+        }
+        for (InventoryShard shard : mongoTemplate.find(
+                new Query(Criteria.where(GOODS_ID).in(goodsIds).and(PENDING_OP).is(opId)), InventoryShard.class)) {
+            revert(InventoryShard.class, shard.getId(), opId, sumOf(shard.getPendingOps(), opId));
+        }
+        goodsIds.forEach(soldOutAt::remove);
+    }
+
+    /**
+     * 还带着 pendingOps 标记的 opId -> 这些标记所在的 goodsId（含分片），最多扫 limit 个文档
+     * 正常情况下标记在 confirm / cancel 时就会去掉，留下来的是确认失败或中途崩溃的残留，由恢复任务清理。
+     */
+    public Map<String, Set<String>> pendingOps(int limit) {
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+        Query inventories = new Query(Criteria.where(PENDING_OPS + ".0").exists(true)).limit(limit);
+        inventories.fields().include("_id").include(PENDING_OPS);
+        for (Inventory inv : mongoTemplate.find(inventories, Inventory.class)) {
+            inv.getPendingOps().forEach(op -> result.computeIfAbsent(op.getOp(), k -> new HashSet<>()).add(inv.getId()));
+        }
+        Query shards = new Query(Criteria.where(PENDING_OPS + ".0").exists(true)).limit(limit);
+        shards.fields().include(GOODS_ID).include(PENDING_OPS);
+        for (InventoryShard shard : mongoTemplate.find(shards, InventoryShard.class)) {
+            shard.getPendingOps().forEach(op -> result.computeIfAbsent(op.getOp(), k -> new HashSet<>()).add(shard.getGoodsId()));
+        }
+        return result;
+    }
+
+    // opId 的变更已成定局（如兑换完成）：只去掉标记，数量不动
+    public void confirm(Collection<String> goodsIds, String opId) {
+        if (goodsIds.isEmpty()) {
+            return;
+        }
+        Update update = new Update().pull(PENDING_OPS, new Document("op", opId));
+        mongoTemplate.updateMulti(new Query(Criteria.where("_id").in(goodsIds).and(PENDING_OP).is(opId)),
+                update, Inventory.class);
+        List<String> sharded = shardedAmong(goodsIds);
+        if (!sharded.isEmpty()) {
+            mongoTemplate.updateMulti(new Query(Criteria.where(GOODS_ID).in(sharded).and(PENDING_OP).is(opId)),
+                    update, InventoryShard.class);
+        }
+    }
+
+    // 条件撤销一个文档上 opId 的变更（delta 为当初的变更量）；标记已不在时什么也不做
+    private void revert(Class<?> type, String id, String opId, int delta) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id).and(PENDING_OP).is(opId)),
+                new Update().inc(QUANTITY, -delta).pull(PENDING_OPS, new Document("op", opId))
+                        .set(UPDATED_AT, new Date()), type);
+    }
+
+    private static int sumOf(List<Inventory.PendingOp> ops, String opId) {
+        if (ops == null) {
+            return 0;
+        }
+        return ops.stream().filter(op -> opId.equals(op.getOp())).mapToInt(Inventory.PendingOp::getQty).sum();
+    }
+
+    private static Update withOp(Update update, String opId, int delta) {
+        return opId == null ? update : update.push(PENDING_OPS, new Document("op", opId).append("qty", delta));
+    }
+
+    // 归还库存：没有 inventory 记录（商品已删除）时忽略
+    public void releaseAll(Map<String, Integer> quantities) {
+        Map<String, Integer> plain = new LinkedHashMap<>();
+        quantities.forEach((id, qty) -> {
+            int shards = shardCount(id);
+            if (shards > 1) {
+                releaseSharded(id, shards, qty);
+            } else {
+                plain.put(id, qty);
+            }
+        });
+        if (plain.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        plain.forEach((id, qty) -> bulk.updateOne(new Query(Criteria.where("_id").is(id)),
+                new Update().inc(QUANTITY, qty).set(UPDATED_AT, now)));
+        bulk.execute();
+    }
+
+    // 直接设置库存（创建/修改商品、管理员改库存）；分片商品按与当前总量的差额用 $inc 调整
+    public void setAll(Map<String, Integer> quantities) {
+        Map<String, Integer> plain = new LinkedHashMap<>();
+        quantities.forEach((id, qty) -> {
+            int shards = shardCount(id);
+            if (shards > 1) {
+                adjustSharded(id, shards, qty);
+            } else {
+                plain.put(id, qty);
+            }
+        });
+        if (plain.isEmpty()) {
+            return;
+        }
+        Date now = new Date();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        plain.forEach((id, qty) -> bulk.upsert(new Query(Criteria.where("_id").is(id)), new Update()
+                .set(QUANTITY, qty).set(GOODS_ID, id).set(UPDATED_AT, now)));
+        bulk.execute();
+    }
+
+    /**
+     * 把分片商品的总库存调到 target：增加时均分到各分片，减少时从各来源尽量扣
+     * 读取总量和调整之间发生的扣减不会被覆盖，结果按这段时间的扣减量偏差。
+     */
+    private void adjustSharded(String goodsId, int shards, int target) {
+        Map<String, Integer> available = sources(goodsId);
+        int delta = target - available.values().stream().mapToInt(Integer::intValue).sum();
+        if (delta > 0) {
+            spread(goodsId, shards, delta);
+        } else {
+            int need = -delta;
+            for (Map.Entry<String, Integer> e : available.entrySet()) {
+                int qty = Math.min(e.getValue(), need);
+                if (qty > 0 && take(goodsId, e.getKey(), qty, null)) {
+                    need -= qty;
+                }
+            }
+        }
+        soldOutAt.remove(goodsId);
+    }
+
+    // 把 total 按分片数均分，$inc 到各分片
+    private void spread(String goodsId, int shards, int total) {
+        for (int i = 0; i < shards; i++) {
+            int qty = total / shards + (i < total % shards ? 1 : 0);
+            if (qty > 0) {
+                give(goodsId, InventoryShard.idFor(goodsId, i), qty);
+            }
+        }
+    }
+
+    // 是否有商品库存已经耗尽（分片商品以本地售罄标记为准）
+    public boolean anySoldOut(Collection<String> goodsIds) {
+        List<String> plain = new ArrayList<>();
+        for (String id : goodsIds) {
+            if (shardCount(id) > 1) {
+                if (soldOutAt.containsKey(id)) {
+                    return true;
+                }
+            } else {
+                plain.add(id);
+            }
+        }
+        return !plain.isEmpty() && mongoTemplate.exists(
+                new Query(Criteria.where("_id").in(plain).and(QUANTITY).lte(0)), Inventory.class);
+    }
+
+    /**
+     * 切换分片模式：先把现有分片的库存逐个 $inc 回 inventory，再从 inventory 按新的分片数 $inc 出去
+     * 每次搬运都是“条件扣减来源、再加到目标”，不会丢库存；搬运期间库存始终在某个来源上，
+     * 分片商品的扣减会从 inventory 余量里凑，不会因为切换而失败。
+     *
+     * @param shards <= 1 表示关闭分片
+     */
+    public void setShards(String goodsId, int shards) {
+        int target = Math.min(Math.max(shards, 1), MAX_SHARDS);
+        Date now = new Date();
+
+        if (target > 1) {
+            // 先登记分片数并建好新分片（数量 0），其他节点随后就会按分片模式扣减
+            mongoTemplate.upsert(new Query(Criteria.where("_id").is(goodsId)), new Update()
+                    .set(SHARDS, target).set(GOODS_ID, goodsId).setOnInsert(QUANTITY, 0).set(UPDATED_AT, now),
+                    Inventory.class);
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, InventoryShard.class);
+            for (int i = 0; i < target; i++) {
+                bulk.upsert(new Query(Criteria.where("_id").is(InventoryShard.idFor(goodsId, i))), new Update()
+                        .setOnInsert(GOODS_ID, goodsId).setOnInsert("shard", i).setOnInsert(QUANTITY, 0)
+                        .set(UPDATED_AT, now));
+            }
+            bulk.execute();
+        }
+
+        for (InventoryShard shard : mongoTemplate.find(new Query(Criteria.where(GOODS_ID).is(goodsId)), InventoryShard.class)) {
+            drainShard(goodsId, shard);
+        }
+
+        if (target > 1) {
+            Inventory rest = mongoTemplate.findById(goodsId, Inventory.class);
+            int qty = rest == null || rest.getQuantity() == null ? 0 : rest.getQuantity();
+            if (qty > 0 && take(goodsId, goodsId, qty, null)) {
+                spread(goodsId, target, qty);
+            }
+        } else {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(goodsId)),
+                    new Update().unset(SHARDS).set(UPDATED_AT, now), Inventory.class);
+        }
+        // 不再使用的分片只在已经清空时删除；之后迟到的归还会落到 inventory 余量上
+        mongoTemplate.remove(new Query(Criteria.where(GOODS_ID).is(goodsId)
+                .and("shard").gte(target > 1 ? target : 0).and(QUANTITY).lte(0)), InventoryShard.class);
+
+        shardCountsLoadedAt = 0;
+        soldOutAt.remove(goodsId);
+        admission.remove(goodsId);
+    }
+
+    // 把一个分片的库存搬到 inventory 余量上；被并发扣减改变时按新值重试
+    private void drainShard(String goodsId, InventoryShard shard) {
+        int qty = shard.getQuantity() == null ? 0 : shard.getQuantity();
+        for (int attempt = 0; qty > 0 && attempt < GATHER_ROUNDS; attempt++) {
+            if (take(goodsId, shard.getId(), qty, null)) {
+                give(goodsId, goodsId, qty);
+                return;
+            }
+            InventoryShard current = mongoTemplate.findById(shard.getId(), InventoryShard.class);
+            qty = current == null || current.getQuantity() == null ? 0 : current.getQuantity();
+        }
+    }
+
+    public void deleteShards(String goodsId) {
+        mongoTemplate.remove(new Query(Criteria.where(GOODS_ID).is(goodsId)), InventoryShard.class);
+    }
+
+    public void deleteAllShards() {
+        mongoTemplate.remove(new Query(), InventoryShard.class);
+    }
+
+    int shardCount(String goodsId) {
+        return shardCounts().getOrDefault(goodsId, 0);
+    }
+
+    private Map<String, Integer> shardCounts() {
+        Map<String, Integer> counts = shardCounts;
+        if (counts == null || System.currentTimeMillis() - shardCountsLoadedAt > SHARD_CONFIG_MAX_AGE_MILLIS) {
+            counts = new HashMap<>();
+            Query query = new Query(Criteria.where(SHARDS).gt(1));
+            query.fields().include("_id").include(SHARDS);
+            for (Inventory inv : mongoTemplate.find(query, Inventory.class)) {
+                counts.put(inv.getId(), inv.getShards());
+            }
+            shardCounts = counts;
+            shardCountsLoadedAt = System.currentTimeMillis();
+        }
+        return counts;
+    }
+
+    private boolean refreshIfShardedElsewhere(String goodsId) {
+        if (shardCount(goodsId) > 1) {
+            return false;
+        }
+        Query query = new Query(Criteria.where("_id").is(goodsId).and(SHARDS).gt(1));
+        if (!mongoTemplate.exists(query, Inventory.class)) {
+            return false;
+        }
+        shardCountsLoadedAt = 0;
+        return shardCount(goodsId) > 1;
+    }
+}
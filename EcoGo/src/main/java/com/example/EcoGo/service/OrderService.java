@@ -1,6 +1,8 @@
 package com.example.EcoGo.service;
 
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.model.Order;
+import java.time.Duration;
 import java.util.List;
 
 public interface OrderService {
@@ -25,7 +27,19 @@ public interface OrderService {
     // 根据状态获取订单
     List<Order> getOrdersByStatus(String status);
 
+    // 订单列表：筛选、排序（createdAt、_id 倒序）、分页都在 Mongo 中完成，page 从 1 开始
+    // userId / status / isRedemption 为 null 表示不筛选；cursor 不为空时按 keyset 翻页（忽略 page，total 返回 -1）
+    // summary=true 时不返回收货信息和商品单价
+    PageResponse<Order> searchOrders(String userId, String status, Boolean isRedemption, String cursor,
+                                     int page, int size, boolean summary);
+
     // 创建兑换订单（积分兑换）
     Order createRedemptionOrder(Order order);
 
+    // 恢复中断的兑换：处理 idleFor 内未推进的 saga（最多 limit 个），返回处理数量
+    int recoverStuckRedemptions(Duration idleFor, int limit);
+
+    // 清理已结束兑换留在库存上的 saga 标记（settle 失败时留下的），返回处理的 saga 数量
+    int clearSettledStockMarkers(Duration idleFor, int limit);
+
 }
\ No newline at end of file
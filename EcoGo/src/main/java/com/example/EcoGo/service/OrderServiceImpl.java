@@ -1,31 +1,64 @@
 package com.example.EcoGo.service;
 
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
 import com.example.EcoGo.interfacemethods.PointsService;
 import com.example.EcoGo.interfacemethods.VipSwitchService;
 import com.example.EcoGo.model.Goods;
 import com.example.EcoGo.model.Order;
+import com.example.EcoGo.model.RedemptionSaga;
+import com.example.EcoGo.model.RedemptionSaga.Status;
 import com.example.EcoGo.model.User;
 import com.example.EcoGo.model.UserVoucher;
 import com.example.EcoGo.model.VoucherStatus;
 import com.example.EcoGo.repository.OrderRepository;
-import com.example.EcoGo.repository.UserRepository;
 import com.example.EcoGo.repository.UserVoucherRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class OrderServiceImpl implements OrderService {
 
+    private static final Logger logger = LoggerFactory.getLogger(OrderServiceImpl.class);
     private static final String ORDER_STATUS_COMPLETED = "COMPLETED";
+    static final String STAGE_TIMER = "ecogo.redemption.stage";
+    static final String TOTAL_TIMER = "ecogo.redemption.total";
+    private static final String OUTCOME_COMPLETED = "completed";
+    private static final String OUTCOME_COMPENSATED = "compensated";
+    private static final int VIP_UPDATE_ATTEMPTS = 3;
+    private static final int DUPLICATE_KEY = 11000;
+    private static final Sort ORDER_LIST_SORT = Sort.by(Sort.Direction.DESC, "createdAt", "_id");
+    // 列表只需要这些字段：不含收货人/地址/备注，商品只保留展示和统计用的字段
+    private static final String[] ORDER_SUMMARY_FIELDS = {
+            "orderNumber", "userId", "status", "paymentStatus", "paymentMethod", "totalAmount", "finalAmount",
+            "pointsUsed", "isRedemptionOrder", "createdAt", "updatedAt", "trackingNumber", "carrier",
+            "items.goodsId", "items.goodsName", "items.quantity", "items.subtotal"
+    };
 
     @Autowired
     private VipSwitchService vipSwitchService;
@@ -43,7 +76,16 @@ public class OrderServiceImpl implements OrderService {
     private PointsService pointsService;
 
     @Autowired
-    private UserRepository userRepository;
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private RedemptionSagaLog sagaLog;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private IdGenerator idGenerator;
 
     @Override
     public Order createOrder(Order order) {
@@ -58,9 +100,7 @@ public class OrderServiceImpl implements OrderService {
 
     private void generateOrderNumber(Order order) {
         if (order.getOrderNumber() == null || order.getOrderNumber().isEmpty()) {
-            String orderNumber = "ORD" + System.currentTimeMillis() +
-                    UUID.randomUUID().toString().substring(0, 6).toUpperCase();
-            order.setOrderNumber(orderNumber);
+            order.setOrderNumber("ORD" + idGenerator.nextId());
         }
     }
 
@@ -70,19 +110,20 @@ public class OrderServiceImpl implements OrderService {
             return;
         }
 
-        boolean vipActive = isVipActive(order.getUserId());
-        for (Order.OrderItem item : order.getItems()) {
-            if (item == null || item.getGoodsId() == null || item.getGoodsId().isBlank()) {
-                continue;
-            }
-
-            Goods goods = goodsService.getGoodsById(item.getGoodsId());
+        List<String> goodsIds = order.getItems().stream()
+                .filter(item -> item != null && item.getGoodsId() != null && !item.getGoodsId().isBlank())
+                .map(Order.OrderItem::getGoodsId)
+                .toList();
+        Map<String, Goods> goodsById = goodsService.getGoodsByIds(goodsIds);
+        VipCheck vip = new VipCheck(order.getUserId());
+        for (String goodsId : goodsIds) {
+            Goods goods = goodsById.get(goodsId);
             if (goods == null) {
-                continue;
+                throw new BusinessException(ErrorCode.PRODUCT_NOT_EXIST, goodsId);
             }
 
-            if (isVipRequired(goods) && !vipActive) {
-                throw new BusinessException(ErrorCode.PARAM_ERROR, "VIP_REQUIRED: " + item.getGoodsId());
+            if (isVipRequired(goods) && !vip.isActive()) {
+                throw new BusinessException(ErrorCode.PARAM_ERROR, "VIP_REQUIRED: " + goodsId);
             }
         }
     }
@@ -141,6 +182,89 @@ public class OrderServiceImpl implements OrderService {
         return orderRepository.findByStatus(status);
     }
 
+    @Override
+    public PageResponse<Order> searchOrders(String userId, String status, Boolean isRedemption, String cursor,
+                                            int page, int size, boolean summary) {
+        int pageNo = Math.max(1, page);
+        int pageSize = Math.max(1, size);
+        Criteria filter = buildOrderCriteria(userId, status, isRedemption);
+        boolean keyset = cursor != null && !cursor.isBlank();
+
+        Query query = new Query(keyset ? new Criteria().andOperator(filter, afterCursor(cursor)) : filter)
+                .with(ORDER_LIST_SORT)
+                // 多取一条判断是否还有下一页
+                .limit(pageSize + 1);
+        long skip = keyset ? 0 : (long) (pageNo - 1) * pageSize;
+        query.skip(skip);
+        if (summary) {
+            query.fields().include(ORDER_SUMMARY_FIELDS);
+        }
+
+        List<Order> found = mongoTemplate.find(query, Order.class);
+        boolean hasMore = found.size() > pageSize;
+        List<Order> items = hasMore ? found.subList(0, pageSize) : found;
+
+        long total;
+        if (keyset) {
+            total = -1;
+        } else if (!hasMore && (skip == 0 || !items.isEmpty())) {
+            // 最后一页不满时 total 可直接推算；否则才需要 count
+            total = skip + items.size();
+        } else if (filter.getCriteriaObject().isEmpty()) {
+            total = mongoTemplate.estimatedCount(Order.class);
+        } else {
+            total = mongoTemplate.count(new Query(filter), Order.class);
+        }
+
+        PageResponse<Order> result = new PageResponse<>(items, total, pageNo, pageSize);
+        if (hasMore) {
+            result.setNextCursor(encodeCursor(items.get(items.size() - 1)));
+        }
+        return result;
+    }
+
+    private Criteria buildOrderCriteria(String userId, String status, Boolean isRedemption) {
+        Criteria criteria = new Criteria();
+        if (userId != null && !userId.isBlank()) {
+            criteria.and("userId").is(userId);
+        }
+        if (status != null && !status.isBlank()) {
+            criteria.and("status").is(status);
+        }
+        if (isRedemption != null) {
+            criteria.and("isRedemptionOrder").is(isRedemption);
+        }
+        return criteria;
+    }
+
+    // 游标 = 上一页最后一条的 "createdAt毫秒_id"；createdAt 为空的订单排在最后，用 "-" 表示
+    private String encodeCursor(Order last) {
+        String createdAt = last.getCreatedAt() == null ? "-" : String.valueOf(last.getCreatedAt().getTime());
+        return createdAt + "_" + last.getId();
+    }
+
+    private Criteria afterCursor(String cursor) {
+        int sep = cursor.indexOf('_');
+        if (sep <= 0 || sep == cursor.length() - 1) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "invalid cursor");
+        }
+        String createdAt = cursor.substring(0, sep);
+        String id = cursor.substring(sep + 1);
+        if ("-".equals(createdAt)) {
+            return Criteria.where("createdAt").is(null).and("_id").lt(id);
+        }
+        Date at;
+        try {
+            at = new Date(Long.parseLong(createdAt));
+        } catch (NumberFormatException e) {
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "invalid cursor");
+        }
+        return new Criteria().orOperator(
+                Criteria.where("createdAt").lt(at),
+                Criteria.where("createdAt").is(at).and("_id").lt(id),
+                Criteria.where("createdAt").is(null));
+    }
+
     @Override
 public Order updateOrder(String id, Order order) {
     Order updatedOrder = orderRepository.findById(id)
@@ -187,51 +311,219 @@ private void applyTrackingUpdate(Order target, Order source) {
     private boolean isVipActive(String userId) {
         if (userId == null || userId.isBlank()) return false;
 
-        Optional<User> userOpt = userRepository.findByUserid(userId);
-        if (userOpt.isEmpty()) {
-            userOpt = userRepository.findById(userId);
-        }
+        Optional<User> userOpt = findUser(userId);
         if (userOpt.isEmpty()) return false;
 
-        User user = userOpt.get();
-        User.Vip vip = user.getVip();
+        User.Vip vip = userOpt.get().getVip();
         if (vip == null) return false;
 
         LocalDateTime now = LocalDateTime.now();
         return vip.isActive() && vip.getExpiryDate() != null && vip.getExpiryDate().isAfter(now);
     }
 
+    /**
+     * userId 一般是 users.userid，兜底兼容用 _id 的调用方；一次 $or 查询代替先后两次查找
+     */
+    private Optional<User> findUser(String userId) {
+        Query query = new Query(new Criteria().orOperator(
+                Criteria.where("userid").is(userId), Criteria.where("_id").is(userId)));
+        return Optional.ofNullable(mongoTemplate.findOne(query, User.class));
+    }
+
     /**
      * ✅ 积分兑换订单（包含：扣库存 -> 扣积分 -> (如有VIP则开通/续期VIP) -> 保存订单）
-     * ✅ 已重构：降低 Cognitive Complexity
+     * 流程：
+     * 1. 一次 findAllById 取全部商品，算好订单、库存、积分、券（无副作用）
+     * 2. 写入 saga（redemption_sagas），之后每完成一步推进一次状态
+     * 3. 一次 bulk 扣库存 -> 扣积分 -> 发券 / VIP -> 保存订单
+     * 请求内失败时按已完成的步骤补偿；进程中途崩溃则由 {@link #recoverStuckRedemptions} 接手。
+     * 各阶段耗时记录到 {@value #STAGE_TIMER} 和 saga 文档。
      */
     @Override
     public Order createRedemptionOrder(Order order) {
         validateRedemptionOrderBase(order);
 
-        RollbackContext rb = new RollbackContext();
+        StageClock clock = new StageClock();
+        RedemptionPlan plan = planRedemption(order);
+        clock.lap("plan");
+
+        RedemptionSaga saga = newSaga(order, plan);
+        sagaLog.start(saga);
+        clock.lap("saga");
+
+        Progress progress = new Progress();
         try {
-            String userId = order.getUserId();
+            if (!plan.getStockToReserve().isEmpty()) {
+                // 实物商品一次性扣库存：任一商品不足则整单不扣
+                goodsService.reserveStock(plan.getStockToReserve(), saga.getId());
+            }
+            progress.advance(saga.getId(), Status.STOCK_RESERVED);
+            clock.lap("reserve");
+
+            deductPoints(saga.getId(), order.getUserId(), plan.getTotalPointsCost(), order);
+            progress.advance(saga.getId(), Status.POINTS_DEDUCTED);
+            clock.lap("points");
+
+            progress.fulfilmentStarted = true;
+            fulfil(saga);
+            progress.advance(saga.getId(), Status.FULFILLED);
+            clock.lap("fulfil");
+
+            Order saved = orderRepository.save(order);
+            clock.lap("save");
+
+            if (!sagaLog.close(saga.getId(), Status.FULFILLED, Status.COMPLETED, clock.stageMillis(), null)) {
+                // 订单已保存；恢复任务重放保存是幂等的
+                logger.warn("Redemption {} saved but saga was taken over", saga.getId());
+            } else {
+                settle(saga);
+            }
+            clock.report(saga.getId(), OUTCOME_COMPLETED);
+            return saved;
 
-            RedemptionPlan plan = buildRedemptionPlanAndReserveStock(order, userId, rb);
+        } catch (Exception e) {
+            compensate(saga, progress, e);
+            clock.report(saga.getId(), OUTCOME_COMPENSATED);
+            rethrowPreservingType(e);
+            return null; // unreachable
+        }
+    }
 
-            deductPoints(userId, plan.getTotalPointsCost(), order, rb);
+    /**
+     * 恢复中断的兑换：
+     * - STARTED / STOCK_RESERVED：回滚。库存和积分是否已扣都记在文档上（库存的 pendingOps、
+     *   用户的 pendingRedemptions，都以 saga id 为键），只归还真正扣过的，重复执行不会多还
+     * - POINTS_DEDUCTED：VIP 已续期则前滚，否则回滚（删券、退分、还库存）
+     * - FULFILLED：前滚，保存订单
+     * - COMPENSATING：补偿中途崩溃，无法判断哪些已执行，标记 FAILED 人工处理
+     */
+    @Override
+    public int recoverStuckRedemptions(Duration idleFor, int limit) {
+        int recovered = 0;
+        for (RedemptionSaga saga : sagaLog.findStuck(LocalDateTime.now().minus(idleFor), limit)) {
+            try {
+                if (recover(saga)) {
+                    recovered++;
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to recover redemption {} in {}: {}", saga.getId(), saga.getStatus(), safeMsg(e));
+            }
+        }
+        if (recovered > 0) {
+            logger.info("Recovered {} stuck redemptions", recovered);
+        }
+        return recovered;
+    }
 
-            if (plan.getVipQtyTotal() > 0) {
-                activateVipInternal(userId, plan.getVipQtyTotal() * 30);
+    /**
+     * 清理残留的库存标记：settle 失败或回滚中途出错时，pendingOps 上的 saga 标记不会再被 confirm / cancel。
+     * - COMPLETED：前滚已成定局，重做 settle（去掉库存和用户文档上的标记）
+     * - COMPENSATED：补偿时没撤销成功的库存，按标记归还
+     * - 未结束或 FAILED：不动，交给恢复任务或人工处理
+     * - 找不到 saga（已过期）：opId 是 ObjectId，早于 idleFor 的只去掉标记
+     */
+    @Override
+    public int clearSettledStockMarkers(Duration idleFor, int limit) {
+        Map<String, Set<String>> pending = goodsService.findPendingReservations(limit);
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        Map<String, RedemptionSaga> sagas = new HashMap<>();
+        sagaLog.findByIds(pending.keySet()).forEach(s -> sagas.put(s.getId(), s));
+        long idleBefore = System.currentTimeMillis() - idleFor.toMillis();
+        int cleared = 0;
+        for (Map.Entry<String, Set<String>> e : pending.entrySet()) {
+            String sagaId = e.getKey();
+            RedemptionSaga saga = sagas.get(sagaId);
+            try {
+                if (saga == null) {
+                    if (!ObjectId.isValid(sagaId) || new ObjectId(sagaId).getDate().getTime() > idleBefore) {
+                        continue;
+                    }
+                    goodsService.confirmStock(e.getValue(), sagaId);
+                } else if (saga.getStatus() == Status.COMPLETED) {
+                    goodsService.confirmStock(e.getValue(), sagaId);
+                    if (saga.getPointsCost() > 0) {
+                        pointsService.settleRedemption(saga.getUserId(), sagaId);
+                    }
+                } else if (saga.getStatus() == Status.COMPENSATED) {
+                    goodsService.cancelStock(e.getValue(), sagaId);
+                } else {
+                    continue;
+                }
+                cleared++;
+            } catch (Exception ex) {
+                logger.warn("Failed to clear stock markers of redemption {}: {}", sagaId, safeMsg(ex));
             }
+        }
+        if (cleared > 0) {
+            logger.info("Cleared stock markers of {} finished redemptions", cleared);
+        }
+        return cleared;
+    }
+
+    private boolean recover(RedemptionSaga saga) {
+        String id = saga.getId();
+        switch (saga.getStatus()) {
+            case STARTED:
+            case STOCK_RESERVED:
+                return rollBack(saga, saga.getStatus(), false, "recovered: rolled back");
+            case POINTS_DEDUCTED:
+                if (saga.getVipDays() > 0 && isVipGrantedBy(saga)) {
+                    return rollForward(saga, Status.POINTS_DEDUCTED);
+                }
+                return rollBack(saga, Status.POINTS_DEDUCTED, true, "recovered: rolled back");
+            case FULFILLED:
+                return rollForward(saga, Status.FULFILLED);
+            case COMPENSATING:
+                logger.error("Redemption {} was interrupted while compensating, needs manual review", id);
+                return sagaLog.close(id, Status.COMPENSATING, Status.FAILED, null, "compensation interrupted");
+            default:
+                return false;
+        }
+    }
 
-            createUserVouchers(plan.getVouchersToCreate());
+    private boolean rollForward(RedemptionSaga saga, Status from) {
+        if (from == Status.POINTS_DEDUCTED) {
+            fulfil(saga);
+            if (!sagaLog.advance(saga.getId(), from, Status.FULFILLED)) return false;
+        }
+        orderRepository.save(saga.getOrder());
+        if (!sagaLog.close(saga.getId(), Status.FULFILLED, Status.COMPLETED, null, "recovered: rolled forward")) {
+            return false;
+        }
+        settle(saga);
+        return true;
+    }
 
-            Order saved = finalizeAndSaveRedemptionOrder(order, plan.getTotalPointsCost());
+    // 退分、还库存都以 saga id 为条件，只撤销真正生效的部分，重复执行不会多退
+    private boolean rollBack(RedemptionSaga saga, Status from, boolean deleteVouchers, String reason) {
+        if (!sagaLog.advance(saga.getId(), from, Status.COMPENSATING)) return false;
 
-            rb.commit();
-            return saved;
+        if (deleteVouchers && saga.getVouchers() != null && !saga.getVouchers().isEmpty()) {
+            userVoucherRepository.deleteAllById(saga.getVouchers().stream().map(UserVoucher::getId).toList());
+        }
+        if (saga.getPointsCost() > 0) {
+            pointsService.refundRedemption(saga.getUserId(), saga.getPointsCost(),
+                    "Rollback redemption: " + reason, saga.getId());
+        }
+        if (saga.getReservedStock() != null && !saga.getReservedStock().isEmpty()) {
+            goodsService.cancelStock(saga.getReservedStock().keySet(), saga.getId());
+        }
+        return sagaLog.close(saga.getId(), Status.COMPENSATING, Status.COMPENSATED, null, reason);
+    }
 
+    // 兑换已完成：去掉库存和用户文档上的 saga 标记；失败只留下无害的标记
+    private void settle(RedemptionSaga saga) {
+        try {
+            if (saga.getReservedStock() != null && !saga.getReservedStock().isEmpty()) {
+                goodsService.confirmStock(saga.getReservedStock().keySet(), saga.getId());
+            }
+            if (saga.getPointsCost() > 0) {
+                pointsService.settleRedemption(saga.getUserId(), saga.getId());
+            }
         } catch (Exception e) {
-            rb.rollbackAll(this, goodsService, pointsService, order, e);
-            rethrowPreservingType(e);
-            return null; // unreachable
+            logger.warn("Failed to clear markers of redemption {}: {}", saga.getId(), safeMsg(e));
         }
     }
 
@@ -241,11 +533,14 @@ private void applyTrackingUpdate(Order target, Order source) {
     private static class RedemptionPlan {
         private final long totalPointsCost;
         private final int vipQtyTotal;
+        private final Map<String, Integer> stockToReserve;
         private final List<UserVoucher> vouchersToCreate;
 
-        private RedemptionPlan(long totalPointsCost, int vipQtyTotal, List<UserVoucher> vouchersToCreate) {
+        private RedemptionPlan(long totalPointsCost, int vipQtyTotal, Map<String, Integer> stockToReserve,
+                               List<UserVoucher> vouchersToCreate) {
             this.totalPointsCost = totalPointsCost;
             this.vipQtyTotal = vipQtyTotal;
+            this.stockToReserve = stockToReserve;
             this.vouchersToCreate = vouchersToCreate;
         }
 
@@ -257,6 +552,10 @@ private void applyTrackingUpdate(Order target, Order source) {
             return vipQtyTotal;
         }
 
+        Map<String, Integer> getStockToReserve() {
+            return stockToReserve;
+        }
+
         List<UserVoucher> getVouchersToCreate() {
             return vouchersToCreate;
         }
@@ -265,11 +564,13 @@ private void applyTrackingUpdate(Order target, Order source) {
     private static class ItemProcessResult {
         private final long costPoints;
         private final int vipQty;
+        private final int stockQty;
         private final List<UserVoucher> vouchers;
 
-        private ItemProcessResult(long costPoints, int vipQty, List<UserVoucher> vouchers) {
+        private ItemProcessResult(long costPoints, int vipQty, int stockQty, List<UserVoucher> vouchers) {
             this.costPoints = costPoints;
             this.vipQty = vipQty;
+            this.stockQty = stockQty;
             this.vouchers = vouchers;
         }
 
@@ -281,72 +582,64 @@ private void applyTrackingUpdate(Order target, Order source) {
             return vipQty;
         }
 
+        int getStockQty() {
+            return stockQty;
+        }
+
         List<UserVoucher> getVouchers() {
             return vouchers;
         }
     }
 
-    private static class RollbackContext {
-        private final List<String> reservedGoodsIds = new ArrayList<>();
-        private final List<Integer> reservedQty = new ArrayList<>();
-        private boolean pointsDeducted = false;
-        private long deductedPoints = 0L;
-        private String deductedUserId = null;
-
-        void addReservedStock(String goodsId, int qty) {
-            reservedGoodsIds.add(goodsId);
-            reservedQty.add(qty);
-        }
+    /**
+     * 请求线程里已经真正执行过的副作用；saga 状态只在写库成功后推进，
+     * 因此补偿以这里为准，而不是以 saga 状态为准
+     */
+    private final class Progress {
+        private Status persisted = Status.STARTED;
+        private boolean fulfilmentStarted;
 
-        void markPointsDeducted(String userId, long points) {
-            this.pointsDeducted = true;
-            this.deductedPoints = points;
-            this.deductedUserId = userId;
+        void advance(String sagaId, Status to) {
+            if (!sagaLog.advance(sagaId, persisted, to)) {
+                throw new SagaTakenOverException(sagaId);
+            }
+            persisted = to;
         }
+    }
 
-        void commit() {
-            // success: no-op
+    private static class SagaTakenOverException extends IllegalStateException {
+        SagaTakenOverException(String sagaId) {
+            super("REDEMPTION_TAKEN_OVER: " + sagaId);
         }
+    }
 
-        void rollbackAll(
-                OrderServiceImpl self,
-                GoodsService goodsService,
-                PointsService pointsService,
-                Order order,
-                Exception e
-        ) {
-            rollbackStock(goodsService);
-            rollbackPoints(self, pointsService, order, e);
+    /**
+     * 各阶段耗时：记录到 Micrometer Timer（tag stage）并随 saga 关闭一起持久化
+     */
+    private final class StageClock {
+        private final Map<String, Long> stageMillis = new LinkedHashMap<>();
+        private final long startedAt = System.nanoTime();
+        private long last = startedAt;
+
+        void lap(String stage) {
+            long now = System.nanoTime();
+            long nanos = now - last;
+            last = now;
+            stageMillis.put(stage, TimeUnit.NANOSECONDS.toMillis(nanos));
+            Timer.builder(STAGE_TIMER).tag("stage", stage).register(meterRegistry)
+                    .record(nanos, TimeUnit.NANOSECONDS);
         }
 
-        private void rollbackStock(GoodsService goodsService) {
-            for (int i = 0; i < reservedGoodsIds.size(); i++) {
-                try {
-                    goodsService.releaseStock(reservedGoodsIds.get(i), reservedQty.get(i));
-                } catch (Exception ignore) {
-                    // swallow
-                }
-            }
+        Map<String, Long> stageMillis() {
+            return stageMillis;
         }
 
-        private void rollbackPoints(OrderServiceImpl self, PointsService pointsService, Order order, Exception e) {
-            if (!pointsDeducted) return;
-
-            String userId = (deductedUserId != null) ? deductedUserId : (order != null ? order.getUserId() : null);
-            if (userId == null || deductedPoints <= 0) return;
-
-            try {
-                pointsService.adjustPoints(
-                        userId,
-                        deductedPoints,
-                        "store",
-                        "Rollback redemption: " + self.safeMsg(e),
-                        null,
-                        null
-                );
-            } catch (Exception ignore) {
-                // swallow
-            }
+        void report(String sagaId, String outcome) {
+            long totalNanos = System.nanoTime() - startedAt;
+            Timer.builder(TOTAL_TIMER).tag("outcome", outcome).register(meterRegistry)
+                    .record(totalNanos, TimeUnit.NANOSECONDS);
+            logger.debug("Redemption {} {} in {} ms, stages {}", sagaId, outcome,
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos), stageMillis);
         }
     }
 
@@ -361,60 +654,80 @@ private void applyTrackingUpdate(Order target, Order source) {
             throw new BusinessException(ErrorCode.PARAM_ERROR, "MISSING_ORDER_ITEMS");
     }
 
-    private RedemptionPlan buildRedemptionPlanAndReserveStock(Order order, String userId, RollbackContext rb) {
+    /**
+     * 校验并计算整单，不产生任何副作用；订单字段（含 id）在这里全部填好，saga 前滚时原样保存
+     */
+    private RedemptionPlan planRedemption(Order order) {
+        String userId = order.getUserId();
+        // 订单 id 即 saga id；前滚重复保存是同一文档，券上也记这个 id
+        order.setId(new ObjectId().toHexString());
+        List<String> goodsIds = new ArrayList<>(order.getItems().size());
+        for (Order.OrderItem item : order.getItems()) {
+            goodsIds.add(requireGoodsId(item));
+        }
+        Map<String, Goods> goodsById = goodsService.getGoodsByIds(goodsIds);
+        VipCheck vip = new VipCheck(userId);
+
         long totalPointsCost = 0L;
         int vipQtyTotal = 0;
+        Map<String, Integer> stockToReserve = new LinkedHashMap<>();
         List<UserVoucher> vouchersToCreate = new ArrayList<>();
 
         for (Order.OrderItem item : order.getItems()) {
-            ItemProcessResult r = processOneRedemptionItem(item, userId, rb);
+            ItemProcessResult r = processOneRedemptionItem(item, goodsById, order.getId(), userId, vip);
             totalPointsCost += r.getCostPoints();
             vipQtyTotal += r.getVipQty();
             vouchersToCreate.addAll(r.getVouchers());
+            if (r.getStockQty() > 0) {
+                stockToReserve.merge(item.getGoodsId(), r.getStockQty(), Integer::sum);
+            }
         }
 
-        return new RedemptionPlan(totalPointsCost, vipQtyTotal, vouchersToCreate);
+        fillRedemptionOrder(order, totalPointsCost);
+        return new RedemptionPlan(totalPointsCost, vipQtyTotal, stockToReserve, vouchersToCreate);
     }
 
-    private ItemProcessResult processOneRedemptionItem(Order.OrderItem item, String userId, RollbackContext rb) {
-        String goodsId = requireGoodsId(item);
+    private ItemProcessResult processOneRedemptionItem(Order.OrderItem item, Map<String, Goods> goodsById,
+                                                       String orderId, String userId, VipCheck vip) {
+        String goodsId = item.getGoodsId();
         int qty = normalizeQty(item);
 
-        Goods goods = requireGoods(goodsId);
+        Goods goods = requireGoods(goodsById, goodsId);
         ensureGoodsRedeemable(goods, goodsId);
 
-        enforceVipExclusiveRules(goods, userId, goodsId);
+        enforceVipExclusiveRules(goods, vip, goodsId);
 
         int pointsPerUnit = requireRedemptionPoints(goods, goodsId);
         long cost = (long) pointsPerUnit * (long) qty;
 
-        if (!isVirtualGoods(goods)) {
-            goodsService.reserveStock(goodsId, qty);
-            rb.addReservedStock(goodsId, qty);
-        }
-
         fillRedemptionOrderItem(item, goods, qty, pointsPerUnit);
 
         int vipQty = isVipSubscription(goods) ? qty : 0;
         List<UserVoucher> vouchers = isVoucher(goods)
-                ? buildUserVouchers(userId, goods, qty)
+                ? buildUserVouchers(orderId, userId, goods, qty)
                 : List.of();
 
-        return new ItemProcessResult(cost, vipQty, vouchers);
+        int stockQty = isVirtualGoods(goods) ? 0 : qty;
+        return new ItemProcessResult(cost, vipQty, stockQty, vouchers);
+    }
+
+    private RedemptionSaga newSaga(Order order, RedemptionPlan plan) {
+        RedemptionSaga saga = new RedemptionSaga();
+        saga.setId(order.getId());
+        saga.setUserId(order.getUserId());
+        saga.setReservedStock(plan.getStockToReserve());
+        saga.setPointsCost(plan.getTotalPointsCost());
+        saga.setVipDays(plan.getVipQtyTotal() * 30);
+        saga.setOrder(order);
+        saga.setVouchers(plan.getVouchersToCreate());
+        return saga;
     }
 
-    private void deductPoints(String userId, long totalPointsCost, Order order, RollbackContext rb) {
+    private void deductPoints(String sagaId, String userId, long totalPointsCost, Order order) {
         String description = buildPurchasedDescription(order);
 
-        pointsService.adjustPoints(
-                userId,
-                -totalPointsCost,
-                "store",
-                description,
-                null,
-                null
-        );
-        rb.markPointsDeducted(userId, totalPointsCost);
+        // 扣分和 saga 标记写在同一次用户文档更新里：恢复任务据此判断积分是否已扣
+        pointsService.deductForRedemption(userId, totalPointsCost, description, sagaId);
     }
 
     private String buildPurchasedDescription(Order order) {
@@ -429,20 +742,79 @@ private void applyTrackingUpdate(Order target, Order source) {
         return "Purchased " + String.join(", ", purchasedNames);
     }
 
-    private void createUserVouchers(List<UserVoucher> vouchersToCreate) {
-        if (vouchersToCreate == null || vouchersToCreate.isEmpty()) return;
+    /**
+     * 发券 + 开通/续期 VIP；两步都可重放（券 id 预先分配，VIP 用 saga id 防重）
+     */
+    private void fulfil(RedemptionSaga saga) {
+        if (saga.getVouchers() != null && !saga.getVouchers().isEmpty()) {
+            insertVouchers(saga.getVouchers());
+        }
+        if (saga.getVipDays() > 0) {
+            activateVipInternal(saga.getUserId(), saga.getVipDays(), saga.getId());
+        }
+    }
 
-        LocalDateTime now = LocalDateTime.now();
-        for (UserVoucher uv : vouchersToCreate) {
-            uv.setIssuedAt(now);
-            uv.setExpiresAt(now.plusDays(30));
-            uv.setCreatedAt(now);
-            uv.setUpdatedAt(now);
-            userVoucherRepository.save(uv);
+    /**
+     * 一次 insertMany 发放全部券（unordered）；重放时已存在的券报 _id 重复，忽略即可
+     */
+    private void insertVouchers(List<UserVoucher> vouchers) {
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserVoucher.class).insert(vouchers).execute();
+        } catch (BulkOperationException e) {
+            boolean onlyDuplicates = e.getErrors().stream().allMatch(err -> err.getCode() == DUPLICATE_KEY);
+            if (!onlyDuplicates) {
+                throw e;
+            }
+        }
+    }
+
+    private void compensate(RedemptionSaga saga, Progress progress, Exception e) {
+        // 恢复任务已接手（状态被别人推进过），本线程不再补偿
+        if (e instanceof SagaTakenOverException) {
+            return;
+        }
+        String reason = safeMsg(e);
+        try {
+            if (!sagaLog.advance(saga.getId(), progress.persisted, Status.COMPENSATING)) {
+                return;
+            }
+        } catch (Exception ex) {
+            // saga 写不进去就不补偿，留给恢复任务按 saga 状态处理，避免两边各补偿一次
+            logger.warn("Redemption {} left to recovery, saga unavailable: {}", saga.getId(), safeMsg(ex));
+            return;
+        }
+
+        if (progress.fulfilmentStarted && !saga.getVouchers().isEmpty()) {
+            try {
+                userVoucherRepository.deleteAllById(saga.getVouchers().stream().map(UserVoucher::getId).toList());
+            } catch (Exception ignore) {
+                // swallow
+            }
+        }
+        // 扣分 / 扣库存即使抛错也可能已生效（超时），按 saga id 条件撤销，没生效的不会多还
+        if (saga.getPointsCost() > 0) {
+            try {
+                pointsService.refundRedemption(saga.getUserId(), saga.getPointsCost(),
+                        "Rollback redemption: " + reason, saga.getId());
+            } catch (Exception ignore) {
+                // swallow
+            }
+        }
+        if (!saga.getReservedStock().isEmpty()) {
+            try {
+                goodsService.cancelStock(saga.getReservedStock().keySet(), saga.getId());
+            } catch (Exception ignore) {
+                // swallow
+            }
+        }
+        try {
+            sagaLog.close(saga.getId(), Status.COMPENSATING, Status.COMPENSATED, null, reason);
+        } catch (Exception ignore) {
+            // swallow
         }
     }
 
-    private Order finalizeAndSaveRedemptionOrder(Order order, long totalPointsCost) {
+    private void fillRedemptionOrder(Order order, long totalPointsCost) {
         order.setIsRedemptionOrder(true);
 
         // 兑换订单：金额字段用“积分成本”（保持你原逻辑）
@@ -462,8 +834,6 @@ private void applyTrackingUpdate(Order target, Order source) {
         Date now = new Date();
         order.setCreatedAt(now);
         order.setUpdatedAt(now);
-
-        return orderRepository.save(order);
     }
 
     private void rethrowPreservingType(Exception e) {
@@ -488,8 +858,8 @@ private void applyTrackingUpdate(Order target, Order source) {
         return (q == null || q <= 0) ? 1 : q;
     }
 
-    private Goods requireGoods(String goodsId) {
-        Goods goods = goodsService.getGoodsById(goodsId);
+    private Goods requireGoods(Map<String, Goods> goodsById, String goodsId) {
+        Goods goods = goodsById.get(goodsId);
         if (goods == null) {
             throw new BusinessException(ErrorCode.PARAM_ERROR, "GOODS_NOT_FOUND: " + goodsId);
         }
@@ -517,7 +887,7 @@ private void applyTrackingUpdate(Order target, Order source) {
      * - 全局开关：goods 用 Exclusive_goods；voucher 用 Exclusive_vouchers
      * - vip订阅商品(type=vip)必须放行（否则普通用户无法购买VIP）
      */
-    private void enforceVipExclusiveRules(Goods goods, String userId, String goodsId) {
+    private void enforceVipExclusiveRules(Goods goods, VipCheck vip, String goodsId) {
         if (!isVipExclusive(goods)) return;
         if (isVipSubscription(goods)) return;
 
@@ -528,11 +898,28 @@ private void applyTrackingUpdate(Order target, Order source) {
         if (!enabled) {
             throw new BusinessException(ErrorCode.PARAM_ERROR, "VIP_DISABLED: " + goodsId);
         }
-        if (!isVipActive(userId)) {
+        if (!vip.isActive()) {
             throw new BusinessException(ErrorCode.PARAM_ERROR, "VIP_REQUIRED: " + goodsId);
         }
     }
 
+    // 整单只查一次用户，且只在遇到 VIP 专属商品时才查
+    private final class VipCheck {
+        private final String userId;
+        private Boolean active;
+
+        private VipCheck(String userId) {
+            this.userId = userId;
+        }
+
+        boolean isActive() {
+            if (active == null) {
+                active = isVipActive(userId);
+            }
+            return active;
+        }
+    }
+
     private boolean isVipExclusive(Goods goods) {
         return goods.getVipLevelRequired() != null && goods.getVipLevelRequired() == 1;
     }
@@ -542,7 +929,7 @@ private void applyTrackingUpdate(Order target, Order source) {
     }
 
     private boolean isVoucher(Goods goods) {
-        return "voucher".equalsIgnoreCase(goods.getType());
+        return GoodsCatalogCache.isVoucher(goods);
     }
 
     private boolean isVirtualGoods(Goods goods) {
@@ -556,15 +943,24 @@ private void applyTrackingUpdate(Order target, Order source) {
         item.setQuantity(qty);
     }
 
-    private List<UserVoucher> buildUserVouchers(String userId, Goods goods, int qty) {
+    private List<UserVoucher> buildUserVouchers(String orderId, String userId, Goods goods, int qty) {
+        LocalDateTime now = LocalDateTime.now();
         List<UserVoucher> list = new ArrayList<>(Math.max(qty, 1));
         for (int i = 0; i < qty; i++) {
+            ObjectId id = new ObjectId();
             UserVoucher uv = new UserVoucher();
+            uv.setId(id.toHexString());
+            uv.setCode(VoucherCodeGenerator.newCode());
+            uv.setOrderId(orderId);
             uv.setUserId(userId);
             uv.setGoodsId(goods.getId());
             uv.setVoucherName(goods.getName());
             uv.setImageUrl(goods.getImageUrl());
             uv.setStatus(VoucherStatus.ACTIVE);
+            uv.setIssuedAt(now);
+            uv.setExpiresAt(now.plusDays(30));
+            uv.setCreatedAt(now);
+            uv.setUpdatedAt(now);
             list.add(uv);
         }
         return list;
@@ -572,44 +968,52 @@ private void applyTrackingUpdate(Order target, Order source) {
 
     /**
      * ✅ 内部VIP激活：若用户当前VIP未过期 -> 在 expiryDate 上续期；否则从现在开始
+     * 只改 vip.* 字段，以读到的 expiryDate 为条件（并发续期不丢天数）；
+     * vip.lastRedemptionId == redemptionId 说明这次兑换已生效，重放时直接返回
      */
-    private void activateVipInternal(String userId, int durationDays) {
+    private void activateVipInternal(String userId, int durationDays, String redemptionId) {
         if (durationDays <= 0) return;
 
-        // 你们项目里 userId 一般是 users.userid（不是 _id）
-        Optional<User> userOpt = userRepository.findByUserid(userId);
-        if (userOpt.isEmpty()) {
-            // 兜底：有的项目用 _id 作为 userId
-            userOpt = userRepository.findById(userId);
-        }
-        User user = userOpt.orElseThrow(() -> new RuntimeException("USER_NOT_FOUND: " + userId));
-
-        LocalDateTime now = LocalDateTime.now();
-
-        User.Vip vip = user.getVip();
-        if (vip == null) {
-            vip = new User.Vip();
-            user.setVip(vip);
-        }
-
-        LocalDateTime currentExpiry = vip.getExpiryDate();
+        for (int attempt = 0; attempt < VIP_UPDATE_ATTEMPTS; attempt++) {
+            User user = findUser(userId).orElseThrow(() -> new RuntimeException("USER_NOT_FOUND: " + userId));
+            User.Vip vip = user.getVip() != null ? user.getVip() : new User.Vip();
+            if (redemptionId.equals(vip.getLastRedemptionId())) {
+                return;
+            }
 
-        // 判断当前VIP是否仍有效
-        boolean stillActive = vip.isActive() && currentExpiry != null && currentExpiry.isAfter(now);
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime currentExpiry = vip.getExpiryDate();
+
+            // 判断当前VIP是否仍有效
+            boolean stillActive = vip.isActive() && currentExpiry != null && currentExpiry.isAfter(now);
+
+            Update update = new Update()
+                    .set("vip.lastRedemptionId", redemptionId)
+                    .set("updatedAt", now);
+            if (stillActive) {
+                update.set("vip.expiryDate", currentExpiry.plusDays(durationDays));
+            } else {
+                update.set("vip.isActive", true)
+                        .set("vip.startDate", now)
+                        .set("vip.expiryDate", now.plusDays(durationDays))
+                        .set("vip.plan", "vip")
+                        .set("vip.autoRenew", false)
+                        .set("vip.pointsMultiplier", 2); // 如果你们 VIP 是 2x，可改；不需要就设回 1
+            }
 
-        if (stillActive) {
-            vip.setExpiryDate(currentExpiry.plusDays(durationDays));
-        } else {
-            vip.setActive(true);
-            vip.setStartDate(now);
-            vip.setExpiryDate(now.plusDays(durationDays));
-            vip.setPlan("vip");
-            vip.setAutoRenew(false);
-            vip.setPointsMultiplier(2); // 如果你们 VIP 是 2x，可改；不需要就设回 1
+            Query query = new Query(Criteria.where("_id").is(user.getId()).and("vip.expiryDate").is(currentExpiry));
+            if (mongoTemplate.updateFirst(query, update, User.class).getMatchedCount() > 0) {
+                return;
+            }
         }
+        throw new RuntimeException("VIP_UPDATE_CONFLICT: " + userId);
+    }
 
-        user.setUpdatedAt(now);
-        userRepository.save(user);
+    private boolean isVipGrantedBy(RedemptionSaga saga) {
+        return findUser(saga.getUserId())
+                .map(User::getVip)
+                .map(vip -> saga.getId().equals(vip.getLastRedemptionId()))
+                .orElse(false);
     }
 
     private String safeMsg(Exception e) {
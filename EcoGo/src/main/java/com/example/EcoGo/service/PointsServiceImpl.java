@@ -8,9 +8,12 @@ import com.example.EcoGo.model.User;
 import com.example.EcoGo.model.UserPointsLog;
 import com.example.EcoGo.repository.UserPointsLogRepository;
 import com.example.EcoGo.repository.UserRepository;
-import com.example.EcoGo.interfacemethods.BadgeService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -22,6 +25,8 @@ import java.util.stream.Collectors;
 public class PointsServiceImpl implements PointsService {
 
     private static final String REDEEM_SOURCE = "redeem";
+    private static final String STORE_SOURCE = "store";
+    private static final String PENDING_REDEMPTIONS = "pendingRedemptions";
 
     @Autowired
     private UserRepository userRepository;
@@ -30,29 +35,18 @@ public class PointsServiceImpl implements PointsService {
     private UserPointsLogRepository pointsLogRepository;
 
     @Autowired
-    @Lazy
-    private BadgeService badgeService;
+    private IdGenerator idGenerator;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
 
     @Override
     public UserPointsLog adjustPoints(String userId, long points, String source, String description, String relatedId,
             UserPointsLog.AdminAction adminAction) {
-        // 1. Fetch User (using UUID)
-        User user = userRepository.findByUserid(userId)
-                .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND));
-
-        // 2. Validate sufficient funds for deduction
-        long newBalance = user.getCurrentPoints() + points;
-        if (newBalance < 0) {
-            // Usually we don't allow negative balance
-            throw new BusinessException(ErrorCode.PARAM_ERROR, "Insufficient points");
-        }
-
-        // 3. Update User
-        user.setCurrentPoints(newBalance);
         // Logic Refinement:
         // - "trip": Add to Total (Lifetime) + Current.
         // - "badges"/"redeem" (Refunds): Only Current.
-        // - "badges" (Purchase): Subtract Current (handled by points < 0 check).
+        // - "badges" (Purchase): Subtract Current (guarded by the balance condition below).
 
         // Prevent infinite rank exploit via Buy/Refund cycles.
         // Only valid "earning" sources increase Total Points.
@@ -63,34 +57,45 @@ public class PointsServiceImpl implements PointsService {
                 || "leaderboard".equalsIgnoreCase(source)
                 || "challenges".equalsIgnoreCase(source);
 
+        // 1. One conditional $inc on the balance fields only: a full-document save would overwrite
+        //    pendingRedemptions and the balance written concurrently by a redemption saga
+        Query query = new Query(Criteria.where("userid").is(userId));
+        if (points < 0) {
+            // Usually we don't allow negative balance
+            query.addCriteria(Criteria.where("currentPoints").gte(-points));
+        }
+        Update update = new Update().inc("currentPoints", points);
         if (points > 0 && isEarningSource) {
-            user.setTotalPoints(user.getTotalPoints() + points);
+            update.inc("totalPoints", points);
         }
 
         // 累计碳减排量（trip 来源时，points / 10 = 碳减排克数）
         boolean isTripSource = "trip".equalsIgnoreCase(source);
         if (points > 0 && isTripSource) {
-            double carbonSaved = points / 10.0;
-            double newTotal = user.getTotalCarbon() + carbonSaved;
-            user.setTotalCarbon(Math.round(newTotal * 100.0) / 100.0);
+            update.inc("totalCarbon", points / 10.0);
         }
 
-        userRepository.save(user);
+        User user = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+                User.class);
+
+        // 2. No match: either the user is missing or the balance is insufficient
+        if (user == null) {
+            userRepository.findByUserid(userId)
+                    .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND));
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "Insufficient points");
+        }
+        long newBalance = user.getCurrentPoints();
 
-        // 4. Create Log
+        // 3. Create Log
         String changeType = points > 0 ? "gain" : (points < 0 ? "deduct" : "info");
 
-        // 检查是否有碳减排成就徽章可以自动解锁
-        if (isTripSource && points > 0) {
-            badgeService.checkAndUnlockCarbonBadges(userId);
-        }
         // If source is REDEEM, type might be redeem
         if (REDEEM_SOURCE.equalsIgnoreCase(source)) {
             changeType = REDEEM_SOURCE;
         }
 
         UserPointsLog log = new UserPointsLog();
-        log.setId(java.util.UUID.randomUUID().toString()); // Use UUID for Log ID
+        log.setId(idGenerator.nextKey());
         log.setUserId(user.getUserid()); // Store Business UserID (e.g. "user001") instead of UUID
         log.setChangeType(changeType);
         log.setPoints(points);
@@ -103,6 +108,61 @@ public class PointsServiceImpl implements PointsService {
         return pointsLogRepository.save(log);
     }
 
+    @Override
+    public UserPointsLog deductForRedemption(String userId, long points, String description, String sagaId) {
+        long cost = Math.abs(points);
+        Query query = new Query(Criteria.where("userid").is(userId)
+                .and("currentPoints").gte(cost)
+                .and(PENDING_REDEMPTIONS).ne(sagaId));
+        Update update = new Update().inc("currentPoints", -cost).addToSet(PENDING_REDEMPTIONS, sagaId);
+        User user = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+                User.class);
+        if (user == null) {
+            User current = userRepository.findByUserid(userId)
+                    .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND));
+            if (current.getPendingRedemptions() != null && current.getPendingRedemptions().contains(sagaId)) {
+                // Replayed: this saga has already deducted
+                return null;
+            }
+            throw new BusinessException(ErrorCode.PARAM_ERROR, "Insufficient points");
+        }
+        return writeLog(userId, -cost, STORE_SOURCE, description, sagaId, user.getCurrentPoints());
+    }
+
+    @Override
+    public boolean refundRedemption(String userId, long points, String description, String sagaId) {
+        long amount = Math.abs(points);
+        Query query = new Query(Criteria.where("userid").is(userId).and(PENDING_REDEMPTIONS).is(sagaId));
+        Update update = new Update().inc("currentPoints", amount).pull(PENDING_REDEMPTIONS, sagaId);
+        User user = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+                User.class);
+        if (user == null) {
+            return false;
+        }
+        writeLog(userId, amount, STORE_SOURCE, description, sagaId, user.getCurrentPoints());
+        return true;
+    }
+
+    @Override
+    public void settleRedemption(String userId, String sagaId) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("userid").is(userId).and(PENDING_REDEMPTIONS).is(sagaId)),
+                new Update().pull(PENDING_REDEMPTIONS, sagaId), User.class);
+    }
+
+    private UserPointsLog writeLog(String userId, long points, String source, String description, String relatedId,
+            long balanceAfter) {
+        UserPointsLog log = new UserPointsLog();
+        log.setId(idGenerator.nextKey());
+        log.setUserId(userId);
+        log.setChangeType(points > 0 ? "gain" : (points < 0 ? "deduct" : "info"));
+        log.setPoints(points);
+        log.setSource(source);
+        log.setDescription(description);
+        log.setRelatedId(relatedId);
+        log.setBalanceAfter(balanceAfter);
+        return pointsLogRepository.save(log);
+    }
+
     @Override
     public PointsDto.CurrentPointsResponse getCurrentPoints(String userId) {
         User user = userRepository.findByUserid(userId)
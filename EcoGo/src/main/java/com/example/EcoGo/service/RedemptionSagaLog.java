@@ -0,0 +1,82 @@
+package com.example.EcoGo.service;
+
+import com.example.EcoGo.model.RedemptionSaga;
+import com.example.EcoGo.model.RedemptionSaga.Status;
+import com.mongodb.client.result.UpdateResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 兑换 saga 的持久化
+ * 每次状态迁移都是以当前状态为条件的 updateFirst：请求线程和恢复任务同时推进同一个 saga 时只有一方成功，
+ * 失败的一方（返回 false）不得再做任何副作用。
+ */
+@Component
+public class RedemptionSagaLog {
+
+    private static final List<Status> OPEN_STATUSES = Arrays.stream(Status.values()).filter(Status::isOpen).toList();
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    public void start(RedemptionSaga saga) {
+        LocalDateTime now = LocalDateTime.now();
+        saga.setStatus(Status.STARTED);
+        saga.setCreatedAt(now);
+        saga.setUpdatedAt(now);
+        mongoTemplate.insert(saga);
+    }
+
+    /**
+     * 状态从 from 迁移到 to；saga 已不在 from 状态时返回 false
+     */
+    public boolean advance(String sagaId, Status from, Status to) {
+        return transition(sagaId, from, new Update().set("status", to));
+    }
+
+    /**
+     * 迁移到终态，同时记录各阶段耗时和错误信息
+     */
+    public boolean close(String sagaId, Status from, Status to, Map<String, Long> stageMillis, String error) {
+        Update update = new Update().set("status", to).set("closed_at", LocalDateTime.now());
+        if (stageMillis != null && !stageMillis.isEmpty()) {
+            update.set("stage_millis", stageMillis);
+        }
+        if (error != null) {
+            update.set("error", error);
+        }
+        return transition(sagaId, from, update);
+    }
+
+    /**
+     * 未结束且 idleSince 之后没有推进过的 saga，最久未动的在前
+     */
+    public List<RedemptionSaga> findStuck(LocalDateTime idleSince, int limit) {
+        Query query = new Query(Criteria.where("status").in(OPEN_STATUSES).and("updated_at").lt(idleSince))
+                .with(Sort.by(Sort.Direction.ASC, "updated_at"))
+                .limit(limit);
+        return mongoTemplate.find(query, RedemptionSaga.class);
+    }
+
+    public List<RedemptionSaga> findByIds(Collection<String> sagaIds) {
+        return mongoTemplate.find(new Query(Criteria.where("_id").in(sagaIds)), RedemptionSaga.class);
+    }
+
+    private boolean transition(String sagaId, Status from, Update update) {
+        Query query = new Query(Criteria.where("_id").is(sagaId).and("status").is(from));
+        UpdateResult result = mongoTemplate.updateFirst(query, update.set("updated_at", LocalDateTime.now()),
+                RedemptionSaga.class);
+        return result.getMatchedCount() > 0;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.EcoGo.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Snowflake 风格的编号：41 bit 毫秒时间戳（自 2024-01-01 起，约 69 年）| 10 bit 节点号 | 12 bit 序号
+ * 时间戳和序号合在一个 AtomicLong 里用 CAS 推进，不加锁也不产生临时对象：
+ * - 同一毫秒内序号用完（4096 个）时借用下一毫秒，不自旋等待；
+ * - 系统时钟回拨时沿用已发出的逻辑时间继续递增，不会重号，也不会抛错。
+ * 多实例部署时必须为每个实例配置不同的 app.id.node-id。
+ */
+@Component
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnowflakeIdGenerator.class);
+
+    static final long EPOCH_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeBits;
+    private final LongSupplier clock;
+    // (距 EPOCH 的毫秒数 << SEQUENCE_BITS) | 序号，即最近一次发出的逻辑时间
+    private final AtomicLong lastTick = new AtomicLong();
+
+    @Autowired
+    public SnowflakeIdGenerator(@Value("${app.id.node-id:-1}") long nodeId) {
+        this(nodeId >= 0 ? nodeId : fallbackNodeId(), System::currentTimeMillis);
+    }
+
+    SnowflakeIdGenerator(long nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("node id must be within [0, " + MAX_NODE_ID + "]: " + nodeId);
+        }
+        this.nodeBits = nodeId << SEQUENCE_BITS;
+        this.clock = clock;
+    }
+
+    @Override
+    public long nextId() {
+        long now = (clock.getAsLong() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long last;
+        long next;
+        do {
+            last = lastTick.get();
+            next = Math.max(last + 1, now);
+        } while (!lastTick.compareAndSet(last, next));
+        long millis = next >>> SEQUENCE_BITS;
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * 取出编号里的节点号
+     */
+    static long nodeIdOf(long id) {
+        return (id >>> SEQUENCE_BITS) & MAX_NODE_ID;
+    }
+
+    // 未配置节点号时按 pid@hostname 散列，单实例够用，多实例仍可能撞号
+    private static long fallbackNodeId() {
+        String runtime = ManagementFactory.getRuntimeMXBean().getName();
+        long nodeId = (runtime.hashCode() & 0x7fffffffL) % (MAX_NODE_ID + 1);
+        logger.warn("app.id.node-id is not set, using node id {} derived from {}; "
+                + "set APP_ID_NODE_ID to a distinct value per instance", nodeId, runtime);
+        return nodeId;
+    }
+}
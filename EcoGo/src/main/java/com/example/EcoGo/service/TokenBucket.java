@@ -0,0 +1,40 @@
+package com.example.EcoGo.service;
+
+/**
+ * 本地令牌桶，用于热点商品兑换的预准入
+ * 每秒补充 ratePerSecond 个令牌，最多攒 capacity 个；拿不到令牌的请求直接拒绝，不打到 Mongo。
+ */
+public class TokenBucket {
+
+    private final double ratePerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this(ratePerSecond, capacity, System.nanoTime());
+    }
+
+    TokenBucket(double ratePerSecond, double capacity, long now) {
+        this.ratePerNano = ratePerSecond / 1_000_000_000d;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    synchronized boolean tryAcquire(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerNano);
+            lastRefill = now;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+}
@@ -4,6 +4,7 @@ import com.example.EcoGo.dto.PointsDto;
 import com.example.EcoGo.dto.TripDto;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
+import com.example.EcoGo.interfacemethods.BadgeService;
 import com.example.EcoGo.interfacemethods.PointsService;
 import com.example.EcoGo.interfacemethods.TripService;
 import com.example.EcoGo.interfacemethods.VipSwitchService;
@@ -19,9 +20,11 @@ import org.slf4j.LoggerFactory;
 import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -57,6 +60,9 @@ public class TripServiceImpl implements TripService {
     @Autowired
     private PointsService pointsService;
 
+    @Autowired
+    private BadgeService badgeService;
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
@@ -99,7 +105,7 @@ public class TripServiceImpl implements TripService {
         trip.setPointsGained(pointsGained);
         trip.setCarbonStatus(STATUS_COMPLETED);
 
-        updateUserTotalCarbonIfNeeded(userId, carbonSaved);
+        updateUserTotalCarbonAndBadges(userId, carbonSaved);
 
         return tripRepository.save(trip);
     }
@@ -227,16 +233,21 @@ public class TripServiceImpl implements TripService {
         return pointsGained;
     }
 
-    private void updateUserTotalCarbonIfNeeded(String userId, double carbonSaved) {
+    /**
+     * totalCarbon 用 $inc 累加，不整文档 save（不会覆盖并发写入的其它字段）；
+     * 成就徽章在累加之后按最新的 totalCarbon 检查
+     */
+    private void updateUserTotalCarbonAndBadges(String userId, double carbonSaved) {
         if (carbonSaved <= 0)
             return;
 
-        User user = userRepository.findByUserid(userId)
-                .orElseThrow(() -> new BusinessException(ErrorCode.USER_NOT_FOUND));
-
-        double newTotal = user.getTotalCarbon() + carbonSaved / 10.0;
-        user.setTotalCarbon(round2(newTotal));
-        userRepository.save(user);
+        User user = mongoTemplate.findAndModify(new Query(Criteria.where("userid").is(userId)),
+                new Update().inc("totalCarbon", round2(carbonSaved / 10.0)),
+                FindAndModifyOptions.options().returnNew(true), User.class);
+        if (user == null) {
+            throw new BusinessException(ErrorCode.USER_NOT_FOUND);
+        }
+        badgeService.checkAndUnlockCarbonBadges(user);
     }
 
     @Override
@@ -7,6 +7,10 @@ import java.util.UUID;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import com.example.EcoGo.dto.AuthDto;
@@ -28,11 +32,14 @@ public class UserServiceImpl implements UserInterface {
     private final UserRepository userRepository;
     private final PasswordUtils passwordUtils;
     private final JwtUtils jwtUtils;
+    private final MongoTemplate mongoTemplate;
 
-    public UserServiceImpl(UserRepository userRepository, PasswordUtils passwordUtils, JwtUtils jwtUtils) {
+    public UserServiceImpl(UserRepository userRepository, PasswordUtils passwordUtils, JwtUtils jwtUtils,
+            MongoTemplate mongoTemplate) {
         this.userRepository = userRepository;
         this.passwordUtils = passwordUtils;
         this.jwtUtils = jwtUtils;
+        this.mongoTemplate = mongoTemplate;
     }
 
     @Override
@@ -171,7 +178,9 @@ public class UserServiceImpl implements UserInterface {
         // Note: our List<LocalDate> stores unique days; this counter approximates frequency.
         metrics.setLoginFrequency7d(metrics.getLoginFrequency7d() + 1);
 
-        userRepository.save(user);
+        updateFields(user, new Update()
+                .set("lastLoginAt", user.getLastLoginAt())
+                .set("activityMetrics", metrics));
 
         String token = jwtUtils.generateToken(user.getUserid(), user.isAdmin());
         String expireAt = jwtUtils.getExpirationDate(token).toString();
@@ -247,7 +256,9 @@ public class UserServiceImpl implements UserInterface {
 
         user.setPreferences(defaultPref);
         user.setUpdatedAt(LocalDateTime.now());
-        userRepository.save(user);
+        updateFields(user, new Update()
+                .set("preferences", defaultPref)
+                .set("updatedAt", user.getUpdatedAt()));
 
         return new UserProfileDto.PreferencesResetResponse(defaultPref, user.getUpdatedAt());
     }
@@ -283,7 +294,9 @@ public class UserServiceImpl implements UserInterface {
 
         user.setDeactivated(request.isDeactivated);
         user.setUpdatedAt(LocalDateTime.now());
-        userRepository.save(user);
+        updateFields(user, new Update()
+                .set("isDeactivated", user.isDeactivated())
+                .set("updatedAt", user.getUpdatedAt()));
 
         return new UserProfileDto.UpdateProfileResponse(user.getId(), user.getUpdatedAt());
     }
@@ -316,7 +329,7 @@ public class UserServiceImpl implements UserInterface {
         }
 
         user.setLastLoginAt(LocalDateTime.now());
-        userRepository.save(user);
+        updateFields(user, new Update().set("lastLoginAt", user.getLastLoginAt()));
 
         String token = jwtUtils.generateToken(user.getUserid(), user.isAdmin());
         String expireAt = jwtUtils.getExpirationDate(token).toString();
@@ -355,7 +368,11 @@ public class UserServiceImpl implements UserInterface {
         user.getVip().setActive(request.vip_status);
 
         user.setUpdatedAt(LocalDateTime.now());
-        userRepository.save(user);
+        updateFields(user, new Update()
+                .set("isAdmin", user.isAdmin())
+                .set("isDeactivated", user.isDeactivated())
+                .set("vip.isActive", user.getVip().isActive())
+                .set("updatedAt", user.getUpdatedAt()));
 
         return new UserProfileDto.UpdateProfileResponse(user.getId(), user.getUpdatedAt());
     }
@@ -377,23 +394,36 @@ public class UserServiceImpl implements UserInterface {
     }
 
     private UserProfileDto.UpdateProfileResponse performUpdate(User user, UserProfileDto.UpdateProfileRequest request) {
-        updateUserBasicInfo(user, request);
-        updateUserPreferences(user, request);
+        Update update = new Update();
+        updateUserBasicInfo(user, request, update);
+        updateUserPreferences(user, request, update);
 
         user.setUpdatedAt(LocalDateTime.now());
-        userRepository.save(user);
+        updateFields(user, update.set("updatedAt", user.getUpdatedAt()));
 
         return new UserProfileDto.UpdateProfileResponse(user.getId(), user.getUpdatedAt());
     }
 
-    private void updateUserBasicInfo(User user, UserProfileDto.UpdateProfileRequest request) {
-        if (request.nickname != null) user.setNickname(request.nickname);
-        if (request.avatar != null) user.setAvatar(request.avatar);
-        if (request.phone != null) user.setPhone(request.phone);
-        if (request.faculty != null) user.setFaculty(request.faculty);
+    private void updateUserBasicInfo(User user, UserProfileDto.UpdateProfileRequest request, Update update) {
+        if (request.nickname != null) {
+            user.setNickname(request.nickname);
+            update.set("nickname", request.nickname);
+        }
+        if (request.avatar != null) {
+            user.setAvatar(request.avatar);
+            update.set("avatar", request.avatar);
+        }
+        if (request.phone != null) {
+            user.setPhone(request.phone);
+            update.set("phone", request.phone);
+        }
+        if (request.faculty != null) {
+            user.setFaculty(request.faculty);
+            update.set("faculty", request.faculty);
+        }
     }
 
-    private void updateUserPreferences(User user, UserProfileDto.UpdateProfileRequest request) {
+    private void updateUserPreferences(User user, UserProfileDto.UpdateProfileRequest request, Update update) {
         if (request.preferences == null) return;
 
         User.Preferences userPref = user.getPreferences();
@@ -405,6 +435,7 @@ public class UserServiceImpl implements UserInterface {
 
         updateGeneralPreferences(userPref, reqPref);
         updateNewPreferences(userPref, reqPref);
+        update.set("preferences", userPref);
     }
 
     private void updateGeneralPreferences(User.Preferences userPref, UserProfileDto.PreferencesDto reqPref) {
@@ -456,7 +487,7 @@ public class UserServiceImpl implements UserInterface {
         applyDeactivationUpdate(user, request);
 
         user.setUpdatedAt(LocalDateTime.now());
-        userRepository.save(user);
+        updateFields(user, adminUpdate(user, request));
 
         return new UserProfileDto.UpdateProfileResponse(user.getId(), user.getUpdatedAt());
     }
@@ -518,6 +549,24 @@ public class UserServiceImpl implements UserInterface {
         }
     }
 
+    private Update adminUpdate(User user, UserProfileDto.AdminUpdateUserInfoRequest request) {
+        Update update = new Update().set("updatedAt", user.getUpdatedAt());
+        if (request.nickname != null) update.set("nickname", user.getNickname());
+        if (request.email != null) update.set("email", user.getEmail());
+        if (request.isDeactivated != null) update.set("isDeactivated", user.isDeactivated());
+        boolean vipEdited = request.isVipActive != null
+                || (request.vipPlan != null && !request.vipPlan.isEmpty())
+                || (request.vipExpiryDate != null && !request.vipExpiryDate.isEmpty());
+        if (vipEdited) {
+            // Only the admin-editable vip.* fields; vip.lastRedemptionId belongs to the redemption saga
+            update.set("vip.isActive", user.getVip().isActive())
+                    .set("vip.startDate", user.getVip().getStartDate())
+                    .set("vip.plan", user.getVip().getPlan())
+                    .set("vip.expiryDate", user.getVip().getExpiryDate());
+        }
+        return update;
+    }
+
     private void ensureVipObject(User user) {
         if (user.getVip() == null) {
             user.setVip(new User.Vip());
@@ -584,7 +633,21 @@ public class UserServiceImpl implements UserInterface {
             vip.setAutoRenew(false);
         }
 
-        userRepository.save(user);
+        updateFields(user, new Update()
+                .set("vip.isActive", vip.isActive())
+                .set("vip.startDate", vip.getStartDate())
+                .set("vip.expiryDate", vip.getExpiryDate())
+                .set("vip.plan", vip.getPlan())
+                .set("vip.pointsMultiplier", vip.getPointsMultiplier())
+                .set("vip.autoRenew", vip.isAutoRenew()));
         logger.info("VIP Activated/Extended for user: {}, duration: {} days", userId, durationDays);
     }
+
+    /**
+     * Writes only the given fields of an existing user. A full-document save would overwrite the balance,
+     * pendingRedemptions, rewardedPeriods and vip.lastRedemptionId written concurrently by other services.
+     */
+    private void updateFields(User user, Update update) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(user.getId())), update, User.class);
+    }
 }
@@ -6,6 +6,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,9 +14,16 @@ import java.util.Map;
 @Service
 public class WeatherService {
 
+    // 上游熔断：OpenWeather 故障期间直接失败，不再逐个请求等待超时
+    static final String UPSTREAM = "openweather";
+    private static final Duration MAX_TIMEOUT = Duration.ofSeconds(10);
+
     @Autowired
     private RestTemplate restTemplate;
 
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakers;
+
 @Value("${weather.api.key}")
     private String apiKey = "";
 
@@ -25,13 +33,21 @@ public class WeatherService {
     @SuppressWarnings("unchecked")
     public Map<String, Object> getWeather(double lat, double lon) {
         Map<String, Object> finalResult = new HashMap<>();
+        CircuitBreaker breaker = circuitBreakers.forUpstream(UPSTREAM, MAX_TIMEOUT);
+        if (!breaker.tryAcquire()) {
+            throw new RuntimeException("获取天气服务异常");
+        }
+        boolean reported = false;
 
         try {
+            long start = System.nanoTime();
             // 1. 获取基础天气
             Map<String, Object> weatherData = callWeatherApi(lat, lon);
             
             // 2. 获取空气质量 (AQI)
             Map<String, Object> pollutionData = callPollutionApi(lat, lon);
+            breaker.onSuccess(System.nanoTime() - start);
+            reported = true;
 
             // 3. 组装数据
             if (weatherData != null) {
@@ -64,6 +80,9 @@ public class WeatherService {
             }
 
         } catch (Exception e) {
+            if (!reported) {
+                breaker.onFailure();
+            }
             e.printStackTrace();
             throw new RuntimeException("获取天气服务异常");
         }
@@ -2,24 +2,26 @@ package com.example.EcoGo.service.chatbot;
 
 import com.example.EcoGo.model.AuditLog;
 import com.example.EcoGo.repository.AuditLogRepository;
+import com.example.EcoGo.service.IdGenerator;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.Map;
-import java.util.UUID;
 
 @Service
 public class AuditLogService {
 
     private final AuditLogRepository auditLogRepository;
+    private final IdGenerator idGenerator;
 
-    public AuditLogService(AuditLogRepository auditLogRepository) {
+    public AuditLogService(AuditLogRepository auditLogRepository, IdGenerator idGenerator) {
         this.auditLogRepository = auditLogRepository;
+        this.idGenerator = idGenerator;
     }
 
     public String createAuditLog(String actorUserId, String action,
                                   String targetUserId, Map<String, Object> details) {
-        String auditId = "au_" + UUID.randomUUID().toString().substring(0, 11);
+        String auditId = "au_" + idGenerator.nextKey();
         AuditLog log = new AuditLog();
         log.setAuditId(auditId);
         log.setActorUserId(actorUserId);
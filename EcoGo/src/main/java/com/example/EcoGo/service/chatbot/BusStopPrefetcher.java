@@ -0,0 +1,110 @@
+package com.example.EcoGo.service.chatbot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps arrivals for the most-queried NUS stops warm during shuttle service hours,
+ * so bus questions for those stops are answered from {@link NusBusProvider}'s cache
+ * instead of waiting on the NextBus API after every TTL expiry.
+ *
+ * Runs on every instance without a scheduler lock: each node warms its own in-memory cache.
+ * It has its own thread rather than the shared {@code @Scheduled} one, so a long batch job
+ * does not let the cache go cold.
+ */
+@Component
+public class BusStopPrefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(BusStopPrefetcher.class);
+
+    static final long INTERVAL_MS = 5_000L;
+    // Slack for the refresh call and the fixed-delay drift of the next run
+    static final long REFRESH_MARGIN_MS = 1_000L;
+    private static final ZoneId CAMPUS_ZONE = ZoneId.of("Asia/Singapore");
+
+    @Autowired
+    private NusBusProvider busProvider;
+
+    @Value("${chatbot.nus-bus.prefetch.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${chatbot.nus-bus.prefetch.top-n:8}")
+    private int topN = 8;
+
+    @Value("${chatbot.nus-bus.prefetch.service-start-hour:7}")
+    private int serviceStartHour = 7;
+
+    // Exclusive; 24 = until midnight
+    @Value("${chatbot.nus-bus.prefetch.service-end-hour:24}")
+    private int serviceEndHour = 24;
+
+    private final ScheduledExecutorService runner = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "bus-stop-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    void start() {
+        runner.scheduleWithFixedDelay(this::prefetchPopularStops, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        runner.shutdownNow();
+    }
+
+    void prefetchPopularStops() {
+        try {
+            prefetch(LocalTime.now(CAMPUS_ZONE));
+        } catch (RuntimeException e) {
+            // An escaping exception would cancel all later runs
+            log.warn("[BUS_PREFETCH] Prefetch failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Refreshes are asynchronous, so a slow upstream never holds the prefetch thread.
+     *
+     * @return number of stops checked
+     */
+    int prefetch(LocalTime now) {
+        if (!enabled || !inServiceHours(now)) {
+            return 0;
+        }
+        List<String> stops = busProvider.popularStopCodes(topN);
+        Duration ahead = refreshAhead(busProvider.cacheTtl());
+        for (String stopCode : stops) {
+            busProvider.refreshIfExpiring(stopCode, ahead);
+        }
+        return stops.size();
+    }
+
+    /**
+     * Refresh anything that would expire before the next run, but never more than half a TTL early,
+     * so each stop costs about one upstream call per TTL. With the defaults: min(6s, 7.5s) = 6s.
+     */
+    static Duration refreshAhead(Duration cacheTtl) {
+        Duration beforeNextRun = Duration.ofMillis(INTERVAL_MS + REFRESH_MARGIN_MS);
+        Duration halfTtl = cacheTtl.dividedBy(2);
+        return beforeNextRun.compareTo(halfTtl) < 0 ? beforeNextRun : halfTtl;
+    }
+
+    boolean inServiceHours(LocalTime now) {
+        int hour = now.getHour();
+        return hour >= serviceStartHour && hour < serviceEndHour;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.EcoGo.service.chatbot;
+
+import com.example.EcoGo.dto.chatbot.ChatHistoryDto;
+import com.example.EcoGo.model.ChatConversation;
+import com.example.EcoGo.model.ChatMessageBucket;
+import com.example.EcoGo.repository.ChatConversationRepository;
+import com.example.EcoGo.repository.ChatMessageBucketRepository;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.LongStream;
+
+/**
+ * Reads conversation history page by page from the message buckets.
+ * A page of at most {@value #MAX_PAGE_SIZE} messages spans at most two buckets.
+ */
+@Service
+public class ChatHistoryService {
+
+    static final int DEFAULT_PAGE_SIZE = 20;
+    static final int MAX_PAGE_SIZE = ChatMessageBucket.SIZE;
+    private static final String GUEST = "guest";
+    private static final String CONVERSATIONS = "chat_conversations";
+    // Set on a legacy header once seqs are reserved for its embedded messages, so a rerun reuses them
+    static final String LEGACY_FROM = "legacyMessagesFrom";
+
+    private final ChatConversationRepository conversationRepository;
+    private final ChatMessageBucketRepository bucketRepository;
+    private final MongoTemplate mongoTemplate;
+
+    public ChatHistoryService(ChatConversationRepository conversationRepository,
+                              ChatMessageBucketRepository bucketRepository,
+                              MongoTemplate mongoTemplate) {
+        this.conversationRepository = conversationRepository;
+        this.bucketRepository = bucketRepository;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * The {@code limit} messages before seq {@code before} (exclusive), or the latest ones when it is null.
+     * Empty when the conversation does not exist, belongs to another user (admins may read any)
+     * or was held by a guest; guests share one user id, so ownership cannot be told apart.
+     */
+    public Optional<ChatHistoryDto> getHistory(String userId, boolean isAdmin, String conversationId,
+                                               Long before, Integer limit) {
+        Optional<ChatConversation> header = conversationRepository.findByConversationId(conversationId);
+        if (header.isEmpty() || GUEST.equals(header.get().getUserId()) || GUEST.equals(userId)
+                || (!isAdmin && !userId.equals(header.get().getUserId()))) {
+            return Optional.empty();
+        }
+
+        long total = header.get().getMessageCount();
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(MAX_PAGE_SIZE, limit));
+        long end = before == null ? total : Math.max(0, Math.min(total, before));
+        long start = Math.max(0, end - pageSize);
+        if (start == end) {
+            return Optional.of(new ChatHistoryDto(conversationId, total, List.of(), null));
+        }
+
+        List<Long> bucketNos = LongStream.rangeClosed(ChatMessageBucket.bucketOf(start), ChatMessageBucket.bucketOf(end - 1))
+                .boxed()
+                .toList();
+        List<ChatHistoryDto.Message> messages = bucketRepository
+                .findByConversationIdAndBucketNoInOrderByBucketNoAsc(conversationId, bucketNos).stream()
+                .flatMap(bucket -> bucket.getMessages().stream())
+                .filter(m -> m.getSeq() != null && m.getSeq() >= start && m.getSeq() < end)
+                .sorted(Comparator.comparing(ChatConversation.Message::getSeq))
+                .map(m -> new ChatHistoryDto.Message(m.getSeq(), m.getRole(), m.getText(), m.getTimestamp()))
+                .toList();
+        return Optional.of(new ChatHistoryDto(conversationId, total, messages, start > 0 ? start : null));
+    }
+
+    /**
+     * Moves the {@code messages} array still embedded in conversations saved before bucketing into
+     * {@link ChatMessageBucket}s, then unsets it. The messages get seqs after any the conversation has
+     * already counted, reserved once on messageCount, and buckets are written with {@code $addToSet},
+     * so a rerun after a crash, or another node running it at the same time, neither loses nor
+     * duplicates them. Returns the number of conversations migrated.
+     */
+    public long backfillLegacyMessages() {
+        Query legacy = new Query(Criteria.where("messages").exists(true));
+        legacy.fields().include("_id").include("conversationId").include("messages").include(LEGACY_FROM);
+        List<Document> docs = mongoTemplate.find(legacy, Document.class, CONVERSATIONS);
+        long migrated = 0;
+        for (Document doc : docs) {
+            if (migrateLegacyMessages(doc)) {
+                migrated++;
+            }
+        }
+        return migrated;
+    }
+
+    private boolean migrateLegacyMessages(Document doc) {
+        Object id = doc.get("_id");
+        List<Document> messages = doc.getList("messages", Document.class, List.of());
+        Number from = doc.get(LEGACY_FROM, Number.class);
+        if (from == null && !messages.isEmpty()) {
+            // Both fields are computed from the old messageCount in one pipeline update
+            Document reserved = mongoTemplate.findAndModify(
+                    new Query(Criteria.where("_id").is(id).and(LEGACY_FROM).exists(false)),
+                    AggregationUpdate.update()
+                            .set(LEGACY_FROM).toValue(ConditionalOperators.ifNull("messageCount").then(0L))
+                            .set("messageCount").toValue(ArithmeticOperators.valueOf(
+                                    ConditionalOperators.ifNull("messageCount").then(0L)).add(messages.size())),
+                    FindAndModifyOptions.options().returnNew(true),
+                    Document.class, CONVERSATIONS);
+            if (reserved == null) {
+                return false;
+            }
+            from = reserved.get(LEGACY_FROM, Number.class);
+        }
+        if (!messages.isEmpty()) {
+            writeBuckets(doc.getString("conversationId"), messages, from.longValue());
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(id)),
+                new Update().unset("messages").unset(LEGACY_FROM), CONVERSATIONS);
+        return true;
+    }
+
+    private void writeBuckets(String conversationId, List<Document> messages, long firstSeq) {
+        Map<Long, List<Document>> byBucket = new TreeMap<>();
+        long seq = firstSeq;
+        for (Document m : messages) {
+            Document numbered = new Document(m).append("seq", seq);
+            byBucket.computeIfAbsent(ChatMessageBucket.bucketOf(seq), b -> new ArrayList<>()).add(numbered);
+            seq++;
+        }
+        Instant now = Instant.now();
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessageBucket.class);
+        byBucket.forEach((bucketNo, bucketMessages) -> ops.upsert(
+                new Query(Criteria.where("conversationId").is(conversationId).and("bucketNo").is(bucketNo)),
+                new Update()
+                        .addToSet("messages").each(bucketMessages.toArray())
+                        .set("updatedAt", now)
+                        .setOnInsert("createdAt", now)));
+        ops.execute();
+    }
+}
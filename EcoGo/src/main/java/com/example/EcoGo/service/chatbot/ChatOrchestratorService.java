@@ -6,16 +6,24 @@ import com.example.EcoGo.dto.chatbot.ChatResponseDto.Citation;
 import com.example.EcoGo.dto.chatbot.ChatResponseDto.UiAction;
 import com.example.EcoGo.model.ChatConversation;
 import com.example.EcoGo.model.User;
-import com.example.EcoGo.repository.ChatConversationRepository;
 import com.example.EcoGo.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,7 +31,7 @@ import java.util.regex.Pattern;
  * Main chat orchestrator — ported from Python chatbot/backend/app/services/orchestrator.py
  *
  * Handles:
- * - Multi-turn conversation state management (in-memory + MongoDB persistence)
+ * - Multi-turn conversation state management (shared {@link ConversationStateStore}, no session affinity)
  * - Intent detection (keyword-based + optional model-based)
  * - Routing to: booking, bus query, user update, RAG knowledge Q&A
  */
@@ -35,7 +43,6 @@ public class ChatOrchestratorService {
     // =========================
     // Sonar: duplicated literals -> constants (S1192)
     // =========================
-    private static final long CONVERSATION_TTL_MS = 30 * 60 * 1000L; // 30 minutes
 
     // intents
     private static final String INTENT_BOOKING = "booking";
@@ -77,6 +84,7 @@ public class ChatOrchestratorService {
     private static final String PROFILE_KEY_EMAIL = "email";
     private static final String PROFILE_KEY_PHONE = "phone";
     private static final String PROFILE_KEY_FACULTY = "faculty";
+    private static final String KEY_TARGET_USER_ID = "targetUserId";
 
     // bus cache keys
     private static final String KEY_LAST_BUS_STOP = "_lastBusStop";
@@ -102,6 +110,9 @@ public class ChatOrchestratorService {
     private static final String SUGGEST_COM3_TO_UTOWN = "COM3 to UTown";
     private static final String SUGGEST_PGP_TO_CLB = "PGP to CLB";
 
+    // speculative keyword/RAG answer that would write; the real write runs only if the local answer wins
+    private static final ChatResponseDto DEFERRED_WRITE = new ChatResponseDto(null, null);
+
     // =========================
     // Dependencies
     // =========================
@@ -112,11 +123,17 @@ public class ChatOrchestratorService {
     private final NusBusProvider busProvider;
     private final AuditLogService auditLogService;
     private final ChatNotificationService notificationService;
-    private final ChatConversationRepository conversationRepository;
+    private final ConversationStateStore stateStore;
+    private final ConversationWriteBehind conversationWriter;
     private final UserRepository userRepository;
+    private final MongoTemplate mongoTemplate;
+
+    // Hedged dispatch: query model + Python in parallel and compute the keyword/RAG answer meanwhile
+    @Value("${chatbot.hedge.enabled:true}")
+    private boolean hedgeEnabled;
 
-    // In-memory conversation state cache (backed by MongoDB) with TTL
-    private final Map<String, ConversationState> conversations = new ConcurrentHashMap<>();
+    @Value("${chatbot.hedge.budget-ms:2500}")
+    private long hedgeBudgetMs;
 
     public ChatOrchestratorService(RagService ragService,
                                    ChatBookingService bookingService,
@@ -125,8 +142,10 @@ public class ChatOrchestratorService {
                                    NusBusProvider busProvider,
                                    AuditLogService auditLogService,
                                    ChatNotificationService notificationService,
-                                   ChatConversationRepository conversationRepository,
-                                   UserRepository userRepository) {
+                                   ConversationStateStore stateStore,
+                                   ConversationWriteBehind conversationWriter,
+                                   UserRepository userRepository,
+                                   MongoTemplate mongoTemplate) {
         this.ragService = ragService;
         this.bookingService = bookingService;
         this.modelClientService = modelClientService;
@@ -134,8 +153,10 @@ public class ChatOrchestratorService {
         this.busProvider = busProvider;
         this.auditLogService = auditLogService;
         this.notificationService = notificationService;
-        this.conversationRepository = conversationRepository;
+        this.stateStore = stateStore;
+        this.conversationWriter = conversationWriter;
         this.userRepository = userRepository;
+        this.mongoTemplate = mongoTemplate;
     }
 
     // =========================
@@ -148,24 +169,27 @@ public class ChatOrchestratorService {
 
         log.info("[ORCHESTRATOR] User: {}, isAdmin: {}, Message: {}", userId, isAdmin, text);
 
-        ConversationState state = getOrCreateState(convId, userId);
+        ConversationState state = loadState(convId);
         log.info("[ORCHESTRATOR] ConversationId: {}, State.intent: {}", convId, state.intent);
 
-        // Persist user message
-        persistMessage(convId, userId, ROLE_USER, text);
+        ChatConversation.Message userMessage = new ChatConversation.Message(ROLE_USER, text);
 
         // Route message
         ChatResponseDto response = routeMessage(convId, userId, role, state, text);
 
-        // Persist assistant + state
-        persistAssistantAndState(convId, userId, response, state);
+        // State is saved before replying, so the next turn may go to any node; the same write numbers
+        // the turn's messages, which are then written behind
+        List<ChatConversation.Message> turn = turnMessages(userMessage, response);
+        saveState(convId, userId, state, turn);
+        conversationWriter.record(convId, userId, turn);
 
         return response;
     }
 
     private String ensureConversationId(String conversationId) {
         if (conversationId == null || conversationId.isBlank()) {
-            return "c_" + System.currentTimeMillis();
+            // Unguessable: the id is what grants access to the conversation's state and history
+            return "c_" + UUID.randomUUID().toString().replace("-", "");
         }
         return conversationId;
     }
@@ -174,12 +198,6 @@ public class ChatOrchestratorService {
         return s == null ? "" : s.trim();
     }
 
-    private void persistAssistantAndState(String convId, String userId, ChatResponseDto response, ConversationState state) {
-        String assistantText = response.getAssistant() != null ? response.getAssistant().getText() : "";
-        persistMessage(convId, userId, ROLE_ASSISTANT, assistantText);
-        persistState(convId, userId, state);
-    }
-
     // =========================
     // Router (split to reduce Cognitive Complexity - S3776)
     // =========================
@@ -240,13 +258,16 @@ public class ChatOrchestratorService {
 
     private ChatResponseDto handleQuickBusAction(String convId, ConversationState state, String text) {
         if (isShowMoreCommand(text)) {
-            return handleBusQueryExpanded(convId, text);
+            return handleBusQueryExpanded(convId, state, this::blockingArrivals).join();
         }
         // change stop / try another stop
         return buildBusStopPrompt(convId, state);
     }
 
     private ChatResponseDto handleModelOrFallback(String convId, String userId, String role, ConversationState state, String text) {
+        if (hedgeEnabled) {
+            return handleModelOrFallbackHedged(convId, userId, role, state, text);
+        }
         ModelClientService.ModelResult mr = modelClientService.callModelForTool(text);
 
         if (mr != null && mr.toolCall() != null) {
@@ -260,6 +281,74 @@ public class ChatOrchestratorService {
         return tryPythonProxyOrKeyword(convId, userId, role, state, text);
     }
 
+    /**
+     * Same preference order as the serial path (model tool call, model text, Python, keyword/RAG),
+     * but all three answers are started together: the model and Python calls, and the keyword/RAG
+     * answer, whose bus lookups compose on {@link NusBusProvider#getArrivalsAsync} instead of
+     * blocking this thread. All three are awaited against one deadline; the best answer ready by
+     * then wins and the others are cancelled. The local answer works on a copy of the state, which
+     * is only applied if that answer is used, and is computed without side effects: a profile
+     * update is deferred and only executed, on the real state, once the local answer is chosen.
+     */
+    private ChatResponseDto handleModelOrFallbackHedged(String convId, String userId, String role,
+                                                        ConversationState state, String text) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeBudgetMs);
+        CompletableFuture<ModelClientService.ModelResult> model = modelClientService.callModelForToolAsync(text);
+        CompletableFuture<ChatResponseDto> python = pythonProxy.isEnabled()
+                ? pythonProxy.forwardChatAsync(userId, role, convId, text)
+                : CompletableFuture.completedFuture(null);
+        ConversationState scratch = state.copy();
+        CompletableFuture<ChatResponseDto> local =
+                keywordOrRag(convId, userId, role, scratch, text, busProvider::getArrivalsAsync, true);
+
+        ModelClientService.ModelResult mr = awaitUntil(model, deadline);
+        if (mr != null && mr.toolCall() != null) {
+            python.cancel(true);
+            local.cancel(true);
+            return handleToolCall(convId, userId, role, state, mr);
+        }
+        if (mr != null && mr.text() != null && !mr.text().isBlank()) {
+            python.cancel(true);
+            local.cancel(true);
+            return new ChatResponseDto(convId, mr.text()).withSuggestions(POST_ACTION);
+        }
+        model.cancel(true);
+
+        ChatResponseDto proxyResponse = awaitUntil(python, deadline);
+        if (proxyResponse != null) {
+            log.info("[ORCHESTRATOR] Got response from Python chatbot proxy");
+            local.cancel(true);
+            return proxyResponse;
+        }
+        python.cancel(true);
+
+        ChatResponseDto localResponse = awaitUntil(local, deadline);
+        if (localResponse == null) {
+            local.cancel(true);
+            log.warn("[ORCHESTRATOR] No answer within {}ms", hedgeBudgetMs);
+            return buildMainMenu(convId, "Sorry, that took too long. Please try again or pick an option below:");
+        }
+        log.debug("[ORCHESTRATOR] No remote answer within {}ms, using keyword/RAG", hedgeBudgetMs);
+        if (localResponse == DEFERRED_WRITE) {
+            return handleKeywordOrRag(convId, userId, role, state, text);
+        }
+        state.copyFrom(scratch);
+        return localResponse;
+    }
+
+    /** Result of the future if it completes before the deadline, otherwise null. */
+    private <T> T awaitUntil(CompletableFuture<T> future, long deadlineNanos) {
+        long remaining = deadlineNanos - System.nanoTime();
+        try {
+            return remaining > 0 ? future.get(remaining, TimeUnit.NANOSECONDS) : future.getNow(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException | CancellationException e) {
+            return null;
+        }
+    }
+
     // =========================
     // Python proxy fallback
     // =========================
@@ -281,33 +370,54 @@ public class ChatOrchestratorService {
     // =========================
     private ChatResponseDto handleKeywordOrRag(String convId, String userId, String role,
                                               ConversationState state, String text) {
+        return keywordOrRag(convId, userId, role, state, text, this::blockingArrivals, false).join();
+    }
+
+    /**
+     * Bus answers complete when {@code arrivals} does; everything else is answered at once.
+     * When {@code speculative}, branches that write answer {@link #DEFERRED_WRITE} instead.
+     */
+    private CompletableFuture<ChatResponseDto> keywordOrRag(String convId, String userId, String role,
+                                                            ConversationState state, String text,
+                                                            ArrivalsLookup arrivals, boolean speculative) {
 
         if (isBlankOrEmoji(text)) {
-            return buildMainMenu(convId, "How can I help you?");
+            return CompletableFuture.completedFuture(buildMainMenu(convId, "How can I help you?"));
         }
 
         if (isGreeting(text)) {
-            return buildMainMenu(convId, "Hi there! I'm EcoGo Assistant 😊\nHow can I help you today?");
+            return CompletableFuture.completedFuture(
+                    buildMainMenu(convId, "Hi there! I'm EcoGo Assistant 😊\nHow can I help you today?"));
         }
 
         ChatResponseDto menuHit = tryHandleMenuButtons(convId, userId, state, text);
-        if (menuHit != null) return menuHit;
+        if (menuHit != null) return CompletableFuture.completedFuture(menuHit);
+
+        if (isShowMoreCommand(text)) {
+            return handleBusQueryExpanded(convId, state, arrivals);
+        }
 
         ChatResponseDto followUpHit = tryHandleFollowUpButtons(convId, state, text);
-        if (followUpHit != null) return followUpHit;
+        if (followUpHit != null) return CompletableFuture.completedFuture(followUpHit);
 
         ChatResponseDto bookingHit = tryHandleBookingIntent(convId, state, text);
-        if (bookingHit != null) return bookingHit;
+        if (bookingHit != null) return CompletableFuture.completedFuture(bookingHit);
 
         if (isBusQueryIntent(text)) {
-            return handleBusQuery(convId, text);
+            return handleBusQueryInternal(convId, state, text, 3, arrivals);
         }
 
+        return CompletableFuture.completedFuture(handleNonBusQuery(convId, userId, role, state, text, speculative));
+    }
+
+    private ChatResponseDto handleNonBusQuery(String convId, String userId, String role,
+                                             ConversationState state, String text, boolean speculative) {
         if (isProfileQuery(text)) {
             return handleProfileQuery(convId, userId);
         }
 
         if (isUserUpdateIntent(text)) {
+            if (speculative) return DEFERRED_WRITE;
             return handleUserUpdateRequest(convId, userId, role, state, text);
         }
 
@@ -352,9 +462,6 @@ public class ChatOrchestratorService {
     }
 
     private ChatResponseDto tryHandleFollowUpButtons(String convId, ConversationState state, String text) {
-        if (isShowMoreCommand(text)) {
-            return handleBusQueryExpanded(convId, text);
-        }
         if (isChangeStopCommand(text)) {
             return buildBusStopPrompt(convId, state);
         }
@@ -443,7 +550,7 @@ public class ChatOrchestratorService {
 
     private ChatResponseDto handleBusQueryWithStop(String convId, ConversationState state, String text) {
         state.reset();
-        return handleBusQuery(convId, text);
+        return handleBusQuery(convId, state, text);
     }
 
     private ChatResponseDto buildRecommendPrompt(String convId, ConversationState state) {
@@ -642,86 +749,65 @@ public class ChatOrchestratorService {
     // =========================
     // Persistence
     // =========================
-    private ConversationState getOrCreateState(String conversationId, String userId) {
-        cleanupExpiredConversations();
-
-        ConversationState cached = conversations.get(conversationId);
-        if (cached != null) {
-            cached.lastAccessedAt = System.currentTimeMillis();
-            return cached;
-        }
-
-        Optional<ChatConversation> existing = conversationRepository.findByConversationId(conversationId);
-        ConversationState state;
-
-        if (existing.isPresent()) {
-            state = restoreStateFromDb(existing.get());
-        } else {
-            state = new ConversationState();
-            createConversationInDb(conversationId, userId);
-        }
-
-        conversations.put(conversationId, state);
-        return state;
-    }
-
-    private ConversationState restoreStateFromDb(ChatConversation conv) {
+    /** A working copy of the saved state; the turn mutates it freely. */
+    private ConversationState loadState(String conversationId) {
         ConversationState state = new ConversationState();
-        ChatConversation.ConversationState dbState = conv.getState();
-        if (dbState != null) {
+        stateStore.load(conversationId).ifPresent(saved -> {
+            ChatConversation.ConversationState dbState = saved.state();
+            state.version = saved.version();
             state.intent = dbState.getIntent();
             if (dbState.getPartialData() != null) {
                 state.partialData.putAll(dbState.getPartialData());
             }
-        }
+            if (dbState.getPendingUserUpdate() != null) {
+                Map<String, Object> pending = dbState.getPendingUserUpdate();
+                state.pendingUserUpdate = new PendingUserUpdate(
+                        String.valueOf(pending.get(KEY_TARGET_USER_ID)), patchFromMap(pending));
+            }
+        });
         return state;
     }
 
-    private void createConversationInDb(String conversationId, String userId) {
-        ChatConversation conv = new ChatConversation();
-        conv.setConversationId(conversationId);
-        conv.setUserId(userId);
-        conv.setCreatedAt(Instant.now());
-        conv.setUpdatedAt(Instant.now());
-        conversationRepository.save(conv);
-    }
-
-    private void persistMessage(String conversationId, String userId, String role, String text) {
+    /**
+     * Compare-and-set against the version the turn started from, numbering the turn's messages in the
+     * same write. Losing means a turn of the same conversation finished on another node meanwhile; its
+     * state is kept and this one dropped, and these messages are numbered when they are flushed.
+     */
+    private void saveState(String conversationId, String userId, ConversationState state,
+                           List<ChatConversation.Message> turn) {
         try {
-            Optional<ChatConversation> opt = conversationRepository.findByConversationId(conversationId);
-            if (opt.isPresent()) {
-                ChatConversation conv = opt.get();
-                ChatConversation.Message msg = new ChatConversation.Message(role, text);
-                conv.getMessages().add(msg);
-                conv.setUpdatedAt(Instant.now());
-                conversationRepository.save(conv);
+            OptionalLong firstSeq = stateStore.compareAndSet(conversationId, userId, state.version, toDbState(state),
+                    turn.size());
+            if (firstSeq.isEmpty()) {
+                log.warn("[ORCHESTRATOR] Conversation {} state changed by a concurrent turn, keeping the newer state",
+                        conversationId);
+                return;
+            }
+            long seq = firstSeq.getAsLong();
+            for (ChatConversation.Message m : turn) {
+                m.setSeq(seq++);
             }
         } catch (Exception e) {
-            log.warn("[ORCHESTRATOR] Failed to persist message: {}", e.getMessage());
+            log.error("[ORCHESTRATOR] Failed to save state of conversation {}: {}", conversationId, e.getMessage());
         }
     }
 
-    private void persistState(String conversationId, String userId, ConversationState state) {
-        try {
-            Optional<ChatConversation> opt = conversationRepository.findByConversationId(conversationId);
-            if (opt.isPresent()) {
-                ChatConversation conv = opt.get();
-                ChatConversation.ConversationState dbState = new ChatConversation.ConversationState();
-                dbState.setIntent(state.intent);
-                dbState.setPartialData(new HashMap<>(state.partialData));
-                conv.setState(dbState);
-                conv.setUpdatedAt(Instant.now());
-                conversationRepository.save(conv);
-            }
-        } catch (Exception e) {
-            log.warn("[ORCHESTRATOR] Failed to persist conversation state: {}", e.getMessage());
-        }
+    /** The user message and the reply; the conversation document is created by whichever write comes first. */
+    private List<ChatConversation.Message> turnMessages(ChatConversation.Message userMessage, ChatResponseDto response) {
+        String assistantText = response.getAssistant() != null ? response.getAssistant().getText() : "";
+        return List.of(userMessage, new ChatConversation.Message(ROLE_ASSISTANT, assistantText));
     }
 
-    private void cleanupExpiredConversations() {
-        long now = System.currentTimeMillis();
-        conversations.entrySet().removeIf(entry ->
-                (now - entry.getValue().lastAccessedAt) > CONVERSATION_TTL_MS);
+    private ChatConversation.ConversationState toDbState(ConversationState state) {
+        ChatConversation.ConversationState dbState = new ChatConversation.ConversationState();
+        dbState.setIntent(state.intent);
+        dbState.setPartialData(new HashMap<>(state.partialData));
+        if (state.pendingUserUpdate != null) {
+            Map<String, Object> pending = patchToMap(state.pendingUserUpdate.patch());
+            pending.put(KEY_TARGET_USER_ID, state.pendingUserUpdate.targetUserId());
+            dbState.setPendingUserUpdate(pending);
+        }
+        return dbState;
     }
 
     // =========================
@@ -879,28 +965,41 @@ public class ChatOrchestratorService {
     // =========================
     // Bus query (split to reduce complexity)
     // =========================
-    private ChatResponseDto handleBusQuery(String convId, String text) {
-        return handleBusQueryInternal(convId, text, 3);
+    /** Where a turn gets bus arrivals from: blocking on the serial path, composed on the hedged one. */
+    @FunctionalInterface
+    private interface ArrivalsLookup {
+        CompletableFuture<NusBusProvider.BusArrivalsResult> get(String stop, String route);
     }
 
-    private ChatResponseDto handleBusQueryExpanded(String convId, String text) {
-        ConversationState state = conversations.get(convId);
-        String lastStop = state != null ? (String) state.partialData.get(KEY_LAST_BUS_STOP) : null;
-        String lastRoute = state != null ? (String) state.partialData.get(KEY_LAST_BUS_ROUTE) : null;
+    private CompletableFuture<NusBusProvider.BusArrivalsResult> blockingArrivals(String stop, String route) {
+        return CompletableFuture.completedFuture(busProvider.getArrivals(stop, route));
+    }
+
+    private ChatResponseDto handleBusQuery(String convId, ConversationState state, String text) {
+        return handleBusQueryInternal(convId, state, text, 3, this::blockingArrivals).join();
+    }
 
-        if (lastStop != null) {
-            NusBusProvider.BusArrivalsResult result = busProvider.getArrivals(lastStop, lastRoute);
-            if (result.arrivals() != null && !result.arrivals().isEmpty()) {
+    private CompletableFuture<ChatResponseDto> handleBusQueryExpanded(String convId, ConversationState state,
+                                                                      ArrivalsLookup arrivals) {
+        String lastStop = (String) state.partialData.get(KEY_LAST_BUS_STOP);
+        String lastRoute = (String) state.partialData.get(KEY_LAST_BUS_ROUTE);
+
+        CompletableFuture<NusBusProvider.BusArrivalsResult> lookup = lastStop != null
+                ? arrivals.get(lastStop, lastRoute)
+                : CompletableFuture.completedFuture(null);
+        return lookup.thenApply(result -> {
+            if (result != null && result.arrivals() != null && !result.arrivals().isEmpty()) {
                 return buildBusResultResponse(convId, result, result.arrivals().size());
             }
-        }
-
-        if (state != null) state.intent = INTENT_AWAITING_BUS_STOP;
-        return new ChatResponseDto(convId, "Which stop would you like to check? Pick one below:")
-                .withSuggestions(BUS_STOP_OPTIONS);
+            state.intent = INTENT_AWAITING_BUS_STOP;
+            return new ChatResponseDto(convId, "Which stop would you like to check? Pick one below:")
+                    .withSuggestions(BUS_STOP_OPTIONS);
+        });
     }
 
-    private ChatResponseDto handleBusQueryInternal(String convId, String text, int maxShow) {
+    private CompletableFuture<ChatResponseDto> handleBusQueryInternal(String convId, ConversationState state,
+                                                                      String text, int maxShow,
+                                                                      ArrivalsLookup arrivals) {
         String cleaned = cleanBusQueryText(text);
 
         String route = extractBusRoute(text);
@@ -908,16 +1007,17 @@ public class ChatOrchestratorService {
 
         log.info("[BUS_QUERY] Extracted: stop={}, route={} from text: {}", stop, route, text);
 
-        NusBusProvider.BusArrivalsResult result = busProvider.getArrivals(stop, route);
-        cacheLastBusQuery(convId, stop, route, result);
+        return arrivals.get(stop, route).thenApply(result -> {
+            cacheLastBusQuery(state, stop, route, result);
 
-        if (result.arrivals() == null || result.arrivals().isEmpty()) {
-            return new ChatResponseDto(convId,
-                    String.format("🚌 %s: No arrivals at the moment.\n\nThis may be outside operating hours. Try again later!", result.stopName()))
-                    .withSuggestions(List.of(BTN_TRY_ANOTHER_STOP, BTN_BUS_ARRIVALS, BTN_BACK_TO_MENU));
-        }
+            if (result.arrivals() == null || result.arrivals().isEmpty()) {
+                return new ChatResponseDto(convId,
+                        String.format("🚌 %s: No arrivals at the moment.\n\nThis may be outside operating hours. Try again later!", result.stopName()))
+                        .withSuggestions(List.of(BTN_TRY_ANOTHER_STOP, BTN_BUS_ARRIVALS, BTN_BACK_TO_MENU));
+            }
 
-        return buildBusResultResponse(convId, result, maxShow);
+            return buildBusResultResponse(convId, result, maxShow);
+        });
     }
 
     private String cleanBusQueryText(String text) {
@@ -960,10 +1060,7 @@ public class ChatOrchestratorService {
         return null;
     }
 
-    private void cacheLastBusQuery(String convId, String stop, String route, NusBusProvider.BusArrivalsResult result) {
-        ConversationState state = conversations.get(convId);
-        if (state == null) return;
-
+    private void cacheLastBusQuery(ConversationState state, String stop, String route, NusBusProvider.BusArrivalsResult result) {
         state.partialData.put(KEY_LAST_BUS_STOP, stop != null ? stop : result.stopName());
         state.partialData.put(KEY_LAST_BUS_ROUTE, route);
     }
@@ -1121,7 +1218,10 @@ public class ChatOrchestratorService {
         }
 
         user.setUpdatedAt(LocalDateTime.now());
-        userRepository.save(user);
+        // Only the patched fields: a full save would overwrite balances and saga markers written concurrently
+        Update update = new Update().set("updatedAt", user.getUpdatedAt());
+        apply.patchDetails.forEach(update::set);
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(user.getId())), update, User.class);
         log.info("[ORCHESTRATOR] Updated user {} fields: {}", targetUserId, apply.patchDetails.keySet());
 
         AuditAndNotifyResult an = maybeAuditAndNotify(actorUserId, actorRole, targetUserId, apply.patchDetails);
@@ -1291,6 +1391,15 @@ public class ChatOrchestratorService {
         return executeUserUpdate(convId, userId, role, targetUserId, patch, state);
     }
 
+    private Map<String, Object> patchToMap(ProfilePatch patch) {
+        Map<String, Object> patchMap = new HashMap<>();
+        if (patch.nickname != null) patchMap.put(PROFILE_KEY_NICKNAME, patch.nickname);
+        if (patch.email != null) patchMap.put(PROFILE_KEY_EMAIL, patch.email);
+        if (patch.phone != null) patchMap.put(PROFILE_KEY_PHONE, patch.phone);
+        if (patch.faculty != null) patchMap.put(PROFILE_KEY_FACULTY, patch.faculty);
+        return patchMap;
+    }
+
     private ProfilePatch patchFromMap(Map<String, Object> patchMap) {
         ProfilePatch patch = new ProfilePatch();
         if (patchMap.containsKey(PROFILE_KEY_NICKNAME)) patch.nickname = String.valueOf(patchMap.get(PROFILE_KEY_NICKNAME));
@@ -1580,13 +1689,26 @@ public class ChatOrchestratorService {
         String intent;
         Map<String, Object> partialData = new HashMap<>();
         PendingUserUpdate pendingUserUpdate;
-        long lastAccessedAt = System.currentTimeMillis();
+        // Saved version this state was loaded from, 0 for a new conversation
+        long version;
 
         void reset() {
             intent = null;
             partialData.clear();
             pendingUserUpdate = null;
         }
+
+        ConversationState copy() {
+            ConversationState copy = new ConversationState();
+            copy.copyFrom(this);
+            return copy;
+        }
+
+        void copyFrom(ConversationState other) {
+            intent = other.intent;
+            partialData = new HashMap<>(other.partialData);
+            pendingUserUpdate = other.pendingUserUpdate;
+        }
     }
 
     private static class ProfilePatch {
@@ -0,0 +1,33 @@
+package com.example.EcoGo.service.chatbot;
+
+import com.example.EcoGo.model.ChatConversation;
+
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Shared store for conversation state, so any node can serve the next turn of any conversation.
+ *
+ * Every saved state carries a version that starts at 1 and goes up by one per save; a conversation
+ * that was never saved is at version 0. Saves are compare-and-set on that version, so when two
+ * nodes handle turns of the same conversation at once, one of them is told it lost instead of
+ * silently overwriting the other.
+ */
+public interface ConversationStateStore {
+
+    /** A state and the version it was saved as. The state must not be mutated. */
+    record Versioned(ChatConversation.ConversationState state, long version) {}
+
+    /** The saved state, or empty if the conversation has none yet. */
+    Optional<Versioned> load(String conversationId);
+
+    /**
+     * Saves {@code state} as version {@code expectedVersion + 1} if the saved version is still
+     * {@code expectedVersion}. Creates the conversation when {@code expectedVersion} is 0. The same
+     * write reserves {@code newMessages} message seqs, so a turn is numbered without a second round trip.
+     *
+     * @return the first reserved seq; empty if another turn saved first, in which case nothing is written
+     */
+    OptionalLong compareAndSet(String conversationId, String userId, long expectedVersion,
+                               ChatConversation.ConversationState state, int newMessages);
+}
@@ -0,0 +1,297 @@
+package com.example.EcoGo.service.chatbot;
+
+import com.example.EcoGo.model.ChatConversation;
+import com.example.EcoGo.model.ChatMessageBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for chat turns.
+ *
+ * The orchestrator hands over the messages of each finished turn, normally already numbered: the
+ * {@link ConversationStateStore} compare-and-set that saves the turn's state also reserves its seqs
+ * on messageCount, so seqs follow the order in which turns finished on whichever nodes served them,
+ * at no extra round trip. Recording only queues the messages: turns for the same conversation are
+ * merged while they wait, and a background flush writes up to {@code batchSize} conversations at
+ * a time in one unordered bulk request that {@code $addToSet}s them into their
+ * {@link ChatMessageBucket}s. Messages that arrive without a seq (their state save lost or failed)
+ * are numbered by the flush with one {@code $inc} of the {@link ChatConversation} header.
+ * <p>
+ * A failed flush puts its turns back in front of anything recorded since and retries them with
+ * exponential backoff (capped at {@code retry-max-backoff-ms}) for as long as it takes, so a
+ * primary election or a short outage only delays messages. Messages keep the seq they were given,
+ * so a retry neither allocates again nor duplicates them in their bucket.
+ * <p>
+ * The buffer is bounded by {@code max-pending-messages}: a turn that does not fit is dropped.
+ * The flush runs on its own thread rather than the shared {@code @Scheduled} one, so a long batch
+ * job cannot stall chat writes until the buffer overflows. Pending turns get one last write on shutdown, and whatever still fails then is dropped. Both
+ * kinds of loss are counted in {@value #DROPPED_COUNTER} (tag {@code reason}).
+ */
+@Component
+public class ConversationWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationWriteBehind.class);
+
+    static final String DROPPED_COUNTER = "ecogo.chat.persist.dropped";
+    static final String PENDING_GAUGE = "ecogo.chat.persist.pending";
+
+    private final MongoTemplate mongoTemplate;
+    private final Counter droppedOnOverflow;
+    private final Counter droppedOnShutdown;
+
+    @Value("${chatbot.persistence.flush-interval-ms:250}")
+    private long flushIntervalMs = 250;
+
+    @Value("${chatbot.persistence.batch-size:200}")
+    private int batchSize = 200;
+
+    @Value("${chatbot.persistence.max-pending-messages:50000}")
+    private int maxPendingMessages = 50000;
+
+    @Value("${chatbot.persistence.retry-initial-backoff-ms:500}")
+    private long initialBackoffMs = 500;
+
+    @Value("${chatbot.persistence.retry-max-backoff-ms:30000}")
+    private long maxBackoffMs = 30000;
+
+    // conversationId -> turns not yet written; merged in place while waiting
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingMessages = new AtomicInteger();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-persist-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ConversationWriteBehind(MongoTemplate mongoTemplate, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.droppedOnOverflow = Counter.builder(DROPPED_COUNTER).tag("reason", "overflow")
+                .description("Chat messages dropped before they were written").register(meterRegistry);
+        this.droppedOnShutdown = Counter.builder(DROPPED_COUNTER).tag("reason", "shutdown")
+                .description("Chat messages dropped before they were written").register(meterRegistry);
+        Gauge.builder(PENDING_GAUGE, pendingMessages, AtomicInteger::get)
+                .description("Chat messages waiting to be written").register(meterRegistry);
+    }
+
+    /** Queues the messages of a turn, or drops them if the buffer is full. Never touches Mongo. */
+    public void record(String conversationId, String userId, List<ChatConversation.Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (pendingMessages.addAndGet(messages.size()) > maxPendingMessages) {
+            pendingMessages.addAndGet(-messages.size());
+            droppedOnOverflow.increment(messages.size());
+            log.error("[CHAT_PERSIST] Buffer full, dropping {} messages for conversation {}",
+                    messages.size(), conversationId);
+            return;
+        }
+        Pending turn = new Pending(userId, new ArrayList<>(messages), Instant.now());
+        pending.merge(conversationId, turn, Pending::then);
+    }
+
+    int pendingCount() {
+        return pending.size();
+    }
+
+    @PostConstruct
+    void start() {
+        flusher.scheduleWithFixedDelay(this::flushScheduled, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushScheduled() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // An escaping exception would cancel all later runs
+            log.error("[CHAT_PERSIST] Flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /** Stops the flush thread, gives everything pending one last write ignoring backoff, and drops what still fails. */
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushLock.lock();
+        try {
+            drain(true);
+        } finally {
+            flushLock.unlock();
+        }
+        pending.forEach((conversationId, p) -> {
+            if (pending.remove(conversationId, p)) {
+                pendingMessages.addAndGet(-p.messages.size());
+                droppedOnShutdown.increment(p.messages.size());
+                log.error("[CHAT_PERSIST] Dropping {} messages for conversation {} on shutdown",
+                        p.messages.size(), conversationId);
+            }
+        });
+    }
+
+    /**
+     * Writes everything pending that is due, in batches. Skipped if another flush is already running.
+     */
+    public void flush() {
+        if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            drain(false);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void drain(boolean ignoreBackoff) {
+        while (!pending.isEmpty()) {
+            Map<String, Pending> batch = takeBatch(ignoreBackoff ? Instant.MAX : Instant.now());
+            if (batch.isEmpty() || !write(batch)) {
+                return;
+            }
+        }
+    }
+
+    // Up to batchSize conversations whose retry, if any, is due by now
+    private Map<String, Pending> takeBatch(Instant now) {
+        Map<String, Pending> batch = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Pending>> entries = pending.entrySet().iterator();
+        while (entries.hasNext() && batch.size() < batchSize) {
+            Map.Entry<String, Pending> e = entries.next();
+            Pending p = e.getValue();
+            if (p.retryAt != null && p.retryAt.isAfter(now)) {
+                continue;
+            }
+            if (pending.remove(e.getKey(), p)) {
+                pendingMessages.addAndGet(-p.messages.size());
+                batch.put(e.getKey(), p);
+            }
+        }
+        return batch;
+    }
+
+    private boolean write(Map<String, Pending> batch) {
+        Instant now = Instant.now();
+        try {
+            batch.forEach((conversationId, p) -> allocate(conversationId, p, now));
+            BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessageBucket.class);
+            batch.forEach((conversationId, p) -> byBucket(p.messages).forEach((bucketNo, messages) -> ops.upsert(
+                    new Query(Criteria.where("conversationId").is(conversationId).and("bucketNo").is(bucketNo)),
+                    new Update()
+                            .addToSet("messages").each(messages.toArray())
+                            .set("updatedAt", now)
+                            .setOnInsert("createdAt", now))));
+            ops.execute();
+            return true;
+        } catch (Exception e) {
+            log.warn("[CHAT_PERSIST] Failed to flush {} conversations: {}", batch.size(), e.getMessage());
+            batch.forEach(this::requeue);
+            return false;
+        }
+    }
+
+    /**
+     * Gives the messages without a seq the next numbers of the conversation, creating its header
+     * if needed. Skipped when all of them are numbered already.
+     */
+    private void allocate(String conversationId, Pending p, Instant now) {
+        List<ChatConversation.Message> fresh = p.messages.stream().filter(m -> m.getSeq() == null).toList();
+        if (fresh.isEmpty()) {
+            return;
+        }
+        ChatConversation header = mongoTemplate.findAndModify(
+                new Query(Criteria.where("conversationId").is(conversationId)),
+                new Update()
+                        .inc("messageCount", fresh.size())
+                        .set("updatedAt", now)
+                        .setOnInsert("userId", p.userId)
+                        .setOnInsert("createdAt", p.firstRecordedAt),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                ChatConversation.class);
+        long seq = header.getMessageCount() - fresh.size();
+        for (ChatConversation.Message m : fresh) {
+            m.setSeq(seq++);
+        }
+    }
+
+    private static Map<Long, List<ChatConversation.Message>> byBucket(List<ChatConversation.Message> messages) {
+        Map<Long, List<ChatConversation.Message>> buckets = new TreeMap<>();
+        messages.stream()
+                .sorted(Comparator.comparing(ChatConversation.Message::getSeq))
+                .forEach(m -> buckets.computeIfAbsent(ChatMessageBucket.bucketOf(m.getSeq()), b -> new ArrayList<>()).add(m));
+        return buckets;
+    }
+
+    // Already accepted messages are never dropped here, even if the buffer has filled up since
+    private void requeue(String conversationId, Pending failed) {
+        Pending retry = new Pending(failed.userId, failed.messages, failed.firstRecordedAt);
+        retry.attempts = failed.attempts + 1;
+        retry.retryAt = Instant.now().plus(backoff(retry.attempts));
+        pendingMessages.addAndGet(retry.messages.size());
+        // Turns recorded during the failed write are newer, so they go after the retried ones
+        pending.merge(conversationId, retry, (newer, r) -> r.then(newer));
+    }
+
+    // initialBackoffMs, doubled per failed attempt, capped at maxBackoffMs
+    Duration backoff(int attempts) {
+        long millis = initialBackoffMs << Math.min(attempts - 1, 20);
+        return Duration.ofMillis(Math.min(millis, maxBackoffMs));
+    }
+
+    private static final class Pending {
+        final String userId;
+        final List<ChatConversation.Message> messages;
+        final Instant firstRecordedAt;
+        int attempts;
+        Instant retryAt;
+
+        Pending(String userId, List<ChatConversation.Message> messages, Instant firstRecordedAt) {
+            this.userId = userId;
+            this.messages = messages;
+            this.firstRecordedAt = firstRecordedAt;
+        }
+
+        /** This turn followed by {@code next}. */
+        Pending then(Pending next) {
+            List<ChatConversation.Message> merged = new ArrayList<>(messages);
+            merged.addAll(next.messages);
+            Pending p = new Pending(userId, merged, firstRecordedAt);
+            p.attempts = attempts;
+            p.retryAt = retryAt;
+            return p;
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.example.EcoGo.service.chatbot;
 
+import com.example.EcoGo.service.CircuitBreaker;
+import com.example.EcoGo.service.CircuitBreakerRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -15,10 +18,13 @@ import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Calls an OpenAI-compatible model server for tool-calling intent detection.
  * If the model server is unreachable, returns null (graceful degradation to keyword-based).
+ * The call is made with {@code sendAsync}, so no thread is held while the model server responds,
+ * and is guarded by the "model-server" circuit breaker, which also supplies the request timeout.
  */
 @Service
 public class ModelClientService {
@@ -41,6 +47,12 @@ public class ModelClientService {
     @Value("${chatbot.model.enabled:false}")
     private boolean modelEnabled;
 
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakers;
+
+    static final String UPSTREAM = "model-server";
+    private static final Duration MAX_TIMEOUT = Duration.ofSeconds(3);
+
         // Avoid duplicated literal keys
         private static final String KEY_FUNCTION = "function";
         // --- Common JSON schema keys ---
@@ -108,8 +120,22 @@ private static final String ROLE_USER = "user";
      * Returns null if the model is disabled or unreachable.
      */
     public ModelResult callModelForTool(String userText) {
+        return callModelForToolAsync(userText).join();
+    }
+
+    /**
+     * Non-blocking variant of {@link #callModelForTool}. The future never completes
+     * exceptionally; it yields null when the model is disabled, unreachable or returns garbage.
+     */
+    public CompletableFuture<ModelResult> callModelForToolAsync(String userText) {
         if (!modelEnabled) {
-            return null;
+            return CompletableFuture.completedFuture(null);
+        }
+        // While the model server is failing, skip it instead of waiting out a timeout per chat
+        CircuitBreaker breaker = circuitBreakers.forUpstream(UPSTREAM, MAX_TIMEOUT);
+        if (!breaker.tryAcquire()) {
+            log.debug("Model server circuit open, skipping");
+            return CompletableFuture.completedFuture(null);
         }
 
         try {
@@ -132,22 +158,41 @@ private static final String ROLE_USER = "user";
                     .uri(URI.create(url))
                     .header("Content-Type", "application/json")
                     .header("Authorization", "Bearer " + modelApiKey)
-                    .timeout(Duration.ofSeconds(3))
+                    .timeout(breaker.timeout())
                     .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
                     .build();
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() != 200) {
-                log.debug("Model server returned status {}", response.statusCode());
-                return null;
-            }
-
-            return parseModelResponse(response.body());
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<String>> exchange =
+                    httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            CompletableFuture<ModelResult> result = exchange
+                    .thenApply(response -> {
+                        if (response.statusCode() != 200) {
+                            breaker.onFailure();
+                            log.debug("Model server returned status {}", response.statusCode());
+                            return null;
+                        }
+                        breaker.onSuccess(System.nanoTime() - start);
+                        return parseModelResponse(response.body());
+                    })
+                    .exceptionally(e -> {
+                        breaker.onFailure();
+                        log.debug("Model server unreachable: {}", e.getMessage());
+                        return null;
+                    });
+            // Cancelling the result (e.g. a losing hedged call) aborts the HTTP exchange
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    breaker.onIgnored();
+                    exchange.cancel(true);
+                }
+            });
+            return result;
 
         } catch (Exception e) {
-            log.debug("Model server unreachable: {}", e.getMessage());
-            return null;
+            breaker.onIgnored();
+            log.debug("Model server request failed: {}", e.getMessage());
+            return CompletableFuture.completedFuture(null);
         }
     }
 
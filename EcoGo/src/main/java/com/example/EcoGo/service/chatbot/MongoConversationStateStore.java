@@ -0,0 +1,86 @@
+package com.example.EcoGo.service.chatbot;
+
+import com.example.EcoGo.model.ChatConversation;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * Keeps conversation state in the {@link ChatConversation} header, guarded by its stateVersion.
+ * Reads project the header down to the fields they need, and a save is one conditional update that
+ * also reserves the turn's message seqs on messageCount.
+ * Headers written before versioning have no stateVersion and count as version 0.
+ */
+public class MongoConversationStateStore implements ConversationStateStore {
+
+    private static final String FIELD_CONVERSATION_ID = "conversationId";
+    private static final String FIELD_STATE = "state";
+    private static final String FIELD_STATE_VERSION = "stateVersion";
+    private static final String FIELD_MESSAGE_COUNT = "messageCount";
+
+    private final MongoTemplate mongoTemplate;
+
+    public MongoConversationStateStore(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Optional<Versioned> load(String conversationId) {
+        Query query = byConversationId(conversationId);
+        query.fields().include(FIELD_STATE, FIELD_STATE_VERSION);
+        ChatConversation header = mongoTemplate.findOne(query, ChatConversation.class);
+        if (header == null || header.getStateVersion() == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new Versioned(header.getState(), header.getStateVersion()));
+    }
+
+    @Override
+    public OptionalLong compareAndSet(String conversationId, String userId, long expectedVersion,
+                                      ChatConversation.ConversationState state, int newMessages) {
+        Instant now = Instant.now();
+        Update update = new Update()
+                .set(FIELD_STATE, state)
+                .inc(FIELD_STATE_VERSION, 1)
+                .inc(FIELD_MESSAGE_COUNT, newMessages)
+                .set("updatedAt", now);
+        if (expectedVersion > 0) {
+            Query query = new Query(Criteria.where(FIELD_CONVERSATION_ID).is(conversationId)
+                    .and(FIELD_STATE_VERSION).is(expectedVersion));
+            return firstSeq(mongoTemplate.findAndModify(withCount(query), update,
+                    FindAndModifyOptions.options().returnNew(true), ChatConversation.class), newMessages);
+        }
+
+        // First save: the header may not exist yet, or exist without state (messages written first)
+        Query query = new Query(Criteria.where(FIELD_CONVERSATION_ID).is(conversationId)
+                .and(FIELD_STATE_VERSION).in(0L, null));
+        update.setOnInsert("userId", userId).setOnInsert("createdAt", now);
+        try {
+            return firstSeq(mongoTemplate.findAndModify(withCount(query), update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), ChatConversation.class), newMessages);
+        } catch (DuplicateKeyException e) {
+            // The header exists with a saved state, so the upsert tried to insert a second one
+            return OptionalLong.empty();
+        }
+    }
+
+    private static Query withCount(Query query) {
+        query.fields().include(FIELD_MESSAGE_COUNT);
+        return query;
+    }
+
+    private static OptionalLong firstSeq(ChatConversation saved, int newMessages) {
+        return saved == null ? OptionalLong.empty() : OptionalLong.of(saved.getMessageCount() - newMessages);
+    }
+
+    private static Query byConversationId(String conversationId) {
+        return new Query(Criteria.where(FIELD_CONVERSATION_ID).is(conversationId));
+    }
+}
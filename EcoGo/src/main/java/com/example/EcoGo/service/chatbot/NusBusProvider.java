@@ -1,19 +1,31 @@
 package com.example.EcoGo.service.chatbot;
 
+import com.example.EcoGo.service.CircuitBreaker;
+import com.example.EcoGo.service.CircuitBreakerRegistry;
+import com.example.EcoGo.utils.AliasIndex;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Real NUS NextBus API provider for campus bus arrival data.
@@ -22,6 +34,13 @@ import java.util.*;
  * Calls https://nnextbus.nus.edu.sg/ShuttleService?busstopname={code}
  * with Basic Auth credentials (configured via application.yaml).
  *
+ * Arrivals are cached per stop code for a short TTL. Concurrent misses for the
+ * same stop share one upstream call, and when a refresh fails the last good
+ * answer is served until it is older than the stale window. Queries are counted
+ * per stop so {@link BusStopPrefetcher} can keep the busiest stops warm. While the
+ * "nus-nextbus" circuit breaker is open no upstream call is made and refreshes fail fast,
+ * which serves the stale copy.
+ *
  * Falls back to empty results on API failure (never throws).
  */
 @Service
@@ -30,6 +49,13 @@ public class NusBusProvider {
     private static final Logger log = LoggerFactory.getLogger(NusBusProvider.class);
 
     private static final String BASE_URL = "https://nnextbus.nus.edu.sg";
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    static final String UPSTREAM = "nus-nextbus";
+
+    static final String CACHE_COUNTER = "ecogo.nusbus.arrivals.cache";
+    static final String FETCH_TIMER = "ecogo.nusbus.arrivals.fetch";
+    // Stop codes fall back to raw user input, so cap how many distinct keys are kept
+    private static final int MAX_CACHED_STOPS = 256;
 
     // ======= Common literals (Sonar S1192) =======
     private static final String DEFAULT_STOP = "UTOWN";
@@ -86,9 +112,34 @@ public class NusBusProvider {
     @Value("${chatbot.nus-bus.password}")
     private String password;
 
+    @Value("${chatbot.nus-bus.base-url:" + BASE_URL + "}")
+    private String baseUrl = BASE_URL;
+
+    @Value("${chatbot.nus-bus.cache-ttl-seconds:15}")
+    private long cacheTtlSeconds = 15;
+
+    @Value("${chatbot.nus-bus.stale-ttl-seconds:120}")
+    private long staleTtlSeconds = 120;
+
+    // Stops count as popular only if queried within this many cache TTLs
+    @Value("${chatbot.nus-bus.prefetch.recent-ttls:4}")
+    private long prefetchRecentTtls = 4;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakers;
+
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
 
+    // stop code -> last good arrivals (unfiltered)
+    private final Map<String, CachedArrivals> cache = new ConcurrentHashMap<>();
+    // stop code -> upstream call in progress
+    private final Map<String, CompletableFuture<List<Map<String, Object>>>> inFlight = new ConcurrentHashMap<>();
+    private final StopFrequencySketch popularity = new StopFrequencySketch();
+
     /** Known NUS shuttle route names — used to distinguish routes from stops. */
     private static final Set<String> KNOWN_ROUTES = Set.of(
             "A1", "A2", "D1", "D2", "K", "E", "BTC", "L",
@@ -170,6 +221,18 @@ public class NusBusProvider {
         STOP_CODE_MAP.put("College Green", STOP_CG);
     }
 
+    /** Real stop codes; only these are counted for prefetching, never raw fallback input. */
+    private static final Set<String> KNOWN_STOP_CODES = Set.copyOf(STOP_CODE_MAP.values());
+
+    /** STOP_CODE_MAP compiled for lookup; earlier entries win when several aliases match. */
+    private static final AliasIndex<String> STOP_INDEX = buildStopIndex();
+
+    private static AliasIndex<String> buildStopIndex() {
+        AliasIndex.Builder<String> builder = AliasIndex.builder();
+        STOP_CODE_MAP.forEach(builder::add);
+        return builder.build();
+    }
+
     public NusBusProvider() {
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(8))
@@ -191,18 +254,150 @@ public class NusBusProvider {
      * @param route    Optional route filter (e.g., "D1", "A1")
      */
     public BusArrivalsResult getArrivals(String stopName, String route) {
+        return getArrivalsAsync(stopName, route).join();
+    }
+
+    /**
+     * Non-blocking variant of {@link #getArrivals}; completes immediately on a cache hit.
+     * The future never completes exceptionally.
+     */
+    public CompletableFuture<BusArrivalsResult> getArrivalsAsync(String stopName, String route) {
         StopRoute sr = normalizeStopAndRoute(stopName, route);
         String stopCode = resolveStopCode(sr.stop());
+        if (KNOWN_STOP_CODES.contains(stopCode)) {
+            popularity.record(stopCode);
+        }
 
-        try {
-            List<Map<String, Object>> arrivals = fetchFromApi(stopCode, sr.stop());
-            arrivals = filterByRouteIfNeeded(arrivals, sr.route());
+        return cachedArrivals(stopCode, sr.stop()).thenApply(arrivals -> {
+            if (arrivals == null) {
+                return new BusArrivalsResult(sr.stop(), List.of());
+            }
             String displayStop = buildDisplayStop(sr.stop(), sr.route(), stopCode);
-            return new BusArrivalsResult(displayStop, arrivals);
-        } catch (Exception e) {
-            log.warn("[NUS_BUS] API call failed for stop={}, code={}: {}", sr.stop(), stopCode, e.getMessage());
-            return new BusArrivalsResult(sr.stop(), List.of());
+            return new BusArrivalsResult(displayStop, filterByRouteIfNeeded(arrivals, sr.route()));
+        });
+    }
+
+    /**
+     * Arrivals for a stop code from the cache, refreshing it when expired.
+     * Yields null when there is neither a fresh answer nor a usable stale one.
+     */
+    private CompletableFuture<List<Map<String, Object>>> cachedArrivals(String stopCode, String displayName) {
+        long now = System.nanoTime();
+        CachedArrivals cached = cache.get(stopCode);
+        if (cached != null && cached.ageNanos(now) < TimeUnit.SECONDS.toNanos(cacheTtlSeconds)) {
+            countCache("hit");
+            return CompletableFuture.completedFuture(cached.arrivals());
         }
+        CachedArrivals stale = (cached != null && cached.ageNanos(now) < TimeUnit.SECONDS.toNanos(staleTtlSeconds))
+                ? cached : null;
+
+        CompletableFuture<List<Map<String, Object>>> call = new CompletableFuture<>();
+        CompletableFuture<List<Map<String, Object>>> running = inFlight.putIfAbsent(stopCode, call);
+        if (running != null) {
+            // Someone is already refreshing this stop: serve the stale copy if we have one, otherwise share the call
+            if (stale != null) {
+                countCache("stale");
+                return CompletableFuture.completedFuture(stale.arrivals());
+            }
+            countCache("coalesced");
+            return running.handle((arrivals, error) -> error == null ? arrivals : null);
+        }
+
+        countCache("miss");
+        return refresh(stopCode, displayName, call).handle((fresh, error) -> {
+            if (error == null) {
+                return fresh;
+            }
+            if (stale != null) {
+                countCache("stale");
+                return stale.arrivals();
+            }
+            return null;
+        });
+    }
+
+    public Duration cacheTtl() {
+        return Duration.ofSeconds(cacheTtlSeconds);
+    }
+
+    /**
+     * Most-queried stop codes recently, busiest first. Only stops queried within the last
+     * {@code prefetch.recent-ttls} cache TTLs are included, so prefetching stops soon after
+     * nobody asks for a stop any more.
+     */
+    public List<String> popularStopCodes(int limit) {
+        return popularity.top(limit, System.nanoTime(), TimeUnit.SECONDS.toNanos(cacheTtlSeconds * prefetchRecentTtls));
+    }
+
+    /**
+     * Refreshes the cached arrivals for a stop if they are missing or expire within {@code ahead}.
+     * Does nothing while another refresh of the same stop is running.
+     *
+     * @return completes with true if an upstream call was made and succeeded
+     */
+    public CompletableFuture<Boolean> refreshIfExpiring(String stopCode, Duration ahead) {
+        CachedArrivals cached = cache.get(stopCode);
+        long freshFor = TimeUnit.SECONDS.toNanos(cacheTtlSeconds) - ahead.toNanos();
+        if (cached != null && cached.ageNanos(System.nanoTime()) < freshFor) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<List<Map<String, Object>>> call = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(stopCode, call) != null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        countCache("prefetch");
+        return refresh(stopCode, stopCode, call).handle((fresh, error) -> error == null);
+    }
+
+    /**
+     * Calls upstream for a stop the caller has claimed in {@link #inFlight}. When the response
+     * arrives the answer is stored, the claim released and {@code call} completed for all waiters.
+     */
+    private CompletableFuture<List<Map<String, Object>>> refresh(String stopCode, String displayName,
+                                                                 CompletableFuture<List<Map<String, Object>>> call) {
+        long start = System.nanoTime();
+        CompletableFuture<List<Map<String, Object>>> fetch;
+        try {
+            fetch = fetchFromApi(stopCode, displayName);
+        } catch (RuntimeException e) {
+            fetch = CompletableFuture.failedFuture(e);
+        }
+        fetch.whenComplete((arrivals, error) -> {
+            Timer.builder(FETCH_TIMER).tag("outcome", error == null ? "success" : "error").register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                log.warn("[NUS_BUS] API call failed for stop={}, code={}: {}", displayName, stopCode, cause.getMessage());
+                inFlight.remove(stopCode, call);
+                call.completeExceptionally(cause);
+                return;
+            }
+            // Shared between callers, so freeze it
+            List<Map<String, Object>> fresh = arrivals.stream()
+                    .map(Collections::unmodifiableMap)
+                    .toList();
+            store(stopCode, new CachedArrivals(fresh, System.nanoTime()));
+            inFlight.remove(stopCode, call);
+            call.complete(fresh);
+        });
+        return call;
+    }
+
+    private void store(String stopCode, CachedArrivals entry) {
+        if (cache.size() >= MAX_CACHED_STOPS && !cache.containsKey(stopCode)) {
+            long now = System.nanoTime();
+            long staleNanos = TimeUnit.SECONDS.toNanos(staleTtlSeconds);
+            cache.values().removeIf(c -> c.ageNanos(now) >= staleNanos);
+            if (cache.size() >= MAX_CACHED_STOPS) {
+                return;
+            }
+        }
+        cache.put(stopCode, entry);
+    }
+
+    private void countCache(String result) {
+        Counter.builder(CACHE_COUNTER).tag("result", result).register(meterRegistry).increment();
     }
 
     /** Normalize stop/route: if stopName is actually a route, convert it into route filter and use default stop. */
@@ -237,33 +432,25 @@ public class NusBusProvider {
     private String resolveStopCode(String input) {
         if (input == null || input.isBlank()) return DEFAULT_STOP;
 
-        // Exact match
-        if (STOP_CODE_MAP.containsKey(input)) return STOP_CODE_MAP.get(input);
-
-        // Case-insensitive match
-        for (Map.Entry<String, String> entry : STOP_CODE_MAP.entrySet()) {
-            if (entry.getKey().equalsIgnoreCase(input)) return entry.getValue();
-        }
-
-        // Partial match
-        String lower = input.toLowerCase(Locale.ROOT);
-        for (Map.Entry<String, String> entry : STOP_CODE_MAP.entrySet()) {
-            String k = entry.getKey().toLowerCase(Locale.ROOT);
-            if (k.contains(lower) || lower.contains(k)) return entry.getValue();
-        }
+        // Case-insensitive exact match, then partial match (alias inside input or input inside alias)
+        String code = STOP_INDEX.find(input);
+        if (code != null) return code;
 
         // Fallback: use input directly as code
         return input.toUpperCase(Locale.ROOT).replace(" ", "-");
     }
 
     /** Call the real NUS NextBus ShuttleService API and return arrival list. */
-    private List<Map<String, Object>> fetchFromApi(String stopCode, String displayName) throws Exception {
+    private CompletableFuture<List<Map<String, Object>>> fetchFromApi(String stopCode, String displayName) {
         URI uri = buildShuttleServiceUri(stopCode);
-        HttpResponse<String> response = callApi(uri);
+        return callApi(uri).thenApply(response -> parseArrivals(response, stopCode, displayName));
+    }
 
+    private List<Map<String, Object>> parseArrivals(HttpResponse<String> response, String stopCode, String displayName) {
         if (response.statusCode() != 200) {
-            log.warn("[NUS_BUS] API returned status {} for stop={}", response.statusCode(), stopCode);
-            return List.of();
+            // Thrown rather than returned empty so the last good answer can be served instead
+            throw new CompletionException(
+                    new IOException("API returned status " + response.statusCode() + " for stop=" + stopCode));
         }
 
         NusNextBusResponse apiResponse = parseApiResponse(response.body(), stopCode);
@@ -282,22 +469,34 @@ public class NusBusProvider {
     }
 
     private URI buildShuttleServiceUri(String stopCode) {
-        return URI.create(BASE_URL + "/ShuttleService?busstopname=" + stopCode);
+        return URI.create(baseUrl + "/ShuttleService?busstopname=" + stopCode);
     }
 
-    private HttpResponse<String> callApi(URI uri) throws Exception {
+    private CompletableFuture<HttpResponse<String>> callApi(URI uri) {
+        CircuitBreaker breaker = circuitBreakers.forUpstream(UPSTREAM, REQUEST_TIMEOUT);
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(new IOException("circuit open for " + UPSTREAM));
+        }
         String auth = Base64.getEncoder().encodeToString((username + ":" + password).getBytes());
 
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(uri)
                 .header("Accept", "application/json")
                 .header("Authorization", "Basic " + auth)
-                .timeout(Duration.ofSeconds(10))
+                .timeout(breaker.timeout())
                 .GET()
                 .build();
 
         log.info("[NUS_BUS] Calling: {}", uri);
-        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) -> {
+                    if (error == null && response.statusCode() == 200) {
+                        breaker.onSuccess(System.nanoTime() - start);
+                    } else {
+                        breaker.onFailure();
+                    }
+                });
     }
 
     private NusNextBusResponse parseApiResponse(String body, String stopCode) {
@@ -490,4 +689,10 @@ public class NusBusProvider {
 
     // small internal record to keep method flat (reduce cognitive complexity)
     private record StopRoute(String stop, String route) {}
+
+    private record CachedArrivals(List<Map<String, Object>> arrivals, long fetchedAtNanos) {
+        long ageNanos(long now) {
+            return now - fetchedAtNanos;
+        }
+    }
 }
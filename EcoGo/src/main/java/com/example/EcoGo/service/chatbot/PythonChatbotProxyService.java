@@ -4,10 +4,13 @@ import com.example.EcoGo.dto.chatbot.ChatResponseDto;
 import com.example.EcoGo.dto.chatbot.ChatResponseDto.AssistantMessage;
 import com.example.EcoGo.dto.chatbot.ChatResponseDto.Citation;
 import com.example.EcoGo.dto.chatbot.ChatResponseDto.UiAction;
+import com.example.EcoGo.service.CircuitBreaker;
+import com.example.EcoGo.service.CircuitBreakerRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -18,6 +21,7 @@ import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Proxy service that forwards chat requests to the Python FastAPI chatbot backend.
@@ -25,6 +29,9 @@ import java.util.*;
  * model-based capabilities when available.
  *
  * Falls back gracefully (returns null) when the Python backend is unreachable.
+ * Requests go out with {@code sendAsync}, so no thread is held while the backend responds.
+ * They are guarded by the "python-backend" circuit breaker, whose adaptive timeout is capped
+ * at the configured timeout-seconds.
  */
 @Service
 public class PythonChatbotProxyService {
@@ -44,6 +51,11 @@ public class PythonChatbotProxyService {
     @Value("${chatbot.python-backend.timeout-seconds:5}")
     private int timeoutSeconds;
 
+    @Autowired
+    private CircuitBreakerRegistry circuitBreakers;
+
+    static final String UPSTREAM = "python-backend";
+
     public PythonChatbotProxyService() {
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(3))
@@ -67,8 +79,22 @@ public class PythonChatbotProxyService {
      * @return ChatResponseDto from the Python backend, or null if unavailable
      */
     public ChatResponseDto forwardChat(String userId, String role, String conversationId, String messageText) {
+        return forwardChatAsync(userId, role, conversationId, messageText).join();
+    }
+
+    /**
+     * Non-blocking variant of {@link #forwardChat}. The future never completes exceptionally;
+     * it yields null when the backend is disabled, unreachable or returns an unusable response.
+     */
+    public CompletableFuture<ChatResponseDto> forwardChatAsync(String userId, String role,
+                                                               String conversationId, String messageText) {
         if (!pythonEnabled) {
-            return null;
+            return CompletableFuture.completedFuture(null);
+        }
+        CircuitBreaker breaker = circuitBreakers.forUpstream(UPSTREAM, Duration.ofSeconds(timeoutSeconds));
+        if (!breaker.tryAcquire()) {
+            log.debug("[PYTHON_PROXY] Circuit open, skipping Python backend");
+            return CompletableFuture.completedFuture(null);
         }
 
         try {
@@ -94,24 +120,43 @@ public class PythonChatbotProxyService {
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(url))
                     .header("Content-Type", "application/json")
-                    .timeout(Duration.ofSeconds(timeoutSeconds))
+                    .timeout(breaker.timeout())
                     .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
                     .build();
 
             log.debug("[PYTHON_PROXY] Forwarding to {}: {}", url, messageText);
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            if (response.statusCode() != 200) {
-                log.debug("[PYTHON_PROXY] Python backend returned status {}", response.statusCode());
-                return null;
-            }
-
-            return parsePythonResponse(response.body(), conversationId);
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<String>> exchange =
+                    httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            CompletableFuture<ChatResponseDto> result = exchange
+                    .thenApply(response -> {
+                        if (response.statusCode() != 200) {
+                            breaker.onFailure();
+                            log.debug("[PYTHON_PROXY] Python backend returned status {}", response.statusCode());
+                            return null;
+                        }
+                        breaker.onSuccess(System.nanoTime() - start);
+                        return parsePythonResponse(response.body(), conversationId);
+                    })
+                    .exceptionally(e -> {
+                        breaker.onFailure();
+                        log.debug("[PYTHON_PROXY] Python backend unreachable: {}", e.getMessage());
+                        return null;
+                    });
+            // Cancelling the result (e.g. a losing hedged call) aborts the HTTP exchange
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    breaker.onIgnored();
+                    exchange.cancel(true);
+                }
+            });
+            return result;
 
         } catch (Exception e) {
-            log.debug("[PYTHON_PROXY] Python backend unreachable: {}", e.getMessage());
-            return null;
+            breaker.onIgnored();
+            log.debug("[PYTHON_PROXY] Failed to build request: {}", e.getMessage());
+            return CompletableFuture.completedFuture(null);
         }
     }
 
@@ -0,0 +1,115 @@
+package com.example.EcoGo.service.chatbot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Approximate query counts per stop code in fixed memory (count-min sketch,
+ * 4 rows x 256 counters). Counts are halved every {@link #SAMPLE_SIZE} records
+ * so popularity follows recent traffic rather than all-time totals. Under light traffic
+ * that halving can be days apart, so the candidates also remember when each code was last
+ * queried and {@link #top(int, long, long)} leaves out codes nobody asked for lately.
+ * A small candidate set remembers which codes are worth ranking.
+ */
+final class StopFrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 256; // power of two
+    static final int SAMPLE_SIZE = 10 * WIDTH;
+    static final int MAX_CANDIDATES = 64;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final AtomicIntegerArray counters = new AtomicIntegerArray(DEPTH * WIDTH);
+    // candidate code -> System.nanoTime() of its last query; guarded by this
+    private final Map<String, Long> candidates = new HashMap<>();
+    private int recorded; // guarded by this
+
+    /** Counts one query for the stop code. */
+    void record(String stopCode) {
+        record(stopCode, System.nanoTime());
+    }
+
+    void record(String stopCode, long nowNanos) {
+        int hash = stopCode.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int slot = indexOf(row, hash);
+            estimate = Math.min(estimate, counters.incrementAndGet(slot));
+        }
+        synchronized (this) {
+            remember(stopCode, estimate, nowNanos);
+            if (++recorded >= SAMPLE_SIZE) {
+                age();
+            }
+        }
+    }
+
+    /** Estimated recent query count for the stop code (never under-counts since the last halving). */
+    int estimate(String stopCode) {
+        int hash = stopCode.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters.get(indexOf(row, hash)));
+        }
+        return estimate;
+    }
+
+    /** Up to n stop codes with the highest estimates, most popular first. */
+    List<String> top(int n) {
+        return top(n, System.nanoTime(), Long.MAX_VALUE);
+    }
+
+    /** Like {@link #top(int)}, but only codes queried within {@code maxAgeNanos} before {@code nowNanos}. */
+    List<String> top(int n, long nowNanos, long maxAgeNanos) {
+        List<String> codes = new ArrayList<>();
+        synchronized (this) {
+            candidates.forEach((code, lastSeen) -> {
+                if (nowNanos - lastSeen <= maxAgeNanos) {
+                    codes.add(code);
+                }
+            });
+        }
+        codes.removeIf(code -> estimate(code) == 0);
+        codes.sort(Comparator.comparingInt(this::estimate).reversed());
+        return codes.size() > n ? List.copyOf(codes.subList(0, n)) : List.copyOf(codes);
+    }
+
+    // Keep the code if there is room or it beats the weakest candidate
+    private void remember(String stopCode, int estimate, long nowNanos) {
+        if (candidates.containsKey(stopCode) || candidates.size() < MAX_CANDIDATES) {
+            candidates.put(stopCode, nowNanos);
+            return;
+        }
+        String weakest = null;
+        int weakestEstimate = Integer.MAX_VALUE;
+        for (String code : candidates.keySet()) {
+            int e = estimate(code);
+            if (e < weakestEstimate) {
+                weakest = code;
+                weakestEstimate = e;
+            }
+        }
+        if (weakest != null && weakestEstimate < estimate) {
+            candidates.remove(weakest);
+            candidates.put(stopCode, nowNanos);
+        }
+    }
+
+    private void age() {
+        recorded = 0;
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+        candidates.keySet().removeIf(code -> estimate(code) == 0);
+    }
+
+    private static int indexOf(int row, int hash) {
+        int h = (hash ^ SEEDS[row]) * 0x45D9F3B;
+        h ^= h >>> 16;
+        return row * WIDTH + (h & (WIDTH - 1));
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.EcoGo.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Immutable alias lookup for place names (English and Chinese), built once and shared.
+ * <p>
+ * {@link #find} answers the same question as "exact match, otherwise the first alias in
+ * insertion order that contains the input or is contained in it", without scanning the aliases:
+ * <ul>
+ *   <li>exact: hash lookup on the normalized alias</li>
+ *   <li>aliases inside the input: Aho–Corasick automaton, one pass over the input</li>
+ *   <li>input inside an alias: suffix trie of all aliases, one walk down the input</li>
+ * </ul>
+ * Aliases are normalized with {@link #normalize}; when several aliases match, the one added first wins.
+ */
+public final class AliasIndex<V> {
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final List<V> values;
+    private final Map<String, Integer> exact;
+    private final Node keywords;
+    private final Node substrings;
+
+    private AliasIndex(List<V> values, Map<String, Integer> exact, Node keywords, Node substrings) {
+        this.values = values;
+        this.exact = exact;
+        this.keywords = keywords;
+        this.substrings = substrings;
+    }
+
+    public static <V> Builder<V> builder() {
+        return new Builder<>();
+    }
+
+    public static String normalize(String s) {
+        return s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** Value of an alias equal to the input after normalization, or null. */
+    public V exact(String input) {
+        if (input == null) return null;
+        Integer order = exact.get(normalize(input));
+        return order == null ? null : values.get(order);
+    }
+
+    /** Exact match, otherwise the earliest alias that contains or is contained in the input; null if none. */
+    public V find(String input) {
+        if (input == null) return null;
+        String key = normalize(input);
+        Integer order = exact.get(key);
+        if (order != null) return values.get(order);
+
+        int best = Math.min(firstAliasInside(key), firstAliasContaining(key));
+        return best == NONE ? null : values.get(best);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    // Aho–Corasick scan: smallest order of any alias occurring in the text
+    private int firstAliasInside(String text) {
+        int best = NONE;
+        Node node = keywords;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            while (node != keywords && node.child(c) == null) {
+                node = node.fail;
+            }
+            Node next = node.child(c);
+            node = next != null ? next : keywords;
+            best = Math.min(best, node.order);
+        }
+        return best;
+    }
+
+    // Suffix-trie walk: smallest order of any alias that has the text as a substring
+    private int firstAliasContaining(String text) {
+        Node node = substrings;
+        for (int i = 0; i < text.length() && node != null; i++) {
+            node = node.child(text.charAt(i));
+        }
+        return node == null ? NONE : node.order;
+    }
+
+    public static final class Builder<V> {
+
+        private final List<String> aliases = new ArrayList<>();
+        private final List<V> values = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder<V> add(String alias, V value) {
+            String key = normalize(alias);
+            if (!key.isEmpty()) {
+                aliases.add(key);
+                values.add(value);
+            }
+            return this;
+        }
+
+        public AliasIndex<V> build() {
+            Map<String, Integer> exact = new HashMap<>();
+            Node keywords = new Node();
+            Node substrings = new Node();
+            substrings.order = aliases.isEmpty() ? NONE : 0; // the empty string is in every alias
+            for (int order = 0; order < aliases.size(); order++) {
+                String alias = aliases.get(order);
+                exact.putIfAbsent(alias, order);
+                keywords.insert(alias, 0, order, false);
+                for (int start = 0; start < alias.length(); start++) {
+                    substrings.insert(alias, start, order, true);
+                }
+            }
+            linkFailures(keywords);
+            return new AliasIndex<>(Collections.unmodifiableList(new ArrayList<>(values)),
+                    Map.copyOf(exact), keywords, substrings);
+        }
+
+        // BFS over the keyword trie; each node also inherits the best match of its failure link
+        private static void linkFailures(Node root) {
+            Queue<Node> queue = new ArrayDeque<>();
+            for (Node child : root.children.values()) {
+                child.fail = root;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                Node node = queue.remove();
+                for (Map.Entry<Character, Node> e : node.children.entrySet()) {
+                    Node child = e.getValue();
+                    Node f = node.fail;
+                    while (f != root && f.child(e.getKey()) == null) {
+                        f = f.fail;
+                    }
+                    Node target = f.child(e.getKey());
+                    child.fail = (target != null && target != child) ? target : root;
+                    child.order = Math.min(child.order, child.fail.order);
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    private static final class Node {
+        final Map<Character, Node> children = new HashMap<>();
+        Node fail;
+        // Keyword trie: earliest alias ending here (or at a failure suffix).
+        // Suffix trie: earliest alias containing the path to this node.
+        int order = NONE;
+
+        Node child(char c) {
+            return children.get(c);
+        }
+
+        void insert(String alias, int start, int aliasOrder, boolean markPath) {
+            Node node = this;
+            for (int i = start; i < alias.length(); i++) {
+                node = node.children.computeIfAbsent(alias.charAt(i), k -> new Node());
+                if (markPath) {
+                    node.order = Math.min(node.order, aliasOrder);
+                }
+            }
+            if (!markPath) {
+                node.order = Math.min(node.order, aliasOrder);
+            }
+        }
+    }
+}
@@ -8,6 +8,9 @@ import com.example.EcoGo.model.Badge;
 import com.example.EcoGo.model.UserBadge;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import java.lang.reflect.Field;
 import java.util.*;
@@ -33,6 +36,14 @@ class BadgeControllerTest {
 
     // ---------- helpers ----------
 
+    private static ServletWebRequest webRequest(String ifNoneMatch) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/mobile/badges/user/user1");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+
     private static Badge buildBadge(String badgeId, String enName, String category, Integer cost) {
         Badge b = new Badge();
         b.setBadgeId(badgeId);
@@ -185,7 +196,7 @@ class BadgeControllerTest {
         UserBadge ub2 = buildUserBadge("user1", "b2", false);
         when(badgeService.getMyBadges("user1")).thenReturn(List.of(ub1, ub2));
 
-        ResponseMessage<?> resp = controller.getMyBadges("user1");
+        ResponseMessage<?> resp = controller.getMyBadges("user1", webRequest(null));
 
         assertEquals(200, resp.getCode());
         @SuppressWarnings("unchecked")
@@ -197,7 +208,7 @@ class BadgeControllerTest {
     void getMyBadges_empty() {
         when(badgeService.getMyBadges("user1")).thenReturn(List.of());
 
-        ResponseMessage<?> resp = controller.getMyBadges("user1");
+        ResponseMessage<?> resp = controller.getMyBadges("user1", webRequest(null));
 
         assertEquals(200, resp.getCode());
         @SuppressWarnings("unchecked")
@@ -205,6 +216,34 @@ class BadgeControllerTest {
         assertTrue(data.isEmpty());
     }
 
+    @Test
+    void getMyBadges_etagMatches_notModified() {
+        when(badgeService.getBadgeVersion("user1")).thenReturn(7L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/mobile/badges/user/user1");
+        request.addHeader("If-None-Match", "\"user1-7\"");
+
+        ResponseMessage<?> resp = controller.getMyBadges("user1", new ServletWebRequest(request, response));
+
+        assertNull(resp);
+        assertEquals(304, response.getStatus());
+        verify(badgeService, never()).getMyBadges(anyString());
+    }
+
+    @Test
+    void getMyBadges_versionChanged_returnsBodyWithEtag() {
+        when(badgeService.getBadgeVersion("user1")).thenReturn(8L);
+        when(badgeService.getMyBadges("user1")).thenReturn(List.of());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/mobile/badges/user/user1");
+        request.addHeader("If-None-Match", "\"user1-7\"");
+
+        ResponseMessage<?> resp = controller.getMyBadges("user1", new ServletWebRequest(request, response));
+
+        assertEquals(200, resp.getCode());
+        assertEquals("\"user1-8\"", response.getHeader("ETag"));
+    }
+
     // ========== getAllBadges (admin) ==========
 
     @Test
@@ -1,30 +1,48 @@
 package com.example.EcoGo.controller;
 
+import com.example.EcoGo.config.ChatExecutorConfig;
 import com.example.EcoGo.dto.ResponseMessage;
 import com.example.EcoGo.dto.chatbot.BookingDetailDto;
+import com.example.EcoGo.dto.chatbot.ChatHistoryDto;
 import com.example.EcoGo.dto.chatbot.ChatRequestDto;
 import com.example.EcoGo.dto.chatbot.ChatResponseDto;
 import com.example.EcoGo.service.chatbot.ChatBookingService;
+import com.example.EcoGo.service.chatbot.ChatHistoryService;
 import com.example.EcoGo.service.chatbot.ChatOrchestratorService;
 import com.example.EcoGo.utils.JwtUtils;
 import io.jsonwebtoken.Claims;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.lang.reflect.Field;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 
 class ChatbotControllerTest {
 
     private ChatOrchestratorService orchestratorService;
     private ChatBookingService bookingService;
+    private ChatHistoryService historyService;
     private JwtUtils jwtUtils;
     private ChatbotController controller;
 
@@ -32,6 +50,7 @@ class ChatbotControllerTest {
     void setUp() throws Exception {
         orchestratorService = mock(ChatOrchestratorService.class);
         bookingService = mock(ChatBookingService.class);
+        historyService = mock(ChatHistoryService.class);
         jwtUtils = mock(JwtUtils.class);
         controller = new ChatbotController();
 
@@ -46,6 +65,14 @@ class ChatbotControllerTest {
         Field f3 = ChatbotController.class.getDeclaredField("jwtUtils");
         f3.setAccessible(true);
         f3.set(controller, jwtUtils);
+
+        Field f4 = ChatbotController.class.getDeclaredField("chatExecutor");
+        f4.setAccessible(true);
+        f4.set(controller, (Executor) Runnable::run);
+
+        Field f5 = ChatbotController.class.getDeclaredField("historyService");
+        f5.setAccessible(true);
+        f5.set(controller, historyService);
     }
 
     // ---------- chat ----------
@@ -58,7 +85,7 @@ class ChatbotControllerTest {
         ChatResponseDto mockResp = new ChatResponseDto("c1", "Hi there!");
         when(orchestratorService.handleChat("guest", false, "c1", "hello")).thenReturn(mockResp);
 
-        ResponseMessage<ChatResponseDto> resp = controller.chat(null, request);
+        ResponseMessage<ChatResponseDto> resp = controller.chat(null, request).join();
 
         assertEquals(HttpStatus.OK.value(), resp.getCode());
         assertNotNull(resp.getData());
@@ -80,7 +107,7 @@ class ChatbotControllerTest {
         ChatResponseDto mockResp = new ChatResponseDto("c2", "Let me help you book!");
         when(orchestratorService.handleChat("u_001", true, "c2", "book a trip")).thenReturn(mockResp);
 
-        ResponseMessage<ChatResponseDto> resp = controller.chat("Bearer valid-token", request);
+        ResponseMessage<ChatResponseDto> resp = controller.chat("Bearer valid-token", request).join();
 
         assertEquals(HttpStatus.OK.value(), resp.getCode());
         assertNotNull(resp.getData());
@@ -98,12 +125,108 @@ class ChatbotControllerTest {
         ChatResponseDto mockResp = new ChatResponseDto("c3", "Hello!");
         when(orchestratorService.handleChat("guest", false, "c3", "hi")).thenReturn(mockResp);
 
-        ResponseMessage<ChatResponseDto> resp = controller.chat("Bearer bad-token", request);
+        ResponseMessage<ChatResponseDto> resp = controller.chat("Bearer bad-token", request).join();
 
         assertEquals(HttpStatus.OK.value(), resp.getCode());
         verify(orchestratorService).handleChat("guest", false, "c3", "hi");
     }
 
+    @Test
+    void chat_whenPoolSaturated_shouldReturn503WithoutCallingOrchestrator() throws Exception {
+        Field f = ChatbotController.class.getDeclaredField("chatExecutor");
+        f.setAccessible(true);
+        f.set(controller, (Executor) task -> {
+            throw new RejectedExecutionException("full");
+        });
+        ChatRequestDto request = new ChatRequestDto();
+        request.setConversationId("c9");
+        request.setMessage("hello");
+
+        ResponseMessage<ChatResponseDto> resp = controller.chat(null, request).join();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), resp.getCode());
+        verifyNoInteractions(orchestratorService);
+    }
+
+    @Test
+    void chatEndpoint_slowUpstream_runsChatsConcurrentlyAndRejectsOverflow() throws Exception {
+        ThreadPoolTaskExecutor pool = new ChatExecutorConfig().chatExecutor(4, 0);
+        pool.initialize();
+        Field f = ChatbotController.class.getDeclaredField("chatExecutor");
+        f.setAccessible(true);
+        f.set(controller, pool);
+        // Every chat waits 500 ms on the model server / Python backend
+        when(orchestratorService.handleChat(anyString(), anyBoolean(), anyString(), anyString())).thenAnswer(inv -> {
+            Thread.sleep(500);
+            return new ChatResponseDto(inv.getArgument(2), "slow answer");
+        });
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(controller).build();
+        mvc.perform(get("/api/v1/mobile/chatbot/health")); // warm up MockMvc before timing
+
+        try {
+            long start = System.nanoTime();
+            List<MvcResult> results = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                results.add(mvc.perform(post("/api/v1/mobile/chatbot/chat")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content("{\"conversationId\":\"c" + i + "\",\"message\":\"hello\"}"))
+                        .andExpect(request().asyncStarted())
+                        .andReturn());
+            }
+            // Requests are handed off, not served on the caller's thread
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+            for (int i = 0; i < 6; i++) {
+                int code = i < 4 ? HttpStatus.OK.value() : HttpStatus.SERVICE_UNAVAILABLE.value();
+                mvc.perform(asyncDispatch(results.get(i))).andExpect(jsonPath("$.code").value(code));
+            }
+            // The four accepted chats overlapped instead of queueing behind each other (2 s serially)
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_500);
+            verify(orchestratorService, times(4)).handleChat(anyString(), anyBoolean(), anyString(), anyString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // ---------- getHistory ----------
+    @Test
+    void getHistory_found_shouldReturnPage() {
+        ChatHistoryDto page = new ChatHistoryDto("c1", 42, List.of(
+                new ChatHistoryDto.Message(40, "user", "hi", Instant.now()),
+                new ChatHistoryDto.Message(41, "assistant", "hello", Instant.now())), 40L);
+        Claims claims = mock(Claims.class);
+        when(claims.getSubject()).thenReturn("u_001");
+        when(jwtUtils.validateToken("tok")).thenReturn(claims);
+        when(historyService.getHistory("u_001", false, "c1", null, 2)).thenReturn(Optional.of(page));
+
+        ResponseMessage<ChatHistoryDto> resp = controller.getHistory("Bearer tok", "c1", null, 2);
+
+        assertEquals(HttpStatus.OK.value(), resp.getCode());
+        assertEquals(2, resp.getData().getMessages().size());
+        assertEquals(40L, resp.getData().getNextBefore());
+    }
+
+    @Test
+    void getHistory_notFoundOrNotOwned_shouldReturn404() {
+        Claims claims = mock(Claims.class);
+        when(claims.getSubject()).thenReturn("u_001");
+        when(jwtUtils.validateToken("tok")).thenReturn(claims);
+        when(historyService.getHistory(anyString(), anyBoolean(), eq("c_other"), any(), any())).thenReturn(Optional.empty());
+
+        ResponseMessage<ChatHistoryDto> resp = controller.getHistory("Bearer tok", "c_other", null, null);
+
+        assertEquals(HttpStatus.NOT_FOUND.value(), resp.getCode());
+        assertNull(resp.getData());
+    }
+
+    @Test
+    void getHistory_guest_shouldReturn401() {
+        ResponseMessage<ChatHistoryDto> resp = controller.getHistory(null, "c1", null, null);
+
+        assertEquals(HttpStatus.UNAUTHORIZED.value(), resp.getCode());
+        verifyNoInteractions(historyService);
+    }
+
     // ---------- getBooking ----------
     @Test
     void getBooking_found_shouldReturnSuccess() {
@@ -2,6 +2,7 @@ package com.example.EcoGo.controller;
 
 import com.example.EcoGo.dto.BatchStockUpdateRequest;
 import com.example.EcoGo.dto.GoodsRequestDto;
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.dto.ResponseMessage;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
@@ -9,6 +10,9 @@ import com.example.EcoGo.model.Goods;
 import com.example.EcoGo.service.GoodsService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import java.lang.reflect.Field;
 import java.util.*;
@@ -50,23 +54,24 @@ class GoodsControllerTest {
         return g;
     }
 
+    private static ServletWebRequest webRequest(String ifNoneMatch) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/goods");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+
     // ---------- getAllGoods ----------
     @Test
-    void getAllGoods_shouldFilterOutVoucherType_andApplyVipCategoryKeywordRedemption_andPaginate() {
-        // 准备数据：
-        // 1) voucher 类型：应该被过滤掉
-        // 2) vipLevelRequired=1：当 isVipActive=false 时应该被过滤掉
-        // 3) 正常商品：保留
-        Goods voucher = goods("v1", "Voucher X", "coupon", "service", "voucher", 0, true, 10, true);
-        Goods vipOnly = goods("g1", "VIP Burger", "tasty", "food", "normal", 1, true, 10, true);
+    void getAllGoods_shouldDelegateFiltersToSearch_andBuildPagination() {
         Goods normal = goods("g2", "Coffee", "Starbucks", "beverage", "normal", 0, true, 5, true);
-        Goods normal2 = goods("g3", "Tea", "Green tea", "beverage", null, 0, false, 5, true);
-
-        when(goodsService.getAllGoods()).thenReturn(List.of(voucher, vipOnly, normal, normal2));
+        when(goodsService.searchGoods("beverage", "star", true, false, 1, 1))
+                .thenReturn(new PageResponse<>(List.of(normal), 3, 1, 1));
 
-        // page=1,size=1 + category=beverage + keyword=star + isForRedemption=true + isVipActive=false
+        // page=1,size=1 + category=Beverage + keyword=star + isForRedemption=true + isVipActive=false
         ResponseMessage<Map<String, Object>> resp = controller.getAllGoods(
-                1, 1, "beverage", "star", true, false
+                1, 1, " Beverage ", "star", true, false, webRequest(null)
         );
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
@@ -75,11 +80,8 @@ class GoodsControllerTest {
         Object itemsObj = resp.getData().get("items");
         assertTrue(itemsObj instanceof List<?>);
         List<?> items = (List<?>) itemsObj;
-
-        // 过滤后只剩 "Coffee" 一条，再分页 size=1 仍是 1
         assertEquals(1, items.size());
-        Goods item = (Goods) items.get(0);
-        assertEquals("g2", item.getId());
+        assertEquals("g2", ((Goods) items.get(0)).getId());
 
         // pagination 检查
         Object paginationObj = resp.getData().get("pagination");
@@ -87,28 +89,58 @@ class GoodsControllerTest {
         Map<?, ?> pagination = (Map<?, ?>) paginationObj;
         assertEquals(1, pagination.get("page"));
         assertEquals(1, pagination.get("size"));
-        assertEquals(1, pagination.get("total"));
-        assertEquals(1, pagination.get("totalPages"));
+        assertEquals(3, pagination.get("total"));
+        assertEquals(3, pagination.get("totalPages"));
 
-        verify(goodsService).getAllGoods();
+        verify(goodsService, never()).getAllGoods();
     }
 
     @Test
     void getAllGoods_categoryAll_shouldNotFilterByCategory() {
         Goods a = goods("g1", "A", null, "food", "normal", 0, true, 1, true);
         Goods b = goods("g2", "B", null, "service", "normal", 0, true, 1, true);
-        when(goodsService.getAllGoods()).thenReturn(List.of(a, b));
+        when(goodsService.searchGoods(null, null, null, true, 1, 20))
+                .thenReturn(new PageResponse<>(List.of(a, b), 2, 1, 20));
 
         ResponseMessage<Map<String, Object>> resp = controller.getAllGoods(
-                1, 20, "all items", null, null, true
+                1, 20, "all items", null, null, true, webRequest(null)
         );
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
         List<?> items = (List<?>) resp.getData().get("items");
-        // isVipActive=true，不做 vipLevelRequired 过滤；category=all items 不过滤
+        // category=all items 时不传 category 筛选
         assertEquals(2, items.size());
     }
 
+    @Test
+    void getAllGoods_catalogUnchanged_shouldReturn304WithoutSearching() {
+        when(goodsService.getCatalogVersion()).thenReturn(42L);
+        ServletWebRequest request = webRequest("\"goods-42\"");
+
+        ResponseMessage<Map<String, Object>> resp = controller.getAllGoods(
+                1, 20, null, null, null, false, request
+        );
+
+        assertNull(resp);
+        assertEquals(304, request.getResponse().getStatus());
+        verify(goodsService, never()).searchGoods(any(), any(), any(), anyBoolean(), anyInt(), anyInt());
+    }
+
+    @Test
+    void getAllGoods_catalogChanged_shouldSetETag() {
+        when(goodsService.getCatalogVersion()).thenReturn(43L);
+        when(goodsService.searchGoods(null, null, null, false, 1, 20))
+                .thenReturn(new PageResponse<>(List.of(), 0, 1, 20));
+        ServletWebRequest request = webRequest("\"goods-42\"");
+
+        ResponseMessage<Map<String, Object>> resp = controller.getAllGoods(
+                1, 20, null, null, null, false, request
+        );
+
+        assertNotNull(resp);
+        assertEquals("\"goods-43\"", request.getResponse().getHeader("ETag"));
+    }
+
     // ---------- getGoodsById ----------
     @Test
     void getGoodsById_idBlank_throwParamCannotBeNull() {
@@ -355,14 +387,11 @@ class GoodsControllerTest {
 
     // ---------- mobile redemption ----------
     @Test
-    void getRedemptionGoodsForMobile_shouldReturnSimplifiedList_onlyForRedemption_andStockPositive() {
+    void getRedemptionGoodsForMobile_shouldReturnSimplifiedList() {
         Goods a = goods("g1", "A", "d", "food", "normal", 0, true, 5, true);
-        Goods b = goods("g2", "B", "d", "food", "normal", 0, true, 0, true);     // stock=0 -> filter out
-        Goods c = goods("g3", "C", "d", "food", "normal", 0, false, 5, true);    // not for redemption -> filter out
-
-        when(goodsService.getAllGoods()).thenReturn(List.of(a, b, c));
+        when(goodsService.getRedemptionGoods()).thenReturn(List.of(a));
 
-        ResponseMessage<List<Map<String, Object>>> resp = controller.getRedemptionGoodsForMobile(null);
+        ResponseMessage<List<Map<String, Object>>> resp = controller.getRedemptionGoodsForMobile(null, webRequest(null));
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
         assertNotNull(resp.getData());
@@ -372,6 +401,7 @@ class GoodsControllerTest {
         assertEquals("g1", item.get("id"));
         assertEquals("A", item.get("name"));
         assertEquals(5, item.get("stock"));
+        verify(goodsService, never()).getAllGoods();
     }
 
     // ---------- categories ----------
@@ -392,30 +422,26 @@ class GoodsControllerTest {
 
     // ---------- coupons marketplace ----------
     @Test
-    void getVoucherMarketplace_shouldFilterVoucherActiveAndForRedemption_andApplyVipFilter() {
+    void getVoucherMarketplace_shouldDelegateWithVipFlag() {
         Goods voucherOk = goods("v1", "V1", null, "service", "voucher", 0, true, 5, true);
-        Goods voucherInactive = goods("v2", "V2", null, "service", "voucher", 0, true, 5, false);
-        Goods nonVoucher = goods("g1", "G1", null, "food", "normal", 0, true, 5, true);
-        Goods voucherVip = goods("v3", "V3", null, "service", "voucher", 2, true, 5, true);
+        when(goodsService.getVoucherMarketplace(false)).thenReturn(List.of(voucherOk));
 
-        when(goodsService.getAllGoods()).thenReturn(List.of(voucherOk, voucherInactive, nonVoucher, voucherVip));
-
-        // isVipActive=false -> 应过滤掉 vipLevelRequired>0
-        ResponseMessage<List<Goods>> resp = controller.getVoucherMarketplace(false);
+        // isVipActive=false -> 只取无需 VIP 的 voucher
+        ResponseMessage<List<Goods>> resp = controller.getVoucherMarketplace(false, webRequest(null));
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
         assertNotNull(resp.getData());
-        // 只剩 voucherOk
         assertEquals(1, resp.getData().size());
         assertEquals("v1", resp.getData().get(0).getId());
+        verify(goodsService, never()).getAllGoods();
     }
 
     @Test
     void getVoucherMarketplace_serviceThrows_shouldMapDbError() {
-        when(goodsService.getAllGoods()).thenThrow(new RuntimeException("db down"));
+        when(goodsService.getVoucherMarketplace(false)).thenThrow(new RuntimeException("db down"));
         BusinessException ex = assertThrows(
                 BusinessException.class,
-                () -> controller.getVoucherMarketplace(false)
+                () -> controller.getVoucherMarketplace(false, webRequest(null))
         );
         assertEquals(ErrorCode.DB_ERROR.getCode(), ex.getCode());
     }
@@ -1,6 +1,7 @@
 package com.example.EcoGo.controller;
 
 import com.example.EcoGo.dto.OrderRequestDto;
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.dto.ResponseMessage;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
@@ -64,7 +65,7 @@ class OrderControllerTest {
     void getAllOrders_pageInvalid_throwParamError() {
         BusinessException ex = assertThrows(
                 BusinessException.class,
-                () -> controller.getAllOrders(null, null, null, 0, 20)
+                () -> controller.getAllOrders(null, null, null, null, 0, 20)
         );
         assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
     }
@@ -73,92 +74,57 @@ class OrderControllerTest {
     void getAllOrders_sizeInvalid_throwParamError() {
         BusinessException ex = assertThrows(
                 BusinessException.class,
-                () -> controller.getAllOrders(null, null, null, 1, 0)
+                () -> controller.getAllOrders(null, null, null, null, 1, 0)
         );
         assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
     }
 
     @Test
-    void getAllOrders_whenUserIdProvided_shouldCallGetOrdersByUserId_andPaginateAndSort() {
-        String userId = "u1";
-        // createdAt：让排序可验证（倒序）
-        Order o1 = order("1", userId, "CREATED", false, LocalDateTime.now().minusDays(1));
-        Order o2 = order("2", userId, "CREATED", false, LocalDateTime.now()); // newer
-        when(orderService.getOrdersByUserId(userId)).thenReturn(new ArrayList<>(List.of(o1, o2)));
-
-        ResponseMessage<Map<String, Object>> resp = controller.getAllOrders(userId, "IGNORED", null, 1, 1);
-
-        assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
-        Map<String, Object> data = resp.getData();
-        assertNotNull(data);
-
-        @SuppressWarnings("unchecked")
-        List<Order> pageOrders = (List<Order>) data.get("orders");
-        assertEquals(1, pageOrders.size());
-        // page=1,size=1，且倒序 => o2 在第一页
-        assertEquals("2", pageOrders.get(0).getId());
-
-        verify(orderService).getOrdersByUserId(userId);
-        verify(orderService, never()).getOrdersByStatus(anyString());
-        verify(orderService, never()).getAllOrders();
-    }
-
-    @Test
-    void getAllOrders_whenStatusProvided_shouldCallGetOrdersByStatus() {
-        when(orderService.getOrdersByStatus("PAID")).thenReturn(new ArrayList<>());
-
-        ResponseMessage<Map<String, Object>> resp = controller.getAllOrders(null, "PAID", null, 1, 20);
-
-        assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
-        verify(orderService).getOrdersByStatus("PAID");
-        verify(orderService, never()).getAllOrders();
-        verify(orderService, never()).getOrdersByUserId(anyString());
+    void getAllOrders_sizeTooLarge_throwParamError() {
+        BusinessException ex = assertThrows(
+                BusinessException.class,
+                () -> controller.getAllOrders(null, null, null, null, 1, 101)
+        );
+        assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
+        verifyNoInteractions(orderService);
     }
 
     @Test
-    void getAllOrders_whenNoFilters_shouldCallGetAllOrders_andIsRedemptionFilterApplied() {
-        Order r1 = order("1", "u1", "CREATED", true, LocalDateTime.now());
-        Order r2 = order("2", "u2", "CREATED", false, LocalDateTime.now());
-        when(orderService.getAllOrders()).thenReturn(new ArrayList<>(List.of(r1, r2)));
+    void getAllOrders_shouldPassFiltersToSearch_andReturnPageWithCursor() {
+        Order o2 = order("2", "u1", "PAID", true, LocalDateTime.now());
+        PageResponse<Order> page = new PageResponse<>(List.of(o2), 5, 1, 1);
+        page.setNextCursor("123_2");
+        when(orderService.searchOrders("u1", "PAID", true, null, 1, 1, true)).thenReturn(page);
 
-        ResponseMessage<Map<String, Object>> resp = controller.getAllOrders(null, null, true, 1, 20);
+        ResponseMessage<Map<String, Object>> resp = controller.getAllOrders("u1", "PAID", true, null, 1, 1);
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
-
         @SuppressWarnings("unchecked")
-        List<Order> filtered = (List<Order>) resp.getData().get("orders");
-        assertEquals(1, filtered.size());
-        assertEquals("1", filtered.get(0).getId());
+        List<Order> orders = (List<Order>) resp.getData().get("orders");
+        assertEquals(List.of(o2), orders);
+        Map<?, ?> pagination = (Map<?, ?>) resp.getData().get("pagination");
+        assertEquals(1, pagination.get("page"));
+        assertEquals(1, pagination.get("size"));
+        assertEquals(5, pagination.get("total"));
+        assertEquals(5, pagination.get("totalPages"));
+        assertEquals("123_2", pagination.get("nextCursor"));
 
-        verify(orderService).getAllOrders();
+        verify(orderService, never()).getAllOrders();
+        verify(orderService, never()).getOrdersByUserId(anyString());
+        verify(orderService, never()).getOrdersByStatus(anyString());
     }
 
     @Test
-    void getAllOrders_whenServiceReturnsNull_shouldReturnEmptyList() {
-        when(orderService.getAllOrders()).thenReturn(null);
+    void getAllOrders_blankFilters_treatedAsNone_cursorForwarded() {
+        when(orderService.searchOrders(null, null, null, "9_x", 1, 20, true))
+                .thenReturn(new PageResponse<>(List.of(), -1, 1, 20));
 
-        ResponseMessage<Map<String, Object>> resp = controller.getAllOrders(null, null, null, 1, 20);
+        ResponseMessage<Map<String, Object>> resp = controller.getAllOrders(" ", "", null, "9_x", 1, 20);
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
-        @SuppressWarnings("unchecked")
-        List<Order> orders = (List<Order>) resp.getData().get("orders");
-        assertNotNull(orders);
-        assertEquals(0, orders.size());
-    }
-
-    @Test
-    void getAllOrders_sortShouldHandleNullCreatedAt_withoutNpe() {
-        Order a = order("1", "u1", "CREATED", false, null);
-        Order b = order("2", "u1", "CREATED", false, LocalDateTime.now());
-        when(orderService.getOrdersByUserId("u1")).thenReturn(new ArrayList<>(List.of(a, b)));
-
-        ResponseMessage<Map<String, Object>> resp = controller.getAllOrders("u1", null, null, 1, 20);
-        assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
-
-        @SuppressWarnings("unchecked")
-        List<Order> orders = (List<Order>) resp.getData().get("orders");
-        // b(createdAt!=null) 应排在前面
-        assertEquals("2", orders.get(0).getId());
+        Map<?, ?> pagination = (Map<?, ?>) resp.getData().get("pagination");
+        assertNull(pagination.get("nextCursor"));
+        verify(orderService).searchOrders(null, null, null, "9_x", 1, 20, true);
     }
 
     // ---------- getOrderById ----------
@@ -296,7 +262,7 @@ class OrderControllerTest {
     void getUserOrderHistoryForMobile_userIdBlank_throwParamCannotBeNull() {
         BusinessException ex = assertThrows(
                 BusinessException.class,
-                () -> controller.getUserOrderHistoryForMobile("  ", null, 1, 10)
+                () -> controller.getUserOrderHistoryForMobile("  ", null, null, 1, 10)
         );
         assertEquals(ErrorCode.PARAM_CANNOT_BE_NULL.getCode(), ex.getCode());
     }
@@ -305,7 +271,7 @@ class OrderControllerTest {
     void getUserOrderHistoryForMobile_pageInvalid_throwParamError() {
         BusinessException ex = assertThrows(
                 BusinessException.class,
-                () -> controller.getUserOrderHistoryForMobile("u1", null, 0, 10)
+                () -> controller.getUserOrderHistoryForMobile("u1", null, null, 0, 10)
         );
         assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
     }
@@ -313,17 +279,15 @@ class OrderControllerTest {
     @Test
     void getUserOrderHistoryForMobile_shouldFilterByStatus_andReturnSimplifiedOrders_withPagination() {
         String userId = "u1";
-        Order a = order("1", userId, "CREATED", true, LocalDateTime.now().minusDays(1));
         Order b = order("2", userId, "PAID", true, LocalDateTime.now());
-        Order.OrderItem item1 = new Order.OrderItem();
-        a.getItems().add(item1);
+        b.getItems().add(new Order.OrderItem());
 
-
-        when(orderService.getOrdersByUserId(userId)).thenReturn(List.of(a, b));
+        when(orderService.searchOrders(userId, "PAID", null, null, 1, 10, true))
+                .thenReturn(new PageResponse<>(List.of(b), 1, 1, 10));
 
         // 只要 status=PAID，size=10
         ResponseMessage<Map<String, Object>> resp =
-                controller.getUserOrderHistoryForMobile(userId, "PAID", 1, 10);
+                controller.getUserOrderHistoryForMobile(userId, "PAID", null, 1, 10);
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
         Map<String, Object> data = resp.getData();
@@ -337,20 +301,24 @@ class OrderControllerTest {
         assertEquals("2", item.get("id"));
         assertEquals("PAID", item.get("status"));
         assertEquals(true, item.get("isRedemption"));
+        assertEquals(1, item.get("itemCount"));
 
         Object paginationObj = data.get("pagination");
         assertTrue(paginationObj instanceof Map<?, ?>);
         Map<?, ?> pagination = (Map<?, ?>) paginationObj;
         assertEquals(1, pagination.get("page"));
         assertEquals(10, pagination.get("size"));
+        assertEquals(1, pagination.get("total"));
+        verify(orderService, never()).getOrdersByUserId(anyString());
     }
 
     @Test
-    void getUserOrderHistoryForMobile_whenServiceReturnsNull_shouldReturnEmpty() {
-        when(orderService.getOrdersByUserId("u1")).thenReturn(null);
+    void getUserOrderHistoryForMobile_cursor_forwardedToKeysetSearch() {
+        when(orderService.searchOrders("u1", null, null, "100_a", 1, 10, true))
+                .thenReturn(new PageResponse<>(List.of(), -1, 1, 10));
 
         ResponseMessage<Map<String, Object>> resp =
-                controller.getUserOrderHistoryForMobile("u1", null, 1, 10);
+                controller.getUserOrderHistoryForMobile("u1", null, "100_a", 1, 10);
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
         @SuppressWarnings("unchecked")
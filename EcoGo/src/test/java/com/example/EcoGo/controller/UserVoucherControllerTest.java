@@ -28,13 +28,9 @@ class UserVoucherControllerTest {
         repo = mock(UserVoucherRepository.class);
         controller = new UserVoucherController(repo);
 
-        // ✅ 关键：controller 的“自动过期同步”逻辑在任何 tab 下都会先查 ACTIVE
-        // 所以给所有测试一个默认兜底：没 ACTIVE 券 -> 不触发 save
-        when(repo.findByUserIdAndStatus(anyString(), eq(VoucherStatus.ACTIVE)))
-                .thenReturn(List.of());
-
-        // ✅ 兜底：save 返回入参，避免返回 null 引发链式问题（即使当前实现不使用返回值也更稳）
-        when(repo.save(any(UserVoucher.class))).thenAnswer(inv -> inv.getArgument(0));
+        // ✅ 关键：controller 的“自动过期同步”逻辑在任何 tab 下都会先跑一次 expireActiveBefore
+        // 默认兜底：没有需要过期的券
+        when(repo.expireActiveBefore(anyString(), any(LocalDateTime.class))).thenReturn(0L);
     }
 
     // ---------- getUserVouchers ----------
@@ -114,8 +110,8 @@ class UserVoucherControllerTest {
     void getUserVouchers_repoThrows_wrapToDbError() {
         String userId = "u1";
 
-        // 让“前置 ACTIVE 查询”直接抛异常 -> 会被 catch(Exception) 包成 DB_ERROR
-        when(repo.findByUserIdAndStatus(eq(userId), eq(VoucherStatus.ACTIVE)))
+        // 让“前置过期标记”直接抛异常 -> 会被 catch(Exception) 包成 DB_ERROR
+        when(repo.expireActiveBefore(eq(userId), any(LocalDateTime.class)))
                 .thenThrow(new RuntimeException("mongo down"));
 
         BusinessException ex = assertThrows(
@@ -127,46 +123,34 @@ class UserVoucherControllerTest {
     }
 
     @Test
-    void getUserVouchers_myTab_shouldAutoExpireActiveExpiredOnes_andSave() {
+    void getUserVouchers_myTab_shouldExpireStaleActiveOnesInOneUpdate_beforeQuery() {
         String userId = "u1";
-        LocalDateTime now = LocalDateTime.now();
-
-        // ACTIVE 列表里：一张已过期，一张未过期
-        UserVoucher expiredActive = new UserVoucher();
-        expiredActive.setId("v1");
-        expiredActive.setUserId(userId);
-        expiredActive.setStatus(VoucherStatus.ACTIVE);
-        expiredActive.setExpiresAt(now.minusDays(2));
-
         UserVoucher validActive = new UserVoucher();
         validActive.setId("v2");
         validActive.setUserId(userId);
         validActive.setStatus(VoucherStatus.ACTIVE);
-        validActive.setExpiresAt(now.plusDays(2));
-
-        // 覆盖默认兜底：让前置 ACTIVE 查询返回我们造的数据
-        when(repo.findByUserIdAndStatus(eq(userId), eq(VoucherStatus.ACTIVE)))
-                .thenReturn(List.of(expiredActive, validActive));
 
-        // my tab 最终查询（未过期 ACTIVE）
+        when(repo.expireActiveBefore(eq(userId), any(LocalDateTime.class))).thenReturn(1L);
         when(repo.findByUserIdAndStatusAndExpiresAtAfter(eq(userId), eq(VoucherStatus.ACTIVE), any()))
                 .thenReturn(List.of(validActive));
 
         ResponseMessage<List<UserVoucher>> resp = controller.getUserVouchers(userId, "my");
 
         assertEquals(ErrorCode.SUCCESS.getCode(), resp.getCode());
-        assertNotNull(resp.getData());
         assertEquals(1, resp.getData().size());
         assertEquals("v2", resp.getData().get(0).getId());
 
-        // 验证：过期但仍 ACTIVE 的券被标记 EXPIRED 并保存
-        ArgumentCaptor<UserVoucher> captor = ArgumentCaptor.forClass(UserVoucher.class);
-        verify(repo, atLeastOnce()).save(captor.capture());
-
-        boolean hasExpiredSaved = captor.getAllValues().stream()
-                .anyMatch(uv -> "v1".equals(uv.getId()) && VoucherStatus.EXPIRED.equals(uv.getStatus()) && uv.getUpdatedAt() != null);
-
-        assertTrue(hasExpiredSaved, "Expected expired ACTIVE voucher to be saved as EXPIRED with updatedAt");
+        // 同一个 now：过期标记和 my 查询的边界一致
+        ArgumentCaptor<LocalDateTime> expireAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        ArgumentCaptor<LocalDateTime> queryAt = ArgumentCaptor.forClass(LocalDateTime.class);
+        var inOrder = inOrder(repo);
+        inOrder.verify(repo).expireActiveBefore(eq(userId), expireAt.capture());
+        inOrder.verify(repo).findByUserIdAndStatusAndExpiresAtAfter(eq(userId), eq(VoucherStatus.ACTIVE), queryAt.capture());
+        assertEquals(expireAt.getValue(), queryAt.getValue());
+
+        // 不再逐张读改写
+        verify(repo, never()).findByUserIdAndStatus(userId, VoucherStatus.ACTIVE);
+        verify(repo, never()).save(any(UserVoucher.class));
     }
 
     // ---------- getUserVoucherById ----------
@@ -0,0 +1,41 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.interfacemethods.BadgeService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BadgePurchaseCounterReconcileSchedulerTest {
+
+    @Mock
+    private BadgeService badgeService;
+
+    @Mock
+    private SchedulerLockService lockService;
+
+    @InjectMocks
+    private BadgePurchaseCounterReconcileScheduler scheduler;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reconcilePurchaseCounters_runsUnderLease() {
+        scheduler.reconcilePurchaseCounters();
+
+        ArgumentCaptor<Consumer<SchedulerLockService.Lease>> task = ArgumentCaptor.forClass(Consumer.class);
+        verify(lockService).runExclusively(eq("badge-purchase-counter-reconcile"), any(), any(), task.capture());
+        verifyNoInteractions(badgeService);
+
+        task.getValue().accept(null);
+        verify(badgeService).reconcileBadgePurchaseCounters();
+    }
+}
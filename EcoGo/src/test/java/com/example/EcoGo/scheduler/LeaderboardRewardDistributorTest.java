@@ -0,0 +1,231 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.dto.LeaderboardEntry;
+import com.example.EcoGo.model.LeaderboardReward;
+import com.example.EcoGo.model.User;
+import com.example.EcoGo.model.UserPointsLog;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import org.bson.Document;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LeaderboardRewardDistributorTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations rewardOps;
+
+    @Mock
+    private BulkOperations userOps;
+
+    @Mock
+    private BulkOperations logOps;
+
+    @InjectMocks
+    private LeaderboardRewardDistributor distributor;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LeaderboardReward.class))
+                .thenReturn(rewardOps);
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, User.class)).thenReturn(userOps);
+        lenient().when(rewardOps.insert(anyList())).thenReturn(rewardOps);
+        lenient().when(userOps.updateOne(any(Query.class), any(Update.class))).thenReturn(userOps);
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserPointsLog.class))
+                .thenReturn(logOps);
+        lenient().when(logOps.insert(anyList())).thenReturn(logOps);
+    }
+
+    private static LeaderboardEntry entry(String userId, double carbon) {
+        LeaderboardEntry e = new LeaderboardEntry();
+        e.setUserId(userId);
+        e.setTotalCarbonSaved(carbon);
+        return e;
+    }
+
+    private static User user(String userId, long currentPoints) {
+        User u = new User();
+        u.setUserid(userId);
+        u.setCurrentPoints(currentPoints);
+        return u;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<UserPointsLog> insertedLogs() {
+        ArgumentCaptor<List<UserPointsLog>> logs = ArgumentCaptor.forClass(List.class);
+        verify(logOps).insert(logs.capture());
+        return logs.getValue();
+    }
+
+    @Test
+    void distribute_linearTiers_singleBulkPerCollection() {
+        when(mongoTemplate.find(any(Query.class), eq(LeaderboardReward.class))).thenReturn(List.of());
+        when(mongoTemplate.find(any(Query.class), eq(User.class)))
+                .thenReturn(List.of(user("u1", 50L), user("u2", 0L)));
+
+        int rewarded = distributor.distribute(List.of(entry("u1", 3.0), entry("u2", 2.0)),
+                "DAILY", "2026-02-07", RewardTier.linear(10, 10L));
+
+        assertEquals(2, rewarded);
+        verify(rewardOps, times(1)).execute();
+        verify(userOps, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(userOps, times(1)).execute();
+
+        List<UserPointsLog> saved = insertedLogs();
+        assertEquals(100L, saved.get(0).getPoints());
+        assertEquals(150L, saved.get(0).getBalanceAfter());
+        assertEquals(90L, saved.get(1).getPoints());
+        assertEquals("leaderboard", saved.get(1).getSource());
+    }
+
+    @Test
+    void distribute_claimsPending_creditsOncePerPeriod_thenMarksPaid() {
+        when(mongoTemplate.find(any(Query.class), eq(LeaderboardReward.class))).thenReturn(List.of());
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(List.of(user("u1", 0L)));
+
+        distributor.distribute(List.of(entry("u1", 3.0)), "DAILY", "2026-02-07", RewardTier.linear(10, 10L));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<LeaderboardReward>> claims = ArgumentCaptor.forClass(List.class);
+        verify(rewardOps).insert(claims.capture());
+        assertEquals(LeaderboardReward.Status.PENDING, claims.getValue().get(0).getStatus());
+
+        ArgumentCaptor<Query> credit = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> inc = ArgumentCaptor.forClass(Update.class);
+        verify(userOps).updateOne(credit.capture(), inc.capture());
+        assertEquals(new Document("$ne", "DAILY:2026-02-07"), credit.getValue().getQueryObject().get("rewardedPeriods"));
+        assertEquals("DAILY:2026-02-07",
+                ((Document) inc.getValue().getUpdateObject().get("$addToSet")).get("rewardedPeriods"));
+        assertEquals("leaderboard:DAILY:2026-02-07:u1", insertedLogs().get(0).getId());
+
+        ArgumentCaptor<Update> paid = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(any(Query.class), paid.capture(), eq(LeaderboardReward.class));
+        assertEquals(LeaderboardReward.Status.PAID, ((Document) paid.getValue().getUpdateObject().get("$set")).get("status"));
+        verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq(User.class));
+    }
+
+    @Test
+    void distribute_pendingClaimFromEarlierRun_isFinishedNotClaimedAgain() {
+        LeaderboardReward pending = new LeaderboardReward();
+        pending.setUserId("u1");
+        pending.setRank(1);
+        pending.setPointsAwarded(100L);
+        pending.setStatus(LeaderboardReward.Status.PENDING);
+        when(mongoTemplate.find(any(Query.class), eq(LeaderboardReward.class))).thenReturn(List.of(pending));
+        // The earlier run already credited u1 before it stopped
+        User u1 = user("u1", 150L);
+        u1.setRewardedPeriods(List.of("DAILY:2026-02-07"));
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(List.of(u1));
+        BulkWriteError dup = new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0);
+        when(logOps.execute()).thenThrow(new BulkOperationException("dup", new MongoBulkWriteException(
+                BulkWriteResult.unacknowledged(), List.of(dup), null, new ServerAddress(), java.util.Set.of())));
+
+        int rewarded = distributor.distribute(List.of(entry("u1", 3.0)), "DAILY", "2026-02-07",
+                RewardTier.linear(10, 10L));
+
+        assertEquals(1, rewarded);
+        verify(rewardOps, never()).execute();
+        // The guarded $inc is re-sent and matches nothing; the balance already includes the reward
+        verify(userOps).updateOne(any(Query.class), any(Update.class));
+        assertEquals(150L, insertedLogs().get(0).getBalanceAfter());
+        verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq(LeaderboardReward.class));
+    }
+
+    @Test
+    void finishPending_paysPendingClaimsOfEveryPeriod() {
+        LeaderboardReward day1 = new LeaderboardReward();
+        day1.setUserId("u1");
+        day1.setPeriodKey("2026-02-06");
+        day1.setPointsAwarded(100L);
+        day1.setStatus(LeaderboardReward.Status.PENDING);
+        LeaderboardReward day2 = new LeaderboardReward();
+        day2.setUserId("u1");
+        day2.setPeriodKey("2026-02-07");
+        day2.setPointsAwarded(90L);
+        day2.setStatus(LeaderboardReward.Status.PENDING);
+        when(mongoTemplate.find(any(Query.class), eq(LeaderboardReward.class))).thenReturn(List.of(day1, day2));
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(List.of(user("u1", 0L)));
+
+        assertEquals(2, distributor.finishPending("DAILY"));
+
+        verify(userOps, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(mongoTemplate, times(2)).updateMulti(any(Query.class), any(Update.class), eq(LeaderboardReward.class));
+    }
+
+    @Test
+    void distribute_skipsAlreadyRewardedAndMissingUsers() {
+        LeaderboardReward existing = new LeaderboardReward();
+        existing.setUserId("u1");
+        when(mongoTemplate.find(any(Query.class), eq(LeaderboardReward.class))).thenReturn(List.of(existing));
+        when(mongoTemplate.find(any(Query.class), eq(User.class))).thenReturn(List.of(user("u2", 0L)));
+
+        int rewarded = distributor.distribute(List.of(entry("u1", 3.0), entry("u2", 2.0), entry("ghost", 1.0)),
+                "DAILY", "2026-02-07", RewardTier.linear(10, 10L));
+
+        assertEquals(1, rewarded);
+        verify(userOps, times(1)).updateOne(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void distribute_duplicateKeyOnInsert_notCredited() {
+        when(mongoTemplate.find(any(Query.class), eq(LeaderboardReward.class))).thenReturn(List.of());
+        when(mongoTemplate.find(any(Query.class), eq(User.class)))
+                .thenReturn(List.of(user("u1", 0L), user("u2", 0L)));
+        BulkWriteError dup = new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0);
+        MongoBulkWriteException cause = new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+                List.of(dup), null, new ServerAddress(), java.util.Set.of());
+        when(rewardOps.execute()).thenThrow(new BulkOperationException("dup", cause));
+
+        int rewarded = distributor.distribute(List.of(entry("u1", 3.0), entry("u2", 2.0)),
+                "MONTHLY", "2026-02", RewardTier.linear(10, 100L));
+
+        assertEquals(1, rewarded);
+        verify(userOps, times(1)).updateOne(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void distribute_ranksOutsideTiers_ignored() {
+        List<RewardTier> tiers = List.of(new RewardTier(1, 1, 500L, 0L), new RewardTier(3, 1000, 5L, 0L));
+        when(mongoTemplate.find(any(Query.class), eq(LeaderboardReward.class))).thenReturn(List.of());
+        when(mongoTemplate.find(any(Query.class), eq(User.class)))
+                .thenReturn(List.of(user("u1", 0L), user("u3", 0L)));
+
+        int rewarded = distributor.distribute(List.of(entry("u1", 3.0), entry("u2", 2.0), entry("u3", 1.0)),
+                "DAILY", "2026-02-07", tiers);
+
+        assertEquals(2, rewarded);
+        assertEquals(1000, RewardTier.maxRank(tiers));
+    }
+
+    @Test
+    void distribute_emptyLeaderboard_noWrites() {
+        assertEquals(0, distributor.distribute(List.of(), "DAILY", "2026-02-07", RewardTier.linear(10, 10L)));
+        verifyNoInteractions(mongoTemplate);
+    }
+}
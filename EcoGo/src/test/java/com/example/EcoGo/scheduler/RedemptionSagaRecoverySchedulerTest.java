@@ -0,0 +1,44 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.service.OrderService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RedemptionSagaRecoverySchedulerTest {
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private SchedulerLockService lockService;
+
+    @InjectMocks
+    private RedemptionSagaRecoveryScheduler scheduler;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void recoverStuckRedemptions_runsUnderLease() {
+        scheduler.recoverStuckRedemptions();
+
+        ArgumentCaptor<Consumer<SchedulerLockService.Lease>> task = ArgumentCaptor.forClass(Consumer.class);
+        verify(lockService).runExclusively(eq("redemption-saga-recovery"), any(), any(), task.capture());
+        verifyNoInteractions(orderService);
+
+        task.getValue().accept(null);
+        verify(orderService).recoverStuckRedemptions(RedemptionSagaRecoveryScheduler.STUCK_AFTER,
+                RedemptionSagaRecoveryScheduler.BATCH_SIZE);
+        verify(orderService).clearSettledStockMarkers(RedemptionSagaRecoveryScheduler.STUCK_AFTER,
+                RedemptionSagaRecoveryScheduler.BATCH_SIZE);
+    }
+}
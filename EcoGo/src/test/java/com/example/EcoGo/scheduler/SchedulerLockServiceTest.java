@@ -0,0 +1,99 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.model.SchedulerLock;
+import com.mongodb.client.result.UpdateResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SchedulerLockServiceTest {
+
+    private static final Duration AT_MOST = Duration.ofMinutes(10);
+    private static final Duration AT_LEAST = Duration.ofMinutes(1);
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private SchedulerLockService lockService;
+
+    @AfterEach
+    void tearDown() {
+        lockService.shutdown();
+    }
+
+    private static SchedulerLock lock(long token) {
+        SchedulerLock lock = new SchedulerLock();
+        lock.setName("job");
+        lock.setFencingToken(token);
+        return lock;
+    }
+
+    @Test
+    void runExclusively_acquired_runsTaskWithTokenAndReleases() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(SchedulerLock.class))).thenReturn(lock(7L));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        AtomicLong seenToken = new AtomicLong();
+        boolean ran = lockService.runExclusively("job", AT_MOST, AT_LEAST,
+                lease -> seenToken.set(lease.getToken()));
+
+        assertTrue(ran);
+        assertEquals(7L, seenToken.get());
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class));
+    }
+
+    @Test
+    void runExclusively_heldElsewhere_skipsTask() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(SchedulerLock.class))).thenThrow(new DuplicateKeyException("E11000"));
+
+        boolean ran = lockService.runExclusively("job", AT_MOST, AT_LEAST, lease -> fail("should not run"));
+
+        assertFalse(ran);
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class));
+    }
+
+    @Test
+    void runExclusively_taskThrows_stillReleases() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(SchedulerLock.class))).thenReturn(lock(1L));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        assertThrows(IllegalStateException.class, () -> lockService.runExclusively("job", AT_MOST, AT_LEAST,
+                lease -> { throw new IllegalStateException("boom"); }));
+
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class));
+    }
+
+    @Test
+    void heartbeat_takenOver_marksLeaseLost() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(SchedulerLock.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        SchedulerLockService.Lease lease = new SchedulerLockService.Lease("job", 3L, java.time.LocalDateTime.now());
+
+        lockService.heartbeat(lease, AT_MOST);
+
+        assertFalse(lease.isHeld());
+    }
+}
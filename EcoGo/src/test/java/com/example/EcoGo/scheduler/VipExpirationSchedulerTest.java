@@ -0,0 +1,55 @@
+package com.example.EcoGo.scheduler;
+
+import com.example.EcoGo.model.User;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class VipExpirationSchedulerTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private SchedulerLockService lockService;
+
+    @InjectMocks
+    private VipExpirationScheduler scheduler;
+
+    @Test
+    void deactivateExpiredVips_singleUpdateMany() {
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(3, 3L, null));
+
+        assertEquals(3L, scheduler.deactivateExpiredVips());
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(1)).updateMulti(query.capture(), update.capture(), eq(User.class));
+        assertEquals(true, query.getValue().getQueryObject().get("vip.isActive"));
+        assertTrue(query.getValue().getQueryObject().containsKey("vip.expiryDate"));
+        assertEquals(false, ((Document) update.getValue().getUpdateObject().get("$set")).get("vip.isActive"));
+    }
+
+    @Test
+    void checkVipExpiration_runsUnderLease() {
+        scheduler.checkVipExpiration();
+
+        verify(lockService).runExclusively(eq("vip-expiration"), any(), any(), any());
+        verifyNoInteractions(mongoTemplate);
+    }
+}
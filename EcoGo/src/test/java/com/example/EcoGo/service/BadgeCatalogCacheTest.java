@@ -0,0 +1,72 @@
+package com.example.EcoGo.service;
+
+import com.example.EcoGo.model.Badge;
+import com.example.EcoGo.repository.BadgeRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BadgeCatalogCacheTest {
+
+    @Mock
+    private BadgeRepository badgeRepository;
+
+    @InjectMocks
+    private BadgeCatalogCache cache;
+
+    private static Badge badge(String id, Double threshold) {
+        Badge badge = new Badge();
+        badge.setBadgeId(id);
+        badge.setCarbonThreshold(threshold);
+        return badge;
+    }
+
+    private static List<String> ids(List<Badge> badges) {
+        return badges.stream().map(Badge::getBadgeId).toList();
+    }
+
+    @Test
+    void snapshot_sortedByThreshold_binarySearchRanges() {
+        BadgeCatalogCache.Snapshot snapshot = BadgeCatalogCache.Snapshot.of(List.of(
+                badge("c100", 100.0), badge("c10", 10.0), badge("none", null), badge("c50", 50.0)));
+
+        assertEquals(3, snapshot.size());
+        assertEquals(List.of("c10", "c50"), ids(snapshot.thresholdsUpTo(50.0)));
+        assertEquals(List.of("c50", "c100"), ids(snapshot.thresholdsBetween(10.0, 100.0)));
+        assertTrue(snapshot.thresholdsBetween(50.0, 99.9).isEmpty());
+        assertTrue(snapshot.thresholdsBetween(60.0, 40.0).isEmpty());
+        assertTrue(snapshot.thresholdsUpTo(5.0).isEmpty());
+    }
+
+    @Test
+    void snapshot_versionStableForSameCatalog() {
+        long v1 = BadgeCatalogCache.Snapshot.of(List.of(badge("a", 1.0), badge("b", 2.0))).getVersion();
+        long v2 = BadgeCatalogCache.Snapshot.of(List.of(badge("b", 2.0), badge("a", 1.0))).getVersion();
+        long v3 = BadgeCatalogCache.Snapshot.of(List.of(badge("a", 1.0), badge("b", 3.0))).getVersion();
+
+        assertEquals(v1, v2);
+        assertNotEquals(v1, v3);
+    }
+
+    @Test
+    void snapshot_loadedOnceUntilInvalidated() {
+        when(badgeRepository.findByIsActiveAndAcquisitionMethod(true, "achievement"))
+                .thenReturn(List.of(badge("a", 1.0)));
+
+        cache.snapshot();
+        cache.snapshot();
+        verify(badgeRepository, times(1)).findByIsActiveAndAcquisitionMethod(true, "achievement");
+
+        cache.invalidate();
+        cache.snapshot();
+        verify(badgeRepository, times(2)).findByIsActiveAndAcquisitionMethod(true, "achievement");
+    }
+}
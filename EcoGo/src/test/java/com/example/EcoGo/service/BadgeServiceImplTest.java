@@ -2,20 +2,30 @@ package com.example.EcoGo.service;
 
 import com.example.EcoGo.dto.BadgePurchaseStatDto;
 import com.example.EcoGo.dto.PointsDto;
-import com.example.EcoGo.interfacemethods.BadgeService;
 import com.example.EcoGo.interfacemethods.PointsService;
 import com.example.EcoGo.model.Badge;
 import com.example.EcoGo.model.User;
 import com.example.EcoGo.model.UserBadge;
+import com.example.EcoGo.model.UserBadgeVersion;
+import com.example.EcoGo.model.BadgePurchaseCounter;
+import com.example.EcoGo.model.DataMigration;
+import com.example.EcoGo.repository.BadgePurchaseCounterRepository;
 import com.example.EcoGo.repository.BadgeRepository;
 import com.example.EcoGo.repository.UserBadgeRepository;
 import com.example.EcoGo.repository.UserRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.util.*;
 
@@ -35,7 +45,11 @@ class BadgeServiceImplTest {
     @Mock
     private PointsService pointsService;
     @Mock
-    private BadgeService self;
+    private BadgeCatalogCache badgeCatalogCache;
+    @Mock
+    private MongoTemplate mongoTemplate;
+    @Mock
+    private BadgePurchaseCounterRepository badgePurchaseCounterRepository;
 
     @InjectMocks
     private BadgeServiceImpl badgeService;
@@ -86,6 +100,7 @@ class BadgeServiceImplTest {
         assertEquals("badge1", result.getBadgeId());
         assertFalse(result.isDisplay());
         verify(pointsService).settle(eq("user1"), any(PointsDto.SettleResult.class));
+        verify(mongoTemplate).upsert(any(Query.class), any(Update.class), eq(BadgePurchaseCounter.class));
     }
 
     @Test
@@ -156,49 +171,71 @@ class BadgeServiceImplTest {
 
     @Test
     void toggleBadgeDisplay_equipWithMutualExclusion() {
-        // Set up: user already has another RANK badge displayed
-        UserBadge conflictBadge = new UserBadge();
-        conflictBadge.setUserId("user1");
-        conflictBadge.setBadgeId("badge2");
-        conflictBadge.setDisplay(true);
+        // Set up: the owned badge carries its denormalized subcategory
+        testUserBadge.setSubcategory("eco");
+
+        when(userBadgeRepository.findByUserIdAndBadgeId("user1", "badge1"))
+                .thenReturn(Optional.of(testUserBadge));
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UserBadge.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(userBadgeRepository.save(any(UserBadge.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        UserBadge result = badgeService.toggleBadgeDisplay("user1", "badge1", true);
 
-        Badge anotherRankBadge = new Badge();
-        anotherRankBadge.setBadgeId("badge2");
-        anotherRankBadge.setCategory("RANK");
+        assertTrue(result.isDisplay());
+        // Conflicting badges are unequipped with one updateMany scoped to the subcategory
+        ArgumentCaptor<Query> conflicts = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(conflicts.capture(), any(Update.class), eq(UserBadge.class));
+        Document filter = conflicts.getValue().getQueryObject();
+        assertEquals("user1", filter.get("user_id"));
+        assertEquals("eco", filter.get("subcategory"));
+        assertEquals(true, filter.get("is_display"));
+        assertEquals(new Document("$ne", "badge1"), filter.get("badge_id"));
+        // Only the target badge is saved individually; no badge definition lookup needed
+        verify(userBadgeRepository, times(1)).save(any(UserBadge.class));
+        verify(badgeRepository, never()).findByBadgeId(anyString());
+    }
 
+    @Test
+    void toggleBadgeDisplay_legacyUserBadgeWithoutSubcategory_fallsBackToDefinition() {
         when(userBadgeRepository.findByUserIdAndBadgeId("user1", "badge1"))
                 .thenReturn(Optional.of(testUserBadge));
         when(badgeRepository.findByBadgeId("badge1")).thenReturn(Optional.of(testBadge));
-        when(badgeRepository.findByCategory("RANK")).thenReturn(List.of(testBadge, anotherRankBadge));
-        when(userBadgeRepository.findByUserIdAndIsDisplayTrueAndBadgeIdIn(eq("user1"), anyList()))
-                .thenReturn(List.of(conflictBadge));
         when(userBadgeRepository.save(any(UserBadge.class))).thenAnswer(inv -> inv.getArgument(0));
 
         UserBadge result = badgeService.toggleBadgeDisplay("user1", "badge1", true);
 
         assertTrue(result.isDisplay());
-        // Verify the conflicting badge was unequipped
-        assertFalse(conflictBadge.isDisplay());
-        // save called for: conflict badge unequip + target badge equip = 2 times
-        verify(userBadgeRepository, times(2)).save(any(UserBadge.class));
+        assertEquals("eco", result.getSubcategory());
+        verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq(UserBadge.class));
     }
 
     @Test
     void toggleBadgeDisplay_equipNoCategoryConflict() {
-        testBadge.setCategory("SPECIAL");
+        testBadge.setSubCategory(null);
 
         when(userBadgeRepository.findByUserIdAndBadgeId("user1", "badge1"))
                 .thenReturn(Optional.of(testUserBadge));
         when(badgeRepository.findByBadgeId("badge1")).thenReturn(Optional.of(testBadge));
-        when(badgeRepository.findByCategory("SPECIAL")).thenReturn(List.of(testBadge));
-        when(userBadgeRepository.findByUserIdAndIsDisplayTrueAndBadgeIdIn(eq("user1"), anyList()))
-                .thenReturn(List.of());
         when(userBadgeRepository.save(any(UserBadge.class))).thenAnswer(inv -> inv.getArgument(0));
 
         UserBadge result = badgeService.toggleBadgeDisplay("user1", "badge1", true);
 
         assertTrue(result.isDisplay());
         verify(userBadgeRepository, times(1)).save(any(UserBadge.class));
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(UserBadge.class));
+    }
+
+    @Test
+    void backfillUserBadgeSubcategories_onePerBadge() {
+        Badge noSub = new Badge();
+        noSub.setBadgeId("badge2");
+        when(badgeRepository.findAll()).thenReturn(List.of(testBadge, noSub));
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UserBadge.class)))
+                .thenReturn(UpdateResult.acknowledged(3, 3L, null));
+
+        assertEquals(3L, badgeService.backfillUserBadgeSubcategories());
+        verify(mongoTemplate, times(1)).updateMulti(any(Query.class), any(Update.class), eq(UserBadge.class));
     }
 
     @Test
@@ -247,17 +284,32 @@ class BadgeServiceImplTest {
 
     @Test
     void getMyBadges_success() {
-        when(self.checkAndUnlockCarbonBadges("user1")).thenReturn(List.of());
         when(userBadgeRepository.findByUserId("user1")).thenReturn(List.of(testUserBadge));
 
         List<UserBadge> result = badgeService.getMyBadges("user1");
 
         assertEquals(1, result.size());
-        assertEquals("badge1", result.get(0).getBadgeId());
-        verify(self).checkAndUnlockCarbonBadges("user1");
+        // 纯读取：不做解锁检查，也不写入
+        verifyNoInteractions(userRepository, badgeCatalogCache, mongoTemplate);
+    }
+
+    @Test
+    void getBadgeVersion_fromOwnDocument() {
+        UserBadgeVersion version = new UserBadgeVersion();
+        version.setUserId("user1");
+        version.setVersion(42L);
+        when(mongoTemplate.findById("user1", UserBadgeVersion.class)).thenReturn(version);
+
+        assertEquals(42L, badgeService.getBadgeVersion("user1"));
+        verify(mongoTemplate, never()).findOne(any(Query.class), eq(User.class));
     }
 
-    // ========== createBadge ==========
+    @Test
+    void getBadgeVersion_neverChanged_zero() {
+        when(mongoTemplate.findById("ghost", UserBadgeVersion.class)).thenReturn(null);
+
+        assertEquals(0L, badgeService.getBadgeVersion("ghost"));
+    }
 
     @Test
     void createBadge_success() {
@@ -287,6 +339,21 @@ class BadgeServiceImplTest {
         assertEquals(200, result.getPurchaseCost());
     }
 
+    @Test
+    void updateBadge_subCategoryChanged_syncsUserBadges() {
+        Badge updatedBadge = new Badge();
+        updatedBadge.setSubCategory("head");
+
+        when(badgeRepository.findByBadgeId("badge1")).thenReturn(Optional.of(testBadge));
+        when(badgeRepository.save(any(Badge.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(UserBadge.class)))
+                .thenReturn(UpdateResult.acknowledged(2, 2L, null));
+
+        badgeService.updateBadge("badge1", updatedBadge);
+
+        verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq(UserBadge.class));
+    }
+
     @Test
     void updateBadge_partialUpdate() {
         Badge updatedBadge = new Badge();
@@ -401,73 +468,110 @@ class BadgeServiceImplTest {
 
     @Test
     void getBadgePurchaseStats_success() {
-        BadgePurchaseStatDto stat = new BadgePurchaseStatDto();
-        stat.setBadgeId("badge1");
-        stat.setPurchaseCount(10);
-        when(userBadgeRepository.countPurchasesByBadge()).thenReturn(List.of(stat));
+        when(badgePurchaseCounterRepository.findAll()).thenReturn(List.of(new BadgePurchaseCounter("badge1", 10L)));
 
         List<BadgePurchaseStatDto> result = badgeService.getBadgePurchaseStats();
 
         assertEquals(1, result.size());
         assertEquals("badge1", result.get(0).getBadgeId());
         assertEquals(10, result.get(0).getPurchaseCount());
+        verify(userBadgeRepository, never()).countPurchasesByBadge();
+    }
+
+    @Test
+    void backfillBadgePurchaseCounters_noMarker_seedsWithMaxAndWritesMarker() {
+        BadgePurchaseStatDto stat = new BadgePurchaseStatDto();
+        stat.setBadgeId("badge1");
+        stat.setPurchaseCount(10);
+        BulkOperations bulkOps = mock(BulkOperations.class);
+        when(mongoTemplate.exists(any(Query.class), eq(DataMigration.class))).thenReturn(false);
+        when(userBadgeRepository.countPurchasesByBadge()).thenReturn(List.of(stat));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BadgePurchaseCounter.class)).thenReturn(bulkOps);
+
+        assertEquals(1L, badgeService.backfillBadgePurchaseCounters());
+
+        ArgumentCaptor<Update> seed = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps).upsert(any(Query.class), seed.capture());
+        assertEquals(10L, seed.getValue().getUpdateObject().get("$max", org.bson.Document.class).get("purchase_count"));
+        verify(bulkOps).execute();
+        verify(mongoTemplate).upsert(any(Query.class), any(Update.class), eq(DataMigration.class));
+        // 不再以计数器是否为空作判断：滚动部署时新节点可能已经写入了部分计数器
+        verify(badgePurchaseCounterRepository, never()).count();
+    }
+
+    @Test
+    void backfillBadgePurchaseCounters_markerPresent_skipsAggregation() {
+        when(mongoTemplate.exists(any(Query.class), eq(DataMigration.class))).thenReturn(true);
+
+        assertEquals(0L, badgeService.backfillBadgePurchaseCounters());
+        verify(userBadgeRepository, never()).countPurchasesByBadge();
     }
 
     // ========== checkAndUnlockCarbonBadges ==========
 
+    private static Badge achievement(String badgeId, double threshold) {
+        Badge badge = new Badge();
+        badge.setBadgeId(badgeId);
+        badge.setCategory("ACHIEVEMENT");
+        badge.setSubCategory("carbon");
+        badge.setAcquisitionMethod("achievement");
+        badge.setCarbonThreshold(threshold);
+        return badge;
+    }
+
     @Test
     void checkAndUnlockCarbonBadges_unlocksNewBadge() {
-        Badge achievementBadge = new Badge();
-        achievementBadge.setBadgeId("carbon_50");
-        achievementBadge.setCategory("ACHIEVEMENT");
-        achievementBadge.setSubCategory("carbon");
-        achievementBadge.setAcquisitionMethod("achievement");
-        achievementBadge.setCarbonThreshold(50.0);
+        Badge achievementBadge = achievement("carbon_50", 50.0);
 
         when(userRepository.findByUserid("user1")).thenReturn(Optional.of(testUser)); // totalCarbon = 100.0
-        when(badgeRepository.findByIsActiveTrueAndAcquisitionMethodAndCarbonThresholdLessThanEqual("achievement", 100.0))
-                .thenReturn(List.of(achievementBadge));
-        when(userBadgeRepository.findByUserId("user1")).thenReturn(List.of()); // no existing badges
-        when(userBadgeRepository.save(any(UserBadge.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(badgeCatalogCache.snapshot())
+                .thenReturn(BadgeCatalogCache.Snapshot.of(List.of(achievementBadge, achievement("carbon_500", 500.0))));
+        when(userBadgeRepository.findByUserIdAndBadgeIdIn("user1", List.of("carbon_50"))).thenReturn(List.of());
+        when(userBadgeRepository.saveAll(anyList())).thenAnswer(inv -> inv.getArgument(0));
 
         List<UserBadge> result = badgeService.checkAndUnlockCarbonBadges("user1");
 
         assertEquals(1, result.size());
         assertEquals("carbon_50", result.get(0).getBadgeId());
         assertEquals("user1", result.get(0).getUserId());
+        assertEquals(100.0, testUser.getBadgeProgress().getCarbonWatermark());
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        // 背包版本号在自己的文档上 $inc，不写在用户文档里
+        ArgumentCaptor<Update> bump = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(any(Query.class), bump.capture(), eq(UserBadgeVersion.class));
+        assertEquals(1L, bump.getValue().getUpdateObject().get("$inc", org.bson.Document.class).get("version"));
     }
 
     @Test
     void checkAndUnlockCarbonBadges_alreadyOwned() {
-        Badge achievementBadge = new Badge();
-        achievementBadge.setBadgeId("carbon_50");
-        achievementBadge.setAcquisitionMethod("achievement");
-        achievementBadge.setCarbonThreshold(50.0);
+        Badge achievementBadge = achievement("carbon_50", 50.0);
 
         UserBadge existingBadge = new UserBadge();
         existingBadge.setUserId("user1");
         existingBadge.setBadgeId("carbon_50");
 
         when(userRepository.findByUserid("user1")).thenReturn(Optional.of(testUser));
-        when(badgeRepository.findByIsActiveTrueAndAcquisitionMethodAndCarbonThresholdLessThanEqual("achievement", 100.0))
-                .thenReturn(List.of(achievementBadge));
-        when(userBadgeRepository.findByUserId("user1")).thenReturn(List.of(existingBadge));
+        when(badgeCatalogCache.snapshot()).thenReturn(BadgeCatalogCache.Snapshot.of(List.of(achievementBadge)));
+        when(userBadgeRepository.findByUserIdAndBadgeIdIn("user1", List.of("carbon_50")))
+                .thenReturn(List.of(existingBadge));
 
         List<UserBadge> result = badgeService.checkAndUnlockCarbonBadges("user1");
 
         assertTrue(result.isEmpty());
         verify(userBadgeRepository, never()).save(any(UserBadge.class));
+        verify(userBadgeRepository, never()).saveAll(anyList());
     }
 
     @Test
     void checkAndUnlockCarbonBadges_noQualifiedBadges() {
         when(userRepository.findByUserid("user1")).thenReturn(Optional.of(testUser));
-        when(badgeRepository.findByIsActiveTrueAndAcquisitionMethodAndCarbonThresholdLessThanEqual("achievement", 100.0))
-                .thenReturn(List.of());
+        when(badgeCatalogCache.snapshot())
+                .thenReturn(BadgeCatalogCache.Snapshot.of(List.of(achievement("carbon_500", 500.0))));
 
         List<UserBadge> result = badgeService.checkAndUnlockCarbonBadges("user1");
 
         assertTrue(result.isEmpty());
+        verify(userBadgeRepository, never()).findByUserIdAndBadgeIdIn(anyString(), anyList());
     }
 
     @Test
@@ -478,4 +582,70 @@ class BadgeServiceImplTest {
                 () -> badgeService.checkAndUnlockCarbonBadges("nonexistent"));
         assertEquals("用户不存在", ex.getMessage());
     }
+
+    @Test
+    void checkAndUnlockCarbonBadges_validWatermarkNoNewThreshold_noDbAccess() {
+        BadgeCatalogCache.Snapshot catalog = BadgeCatalogCache.Snapshot.of(
+                List.of(achievement("carbon_50", 50.0), achievement("carbon_500", 500.0)));
+        User.BadgeProgress progress = new User.BadgeProgress();
+        progress.setCarbonWatermark(80.0);
+        progress.setCatalogVersion(catalog.getVersion());
+        testUser.setBadgeProgress(progress);
+        when(badgeCatalogCache.snapshot()).thenReturn(catalog);
+
+        List<UserBadge> result = badgeService.checkAndUnlockCarbonBadges(testUser);
+
+        assertTrue(result.isEmpty());
+        verifyNoInteractions(userBadgeRepository, mongoTemplate);
+    }
+
+    @Test
+    void checkAndUnlockCarbonBadges_validWatermark_onlyChecksNewlyCrossed() {
+        BadgeCatalogCache.Snapshot catalog = BadgeCatalogCache.Snapshot.of(
+                List.of(achievement("carbon_10", 10.0), achievement("carbon_90", 90.0)));
+        User.BadgeProgress progress = new User.BadgeProgress();
+        progress.setCarbonWatermark(80.0);
+        progress.setCatalogVersion(catalog.getVersion());
+        testUser.setBadgeProgress(progress);
+        when(badgeCatalogCache.snapshot()).thenReturn(catalog);
+        when(userBadgeRepository.findByUserIdAndBadgeIdIn("user1", List.of("carbon_90"))).thenReturn(List.of());
+        when(userBadgeRepository.saveAll(anyList())).thenAnswer(inv -> inv.getArgument(0));
+
+        List<UserBadge> result = badgeService.checkAndUnlockCarbonBadges(testUser);
+
+        assertEquals(1, result.size());
+        assertEquals("carbon_90", result.get(0).getBadgeId());
+    }
+
+    @Test
+    void checkAndUnlockCarbonBadges_catalogChanged_fullCheck() {
+        BadgeCatalogCache.Snapshot catalog = BadgeCatalogCache.Snapshot.of(
+                List.of(achievement("carbon_10", 10.0), achievement("carbon_90", 90.0)));
+        User.BadgeProgress progress = new User.BadgeProgress();
+        progress.setCarbonWatermark(100.0);
+        progress.setCatalogVersion(catalog.getVersion() + 1);
+        testUser.setBadgeProgress(progress);
+        when(badgeCatalogCache.snapshot()).thenReturn(catalog);
+        when(userBadgeRepository.findByUserIdAndBadgeIdIn("user1", List.of("carbon_10", "carbon_90")))
+                .thenReturn(List.of());
+        when(userBadgeRepository.saveAll(anyList())).thenAnswer(inv -> inv.getArgument(0));
+        BulkOperations counterOps = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BadgePurchaseCounter.class))
+                .thenReturn(counterOps);
+
+        List<UserBadge> result = badgeService.checkAndUnlockCarbonBadges(testUser);
+
+        assertEquals(2, result.size());
+        verify(counterOps, times(2)).upsert(any(Query.class), any(Update.class));
+        assertEquals(catalog.getVersion(), testUser.getBadgeProgress().getCatalogVersion());
+    }
+
+    @Test
+    void createBadge_invalidatesCatalog() {
+        when(badgeRepository.save(testBadge)).thenReturn(testBadge);
+
+        badgeService.createBadge(testBadge);
+
+        verify(badgeCatalogCache).invalidate();
+    }
 }
@@ -0,0 +1,157 @@
+package com.example.EcoGo.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private static final CircuitBreaker.Config CONFIG = new CircuitBreaker.Config(
+            10, 4, 0.5, Duration.ofSeconds(5), Duration.ofMillis(100), Duration.ofSeconds(2));
+
+    private long now;
+    private final List<String> outcomes = new ArrayList<>();
+    private CircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        now = TimeUnit.HOURS.toNanos(1);
+        breaker = new CircuitBreaker("test", CONFIG, () -> now, outcomes::add);
+    }
+
+    private void advance(Duration d) {
+        now += d.toNanos();
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+
+    private void succeed(int times, Duration latency) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onSuccess(latency.toNanos());
+        }
+    }
+
+    // ---------- opening ----------
+    @Test
+    void staysClosedBelowMinCalls() {
+        fail(3);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void opensWhenFailureRateReached() {
+        succeed(2, Duration.ofMillis(50));
+        fail(2);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+        assertEquals("rejected", outcomes.get(outcomes.size() - 1));
+    }
+
+    @Test
+    void staysClosedBelowFailureRate() {
+        succeed(5, Duration.ofMillis(50));
+        fail(2);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void oldFailuresLeaveTheWindow() {
+        fail(3);
+        advance(Duration.ofSeconds(11));
+        fail(1);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    // ---------- half-open ----------
+    @Test
+    void allowsSingleProbeAfterOpenPeriod() {
+        fail(4);
+        advance(Duration.ofSeconds(4));
+        assertFalse(breaker.tryAcquire());
+
+        advance(Duration.ofSeconds(1));
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void probeSuccessCloses() {
+        fail(4);
+        advance(Duration.ofSeconds(5));
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        // Failures from before the outage no longer count
+        fail(1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void probeFailureReopens() {
+        fail(4);
+        advance(Duration.ofSeconds(5));
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        advance(Duration.ofSeconds(4));
+        assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    void ignoredProbeFreesTheSlot() {
+        fail(4);
+        advance(Duration.ofSeconds(5));
+        assertTrue(breaker.tryAcquire());
+
+        breaker.onIgnored();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    // ---------- adaptive timeout ----------
+    @Test
+    void timeoutIsMaxUntilEnoughSamples() {
+        succeed(10, Duration.ofMillis(200));
+
+        assertEquals(Duration.ofSeconds(2), breaker.timeout());
+    }
+
+    @Test
+    void timeoutFollowsTwiceP99() {
+        succeed(40, Duration.ofMillis(300));
+
+        assertEquals(Duration.ofMillis(600), breaker.timeout());
+    }
+
+    @Test
+    void timeoutIsClamped() {
+        succeed(40, Duration.ofMillis(10));
+        assertEquals(Duration.ofMillis(100), breaker.timeout());
+
+        succeed(128, Duration.ofSeconds(5));
+        assertEquals(Duration.ofSeconds(2), breaker.timeout());
+    }
+}
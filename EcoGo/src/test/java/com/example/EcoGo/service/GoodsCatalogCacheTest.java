@@ -0,0 +1,126 @@
+package com.example.EcoGo.service;
+
+import com.example.EcoGo.model.Goods;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GoodsCatalogCacheTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private InventoryStore inventoryStore;
+
+    @InjectMocks
+    private GoodsCatalogCache cache;
+
+    private static Goods goods(String id, String category, String type, int vipLevelRequired,
+                               boolean isForRedemption, int stock, boolean isActive) {
+        Goods g = new Goods();
+        g.setId(id);
+        g.setCategory(category);
+        g.setType(type);
+        g.setVipLevelRequired(vipLevelRequired);
+        g.setIsForRedemption(isForRedemption);
+        g.setStock(stock);
+        g.setIsActive(isActive);
+        g.setUpdatedAt(new Date(1000L));
+        return g;
+    }
+
+    private static List<String> ids(List<Goods> goods) {
+        return goods.stream().map(Goods::getId).toList();
+    }
+
+    @Test
+    void snapshot_precomputesCategoryVipRedemptionAndCouponViews() {
+        GoodsCatalogCache.Snapshot snapshot = GoodsCatalogCache.Snapshot.of(List.of(
+                goods("g3", "Beverage", "normal", 0, false, 5, true),
+                goods("g1", "food", "normal", 1, true, 5, true),
+                goods("g2", "food", "normal", 0, true, 0, true),
+                goods("v1", "service", "voucher", 0, true, 5, true),
+                goods("v2", "service", "voucher", 1, true, 5, true),
+                goods("v3", "service", "voucher", 0, true, 5, false)));
+
+        assertTrue(snapshot.isComplete());
+        assertEquals(List.of("g1", "g2", "g3"), ids(snapshot.catalog(null, true)));
+        assertEquals(List.of("g2", "g3"), ids(snapshot.catalog(null, false)));
+        assertEquals(List.of("g1", "g2"), ids(snapshot.catalog("food", true)));
+        assertEquals(List.of("g3"), ids(snapshot.catalog("beverage", false)));
+        assertTrue(snapshot.catalog("merchandise", true).isEmpty());
+        // 兑换列表：可兑换且有库存（含 voucher）
+        assertEquals(List.of("g1", "v1", "v2", "v3"), ids(snapshot.redemption()));
+        assertEquals(List.of("v1", "v2"), ids(snapshot.coupons(true)));
+        assertEquals(List.of("v1"), ids(snapshot.coupons(false)));
+    }
+
+    @Test
+    void isVoucher_ignoresCaseAndSurroundingSpaces_sameRuleAsFallbackQuery() {
+        for (String type : List.of("voucher", "Voucher", " VOUCHER ")) {
+            assertTrue(GoodsCatalogCache.isVoucher(goods("v", "service", type, 0, true, 5, true)), type);
+            assertTrue(GoodsCatalogCache.VOUCHER_TYPE.matcher(type).find(), type);
+        }
+        for (String type : List.of("normal", "vouchers", "gift voucher")) {
+            assertFalse(GoodsCatalogCache.isVoucher(goods("g", "food", type, 0, true, 5, true)), type);
+        }
+        assertFalse(GoodsCatalogCache.isVoucher(goods("g", "food", null, 0, true, 5, true)));
+    }
+
+    @Test
+    void snapshot_versionTracksStockAndUpdates() {
+        long v1 = GoodsCatalogCache.Snapshot.of(List.of(goods("a", "food", "normal", 0, true, 5, true))).getVersion();
+        long v2 = GoodsCatalogCache.Snapshot.of(List.of(goods("a", "food", "normal", 0, true, 5, true))).getVersion();
+        long v3 = GoodsCatalogCache.Snapshot.of(List.of(goods("a", "food", "normal", 0, true, 4, true))).getVersion();
+
+        assertEquals(v1, v2);
+        assertNotEquals(v1, v3);
+        assertTrue(v1 >= 0);
+    }
+
+    @Test
+    void snapshot_loadedOnceUntilInvalidated_withStockFromInventory() {
+        when(mongoTemplate.find(any(Query.class), eq(Goods.class)))
+                .thenReturn(List.of(goods("a", "food", "normal", 0, true, 5, true)));
+        when(inventoryStore.allQuantities()).thenReturn(Map.of());
+
+        // goods 文档里不再有 stock，没有 inventory 记录视为 0，不进兑换列表
+        assertTrue(cache.snapshot().redemption().isEmpty());
+        cache.snapshot();
+        verify(mongoTemplate, times(1)).find(any(Query.class), eq(Goods.class));
+
+        cache.invalidate();
+        cache.snapshot();
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(Goods.class));
+    }
+
+    @Test
+    void snapshot_tooManyGoods_isIncomplete() {
+        List<Goods> many = new ArrayList<>();
+        for (int i = 0; i <= GoodsCatalogCache.MAX_ITEMS; i++) {
+            many.add(goods("g" + i, "food", "normal", 0, true, 1, true));
+        }
+        when(mongoTemplate.find(any(Query.class), eq(Goods.class))).thenReturn(many);
+
+        GoodsCatalogCache.Snapshot snapshot = cache.snapshot();
+
+        assertFalse(snapshot.isComplete());
+        assertEquals(-1L, snapshot.getVersion());
+    }
+}
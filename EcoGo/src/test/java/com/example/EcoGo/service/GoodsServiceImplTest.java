@@ -1,6 +1,7 @@
 package com.example.EcoGo.service;
 
 import com.example.EcoGo.dto.BatchStockUpdateRequest;
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
 import com.example.EcoGo.model.Goods;
@@ -12,10 +13,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
 
 import java.util.*;
 
@@ -29,6 +28,8 @@ class GoodsServiceImplTest {
     @Mock private GoodsRepository goodsRepository;
     @Mock private InventoryRepository inventoryRepository;
     @Mock private MongoTemplate mongoTemplate;
+    @Mock private GoodsCatalogCache catalogCache;
+    @Mock private InventoryStore inventoryStore;
 
     @InjectMocks private GoodsServiceImpl goodsService;
 
@@ -45,11 +46,12 @@ class GoodsServiceImplTest {
         });
 
         lenient().when(inventoryRepository.save(any(Inventory.class))).thenAnswer(inv -> inv.getArgument(0));
+        lenient().when(inventoryStore.admit(anyString())).thenReturn(true);
     }
 
     // ---------- createGoods ----------
     @Test
-    void createGoods_shouldSetDates_defaultStockAndVipReq_andSyncInventory_andSaveTwice() {
+    void createGoods_shouldSetDates_defaultStockAndVipReq_andWriteStockToInventoryOnly() {
         Goods input = new Goods();
         input.setName("Coffee");
         input.setStock(null);
@@ -64,9 +66,9 @@ class GoodsServiceImplTest {
         assertEquals(0, created.getStock());
         assertEquals(0, created.getVipLevelRequired());
 
-        // createGoods：goodsRepo.save 2 次（先存 goods，再同步库存后再存 goods）
-        verify(goodsRepository, times(2)).save(any(Goods.class));
-        verify(inventoryRepository, times(1)).save(any(Inventory.class));
+        // createGoods：goods 只存一次，库存只写 inventory
+        verify(goodsRepository, times(1)).save(any(Goods.class));
+        verify(inventoryStore, times(1)).setAll(Map.of("g1", 0));
     }
 
     @Test
@@ -77,7 +79,7 @@ class GoodsServiceImplTest {
         BusinessException ex = assertThrows(BusinessException.class, () -> goodsService.createGoods(input));
         assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
         verify(goodsRepository, never()).save(any());
-        verify(inventoryRepository, never()).save(any());
+        verify(inventoryStore, never()).setAll(anyMap());
     }
 
     // ---------- getGoodsById ----------
@@ -99,6 +101,19 @@ class GoodsServiceImplTest {
         assertEquals("x", got.getId());
     }
 
+    @Test
+    void getGoodsByIds_oneFindAllById_dedupesIds() {
+        Goods a = new Goods();
+        a.setId("a");
+        when(goodsRepository.findAllById(anyIterable())).thenReturn(List.of(a));
+
+        Map<String, Goods> got = goodsService.getGoodsByIds(List.of("a", "b", "a"));
+
+        assertEquals(Map.of("a", a), got);
+        verify(goodsRepository, times(1)).findAllById(argThat(ids -> ids.spliterator().getExactSizeIfKnown() == 2));
+        verify(goodsRepository, never()).findById(anyString());
+    }
+
     // ---------- getAllGoods ----------
     @Test
     void getAllGoods_shouldDelegateFindAll() {
@@ -108,6 +123,72 @@ class GoodsServiceImplTest {
         verify(goodsRepository).findAll();
     }
 
+    // ---------- searchGoods ----------
+    @Test
+    void searchGoods_snapshotIncomplete_shouldPushFiltersAndPagingIntoQuery() {
+        when(catalogCache.snapshot()).thenReturn(GoodsCatalogCache.Snapshot.incomplete());
+        when(mongoTemplate.find(any(Query.class), eq(Goods.class))).thenReturn(List.of(new Goods(), new Goods()));
+        when(mongoTemplate.count(any(Query.class), eq(Goods.class))).thenReturn(7L);
+
+        PageResponse<Goods> result = goodsService.searchGoods(" Beverage ", "star", true, false, 2, 2);
+
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(captor.capture(), eq(Goods.class));
+        Query q = captor.getValue();
+        assertEquals(2, q.getSkip());
+        assertEquals(2, q.getLimit());
+        String filter = q.getQueryObject().toJson();
+        assertTrue(filter.contains("\"category\": \"beverage\""));
+        assertTrue(filter.contains("\"isForRedemption\": true"));
+        assertTrue(filter.contains("vipLevelRequired"));
+        assertTrue(filter.contains("\"$not\": {\"$regularExpression\": {\"pattern\": \"^\\\\s*voucher\\\\s*$\", \"options\": \"i\"}}"));
+        assertTrue(filter.contains("star"));
+
+        assertEquals(2, result.getList().size());
+        assertEquals(7L, result.getTotal());
+        assertEquals(4L, result.getTotalPages());
+    }
+
+    @Test
+    void searchGoods_snapshotIncomplete_lastPartialPage_shouldNotCount() {
+        when(catalogCache.snapshot()).thenReturn(GoodsCatalogCache.Snapshot.incomplete());
+        when(mongoTemplate.find(any(Query.class), eq(Goods.class))).thenReturn(List.of(new Goods()));
+
+        PageResponse<Goods> result = goodsService.searchGoods(null, null, null, true, 3, 5);
+
+        assertEquals(11L, result.getTotal());
+        verify(mongoTemplate, never()).count(any(Query.class), eq(Goods.class));
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(captor.capture(), eq(Goods.class));
+        assertFalse(captor.getValue().getQueryObject().toJson().contains("vipLevelRequired"));
+    }
+
+    @Test
+    void searchGoods_fromSnapshot_shouldFilterAndPageInMemory() {
+        Goods coffee = new Goods("Coffee", "Starbucks", 1.0, 5);
+        coffee.setId("g1");
+        coffee.setCategory("beverage");
+        coffee.setIsForRedemption(true);
+        Goods tea = new Goods("Tea", "Green tea", 1.0, 5);
+        tea.setId("g2");
+        tea.setCategory("beverage");
+        tea.setIsForRedemption(true);
+        Goods stars = new Goods("Star candy", null, 1.0, 5);
+        stars.setId("g3");
+        stars.setCategory("food");
+        stars.setIsForRedemption(true);
+        when(catalogCache.snapshot()).thenReturn(GoodsCatalogCache.Snapshot.of(List.of(coffee, tea, stars)));
+
+        PageResponse<Goods> beverages = goodsService.searchGoods("Beverage", null, true, false, 2, 1);
+        assertEquals(2L, beverages.getTotal());
+        assertEquals("g2", beverages.getList().get(0).getId());
+
+        PageResponse<Goods> star = goodsService.searchGoods(null, "STAR", null, false, 1, 10);
+        assertEquals(List.of("g1", "g3"), star.getList().stream().map(Goods::getId).toList());
+
+        verifyNoInteractions(mongoTemplate);
+    }
+
     // ---------- updateGoods ----------
     @Test
     void updateGoods_whenNegativeStock_shouldThrowDbError_asCurrentImplementation() {
@@ -130,7 +211,7 @@ class GoodsServiceImplTest {
     }
 
     @Test
-    void updateGoods_shouldUpdateFields_syncInventory_andSaveTwice() {
+    void updateGoods_shouldUpdateFields_andWriteStockToInventoryOnly() {
         Goods existing = new Goods();
         existing.setId("g1");
         existing.setStock(5);
@@ -151,8 +232,8 @@ class GoodsServiceImplTest {
         assertEquals(9, updated.getStock());
         assertEquals(0, updated.getVipLevelRequired());
 
-        verify(goodsRepository, times(2)).save(any(Goods.class));
-        verify(inventoryRepository, times(1)).save(any(Inventory.class));
+        verify(goodsRepository, times(1)).save(any(Goods.class));
+        verify(inventoryStore, times(1)).setAll(Map.of("g1", 9));
     }
 
     @Test
@@ -167,15 +248,17 @@ class GoodsServiceImplTest {
         BusinessException ex = assertThrows(BusinessException.class, () -> goodsService.updateGoods("g1", patch));
         assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
         verify(goodsRepository, never()).save(any());
-        verify(inventoryRepository, never()).save(any());
+        verify(inventoryStore, never()).setAll(anyMap());
     }
 
     // ---------- deleteGoods / deleteAllGoods ----------
     @Test
-    void deleteGoods_shouldDeleteFromGoodsAndInventoryById() {
+    void deleteGoods_shouldDeleteFromGoodsAndInventoryById_andInvalidateCatalog() {
         goodsService.deleteGoods("g1");
         verify(goodsRepository).deleteById("g1");
         verify(inventoryRepository).deleteById("g1");
+        verify(inventoryStore).deleteShards("g1");
+        verify(catalogCache).invalidate();
     }
 
     @Test
@@ -186,149 +269,164 @@ class GoodsServiceImplTest {
     }
 
     // ---------- batchUpdateStock ----------
-    @Test
-    void batchUpdateStock_withNewStock_shouldUpdateGoodsAndInventory() {
-        Goods g = new Goods();
-        g.setId("g1");
-        g.setStock(5);
-        when(goodsRepository.findById("g1")).thenReturn(Optional.of(g));
-
+    private static BatchStockUpdateRequest batch(String goodsId, Integer newStock, Integer stockChange) {
         BatchStockUpdateRequest.StockUpdateItem item = new BatchStockUpdateRequest.StockUpdateItem();
-        item.setGoodsId("g1");
-        item.setNewStock(12);
-
+        item.setGoodsId(goodsId);
+        item.setNewStock(newStock);
+        item.setStockChange(stockChange);
         BatchStockUpdateRequest req = new BatchStockUpdateRequest();
         req.setUpdates(List.of(item));
+        return req;
+    }
 
-        goodsService.batchUpdateStock(req);
-
-        verify(goodsRepository).save(argThat(saved -> saved.getStock() == 12));
-        verify(inventoryRepository).save(argThat(inv -> inv.getGoodsId().equals("g1") && inv.getQuantity() == 12));
+    private void goodsExist(String... ids) {
+        List<Goods> found = new ArrayList<>();
+        for (String id : ids) {
+            Goods g = new Goods();
+            g.setId(id);
+            found.add(g);
+        }
+        when(goodsRepository.findAllById(any())).thenReturn(found);
     }
 
     @Test
-    void batchUpdateStock_withStockChange_shouldApplyDelta() {
-        Goods g = new Goods();
-        g.setId("g1");
-        g.setStock(5);
-        when(goodsRepository.findById("g1")).thenReturn(Optional.of(g));
+    void batchUpdateStock_withNewStock_shouldSetInventoryOnly() {
+        goodsExist("g1");
+        when(inventoryStore.applyAll(anyMap())).thenReturn(Optional.empty());
 
-        BatchStockUpdateRequest.StockUpdateItem item = new BatchStockUpdateRequest.StockUpdateItem();
-        item.setGoodsId("g1");
-        item.setStockChange(3); // 5 + 3 = 8
+        goodsService.batchUpdateStock(batch("g1", 12, null));
 
-        BatchStockUpdateRequest req = new BatchStockUpdateRequest();
-        req.setUpdates(List.of(item));
+        verify(inventoryStore).setAll(Map.of("g1", 12));
+        verify(goodsRepository, never()).save(any());
+        verify(catalogCache).invalidate();
+    }
 
-        goodsService.batchUpdateStock(req);
+    @Test
+    void batchUpdateStock_withStockChange_shouldApplyDeltaInBulk() {
+        goodsExist("g1");
+        when(inventoryStore.applyAll(anyMap())).thenReturn(Optional.empty());
+
+        goodsService.batchUpdateStock(batch("g1", null, 3));
 
-        verify(goodsRepository).save(argThat(saved -> saved.getStock() == 8));
-        verify(inventoryRepository).save(argThat(inv -> inv.getQuantity() == 8));
+        verify(inventoryStore).applyAll(Map.of("g1", 3));
+        verify(goodsRepository, never()).save(any());
     }
 
     @Test
     void batchUpdateStock_missingFields_shouldThrowRuntimeException() {
-        Goods g = new Goods();
-        g.setId("g1");
-        g.setStock(5);
-        when(goodsRepository.findById("g1")).thenReturn(Optional.of(g));
-
-        BatchStockUpdateRequest.StockUpdateItem item = new BatchStockUpdateRequest.StockUpdateItem();
-        item.setGoodsId("g1");
-        // newStock 和 stockChange 都没给
-
-        BatchStockUpdateRequest req = new BatchStockUpdateRequest();
-        req.setUpdates(List.of(item));
+        BatchStockUpdateRequest req = batch("g1", null, null);
 
         RuntimeException ex = assertThrows(RuntimeException.class, () -> goodsService.batchUpdateStock(req));
         assertTrue(ex.getMessage().contains("缺少 newStock 或 stockChange"));
+        verifyNoInteractions(inventoryStore);
     }
 
     @Test
     void batchUpdateStock_negativeFinalStock_shouldThrowRuntimeException() {
-        Goods g = new Goods();
-        g.setId("g1");
-        g.setStock(1);
-        when(goodsRepository.findById("g1")).thenReturn(Optional.of(g));
-
-        BatchStockUpdateRequest.StockUpdateItem item = new BatchStockUpdateRequest.StockUpdateItem();
-        item.setGoodsId("g1");
-        item.setStockChange(-2); // 1 + (-2) = -1
-
-        BatchStockUpdateRequest req = new BatchStockUpdateRequest();
-        req.setUpdates(List.of(item));
+        goodsExist("g1");
+        when(inventoryStore.applyAll(anyMap())).thenReturn(Optional.of("g1"));
+        BatchStockUpdateRequest req = batch("g1", null, -2);
 
         RuntimeException ex = assertThrows(RuntimeException.class, () -> goodsService.batchUpdateStock(req));
         assertTrue(ex.getMessage().contains("库存不能为负数"));
+        verify(inventoryStore, never()).setAll(anyMap());
     }
 
     @Test
     void batchUpdateStock_goodsNotFound_shouldThrowRuntimeException() {
-        when(goodsRepository.findById("g1")).thenReturn(Optional.empty());
-
-        BatchStockUpdateRequest.StockUpdateItem item = new BatchStockUpdateRequest.StockUpdateItem();
-        item.setGoodsId("g1");
-        item.setNewStock(10);
-
-        BatchStockUpdateRequest req = new BatchStockUpdateRequest();
-        req.setUpdates(List.of(item));
+        when(goodsRepository.findAllById(any())).thenReturn(List.of());
+        BatchStockUpdateRequest req = batch("g1", 10, null);
 
         RuntimeException ex = assertThrows(RuntimeException.class, () -> goodsService.batchUpdateStock(req));
         assertTrue(ex.getMessage().contains("商品未找到"));
+        verifyNoInteractions(inventoryStore);
     }
 
     // ---------- reserveStock / releaseStock ----------
     @Test
     void reserveStock_whenOutOfStock_shouldThrowBusinessParamError() {
-        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
-                eq(Inventory.class), eq("inventory"))).thenReturn(null);
+        when(inventoryStore.reserve("g1", 1)).thenReturn(null);
 
         BusinessException ex = assertThrows(BusinessException.class, () -> goodsService.reserveStock("g1", 1));
         assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
     }
 
     @Test
-    void reserveStock_success_shouldSyncGoodsStock() {
-        Inventory after = new Inventory();
-        after.setGoodsId("g1");
-        after.setQuantity(7);
+    void reserveStock_success_shouldNotTouchGoods() {
+        when(inventoryStore.reserve("g1", 2)).thenReturn(7);
 
-        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
-                eq(Inventory.class), eq("inventory"))).thenReturn(after);
+        goodsService.reserveStock("g1", 2);
 
-        Goods g = new Goods();
-        g.setId("g1");
-        when(goodsRepository.findById("g1")).thenReturn(Optional.of(g));
+        verifyNoInteractions(goodsRepository);
+        // 没有售罄，兑换列表不受影响
+        verify(catalogCache, never()).invalidate();
+    }
 
-        goodsService.reserveStock("g1", 2);
+    @Test
+    void reserveStock_admissionRejected_shouldThrowBusyWithoutReserving() {
+        when(inventoryStore.admit("g1")).thenReturn(false);
 
-        verify(goodsRepository).save(argThat(saved -> saved.getStock() == 7));
+        BusinessException ex = assertThrows(BusinessException.class, () -> goodsService.reserveStock("g1", 1));
+        assertEquals(ErrorCode.PRODUCT_BUSY.getCode(), ex.getCode());
+        verify(inventoryStore, never()).reserve(anyString(), anyInt());
     }
 
     @Test
-    void releaseStock_whenInventoryNull_shouldNotThrow() {
-        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
-                eq(Inventory.class), eq("inventory"))).thenReturn(null);
+    void reserveStock_soldOut_shouldInvalidateCatalog() {
+        when(inventoryStore.reserve("g1", 1)).thenReturn(0);
 
-        assertDoesNotThrow(() -> goodsService.releaseStock("g1", 1));
-        verify(goodsRepository, never()).save(any());
+        goodsService.reserveStock("g1", 1);
+
+        verify(catalogCache).invalidate();
     }
 
     @Test
-    void releaseStock_success_shouldSyncGoodsStock() {
-        Inventory after = new Inventory();
-        after.setGoodsId("g1");
-        after.setQuantity(11);
+    void reserveStock_multiItem_shouldReserveInOneBulk() {
+        when(inventoryStore.applyAll(anyMap())).thenReturn(Optional.empty());
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        quantities.put("g1", 2);
+        quantities.put("g2", 0); // <=0 按 1
 
-        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
-                eq(Inventory.class), eq("inventory"))).thenReturn(after);
+        goodsService.reserveStock(quantities);
 
-        Goods g = new Goods();
-        g.setId("g1");
-        when(goodsRepository.findById("g1")).thenReturn(Optional.of(g));
+        verify(inventoryStore).applyAll(Map.of("g1", -2, "g2", -1));
+        verify(inventoryStore, never()).reserve(anyString(), anyInt());
+    }
+
+    @Test
+    void reserveStock_multiItem_oneShort_shouldThrowWithGoodsId() {
+        when(inventoryStore.applyAll(anyMap())).thenReturn(Optional.of("g2"));
+
+        BusinessException ex = assertThrows(BusinessException.class,
+                () -> goodsService.reserveStock(Map.of("g1", 1, "g2", 1)));
+        assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
+        assertTrue(ex.getMessage().contains("g2"));
+    }
+
+    @Test
+    void reserveStock_withReservationId_marksStockWithIt() {
+        when(inventoryStore.applyAll(anyMap(), eq("s1"))).thenReturn(Optional.empty());
+
+        goodsService.reserveStock(Map.of("g1", 1, "g2", 2), "s1");
 
+        verify(inventoryStore).applyAll(Map.of("g1", -1, "g2", -2), "s1");
+        verify(inventoryStore, never()).applyAll(anyMap());
+    }
+
+    @Test
+    void cancelStock_shouldUndoByReservationId_andInvalidateCatalog() {
+        goodsService.cancelStock(Set.of("g1"), "s1");
+
+        verify(inventoryStore).cancel(Set.of("g1"), "s1");
+        verify(catalogCache).invalidate();
+    }
+
+    @Test
+    void releaseStock_shouldReleaseInBulk_andInvalidateCatalog() {
         goodsService.releaseStock("g1", 3);
 
-        verify(goodsRepository).save(argThat(saved -> saved.getStock() == 11));
+        verify(inventoryStore).releaseAll(Map.of("g1", 3));
+        verify(catalogCache).invalidate();
+        verifyNoInteractions(goodsRepository);
     }
 }
@@ -0,0 +1,381 @@
+package com.example.EcoGo.service;
+
+import com.example.EcoGo.model.Inventory;
+import com.example.EcoGo.model.InventoryShard;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteInsert;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class InventoryStoreTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private BulkOperations reserveBulk;
+
+    @Mock
+    private BulkOperations undoBulk;
+
+    @InjectMocks
+    private InventoryStore store;
+
+    private static Map<String, Integer> deltas(Object... pairs) {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put((String) pairs[i], (Integer) pairs[i + 1]);
+        }
+        return map;
+    }
+
+    private static BulkWriteResult result(int modified, List<BulkWriteUpsert> upserts) {
+        return BulkWriteResult.acknowledged(0, modified, 0, modified, upserts, List.<BulkWriteInsert>of());
+    }
+
+    private void stubBulks() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Inventory.class)).thenReturn(reserveBulk);
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class)).thenReturn(undoBulk);
+    }
+
+    @Test
+    void applyAll_allApplied_returnsEmptyWithoutUndo() {
+        stubBulks();
+        when(reserveBulk.execute()).thenReturn(result(2, List.of()));
+
+        Optional<String> failed = store.applyAll(deltas("g1", -1, "g2", -2));
+
+        assertTrue(failed.isEmpty());
+        // 扣减是条件更新，不 upsert，缺记录时不会插入负库存
+        verify(reserveBulk, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(reserveBulk, never()).upsert(any(Query.class), any(Update.class));
+        verify(mongoTemplate, never()).bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+    }
+
+    @Test
+    void applyAll_secondItemShort_undoesByOpIdAndReportsSecond() {
+        stubBulks();
+        when(reserveBulk.execute()).thenReturn(result(2, List.of()));
+        when(mongoTemplate.find(any(Query.class), eq(Inventory.class))).thenAnswer(inv ->
+                inv.<Query>getArgument(0).getQueryObject().containsKey(InventoryStore.PENDING_OP)
+                        ? List.of(new Inventory("g1", 0), new Inventory("g3", 0))
+                        : List.of());
+
+        Optional<String> failed = store.applyAll(deltas("g1", -1, "g2", -2, "g3", -1));
+
+        assertEquals(Optional.of("g2"), failed);
+        ArgumentCaptor<Query> undone = ArgumentCaptor.forClass(Query.class);
+        verify(undoBulk, times(3)).updateOne(undone.capture(), any(Update.class));
+        undone.getAllValues().forEach(q -> assertNotNull(q.getQueryObject().get(InventoryStore.PENDING_OP)));
+        verify(undoBulk).execute();
+    }
+
+    @Test
+    void applyAll_bulkErrorOrTimeout_undoesAppliedPartBeforeRethrowing() {
+        stubBulks();
+        BulkWriteError error = new BulkWriteError(50, "operation exceeded time limit", new BsonDocument(), 1);
+        MongoBulkWriteException source = new MongoBulkWriteException(result(1, List.of()), List.of(error), null,
+                new ServerAddress(), Set.of());
+        when(reserveBulk.execute()).thenThrow(new BulkOperationException("timeout", source));
+
+        assertThrows(BulkOperationException.class, () -> store.applyAll(deltas("g1", -1, "g2", -2)));
+
+        // 只撤销带有本次 opId 的文档，未生效的那条不受影响
+        verify(undoBulk, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(undoBulk).execute();
+    }
+
+    @Test
+    void applyAll_positiveDeltaOnMissingInventory_isSuccess() {
+        stubBulks();
+        BulkWriteUpsert inserted = new BulkWriteUpsert(0, new BsonString("g1"));
+        when(reserveBulk.execute()).thenReturn(result(0, List.of(inserted)));
+
+        assertTrue(store.applyAll(deltas("g1", 5)).isEmpty());
+        verify(reserveBulk).upsert(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void applyAll_withOpId_recordsPendingOpAndKeepsIt() {
+        stubBulks();
+        when(reserveBulk.execute()).thenReturn(result(1, List.of()));
+
+        assertTrue(store.applyAll(deltas("g1", -2), "saga-1").isEmpty());
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(reserveBulk).updateOne(any(Query.class), update.capture());
+        Document pushed = (Document) update.getValue().getUpdateObject().get("$push", Document.class)
+                .get(InventoryStore.PENDING_OPS);
+        assertEquals(new Document("op", "saga-1").append("qty", -2), pushed);
+        // 标记留给调用方 confirm / cancel
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(Inventory.class));
+    }
+
+    @Test
+    void applyAll_withoutOpId_clearsMarkersAfterSuccess() {
+        stubBulks();
+        when(reserveBulk.execute()).thenReturn(result(1, List.of()));
+
+        assertTrue(store.applyAll(deltas("g1", -2)).isEmpty());
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(any(Query.class), update.capture(), eq(Inventory.class));
+        assertNotNull(update.getValue().getUpdateObject().get("$pull", Document.class).get(InventoryStore.PENDING_OPS));
+    }
+
+    @Test
+    void cancel_revertsOnlyDocumentsStillMarkedWithOpId() {
+        Inventory g1 = new Inventory("g1", 3);
+        g1.setPendingOps(List.of(new Inventory.PendingOp("saga-1", -2), new Inventory.PendingOp("other", -5)));
+        InventoryShard g2 = new InventoryShard("g2", 1, 4);
+        g2.setPendingOps(List.of(new Inventory.PendingOp("saga-1", -1), new Inventory.PendingOp("saga-1", -3)));
+        when(mongoTemplate.find(any(Query.class), eq(Inventory.class))).thenReturn(List.of(g1));
+        when(mongoTemplate.find(any(Query.class), eq(InventoryShard.class))).thenReturn(List.of(g2));
+
+        store.cancel(List.of("g1", "g2", "g3"), "saga-1");
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(Inventory.class));
+        assertEquals("saga-1", query.getValue().getQueryObject().get(InventoryStore.PENDING_OP));
+        assertEquals(2, update.getValue().getUpdateObject().get("$inc", Document.class).get("quantity"));
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(InventoryShard.class));
+        assertEquals("g2#1", query.getValue().getQueryObject().get("_id"));
+        assertEquals(4, update.getValue().getUpdateObject().get("$inc", Document.class).get("quantity"));
+    }
+
+    @Test
+    void cancel_nothingMarked_changesNothing() {
+        when(mongoTemplate.find(any(Query.class), eq(Inventory.class))).thenReturn(List.of());
+        when(mongoTemplate.find(any(Query.class), eq(InventoryShard.class))).thenReturn(List.of());
+
+        store.cancel(List.of("g1"), "saga-1");
+
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), any(Class.class));
+    }
+
+    @Test
+    void pendingOps_groupsMarkedGoodsByOpId() {
+        Inventory g1 = new Inventory("g1", 3);
+        g1.setPendingOps(List.of(new Inventory.PendingOp("saga-1", -2), new Inventory.PendingOp("saga-2", -1)));
+        InventoryShard g2 = new InventoryShard("g2", 1, 4);
+        g2.setPendingOps(List.of(new Inventory.PendingOp("saga-1", -1)));
+        when(mongoTemplate.find(any(Query.class), eq(Inventory.class))).thenReturn(List.of(g1));
+        when(mongoTemplate.find(any(Query.class), eq(InventoryShard.class))).thenReturn(List.of(g2));
+
+        Map<String, Set<String>> pending = store.pendingOps(50);
+
+        assertEquals(Map.of("saga-1", Set.of("g1", "g2"), "saga-2", Set.of("g1")), pending);
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Inventory.class));
+        assertEquals(50, query.getValue().getLimit());
+    }
+
+    private void shardedGoods(String goodsId, int shards) {
+        Inventory inv = new Inventory(goodsId, 0);
+        inv.setShards(shards);
+        when(mongoTemplate.find(any(Query.class), eq(Inventory.class))).thenReturn(List.of(inv));
+    }
+
+    private static InventoryShard shard(int quantity) {
+        return new InventoryShard("g1", 0, quantity);
+    }
+
+    // 有状态的假集合：_id -> quantity，inventory 余量的 _id 是 goodsId，分片是 goodsId#n
+    private final Map<String, Integer> counters = new LinkedHashMap<>();
+
+    private static int incOf(Update update) {
+        Document inc = update.getUpdateObject().get("$inc", Document.class);
+        return inc == null ? 0 : ((Number) inc.get("quantity")).intValue();
+    }
+
+    private void stubCounters(String goodsId, int rest, int... shardQuantities) {
+        counters.put(goodsId, rest);
+        for (int i = 0; i < shardQuantities.length; i++) {
+            counters.put(InventoryShard.idFor(goodsId, i), shardQuantities[i]);
+        }
+        lenient().when(mongoTemplate.find(any(Query.class), eq(InventoryShard.class))).thenAnswer(inv -> counters.entrySet().stream()
+                .filter(e -> e.getKey().startsWith(goodsId + "#"))
+                .map(e -> new InventoryShard(goodsId, Integer.parseInt(e.getKey().substring(goodsId.length() + 1)), e.getValue()))
+                .toList());
+        lenient().when(mongoTemplate.findById(eq(goodsId), eq(Inventory.class)))
+                .thenAnswer(inv -> new Inventory(goodsId, counters.get(goodsId)));
+        lenient().when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(), eq(InventoryShard.class)))
+                .thenReturn(null);
+        lenient().when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), any(Class.class))).thenAnswer(inv -> {
+            Document query = inv.<Query>getArgument(0).getQueryObject();
+            String id = (String) query.get("_id");
+            Integer current = counters.get(id);
+            if (current == null) {
+                return UpdateResult.acknowledged(0, 0L, null);
+            }
+            Document cond = (Document) query.get("quantity");
+            if (cond != null && current < ((Number) cond.get("$gte")).intValue()) {
+                return UpdateResult.acknowledged(0, 0L, null);
+            }
+            counters.put(id, current + incOf(inv.getArgument(1)));
+            return UpdateResult.acknowledged(1, 1L, null);
+        });
+    }
+
+    private int total(String goodsId) {
+        return counters.entrySet().stream().filter(e -> e.getKey().startsWith(goodsId))
+                .mapToInt(Map.Entry::getValue).sum();
+    }
+
+    @Test
+    void reserve_sharded_pickedShardHasEnough_takesFromIt() {
+        shardedGoods("g1", 4);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(), eq(InventoryShard.class)))
+                .thenReturn(shard(5));
+
+        assertEquals(5, store.reserve("g1", 1));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(InventoryShard.class));
+    }
+
+    @Test
+    void reserve_sharded_noSingleShardHasEnough_takesFromSeveral() {
+        shardedGoods("g1", 3);
+        stubCounters("g1", 1, 2, 2, 0);
+
+        Integer remaining = store.reserve("g1", 4);
+
+        assertEquals(1, remaining);
+        assertEquals(1, total("g1"));
+        assertFalse(store.anySoldOut(List.of("g1")));
+    }
+
+    @Test
+    void reserve_sharded_lastUnitsTaken_reportsSoldOut() {
+        shardedGoods("g1", 2);
+        stubCounters("g1", 0, 1, 1);
+
+        assertEquals(0, store.reserve("g1", 2));
+    }
+
+    @Test
+    void reserve_sharded_raceLosesUnits_givesBackWithoutSoldOutMemo() {
+        shardedGoods("g1", 2);
+        stubCounters("g1", 0, 2, 2);
+        // g1#1 总被并发请求抢先：读到 2，扣 2 时失败
+        when(mongoTemplate.updateFirst(argThat((Query q) -> "g1#1".equals(q.getQueryObject().get("_id"))
+                && q.getQueryObject().get("quantity") != null), any(Update.class), eq(InventoryShard.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        assertNull(store.reserve("g1", 3));
+
+        assertEquals(4, total("g1"));
+        assertFalse(store.anySoldOut(List.of("g1")));
+    }
+
+    @Test
+    void reserve_sharded_totalShort_memoizesSoldOut() {
+        shardedGoods("g1", 2);
+        stubCounters("g1", 0, 1, 0);
+
+        assertNull(store.reserve("g1", 2));
+        assertNull(store.reserve("g1", 2));
+
+        // 第二次命中本地售罄标记，不再访问 Mongo
+        verify(mongoTemplate, times(1)).findAndModify(any(Query.class), any(Update.class), any(),
+                eq(InventoryShard.class));
+        assertTrue(store.anySoldOut(List.of("g1")));
+    }
+
+    @Test
+    void admit_unshardedGoods_alwaysAdmitted() {
+        when(mongoTemplate.find(any(Query.class), eq(Inventory.class))).thenReturn(List.of());
+
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(store.admit("g1"));
+        }
+    }
+
+    @Test
+    void setShards_movesStockWithIncAndSpreadsEvenly() {
+        stubCounters("g1", 7, 3);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, InventoryShard.class)).thenReturn(undoBulk);
+        // 新分片由 upsert 建出，数量 0
+        doAnswer(inv -> {
+            for (int i = 1; i < 4; i++) {
+                counters.putIfAbsent(InventoryShard.idFor("g1", i), 0);
+            }
+            return null;
+        }).when(undoBulk).execute();
+
+        store.setShards("g1", 4);
+
+        // 7 + 3 = 10 -> 3, 3, 2, 2，余量清空
+        assertEquals(List.of(3, 3, 2, 2), List.of(counters.get("g1#0"), counters.get("g1#1"),
+                counters.get("g1#2"), counters.get("g1#3")));
+        assertEquals(0, counters.get("g1"));
+        // 分片库存只用 $inc 调整，从不直接覆盖
+        verify(mongoTemplate, never()).findAndRemove(any(Query.class), eq(InventoryShard.class));
+        ArgumentCaptor<Update> creates = ArgumentCaptor.forClass(Update.class);
+        verify(undoBulk, times(4)).upsert(any(Query.class), creates.capture());
+        creates.getAllValues().forEach(u -> assertNull(u.getUpdateObject().get("$set", Document.class).get("quantity")));
+    }
+
+    @Test
+    void setShards_disable_movesEverythingBackToInventory() {
+        stubCounters("g1", 1, 2, 3);
+
+        store.setShards("g1", 1);
+
+        assertEquals(6, counters.get("g1"));
+        assertEquals(0, counters.get("g1#0"));
+        assertEquals(0, counters.get("g1#1"));
+        verify(mongoTemplate).remove(any(Query.class), eq(InventoryShard.class));
+    }
+
+    @Test
+    void setAll_shardedGoods_adjustsByDifference() {
+        shardedGoods("g1", 2);
+        stubCounters("g1", 0, 3, 3);
+
+        store.setAll(Map.of("g1", 10));
+        assertEquals(10, total("g1"));
+
+        store.setAll(Map.of("g1", 5));
+        assertEquals(5, total("g1"));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Inventory.class));
+    }
+
+    @Test
+    void reserve_insufficient_returnsNull() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(), eq(Inventory.class)))
+                .thenReturn(null);
+
+        assertNull(store.reserve("g1", 3));
+    }
+}
@@ -1,23 +1,45 @@
 package com.example.EcoGo.service;
 
+import com.example.EcoGo.dto.PageResponse;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
 import com.example.EcoGo.interfacemethods.PointsService;
 import com.example.EcoGo.interfacemethods.VipSwitchService;
 import com.example.EcoGo.model.Goods;
 import com.example.EcoGo.model.Order;
+import com.example.EcoGo.model.RedemptionSaga;
+import com.example.EcoGo.model.RedemptionSaga.Status;
 import com.example.EcoGo.model.User;
 import com.example.EcoGo.model.UserVoucher;
 import com.example.EcoGo.repository.OrderRepository;
-import com.example.EcoGo.repository.UserRepository;
 import com.example.EcoGo.repository.UserVoucherRepository;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.types.ObjectId;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.lang.reflect.Field;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -32,7 +54,10 @@ class OrderServiceImplTest {
     private OrderRepository orderRepository;
     private GoodsService goodsService;
     private PointsService pointsService;
-    private UserRepository userRepository;
+    private MongoTemplate mongoTemplate;
+    private RedemptionSagaLog sagaLog;
+    private SimpleMeterRegistry meterRegistry;
+    private BulkOperations voucherBulk;
 
     @BeforeEach
     void setUp() throws Exception {
@@ -41,7 +66,16 @@ class OrderServiceImplTest {
         orderRepository = mock(OrderRepository.class);
         goodsService = mock(GoodsService.class);
         pointsService = mock(PointsService.class);
-        userRepository = mock(UserRepository.class);
+        mongoTemplate = mock(MongoTemplate.class);
+        sagaLog = mock(RedemptionSagaLog.class);
+        meterRegistry = new SimpleMeterRegistry();
+        voucherBulk = mock(BulkOperations.class);
+
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(UserVoucher.class))).thenReturn(voucherBulk);
+        when(voucherBulk.insert(anyList())).thenReturn(voucherBulk);
+
+        when(sagaLog.advance(anyString(), any(), any())).thenReturn(true);
+        when(sagaLog.close(anyString(), any(), any(), any(), any())).thenReturn(true);
 
         service = new OrderServiceImpl();
 
@@ -50,7 +84,32 @@ class OrderServiceImplTest {
         inject("orderRepository", orderRepository);
         inject("goodsService", goodsService);
         inject("pointsService", pointsService);
-        inject("userRepository", userRepository);
+        inject("mongoTemplate", mongoTemplate);
+        inject("sagaLog", sagaLog);
+        inject("meterRegistry", meterRegistry);
+        inject("idGenerator", new SnowflakeIdGenerator(1));
+    }
+
+    private void stubGoods(Goods... goods) {
+        Map<String, Goods> byId = new LinkedHashMap<>();
+        for (Goods g : goods) {
+            byId.put(g.getId(), g);
+        }
+        when(goodsService.getGoodsByIds(anyCollection())).thenReturn(byId);
+    }
+
+    private static RedemptionSaga saga(Status status, Map<String, Integer> stock, long points, int vipDays,
+                                       List<UserVoucher> vouchers) {
+        RedemptionSaga saga = new RedemptionSaga();
+        saga.setId("s1");
+        saga.setUserId("u1");
+        saga.setStatus(status);
+        saga.setReservedStock(stock);
+        saga.setPointsCost(points);
+        saga.setVipDays(vipDays);
+        saga.setVouchers(vouchers);
+        saga.setOrder(redemptionOrder("u1", "g1", 1));
+        return saga;
     }
 
     private void inject(String fieldName, Object value) throws Exception {
@@ -112,18 +171,18 @@ class OrderServiceImplTest {
         Order o = redemptionOrder(userId, "g1", 2);
 
         Goods g1 = goods("g1", "normal", 100, 0, true);
-        when(goodsService.getGoodsById("g1")).thenReturn(g1);
+        stubGoods(g1);
 
         when(orderRepository.save(any(Order.class))).thenAnswer(inv -> inv.getArgument(0));
 
         Order saved = service.createRedemptionOrder(o);
 
-        verify(goodsService).reserveStock("g1", 2);
-        verify(pointsService).adjustPoints(eq(userId), eq(-200L), eq("store"), contains("Purchased"), isNull(), isNull());
+        verify(goodsService).reserveStock(eq(Map.of("g1", 2)), anyString());
+        verify(pointsService).deductForRedemption(eq(userId), eq(200L), contains("Purchased"), anyString());
         verify(orderRepository).save(any(Order.class));
 
         // voucher 不创建
-        verify(userVoucherRepository, never()).save(any(UserVoucher.class));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(UserVoucher.class));
 
         assertEquals(Boolean.TRUE, saved.getIsRedemptionOrder());
         assertEquals("POINTS", saved.getPaymentMethod());
@@ -132,30 +191,60 @@ class OrderServiceImplTest {
 
     // ---------- voucher：不扣库存，但创建 userVoucher qty 次 ----------
     @Test
+    @SuppressWarnings("unchecked")
     void createRedemptionOrder_voucher_shouldCreateUserVouchers_andDeductPoints() {
         String userId = "u1";
         Order o = redemptionOrder(userId, "v1", 3);
 
         Goods v1 = goods("v1", "voucher", 50, 0, true);
-        when(goodsService.getGoodsById("v1")).thenReturn(v1);
+        stubGoods(v1);
 
         when(orderRepository.save(any(Order.class))).thenAnswer(inv -> inv.getArgument(0));
 
-        service.createRedemptionOrder(o);
+        Order saved = service.createRedemptionOrder(o);
+
+        verify(goodsService, never()).reserveStock(anyMap(), anyString());
+        verify(pointsService).deductForRedemption(eq(userId), eq(150L), contains("Purchased"), anyString());
+
+        // 一次 insertMany，券码互不相同且关联订单
+        ArgumentCaptor<List<UserVoucher>> vouchers = ArgumentCaptor.forClass(List.class);
+        verify(voucherBulk, times(1)).insert(vouchers.capture());
+        verify(voucherBulk, times(1)).execute();
+        assertEquals(3, vouchers.getValue().size());
+        assertEquals(3, vouchers.getValue().stream().map(UserVoucher::getCode).distinct().count());
+        assertTrue(vouchers.getValue().stream().allMatch(uv -> saved.getId().equals(uv.getOrderId())));
+        verify(userVoucherRepository, never()).save(any(UserVoucher.class));
+    }
+
+    // ---------- voucher 重放：已存在的券（_id 重复）忽略，其他写错误照常抛出 ----------
+    @Test
+    void recover_pointsDeducted_vipGranted_voucherReplay_ignoresDuplicateKeys() {
+        UserVoucher uv = new UserVoucher();
+        uv.setId("uv1");
+        when(sagaLog.findStuck(any(), eq(10))).thenReturn(List.of(saga(Status.POINTS_DEDUCTED, Map.of(), 300, 30, List.of(uv))));
+        User user = new User();
+        User.Vip v = new User.Vip();
+        v.setLastRedemptionId("s1");
+        user.setVip(v);
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(user);
+        MongoBulkWriteException dup = new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+                List.of(new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), 0)), null,
+                new ServerAddress(), Set.of());
+        when(voucherBulk.execute()).thenThrow(new BulkOperationException("E11000", dup));
+
+        assertEquals(1, service.recoverStuckRedemptions(Duration.ofMinutes(2), 10));
 
-        verify(goodsService, never()).reserveStock(anyString(), anyInt());
-        verify(pointsService).adjustPoints(eq(userId), eq(-150L), eq("store"), contains("Purchased"), isNull(), isNull());
-        verify(userVoucherRepository, times(3)).save(any(UserVoucher.class));
+        verify(orderRepository).save(any(Order.class));
     }
 
-    // ---------- vip：不扣库存，但应激活/续期 vip（userRepository.save 被调用） ----------
+    // ---------- vip：不扣库存，但应激活/续期 vip（只改 vip.* 字段，带 saga 标记） ----------
     @Test
     void createRedemptionOrder_vip_shouldActivateVip() {
         String userId = "u1";
         Order o = redemptionOrder(userId, "vip1", 1);
 
         Goods vip = goods("vip1", "vip", 300, 0, true);
-        when(goodsService.getGoodsById("vip1")).thenReturn(vip);
+        stubGoods(vip);
 
         User user = new User();
         user.setUserid(userId);
@@ -164,14 +253,20 @@ class OrderServiceImplTest {
         v.setExpiryDate(LocalDateTime.now().minusDays(1));
         user.setVip(v);
 
-        when(userRepository.findByUserid(userId)).thenReturn(Optional.of(user));
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(user);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(User.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
         when(orderRepository.save(any(Order.class))).thenAnswer(inv -> inv.getArgument(0));
 
-        service.createRedemptionOrder(o);
+        Order saved = service.createRedemptionOrder(o);
 
-        verify(goodsService, never()).reserveStock(anyString(), anyInt());
-        verify(pointsService).adjustPoints(eq(userId), eq(-300L), eq("store"), contains("Purchased"), isNull(), isNull());
-        verify(userRepository, atLeastOnce()).save(any(User.class));
+        verify(goodsService, never()).reserveStock(anyMap(), anyString());
+        verify(pointsService).deductForRedemption(eq(userId), eq(300L), contains("Purchased"), anyString());
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(User.class));
+        org.bson.Document set = (org.bson.Document) update.getValue().getUpdateObject().get("$set");
+        assertEquals(true, set.get("vip.isActive"));
+        assertEquals(saved.getId(), set.get("vip.lastRedemptionId"));
     }
 
     // ---------- VIP-exclusive：switch 关 => VIP_DISABLED ----------
@@ -181,7 +276,7 @@ class OrderServiceImplTest {
         Order o = redemptionOrder(userId, "gx", 1);
 
         Goods g = goods("gx", "normal", 10, 1, true);
-        when(goodsService.getGoodsById("gx")).thenReturn(g);
+        stubGoods(g);
 
         when(vipSwitchService.isSwitchEnabled("Exclusive_goods")).thenReturn(false);
 
@@ -190,25 +285,347 @@ class OrderServiceImplTest {
         assertTrue(ex.getMessage().contains("VIP_DISABLED"));
     }
 
-    // ---------- 回滚：reserve 成功后 pointsService 抛异常 => releaseStock 被调用 ----------
+    // ---------- 多件实物：一次扣库存，库存不足时不扣积分 ----------
+    @Test
+    void createRedemptionOrder_multipleGoods_shouldReserveAllInOneCall_andSkipPointsWhenShort() {
+        Order o = new Order();
+        o.setUserId("u1");
+        Order.OrderItem a = new Order.OrderItem();
+        a.setGoodsId("g1");
+        a.setQuantity(1);
+        Order.OrderItem b = new Order.OrderItem();
+        b.setGoodsId("g2");
+        b.setQuantity(3);
+        o.setItems(List.of(a, b));
+
+        stubGoods(goods("g1", "normal", 10, 0, true), goods("g2", "normal", 20, 0, true));
+        doThrow(new BusinessException(ErrorCode.PARAM_ERROR, "OUT_OF_STOCK: g2"))
+                .when(goodsService).reserveStock(eq(Map.of("g1", 1, "g2", 3)), anyString());
+
+        assertThrows(BusinessException.class, () -> service.createRedemptionOrder(o));
+
+        verify(goodsService, times(1)).reserveStock(anyMap(), anyString());
+        verify(pointsService, never()).deductForRedemption(anyString(), anyLong(), anyString(), anyString());
+        // 补偿按 saga id 条件撤销，没扣成的不会多还
+        verify(goodsService).cancelStock(eq(Set.of("g1", "g2")), anyString());
+    }
+
+    // ---------- 回滚：reserve 成功后 pointsService 抛异常 => 按 saga id 撤销库存 ----------
     @Test
     void createRedemptionOrder_pointsServiceThrows_shouldRollbackStock() {
         String userId = "u1";
         Order o = redemptionOrder(userId, "g1", 1);
 
         Goods g1 = goods("g1", "normal", 100, 0, true);
-        when(goodsService.getGoodsById("g1")).thenReturn(g1);
+        stubGoods(g1);
 
         doThrow(new RuntimeException("points fail"))
-                .when(pointsService).adjustPoints(eq(userId), anyLong(), anyString(), anyString(), any(), any());
+                .when(pointsService).deductForRedemption(eq(userId), anyLong(), anyString(), anyString());
 
         assertThrows(RuntimeException.class, () -> service.createRedemptionOrder(o));
 
-        verify(goodsService).reserveStock("g1", 1);
-        verify(goodsService).releaseStock("g1", 1);
+        ArgumentCaptor<String> sagaId = ArgumentCaptor.forClass(String.class);
+        verify(goodsService).reserveStock(eq(Map.of("g1", 1)), sagaId.capture());
+        verify(goodsService).cancelStock(Set.of("g1"), sagaId.getValue());
+
+        // 扣分结果未知（可能超时但已生效），退分以用户文档上的 saga 标记为条件
+        verify(pointsService).refundRedemption(eq(userId), eq(100L), contains("Rollback"), eq(sagaId.getValue()));
+    }
+
+    // ---------- saga：每步推进一次，成功后关闭为 COMPLETED，并记录阶段耗时 ----------
+    @Test
+    void createRedemptionOrder_success_shouldAdvanceSagaInOrder_andRecordStages() {
+        Order o = redemptionOrder("u1", "g1", 1);
+        stubGoods(goods("g1", "normal", 100, 0, true));
+        when(orderRepository.save(any(Order.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        Order saved = service.createRedemptionOrder(o);
+
+        ArgumentCaptor<RedemptionSaga> saga = ArgumentCaptor.forClass(RedemptionSaga.class);
+        verify(sagaLog).start(saga.capture());
+        assertEquals(saved.getId(), saga.getValue().getId());
+        assertEquals(Map.of("g1", 1), saga.getValue().getReservedStock());
+        assertEquals(100L, saga.getValue().getPointsCost());
+
+        InOrder inOrder = inOrder(sagaLog, goodsService, pointsService, orderRepository);
+        inOrder.verify(goodsService).reserveStock(Map.of("g1", 1), saved.getId());
+        inOrder.verify(sagaLog).advance(saved.getId(), Status.STARTED, Status.STOCK_RESERVED);
+        inOrder.verify(pointsService).deductForRedemption(eq("u1"), eq(100L), anyString(), eq(saved.getId()));
+        inOrder.verify(sagaLog).advance(saved.getId(), Status.STOCK_RESERVED, Status.POINTS_DEDUCTED);
+        inOrder.verify(sagaLog).advance(saved.getId(), Status.POINTS_DEDUCTED, Status.FULFILLED);
+        inOrder.verify(orderRepository).save(o);
+        inOrder.verify(sagaLog).close(eq(saved.getId()), eq(Status.FULFILLED), eq(Status.COMPLETED), anyMap(), isNull());
+        // 完成后去掉库存和用户文档上的 saga 标记
+        inOrder.verify(goodsService).confirmStock(Set.of("g1"), saved.getId());
+        inOrder.verify(pointsService).settleRedemption("u1", saved.getId());
+
+        assertEquals(1L, meterRegistry.get(OrderServiceImpl.STAGE_TIMER).tag("stage", "reserve").timer().count());
+        assertEquals(1L, meterRegistry.get(OrderServiceImpl.TOTAL_TIMER).tag("outcome", "completed").timer().count());
+    }
+
+    // ---------- 批量取商品 + 整单只查一次用户 ----------
+    @Test
+    void createRedemptionOrder_severalVipExclusiveItems_shouldLoadGoodsAndUserOnce() {
+        Order o = new Order();
+        o.setUserId("u1");
+        Order.OrderItem a = new Order.OrderItem();
+        a.setGoodsId("g1");
+        Order.OrderItem b = new Order.OrderItem();
+        b.setGoodsId("g2");
+        o.setItems(List.of(a, b));
+
+        stubGoods(goods("g1", "normal", 10, 1, true), goods("g2", "normal", 20, 1, true));
+        when(vipSwitchService.isSwitchEnabled("Exclusive_goods")).thenReturn(true);
+        User user = new User();
+        User.Vip v = new User.Vip();
+        v.setActive(true);
+        v.setExpiryDate(LocalDateTime.now().plusDays(3));
+        user.setVip(v);
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(user);
+        when(orderRepository.save(any(Order.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        service.createRedemptionOrder(o);
+
+        verify(goodsService, times(1)).getGoodsByIds(List.of("g1", "g2"));
+        verify(mongoTemplate, times(1)).findOne(any(Query.class), eq(User.class));
+        verify(goodsService).reserveStock(eq(Map.of("g1", 1, "g2", 1)), anyString());
+    }
+
+    // ---------- 请求内补偿：保存订单失败 => 删券、退分、关闭为 COMPENSATED ----------
+    @Test
+    void createRedemptionOrder_saveFails_shouldDeleteVouchers_refundPoints_andCloseCompensated() {
+        Order o = redemptionOrder("u1", "v1", 2);
+        stubGoods(goods("v1", "voucher", 50, 0, true));
+        when(orderRepository.save(any(Order.class))).thenThrow(new RuntimeException("db down"));
+
+        assertThrows(RuntimeException.class, () -> service.createRedemptionOrder(o));
+
+        verify(userVoucherRepository).deleteAllById(argThat(ids -> ((Collection<?>) ids).size() == 2));
+        verify(pointsService).refundRedemption(eq("u1"), eq(100L), contains("Rollback"), anyString());
+        verify(goodsService, never()).cancelStock(any(), any());
+        verify(sagaLog).advance(anyString(), eq(Status.FULFILLED), eq(Status.COMPENSATING));
+        verify(sagaLog).close(anyString(), eq(Status.COMPENSATING), eq(Status.COMPENSATED), isNull(), eq("db down"));
+    }
+
+    // ---------- 恢复任务已接手：请求线程不再补偿 ----------
+    @Test
+    void createRedemptionOrder_sagaTakenOver_shouldNotCompensate() {
+        Order o = redemptionOrder("u1", "g1", 1);
+        stubGoods(goods("g1", "normal", 100, 0, true));
+        when(sagaLog.advance(anyString(), eq(Status.STOCK_RESERVED), eq(Status.POINTS_DEDUCTED))).thenReturn(false);
+
+        assertThrows(IllegalStateException.class, () -> service.createRedemptionOrder(o));
+
+        verify(goodsService, never()).cancelStock(any(), any());
+        verify(pointsService, times(1)).deductForRedemption(anyString(), anyLong(), anyString(), anyString());
+        verify(pointsService, never()).refundRedemption(anyString(), anyLong(), anyString(), anyString());
+        verify(sagaLog, never()).close(anyString(), any(), any(), any(), any());
+    }
 
-        // 扣分失败时 pointsDeducted 还没 true，不会走退款那次 adjustPoints(+)
-        verify(pointsService, times(1))
-                .adjustPoints(eq(userId), anyLong(), anyString(), anyString(), any(), any());
+    // ---------- 恢复：各状态前滚 / 回滚 ----------
+    @Test
+    void recover_started_shouldCancelStockBySagaId() {
+        when(sagaLog.findStuck(any(), eq(10))).thenReturn(List.of(saga(Status.STARTED, Map.of("g1", 1), 100, 0, List.of())));
+
+        assertEquals(1, service.recoverStuckRedemptions(Duration.ofMinutes(2), 10));
+
+        // 扣库存结果未知：按 saga id 条件归还，没扣成的商品不会多加
+        verify(sagaLog).advance("s1", Status.STARTED, Status.COMPENSATING);
+        verify(goodsService).cancelStock(Set.of("g1"), "s1");
+        verify(goodsService, never()).releaseStock(anyMap());
+        verify(sagaLog).close(eq("s1"), eq(Status.COMPENSATING), eq(Status.COMPENSATED), isNull(), anyString());
+    }
+
+    @Test
+    void recover_stockReserved_refundsOnlyIfUserDocumentHasSagaMarker() {
+        when(sagaLog.findStuck(any(), eq(10))).thenReturn(List.of(saga(Status.STOCK_RESERVED, Map.of("g1", 1), 100, 0, List.of())));
+        when(pointsService.refundRedemption(anyString(), anyLong(), anyString(), anyString())).thenReturn(false);
+
+        assertEquals(1, service.recoverStuckRedemptions(Duration.ofMinutes(2), 10));
+
+        verify(goodsService).cancelStock(Set.of("g1"), "s1");
+        verify(pointsService).refundRedemption(eq("u1"), eq(100L), anyString(), eq("s1"));
+        verify(pointsService, never()).adjustPoints(anyString(), anyLong(), anyString(), anyString(), any(), any());
+        verify(sagaLog).close(eq("s1"), eq(Status.COMPENSATING), eq(Status.COMPENSATED), isNull(), anyString());
+    }
+
+    @Test
+    void recover_pointsDeducted_vipNotGranted_shouldRollBackEverything() {
+        UserVoucher uv = new UserVoucher();
+        uv.setId("uv1");
+        when(sagaLog.findStuck(any(), eq(10))).thenReturn(List.of(saga(Status.POINTS_DEDUCTED, Map.of("g1", 1), 100, 30, List.of(uv))));
+        User user = new User();
+        user.setVip(new User.Vip());
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(user);
+
+        assertEquals(1, service.recoverStuckRedemptions(Duration.ofMinutes(2), 10));
+
+        verify(userVoucherRepository).deleteAllById(List.of("uv1"));
+        verify(pointsService).refundRedemption(eq("u1"), eq(100L), anyString(), eq("s1"));
+        verify(goodsService).cancelStock(Set.of("g1"), "s1");
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+    }
+
+    @Test
+    void recover_pointsDeducted_vipGranted_shouldRollForward() {
+        when(sagaLog.findStuck(any(), eq(10))).thenReturn(List.of(saga(Status.POINTS_DEDUCTED, Map.of(), 300, 30, List.of())));
+        User user = new User();
+        User.Vip v = new User.Vip();
+        v.setLastRedemptionId("s1");
+        user.setVip(v);
+        when(mongoTemplate.findOne(any(Query.class), eq(User.class))).thenReturn(user);
+
+        assertEquals(1, service.recoverStuckRedemptions(Duration.ofMinutes(2), 10));
+
+        // VIP 已带 s1 标记，不会再续期
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        verify(orderRepository).save(any(Order.class));
+        verify(sagaLog).close(eq("s1"), eq(Status.FULFILLED), eq(Status.COMPLETED), isNull(), anyString());
+        verify(pointsService, never()).refundRedemption(anyString(), anyLong(), anyString(), anyString());
+        verify(pointsService).settleRedemption("u1", "s1");
+    }
+
+    @Test
+    void recover_fulfilled_shouldSaveOrder() {
+        when(sagaLog.findStuck(any(), eq(10))).thenReturn(List.of(saga(Status.FULFILLED, Map.of("g1", 1), 100, 0, List.of())));
+
+        assertEquals(1, service.recoverStuckRedemptions(Duration.ofMinutes(2), 10));
+
+        verify(orderRepository).save(any(Order.class));
+        // 前滚只去掉 saga 标记，不退分、不还库存
+        verify(goodsService).confirmStock(Set.of("g1"), "s1");
+        verify(pointsService).settleRedemption("u1", "s1");
+        verify(goodsService, never()).cancelStock(any(), any());
+        verify(pointsService, never()).refundRedemption(anyString(), anyLong(), anyString(), anyString());
+    }
+
+    // ---------- searchOrders：Mongo 端筛选 + 排序 + 分页 + 摘要投影 ----------
+    private static Order listed(String id, long createdAt) {
+        Order o = new Order();
+        o.setId(id);
+        o.setCreatedAt(new java.util.Date(createdAt));
+        return o;
+    }
+
+    @Test
+    void searchOrders_pageMode_filtersSortsProjects_andSkipsCountOnLastPage() {
+        when(mongoTemplate.find(any(Query.class), eq(Order.class))).thenReturn(List.of(listed("a", 2000L)));
+
+        PageResponse<Order> page = service.searchOrders("u1", "PAID", true, null, 2, 10, true);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Order.class));
+        org.bson.Document q = query.getValue().getQueryObject();
+        assertEquals("u1", q.get("userId"));
+        assertEquals("PAID", q.get("status"));
+        assertEquals(true, q.get("isRedemptionOrder"));
+        assertEquals(-1, query.getValue().getSortObject().get("createdAt"));
+        assertEquals(-1, query.getValue().getSortObject().get("_id"));
+        assertEquals(10L, query.getValue().getSkip());
+        assertEquals(11, query.getValue().getLimit());
+        org.bson.Document fields = query.getValue().getFieldsObject();
+        assertTrue(fields.containsKey("items.goodsId"));
+        assertFalse(fields.containsKey("shippingAddress"));
+        assertFalse(fields.containsKey("recipientPhone"));
+
+        assertEquals(11L, page.getTotal());
+        assertNull(page.getNextCursor());
+        verify(mongoTemplate, never()).count(any(Query.class), eq(Order.class));
+    }
+
+    @Test
+    void searchOrders_fullPage_returnsNextCursor_andCountsWithFilter() {
+        when(mongoTemplate.find(any(Query.class), eq(Order.class)))
+                .thenReturn(List.of(listed("b", 3000L), listed("a", 2000L), listed("z", 1000L)));
+        when(mongoTemplate.count(any(Query.class), eq(Order.class))).thenReturn(7L);
+
+        PageResponse<Order> page = service.searchOrders("u1", null, null, null, 1, 2, false);
+
+        assertEquals(2, page.getList().size());
+        assertEquals("2000_a", page.getNextCursor());
+        assertEquals(7L, page.getTotal());
+        ArgumentCaptor<Query> count = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).count(count.capture(), eq(Order.class));
+        assertEquals("u1", count.getValue().getQueryObject().get("userId"));
+    }
+
+    @Test
+    void searchOrders_noFilter_usesEstimatedCount() {
+        when(mongoTemplate.find(any(Query.class), eq(Order.class)))
+                .thenReturn(List.of(listed("b", 3000L), listed("a", 2000L)));
+        when(mongoTemplate.estimatedCount(Order.class)).thenReturn(40L);
+
+        PageResponse<Order> page = service.searchOrders(null, null, null, null, 1, 1, true);
+
+        assertEquals(40L, page.getTotal());
+        verify(mongoTemplate, never()).count(any(Query.class), eq(Order.class));
+    }
+
+    @Test
+    void searchOrders_cursor_keysetWithoutSkipOrCount() {
+        when(mongoTemplate.find(any(Query.class), eq(Order.class))).thenReturn(List.of(listed("a", 1000L)));
+
+        PageResponse<Order> page = service.searchOrders("u1", null, null, "2000_b", 5, 10, true);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Order.class));
+        assertEquals(0L, query.getValue().getSkip());
+        String json = query.getValue().getQueryObject().toJson();
+        assertTrue(json.contains("$and") && json.contains("$or") && json.contains("$lt"), json);
+        assertEquals(-1L, page.getTotal());
+        verify(mongoTemplate, never()).count(any(Query.class), eq(Order.class));
+        verify(mongoTemplate, never()).estimatedCount(Order.class);
+    }
+
+    @Test
+    void searchOrders_invalidCursor_throwParamError() {
+        BusinessException ex = assertThrows(BusinessException.class,
+                () -> service.searchOrders(null, null, null, "abc_x", 1, 10, true));
+        assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
+        ex = assertThrows(BusinessException.class,
+                () -> service.searchOrders(null, null, null, "nocursor", 1, 10, true));
+        assertEquals(ErrorCode.PARAM_ERROR.getCode(), ex.getCode());
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    // ---------- 残留库存标记：已结束的 saga 清掉，未结束的不动 ----------
+    @Test
+    void clearSettledStockMarkers_finishedSagas_clearsTheirMarkersOnly() {
+        RedemptionSaga completed = saga(Status.COMPLETED, Map.of("g1", 1), 300, 0, List.of());
+        RedemptionSaga compensated = saga(Status.COMPENSATED, Map.of("g2", 1), 0, 0, List.of());
+        compensated.setId("s2");
+        RedemptionSaga open = saga(Status.STOCK_RESERVED, Map.of("g3", 1), 0, 0, List.of());
+        open.setId("s3");
+        Map<String, Set<String>> pending = new LinkedHashMap<>();
+        pending.put("s1", Set.of("g1"));
+        pending.put("s2", Set.of("g2"));
+        pending.put("s3", Set.of("g3"));
+        when(goodsService.findPendingReservations(10)).thenReturn(pending);
+        when(sagaLog.findByIds(pending.keySet())).thenReturn(List.of(completed, compensated, open));
+
+        assertEquals(2, service.clearSettledStockMarkers(Duration.ofMinutes(2), 10));
+
+        verify(goodsService).confirmStock(Set.of("g1"), "s1");
+        verify(pointsService).settleRedemption("u1", "s1");
+        verify(goodsService).cancelStock(Set.of("g2"), "s2");
+        verify(goodsService, never()).confirmStock(any(), eq("s3"));
+        verify(goodsService, never()).cancelStock(any(), eq("s3"));
+    }
+
+    @Test
+    void clearSettledStockMarkers_expiredSaga_clearsOnlyOldMarkers() {
+        long now = System.currentTimeMillis();
+        String old = new ObjectId(new Date(now - Duration.ofHours(1).toMillis())).toHexString();
+        String recent = new ObjectId(new Date(now)).toHexString();
+        Map<String, Set<String>> pending = new LinkedHashMap<>();
+        pending.put(old, Set.of("g1"));
+        pending.put(recent, Set.of("g2"));
+        when(goodsService.findPendingReservations(10)).thenReturn(pending);
+        when(sagaLog.findByIds(pending.keySet())).thenReturn(List.of());
+
+        assertEquals(1, service.clearSettledStockMarkers(Duration.ofMinutes(2), 10));
+
+        verify(goodsService).confirmStock(Set.of("g1"), old);
+        verify(goodsService, never()).confirmStock(any(), eq(recent));
     }
 }
@@ -12,14 +12,22 @@ import com.example.EcoGo.repository.UserRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -37,6 +45,12 @@ class PointsServiceImplTest {
     @Mock
     private BadgeService badgeService;
 
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Spy
+    private IdGenerator idGenerator = new SnowflakeIdGenerator(1);
+
     @InjectMocks
     private PointsServiceImpl pointsService;
 
@@ -51,37 +65,113 @@ class PointsServiceImplTest {
         mockUser.setTotalCarbon(10.0);
     }
 
+    // ---------- 兑换扣分：余额和 saga 标记一次写入用户文档 ----------
     @Test
-    void adjustPoints_add_success() {
+    void deductForRedemption_writesBalanceAndSagaMarkerTogether() {
+        mockUser.setCurrentPoints(70L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(mockUser);
+        when(pointsLogRepository.save(any(UserPointsLog.class))).thenAnswer(i -> i.getArgument(0));
+
+        UserPointsLog log = pointsService.deductForRedemption("testUser", 30L, "Purchased x", "s1");
+
+        assertEquals(-30L, log.getPoints());
+        assertEquals(70L, log.getBalanceAfter());
+        assertEquals("s1", log.getRelatedId());
+        verify(mongoTemplate).findAndModify(argThat((Query q) -> q.getQueryObject().containsKey("pendingRedemptions")),
+                argThat((Update u) -> u.getUpdateObject().containsKey("$addToSet")),
+                any(FindAndModifyOptions.class), eq(User.class));
+        verify(userRepository, never()).save(any(User.class));
+    }
+
+    @Test
+    void deductForRedemption_replayed_doesNotDeductTwice() {
+        mockUser.setPendingRedemptions(List.of("s1"));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(null);
+        when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
+
+        assertNull(pointsService.deductForRedemption("testUser", 30L, "Purchased x", "s1"));
+        verify(pointsLogRepository, never()).save(any());
+    }
+
+    @Test
+    void deductForRedemption_insufficientPoints_throws() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(null);
         when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
+
+        assertThrows(BusinessException.class, () -> pointsService.deductForRedemption("testUser", 300L, "x", "s1"));
+    }
+
+    @Test
+    void refundRedemption_noMarker_refundsNothing() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(null);
+
+        assertFalse(pointsService.refundRedemption("testUser", 30L, "Rollback", "s1"));
+        verify(pointsLogRepository, never()).save(any());
+    }
+
+    @Test
+    void refundRedemption_marked_refundsAndLogs() {
+        mockUser.setCurrentPoints(130L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(mockUser);
+
+        assertTrue(pointsService.refundRedemption("testUser", 30L, "Rollback", "s1"));
+        verify(pointsLogRepository).save(argThat(l -> l.getPoints() == 30L && l.getBalanceAfter() == 130L));
+    }
+
+    @Test
+    void adjustPoints_add_success() {
+        mockUser.setCurrentPoints(150L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(mockUser);
         when(pointsLogRepository.save(any(UserPointsLog.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         UserPointsLog log = pointsService.adjustPoints("testUser", 50, "trip", "Trip points", null, null);
 
-        assertEquals(150L, mockUser.getCurrentPoints());
-        assertEquals(150L, mockUser.getTotalPoints()); // Trip adds to total
         assertEquals(50, log.getPoints());
-        verify(userRepository).save(mockUser);
+        assertEquals(150L, log.getBalanceAfter());
+        // Trip adds to current, total and carbon in one $inc; no full-document save
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class),
+                eq(User.class));
+        org.bson.Document inc = (org.bson.Document) update.getValue().getUpdateObject().get("$inc");
+        assertEquals(50L, inc.get("currentPoints"));
+        assertEquals(50L, inc.get("totalPoints"));
+        assertEquals(5.0, inc.get("totalCarbon"));
+        assertEquals(1, update.getValue().getUpdateObject().size());
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
     void adjustPoints_deduct_success() {
-        when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
+        mockUser.setCurrentPoints(50L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(mockUser);
         when(pointsLogRepository.save(any(UserPointsLog.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         UserPointsLog log = pointsService.adjustPoints("testUser", -50, "redeem", "Redeem", null, null);
 
-        assertEquals(50L, mockUser.getCurrentPoints());
-        assertEquals(100L, mockUser.getTotalPoints()); // Redeem doesn't change total points
         assertEquals(-50, log.getPoints());
+        assertEquals(50L, log.getBalanceAfter());
+        // Redeem doesn't change total points; the deduction is guarded by the balance
+        verify(mongoTemplate).findAndModify(argThat((Query q) -> q.getQueryObject().containsKey("currentPoints")),
+                argThat((Update u) -> !((org.bson.Document) u.getUpdateObject().get("$inc")).containsKey("totalPoints")),
+                any(FindAndModifyOptions.class), eq(User.class));
     }
 
     @Test
     void adjustPoints_insufficientFunds() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(null);
         when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
 
         assertThrows(BusinessException.class,
                 () -> pointsService.adjustPoints("testUser", -200, "redeem", "Redeem", null, null));
+        verify(pointsLogRepository, never()).save(any());
     }
 
     @Test
@@ -194,13 +284,15 @@ class PointsServiceImplTest {
 
     @Test
     void redeemPoints_success() {
-        when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
+        mockUser.setCurrentPoints(50L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(mockUser);
         when(pointsLogRepository.save(any(UserPointsLog.class))).thenAnswer(i -> i.getArgument(0));
 
         pointsService.redeemPoints("testUser", "order123", 50L);
 
-        assertEquals(50L, mockUser.getCurrentPoints());
-        verify(userRepository).save(mockUser);
+        verify(pointsLogRepository).save(argThat(l -> l.getPoints() == -50L && l.getBalanceAfter() == 50L));
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -210,13 +302,15 @@ class PointsServiceImplTest {
         result.source = "bonus";
         result.description = "Bonus points";
 
-        when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
+        mockUser.setCurrentPoints(200L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(mockUser);
         when(pointsLogRepository.save(any(UserPointsLog.class))).thenAnswer(i -> i.getArgument(0));
 
         pointsService.settle("testUser", result);
 
-        assertEquals(200L, mockUser.getCurrentPoints());
-        verify(userRepository).save(mockUser);
+        verify(pointsLogRepository).save(argThat(l -> l.getPoints() == 100L && l.getBalanceAfter() == 200L));
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -302,6 +396,8 @@ class PointsServiceImplTest {
 
     @Test
     void adjustPoints_userNotFound() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(null);
         when(userRepository.findByUserid("unknown")).thenReturn(Optional.empty());
 
         assertThrows(BusinessException.class,
@@ -0,0 +1,114 @@
+package com.example.EcoGo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final long T0 = SnowflakeIdGenerator.EPOCH_MILLIS + 1_000_000L;
+
+    @Test
+    void nextId_strictlyIncreasingAndCarriesNodeId() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(37);
+
+        long previous = generator.nextId();
+        for (int i = 0; i < 100_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            assertEquals(37, SnowflakeIdGenerator.nodeIdOf(id));
+            previous = id;
+        }
+    }
+
+    @Test
+    void nextId_sequenceOverflowBorrowsNextMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, () -> T0);
+        int perMillis = 1 << SnowflakeIdGenerator.SEQUENCE_BITS;
+
+        long first = generator.nextId();
+        long previous = first;
+        for (int i = 1; i <= perMillis; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+        long shift = SnowflakeIdGenerator.NODE_BITS + SnowflakeIdGenerator.SEQUENCE_BITS;
+        assertEquals((first >>> shift) + 1, previous >>> shift);
+    }
+
+    @Test
+    void nextId_clockRollback_keepsIncreasing() {
+        AtomicLong clock = new AtomicLong(T0);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, clock::get);
+
+        long before = generator.nextId();
+        clock.set(T0 - 5_000);
+        long after = generator.nextId();
+        clock.set(T0 + 10);
+        long later = generator.nextId();
+
+        assertTrue(after > before);
+        assertTrue(later > after);
+    }
+
+    @Test
+    void nextId_differentNodesSameMillisecond_noCollision() {
+        long a = new SnowflakeIdGenerator(1, () -> T0).nextId();
+        long b = new SnowflakeIdGenerator(2, () -> T0).nextId();
+
+        assertNotEquals(a, b);
+    }
+
+    @Test
+    void nextId_concurrentCallers_allUnique() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+        int threads = 8;
+        int perThread = 20_000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(generator.nextId());
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    @Test
+    void nextKey_fixedWidthAndSortsLikeIds() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+
+        String a = generator.nextKey();
+        String b = generator.nextKey();
+
+        assertEquals(13, a.length());
+        assertTrue(a.compareTo(b) < 0);
+    }
+
+    @Test
+    void constructor_rejectsOutOfRangeNodeId() {
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(1024, () -> T0));
+    }
+}
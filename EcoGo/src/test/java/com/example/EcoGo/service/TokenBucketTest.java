@@ -0,0 +1,33 @@
+package com.example.EcoGo.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void tryAcquire_burstThenRefillAtRate() {
+        TokenBucket bucket = new TokenBucket(10, 3, 0L);
+
+        assertTrue(bucket.tryAcquire(0L));
+        assertTrue(bucket.tryAcquire(0L));
+        assertTrue(bucket.tryAcquire(0L));
+        assertFalse(bucket.tryAcquire(0L));
+
+        // 10/s -> 100ms 补 1 个
+        assertTrue(bucket.tryAcquire(SECOND / 10));
+        assertFalse(bucket.tryAcquire(SECOND / 10));
+    }
+
+    @Test
+    void tryAcquire_neverExceedsCapacity() {
+        TokenBucket bucket = new TokenBucket(1000, 2, 0L);
+
+        assertTrue(bucket.tryAcquire(10 * SECOND));
+        assertTrue(bucket.tryAcquire(10 * SECOND));
+        assertFalse(bucket.tryAcquire(10 * SECOND));
+    }
+}
@@ -4,6 +4,7 @@ import com.example.EcoGo.dto.PointsDto;
 import com.example.EcoGo.dto.TripDto;
 import com.example.EcoGo.exception.BusinessException;
 import com.example.EcoGo.exception.errorcode.ErrorCode;
+import com.example.EcoGo.interfacemethods.BadgeService;
 import com.example.EcoGo.interfacemethods.PointsService;
 import com.example.EcoGo.interfacemethods.VipSwitchService;
 import com.example.EcoGo.model.TransportMode;
@@ -15,9 +16,15 @@ import com.example.EcoGo.repository.UserRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -40,6 +47,10 @@ class TripServiceImplTest {
     private PointsService pointsService;
     @Mock
     private VipSwitchService vipSwitchService;
+    @Mock
+    private BadgeService badgeService;
+    @Mock
+    private MongoTemplate mongoTemplate;
 
     @InjectMocks
     private TripServiceImpl tripService;
@@ -53,6 +64,8 @@ class TripServiceImplTest {
         testUser.setUserid("user1");
         testUser.setCurrentPoints(500);
         testUser.setTotalCarbon(50.0);
+        lenient().when(mongoTemplate.findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(User.class))).thenReturn(testUser);
 
         testTrip = new Trip();
         testTrip.setId("trip1");
@@ -148,7 +161,7 @@ class TripServiceImplTest {
         // basePoints = round(2.5 * 100) = 250, not VIP so no doubling
         assertEquals(250, result.getPointsGained());
         verify(pointsService).settle(eq("user1"), any(PointsDto.SettleResult.class));
-        verify(userRepository).save(testUser);
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -228,12 +241,27 @@ class TripServiceImplTest {
         when(vipSwitchService.isSwitchEnabled("Double_points")).thenReturn(false);
         when(pointsService.formatTripDescription(anyString(), anyString(), anyDouble())).thenReturn("desc");
         when(tripRepository.save(any(Trip.class))).thenAnswer(inv -> inv.getArgument(0));
+        User updated = new User();
+        updated.setUserid("user1");
+        updated.setTotalCarbon(50.25);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(User.class))).thenReturn(updated);
 
         tripService.completeTrip("user1", "trip1", buildCompleteRequest());
 
-        // totalCarbon was 50.0, now should be 50.0 + 2.5 = 52.5
-        assertEquals(52.5, testUser.getTotalCarbon(), 0.01);
-        verify(userRepository).save(testUser);
+        // totalCarbon 用 $inc 累加（carbonSaved / 10），不整文档 save
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class),
+                eq(User.class));
+        assertEquals(0.25, ((Number) update.getValue().getUpdateObject().get("$inc", org.bson.Document.class)
+                .get("totalCarbon")).doubleValue(), 0.001);
+        verify(userRepository, never()).save(any(User.class));
+        // 成就徽章在累加之后、按更新后的用户检查
+        InOrder inOrder = inOrder(pointsService, mongoTemplate, badgeService);
+        inOrder.verify(pointsService).settle(eq("user1"), any(PointsDto.SettleResult.class));
+        inOrder.verify(mongoTemplate).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(User.class));
+        inOrder.verify(badgeService).checkAndUnlockCarbonBadges(updated);
     }
 
     // ========== cancelTrip ==========
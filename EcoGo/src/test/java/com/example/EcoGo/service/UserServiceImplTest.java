@@ -13,6 +13,9 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
 import java.time.LocalDateTime;
 import java.util.Optional;
@@ -20,6 +23,8 @@ import java.util.Optional;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -34,6 +39,9 @@ class UserServiceImplTest {
     @Mock
     private JwtUtils jwtUtils;
 
+    @Mock
+    private MongoTemplate mongoTemplate;
+
     @InjectMocks
     private UserServiceImpl userService;
 
@@ -93,7 +101,8 @@ class UserServiceImplTest {
 
         assertNotNull(response);
         assertEquals("token", response.token);
-        verify(userRepository).save(mockUser); // Updates last login
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class)); // Updates last login
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -127,7 +136,6 @@ class UserServiceImplTest {
         request.remark = "Promoted";
 
         when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
-        when(userRepository.save(any(User.class))).thenReturn(mockUser);
 
         com.example.EcoGo.dto.UserProfileDto.UpdateProfileResponse response = userService.manageUser("testUser",
                 request);
@@ -135,13 +143,13 @@ class UserServiceImplTest {
         assertNotNull(response);
         assertTrue(mockUser.isAdmin());
         assertTrue(mockUser.getVip().isActive());
-        verify(userRepository).save(mockUser);
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
     void activateVip_new() {
         when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
-        when(userRepository.save(any(User.class))).thenReturn(mockUser);
 
         userService.activateVip("testUser", 30); // Assuming 30 days for monthly
 
@@ -149,7 +157,8 @@ class UserServiceImplTest {
         // assertEquals("Monthly", mockUser.getVip().getPlan()); // Plan might not be
         // set by simple activateVip(int)
         assertNotNull(mockUser.getVip().getStartDate());
-        verify(userRepository).save(mockUser);
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -160,7 +169,6 @@ class UserServiceImplTest {
         request.vipPlan = "Yearly";
 
         when(userRepository.findByUserid("testUser")).thenReturn(Optional.of(mockUser));
-        when(userRepository.save(any(User.class))).thenReturn(mockUser);
 
         com.example.EcoGo.dto.UserProfileDto.UpdateProfileResponse response = userService
                 .updateUserInfoAdmin("testUser", request);
@@ -169,7 +177,8 @@ class UserServiceImplTest {
         assertEquals("AdminUpdated", mockUser.getNickname());
         assertTrue(mockUser.getVip().isActive());
         assertEquals("Yearly", mockUser.getVip().getPlan());
-        verify(userRepository).save(mockUser);
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -193,7 +202,8 @@ class UserServiceImplTest {
 
         assertNotNull(response);
         assertEquals("adminToken", response.token);
-        verify(userRepository).save(adminUser);
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -236,7 +246,6 @@ class UserServiceImplTest {
         when(jwtUtils.validateToken("mock-token")).thenReturn(io.jsonwebtoken.impl.DefaultClaims.class
                 .cast(io.jsonwebtoken.Jwts.claims().setSubject(mockUser.getUserid())));
         when(userRepository.findByUserid(mockUser.getUserid())).thenReturn(Optional.of(mockUser));
-        when(userRepository.save(any(User.class))).thenReturn(mockUser);
 
         com.example.EcoGo.dto.UserProfileDto.PreferencesResetResponse response = userService
                 .resetPreferences("mock-token");
@@ -244,7 +253,8 @@ class UserServiceImplTest {
         assertNotNull(response);
         assertNotNull(mockUser.getPreferences());
         assertEquals("zh", mockUser.getPreferences().getLanguage()); // Check default
-        verify(userRepository).save(mockUser);
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -312,13 +322,13 @@ class UserServiceImplTest {
         request.isDeactivated = true;
 
         when(userRepository.findById("uuid")).thenReturn(Optional.of(mockUser));
-        when(userRepository.save(any(User.class))).thenReturn(mockUser);
 
         com.example.EcoGo.dto.UserProfileDto.UpdateProfileResponse response = userService.updateUserStatus("uuid",
                 request);
 
         assertTrue(mockUser.isDeactivated());
-        verify(userRepository).save(mockUser);
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        verify(userRepository, never()).save(any(User.class));
     }
 
     @Test
@@ -327,13 +337,31 @@ class UserServiceImplTest {
         request.nickname = "New Nick";
 
         when(userRepository.findById("uuid")).thenReturn(Optional.of(mockUser));
-        when(userRepository.save(any(User.class))).thenReturn(mockUser);
 
         com.example.EcoGo.dto.UserProfileDto.UpdateProfileResponse response = userService.updateProfileAdmin("uuid",
                 request);
 
         assertEquals("New Nick", mockUser.getNickname());
-        verify(userRepository).save(mockUser);
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+        verify(userRepository, never()).save(any(User.class));
+    }
+
+    @Test
+    void updateProfileAdmin_setsOnlyEditedFields() {
+        com.example.EcoGo.dto.UserProfileDto.UpdateProfileRequest request = new com.example.EcoGo.dto.UserProfileDto.UpdateProfileRequest();
+        request.nickname = "New Nick";
+        mockUser.setCurrentPoints(100L);
+        mockUser.setPendingRedemptions(new java.util.ArrayList<>(java.util.List.of("s1")));
+
+        when(userRepository.findById("uuid")).thenReturn(Optional.of(mockUser));
+
+        userService.updateProfileAdmin("uuid", request);
+
+        // A concurrent redemption's balance and saga marker are left alone
+        verify(mongoTemplate).updateFirst(any(Query.class), argThat((Update u) -> {
+            org.bson.Document set = (org.bson.Document) u.getUpdateObject().get("$set");
+            return u.getUpdateObject().size() == 1 && set.keySet().equals(java.util.Set.of("nickname", "updatedAt"));
+        }), eq(User.class));
     }
 
     @Test
@@ -465,7 +493,6 @@ class UserServiceImplTest {
         when(jwtUtils.validateToken("token")).thenReturn(io.jsonwebtoken.impl.DefaultClaims.class
                 .cast(io.jsonwebtoken.Jwts.claims().setSubject(mockUser.getUserid())));
         when(userRepository.findByUserid(mockUser.getUserid())).thenReturn(Optional.of(mockUser));
-        when(userRepository.save(any(User.class))).thenReturn(mockUser);
 
         userService.updateProfile("token", request);
 
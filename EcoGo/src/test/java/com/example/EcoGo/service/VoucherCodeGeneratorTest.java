@@ -0,0 +1,38 @@
+package com.example.EcoGo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VoucherCodeGeneratorTest {
+
+    @Test
+    void newCode_formatAndAlphabet() {
+        String code = VoucherCodeGenerator.newCode();
+
+        assertEquals(15, code.length());
+        assertTrue(code.matches("[0-9A-HJKMNP-TV-Z]{5}(-[0-9A-HJKMNP-TV-Z]{4}){2}"), code);
+    }
+
+    @Test
+    void newCode_distinct() {
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) {
+            codes.add(VoucherCodeGenerator.newCode());
+        }
+        assertEquals(10_000, codes.size());
+    }
+
+    @Test
+    void newCode_notDerivedFromIds() {
+        // 连续发的券码没有共同前缀，不能像顺序编号那样从一张推出下一张
+        Set<String> prefixes = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            prefixes.add(VoucherCodeGenerator.newCode().substring(0, 5));
+        }
+        assertTrue(prefixes.size() > 90, "prefixes: " + prefixes.size());
+    }
+}
@@ -4,7 +4,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.web.client.RestTemplate;
 
@@ -23,6 +25,9 @@ class WeatherServiceTest {
     @Mock
     private RestTemplate restTemplate;
 
+    @Spy
+    private CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry(new SimpleMeterRegistry());
+
     @InjectMocks
     private WeatherService weatherService;
 
@@ -167,6 +172,20 @@ class WeatherServiceTest {
         assertEquals("获取天气服务异常", ex.getMessage());
     }
 
+    @Test
+    void getWeather_circuitOpen_failsWithoutCallingApi() {
+        when(restTemplate.getForObject(contains("/weather?"), eq(Map.class)))
+                .thenThrow(new RuntimeException("API connection failed"));
+        for (int i = 0; i < 5; i++) {
+            assertThrows(RuntimeException.class, () -> weatherService.getWeather(1.3521, 103.8198));
+        }
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> weatherService.getWeather(1.3521, 103.8198));
+        assertEquals("获取天气服务异常", ex.getMessage());
+        verify(restTemplate, times(5)).getForObject(anyString(), eq(Map.class));
+    }
+
     @Test
     void getWeather_temperatureRounding() {
         Map<String, Object> main = new HashMap<>();
@@ -2,6 +2,8 @@ package com.example.EcoGo.service.chatbot;
 
 import com.example.EcoGo.model.AuditLog;
 import com.example.EcoGo.repository.AuditLogRepository;
+import com.example.EcoGo.service.IdGenerator;
+import com.example.EcoGo.service.SnowflakeIdGenerator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -18,6 +20,7 @@ import static org.mockito.Mockito.*;
 class AuditLogServiceTest {
 
     @Mock private AuditLogRepository auditLogRepository;
+    @Spy private IdGenerator idGenerator = new SnowflakeIdGenerator(1);
 
     @InjectMocks private AuditLogService auditLogService;
 
@@ -0,0 +1,59 @@
+package com.example.EcoGo.service.chatbot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BusStopPrefetcherTest {
+
+    @Mock
+    private NusBusProvider busProvider;
+
+    @InjectMocks
+    private BusStopPrefetcher prefetcher;
+
+    @Test
+    void prefetch_duringServiceHours_refreshesPopularStops() {
+        when(busProvider.popularStopCodes(8)).thenReturn(List.of("UTOWN", "COM3"));
+        when(busProvider.cacheTtl()).thenReturn(Duration.ofSeconds(15));
+
+        int submitted = prefetcher.prefetch(LocalTime.of(8, 30));
+
+        assertEquals(2, submitted);
+        verify(busProvider).refreshIfExpiring("UTOWN", Duration.ofSeconds(6));
+        verify(busProvider).refreshIfExpiring("COM3", Duration.ofSeconds(6));
+    }
+
+    @Test
+    void refreshAhead_isTheNextRunCappedAtHalfTheTtl() {
+        assertEquals(Duration.ofMillis(BusStopPrefetcher.INTERVAL_MS + BusStopPrefetcher.REFRESH_MARGIN_MS),
+                BusStopPrefetcher.refreshAhead(Duration.ofSeconds(60)));
+        assertEquals(Duration.ofSeconds(4), BusStopPrefetcher.refreshAhead(Duration.ofSeconds(8)));
+    }
+
+    @Test
+    void prefetch_outsideServiceHours_doesNothing() {
+        int submitted = prefetcher.prefetch(LocalTime.of(3, 0));
+
+        assertEquals(0, submitted);
+        verify(busProvider, never()).popularStopCodes(anyInt());
+    }
+
+    @Test
+    void inServiceHours_endHourIsExclusive() {
+        assertTrue(prefetcher.inServiceHours(LocalTime.of(7, 0)));
+        assertTrue(prefetcher.inServiceHours(LocalTime.of(23, 59)));
+        assertFalse(prefetcher.inServiceHours(LocalTime.of(6, 59)));
+    }
+}
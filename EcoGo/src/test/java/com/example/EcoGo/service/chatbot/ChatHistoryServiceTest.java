@@ -0,0 +1,227 @@
+package com.example.EcoGo.service.chatbot;
+
+import com.example.EcoGo.dto.chatbot.ChatHistoryDto;
+import com.example.EcoGo.model.ChatConversation;
+import com.example.EcoGo.model.ChatMessageBucket;
+import com.example.EcoGo.repository.ChatConversationRepository;
+import com.example.EcoGo.repository.ChatMessageBucketRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChatHistoryServiceTest {
+
+    @Mock private ChatConversationRepository conversationRepository;
+    @Mock private ChatMessageBucketRepository bucketRepository;
+    @Mock private MongoTemplate mongoTemplate;
+    @Mock private BulkOperations bulkOps;
+
+    private ChatHistoryService historyService;
+
+    @BeforeEach
+    void setUp() {
+        historyService = new ChatHistoryService(conversationRepository, bucketRepository, mongoTemplate);
+    }
+
+    /** A conversation of {@code total} messages "m0".."m{total-1}", stored in buckets. */
+    private void givenConversation(String owner, long total) {
+        ChatConversation header = new ChatConversation();
+        header.setConversationId("c1");
+        header.setUserId(owner);
+        header.setMessageCount(total);
+        when(conversationRepository.findByConversationId("c1")).thenReturn(Optional.of(header));
+
+        lenient().when(bucketRepository.findByConversationIdAndBucketNoInOrderByBucketNoAsc(eq("c1"), anyCollection()))
+                .thenAnswer(inv -> {
+                    Collection<Long> bucketNos = inv.getArgument(1);
+                    List<ChatMessageBucket> buckets = new ArrayList<>();
+                    for (long b : bucketNos) {
+                        ChatMessageBucket bucket = new ChatMessageBucket();
+                        bucket.setBucketNo(b);
+                        for (long seq = b * ChatMessageBucket.SIZE; seq < Math.min(total, (b + 1) * ChatMessageBucket.SIZE); seq++) {
+                            ChatConversation.Message m = new ChatConversation.Message(seq % 2 == 0 ? "user" : "assistant", "m" + seq);
+                            m.setSeq(seq);
+                            bucket.getMessages().add(m);
+                        }
+                        buckets.add(bucket);
+                    }
+                    return buckets;
+                });
+    }
+
+    private static List<String> texts(ChatHistoryDto page) {
+        return page.getMessages().stream().map(ChatHistoryDto.Message::getText).toList();
+    }
+
+    @Test
+    void getHistory_latestPage() {
+        givenConversation("u1", 250);
+
+        ChatHistoryDto page = historyService.getHistory("u1", false, "c1", null, 3).orElseThrow();
+
+        assertEquals(List.of("m247", "m248", "m249"), texts(page));
+        assertEquals(250, page.getTotal());
+        assertEquals(247L, page.getNextBefore());
+        verify(bucketRepository).findByConversationIdAndBucketNoInOrderByBucketNoAsc("c1", List.of(2L));
+    }
+
+    @Test
+    void getHistory_pageSpanningTwoBuckets() {
+        givenConversation("u1", 250);
+
+        ChatHistoryDto page = historyService.getHistory("u1", false, "c1", 102L, 4).orElseThrow();
+
+        assertEquals(List.of("m98", "m99", "m100", "m101"), texts(page));
+        assertEquals(98L, page.getNextBefore());
+        verify(bucketRepository).findByConversationIdAndBucketNoInOrderByBucketNoAsc("c1", List.of(0L, 1L));
+    }
+
+    @Test
+    void getHistory_firstPage_hasNoNextBefore() {
+        givenConversation("u1", 250);
+
+        ChatHistoryDto page = historyService.getHistory("u1", false, "c1", 5L, 20).orElseThrow();
+
+        assertEquals(List.of("m0", "m1", "m2", "m3", "m4"), texts(page));
+        assertNull(page.getNextBefore());
+    }
+
+    @Test
+    void getHistory_limitIsClamped() {
+        givenConversation("u1", 250);
+
+        assertEquals(ChatHistoryService.MAX_PAGE_SIZE,
+                historyService.getHistory("u1", false, "c1", null, 10_000).orElseThrow().getMessages().size());
+        assertEquals(ChatHistoryService.DEFAULT_PAGE_SIZE,
+                historyService.getHistory("u1", false, "c1", null, null).orElseThrow().getMessages().size());
+    }
+
+    @Test
+    void getHistory_emptyConversation_doesNotReadBuckets() {
+        givenConversation("u1", 0);
+
+        ChatHistoryDto page = historyService.getHistory("u1", false, "c1", null, null).orElseThrow();
+
+        assertTrue(page.getMessages().isEmpty());
+        verifyNoInteractions(bucketRepository);
+    }
+
+    @Test
+    void getHistory_otherUsersConversation_isHiddenUnlessAdmin() {
+        givenConversation("u1", 10);
+
+        assertTrue(historyService.getHistory("u2", false, "c1", null, null).isEmpty());
+        assertTrue(historyService.getHistory("admin", true, "c1", null, null).isPresent());
+    }
+
+    @Test
+    void getHistory_guestConversation_isHiddenFromEveryone() {
+        givenConversation("guest", 10);
+
+        assertTrue(historyService.getHistory("guest", false, "c1", null, null).isEmpty());
+        assertTrue(historyService.getHistory("admin", true, "c1", null, null).isEmpty());
+    }
+
+    @Test
+    void getHistory_unknownConversation_isEmpty() {
+        when(conversationRepository.findByConversationId("nope")).thenReturn(Optional.empty());
+
+        assertTrue(historyService.getHistory("u1", false, "nope", null, null).isEmpty());
+    }
+
+    /** A conversation saved before bucketing, with {@code count} embedded messages. */
+    private static Document legacyConversation(int count) {
+        List<Document> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new Document("role", i % 2 == 0 ? "user" : "assistant").append("text", "m" + i));
+        }
+        return new Document("_id", "id1").append("conversationId", "c1").append("messages", messages);
+    }
+
+    private List<Update> bucketUpserts() {
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps, atLeastOnce()).upsert(any(Query.class), updates.capture());
+        return updates.getAllValues();
+    }
+
+    private static List<Object> addedMessages(Update update) {
+        Document addToSet = (Document) update.getUpdateObject().get("$addToSet");
+        Update.Modifier each = (Update.Modifier) addToSet.get("messages");
+        return Arrays.asList((Object[]) each.getValue());
+    }
+
+    @Test
+    void backfillLegacyMessages_numbersAfterCountedMessages_writesBucketsThenUnsets() {
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("chat_conversations")))
+                .thenReturn(List.of(legacyConversation(3)));
+        // Two messages were already counted on this header, so the legacy ones start at seq 98
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(Document.class), eq("chat_conversations")))
+                .thenReturn(new Document(ChatHistoryService.LEGACY_FROM, 98L).append("messageCount", 101L));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessageBucket.class)).thenReturn(bulkOps);
+
+        assertEquals(1, historyService.backfillLegacyMessages());
+
+        List<Update> upserts = bucketUpserts();
+        assertEquals(2, upserts.size());
+        List<Object> seqs = new ArrayList<>();
+        upserts.forEach(u -> addedMessages(u).forEach(m -> seqs.add(((Document) m).get("seq"))));
+        assertEquals(List.of(98L, 99L, 100L), seqs);
+        ArgumentCaptor<Update> unset = ArgumentCaptor.forClass(Update.class);
+        var order = inOrder(bulkOps, mongoTemplate);
+        order.verify(bulkOps).execute();
+        order.verify(mongoTemplate).updateFirst(any(Query.class), unset.capture(), eq("chat_conversations"));
+        Document unsetFields = (Document) unset.getValue().getUpdateObject().get("$unset");
+        assertTrue(unsetFields.containsKey("messages"));
+        assertTrue(unsetFields.containsKey(ChatHistoryService.LEGACY_FROM));
+    }
+
+    @Test
+    void backfillLegacyMessages_rerunAfterReserving_reusesTheReservedSeqs() {
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("chat_conversations")))
+                .thenReturn(List.of(legacyConversation(2).append(ChatHistoryService.LEGACY_FROM, 5L)));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessageBucket.class)).thenReturn(bulkOps);
+
+        assertEquals(1, historyService.backfillLegacyMessages());
+
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(Document.class), anyString());
+        List<Object> added = addedMessages(bucketUpserts().get(0));
+        assertEquals(List.of(5L, 6L), added.stream().map(m -> ((Document) m).get("seq")).toList());
+    }
+
+    @Test
+    void backfillLegacyMessages_claimedByAnotherNode_isSkipped() {
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("chat_conversations")))
+                .thenReturn(List.of(legacyConversation(2)));
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(Document.class), eq("chat_conversations")))
+                .thenReturn(null);
+
+        assertEquals(0, historyService.backfillLegacyMessages());
+
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(ChatMessageBucket.class));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), anyString());
+    }
+}
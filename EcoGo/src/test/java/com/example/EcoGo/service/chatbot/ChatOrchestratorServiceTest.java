@@ -3,15 +3,22 @@ package com.example.EcoGo.service.chatbot;
 import com.example.EcoGo.dto.chatbot.ChatResponseDto;
 import com.example.EcoGo.model.ChatConversation;
 import com.example.EcoGo.model.User;
-import com.example.EcoGo.repository.ChatConversationRepository;
 import com.example.EcoGo.repository.UserRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 
+import java.lang.reflect.Field;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -27,27 +34,56 @@ class ChatOrchestratorServiceTest {
     @Mock private NusBusProvider busProvider;
     @Mock private AuditLogService auditLogService;
     @Mock private ChatNotificationService notificationService;
-    @Mock private ChatConversationRepository conversationRepository;
+    @Mock private ConversationWriteBehind conversationWriter;
     @Mock private UserRepository userRepository;
+    @Mock private MongoTemplate mongoTemplate;
 
+    private final FakeStateStore stateStore = spy(new FakeStateStore());
     private ChatOrchestratorService orchestratorService;
 
-    @BeforeEach
-    void setUp() {
-        orchestratorService = new ChatOrchestratorService(
+    /** Shared state store, as the Mongo one is for all nodes. */
+    static class FakeStateStore implements ConversationStateStore {
+        final Map<String, Versioned> saved = new ConcurrentHashMap<>();
+        final Map<String, Long> messageCounts = new ConcurrentHashMap<>();
+
+        @Override
+        public Optional<Versioned> load(String conversationId) {
+            return Optional.ofNullable(saved.get(conversationId));
+        }
+
+        long version(String conversationId) {
+            Versioned v = saved.get(conversationId);
+            return v == null ? 0 : v.version();
+        }
+
+        @Override
+        public synchronized OptionalLong compareAndSet(String conversationId, String userId, long expectedVersion,
+                                                       ChatConversation.ConversationState state, int newMessages) {
+            if (version(conversationId) != expectedVersion) {
+                return OptionalLong.empty();
+            }
+            saved.put(conversationId, new Versioned(state, expectedVersion + 1));
+            return OptionalLong.of(messageCounts.merge(conversationId, (long) newMessages, Long::sum) - newMessages);
+        }
+    }
+
+    /** Another node: same shared stores, its own memory. */
+    private ChatOrchestratorService newNode() {
+        return new ChatOrchestratorService(
                 ragService, bookingService, modelClientService, pythonProxy,
                 busProvider, auditLogService, notificationService,
-                conversationRepository, userRepository
+                stateStore, conversationWriter, userRepository, mongoTemplate
         );
+    }
+
+    @BeforeEach
+    void setUp() {
+        orchestratorService = newNode();
 
         // Default: model disabled, python proxy disabled, RAG not available
         lenient().when(modelClientService.isEnabled()).thenReturn(false);
         lenient().when(pythonProxy.isEnabled()).thenReturn(false);
         lenient().when(ragService.isAvailable()).thenReturn(false);
-
-        // Default: no existing conversation in DB
-        lenient().when(conversationRepository.findByConversationId(anyString())).thenReturn(Optional.empty());
-        lenient().when(conversationRepository.save(any(ChatConversation.class))).thenAnswer(inv -> inv.getArgument(0));
     }
 
     // ---------- Greeting ----------
@@ -94,6 +130,7 @@ class ChatOrchestratorServiceTest {
         assertNotNull(resp);
         assertNotNull(resp.getConversationId());
         assertTrue(resp.getConversationId().startsWith("c_"));
+        assertNotEquals(resp.getConversationId(), orchestratorService.handleChat("guest", false, null, "hi").getConversationId());
     }
 
     @Test
@@ -277,6 +314,136 @@ class ChatOrchestratorServiceTest {
         assertEquals("Here is my model response.", resp.getAssistant().getText());
     }
 
+    // ---------- Hedged dispatch ----------
+    private void enableHedge(long budgetMs) throws Exception {
+        Field enabled = ChatOrchestratorService.class.getDeclaredField("hedgeEnabled");
+        enabled.setAccessible(true);
+        enabled.set(orchestratorService, true);
+        Field budget = ChatOrchestratorService.class.getDeclaredField("hedgeBudgetMs");
+        budget.setAccessible(true);
+        budget.set(orchestratorService, budgetMs);
+    }
+
+    @Test
+    void handleChat_hedged_modelAnswers_shouldCancelPython() throws Exception {
+        enableHedge(1_000);
+        when(modelClientService.isEnabled()).thenReturn(true);
+        when(pythonProxy.isEnabled()).thenReturn(true);
+        when(modelClientService.callModelForToolAsync(anyString())).thenReturn(
+                CompletableFuture.completedFuture(new ModelClientService.ModelResult("Model wins.", null)));
+        CompletableFuture<ChatResponseDto> python = new CompletableFuture<>();
+        when(pythonProxy.forwardChatAsync(anyString(), anyString(), anyString(), anyString())).thenReturn(python);
+
+        ChatResponseDto resp = orchestratorService.handleChat("guest", false, "c1", "tell me about green travel");
+
+        assertEquals("Model wins.", resp.getAssistant().getText());
+        assertTrue(python.isCancelled());
+        verify(modelClientService, never()).callModelForTool(anyString());
+    }
+
+    @Test
+    void handleChat_hedged_modelEmpty_shouldUsePythonAnswer() throws Exception {
+        enableHedge(1_000);
+        when(modelClientService.isEnabled()).thenReturn(true);
+        when(pythonProxy.isEnabled()).thenReturn(true);
+        when(modelClientService.callModelForToolAsync(anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        when(pythonProxy.forwardChatAsync(anyString(), anyString(), anyString(), anyString())).thenReturn(
+                CompletableFuture.supplyAsync(() -> new ChatResponseDto("c1", "Python says hello!")));
+
+        ChatResponseDto resp = orchestratorService.handleChat("guest", false, "c1", "random question xyz");
+
+        assertEquals("Python says hello!", resp.getAssistant().getText());
+    }
+
+    @Test
+    void handleChat_hedged_budgetExpires_shouldUseLocalAnswerAndCancelBoth() throws Exception {
+        enableHedge(50);
+        when(modelClientService.isEnabled()).thenReturn(true);
+        when(pythonProxy.isEnabled()).thenReturn(true);
+        CompletableFuture<ModelClientService.ModelResult> model = new CompletableFuture<>();
+        CompletableFuture<ChatResponseDto> python = new CompletableFuture<>();
+        when(modelClientService.callModelForToolAsync(anyString())).thenReturn(model);
+        when(pythonProxy.forwardChatAsync(anyString(), anyString(), anyString(), anyString())).thenReturn(python);
+
+        ChatResponseDto resp = orchestratorService.handleChat("guest", false, "c1", "Book a Trip");
+
+        assertTrue(resp.getAssistant().getText().contains("book a trip"));
+        assertTrue(model.isCancelled());
+        assertTrue(python.isCancelled());
+
+        // The local answer's state change (booking intent) was applied, so the next message continues the booking
+        ChatResponseDto next = orchestratorService.handleChat("guest", false, "c1", "PGP to UTown");
+        assertNotNull(next);
+        verify(modelClientService, times(1)).callModelForToolAsync(anyString());
+    }
+
+    @Test
+    void handleChat_hedged_busQuery_composesOnAsyncArrivals() throws Exception {
+        enableHedge(1_000);
+        when(modelClientService.isEnabled()).thenReturn(true);
+        when(modelClientService.callModelForToolAsync(anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        NusBusProvider.BusArrivalsResult busResult = new NusBusProvider.BusArrivalsResult("COM3", java.util.List.of(
+                java.util.Map.of("route", "D2", "etaMinutes", 3, "status", "on_time")));
+        when(busProvider.getArrivalsAsync(anyString(), any())).thenReturn(CompletableFuture.supplyAsync(() -> busResult));
+
+        ChatResponseDto resp = orchestratorService.handleChat("guest", false, "c1", "bus arrival COM3");
+
+        assertTrue(resp.getAssistant().getText().contains("COM3"));
+        verify(busProvider, never()).getArrivals(anyString(), any());
+    }
+
+    @Test
+    void handleChat_hedged_nothingWithinBudget_shouldCancelAllThree() throws Exception {
+        enableHedge(50);
+        when(modelClientService.isEnabled()).thenReturn(true);
+        when(pythonProxy.isEnabled()).thenReturn(true);
+        CompletableFuture<ModelClientService.ModelResult> model = new CompletableFuture<>();
+        CompletableFuture<ChatResponseDto> python = new CompletableFuture<>();
+        when(modelClientService.callModelForToolAsync(anyString())).thenReturn(model);
+        when(pythonProxy.forwardChatAsync(anyString(), anyString(), anyString(), anyString())).thenReturn(python);
+        when(busProvider.getArrivalsAsync(anyString(), any())).thenReturn(new CompletableFuture<>());
+
+        long start = System.nanoTime();
+        ChatResponseDto resp = orchestratorService.handleChat("guest", false, "c1", "bus arrival COM3");
+
+        // One shared deadline, not one budget per future
+        assertTrue(java.util.concurrent.TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+        assertTrue(resp.getAssistant().getText().contains("took too long"));
+        assertTrue(model.isCancelled());
+        assertTrue(python.isCancelled());
+    }
+
+    @Test
+    void handleChat_hedged_modelWins_shouldNotApplySpeculativeUserUpdate() throws Exception {
+        enableHedge(1_000);
+        when(modelClientService.isEnabled()).thenReturn(true);
+        when(modelClientService.callModelForToolAsync(anyString())).thenReturn(
+                CompletableFuture.supplyAsync(() -> new ModelClientService.ModelResult("Which field?", null)));
+
+        ChatResponseDto resp = orchestratorService.handleChat("u_001", false, "c1", "update my nickname=Bob");
+
+        assertEquals("Which field?", resp.getAssistant().getText());
+        verify(userRepository, never()).findByUserid(anyString());
+        verifyNoInteractions(mongoTemplate);
+        verifyNoInteractions(auditLogService, notificationService);
+    }
+
+    @Test
+    void handleChat_hedged_localWins_shouldApplyUserUpdateOnce() throws Exception {
+        enableHedge(50);
+        when(modelClientService.isEnabled()).thenReturn(true);
+        when(modelClientService.callModelForToolAsync(anyString())).thenReturn(new CompletableFuture<>());
+        User user = new User();
+        user.setUserid("u_001");
+        when(userRepository.findByUserid("u_001")).thenReturn(Optional.of(user));
+
+        ChatResponseDto resp = orchestratorService.handleChat("u_001", false, "c1", "update my nickname=Bob");
+
+        assertTrue(resp.getAssistant().getText().contains("updated"));
+        assertEquals("Bob", user.getNickname());
+        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(Update.class), eq(User.class));
+    }
+
     // ---------- Python proxy fallback ----------
     @Test
     void handleChat_pythonProxyEnabled_shouldForwardToProxy() {
@@ -320,13 +487,81 @@ class ChatOrchestratorServiceTest {
         assertTrue(resp.getAssistant().getText().contains("help"));
     }
 
-    // ---------- Persist message and state ----------
+    // ---------- Persist messages and state ----------
     @Test
     void handleChat_shouldPersistConversation() {
         orchestratorService.handleChat("u_001", false, "c1", "hello");
 
-        // Should create new conversation and persist messages
-        verify(conversationRepository, atLeastOnce()).save(any(ChatConversation.class));
+        // One write-behind turn: user message + reply
+        ArgumentCaptor<java.util.List<ChatConversation.Message>> messages = ArgumentCaptor.forClass(java.util.List.class);
+        verify(conversationWriter).record(eq("c1"), eq("u_001"), messages.capture());
+        assertEquals(2, messages.getValue().size());
+        assertEquals("user", messages.getValue().get(0).getRole());
+        assertEquals("hello", messages.getValue().get(0).getText());
+        assertEquals("assistant", messages.getValue().get(1).getRole());
+        // Numbered by the state save, so the write-behind does not need its own round trip
+        assertEquals(java.util.List.of(0L, 1L), messages.getValue().stream().map(ChatConversation.Message::getSeq).toList());
+        // State is saved before replying, as version 1 of a new conversation
+        verify(stateStore).compareAndSet(eq("c1"), eq("u_001"), eq(0L), any(ChatConversation.ConversationState.class), eq(2));
+    }
+
+    @Test
+    void handleChat_eachTurnSavesAgainstTheVersionItLoaded() {
+        orchestratorService.handleChat("u_001", false, "c1", "hello");
+        orchestratorService.handleChat("u_001", false, "c1", "hello again");
+
+        verify(stateStore).compareAndSet(eq("c1"), eq("u_001"), eq(1L), any(ChatConversation.ConversationState.class), eq(2));
+        assertEquals(2, stateStore.version("c1"));
+    }
+
+    // ---------- Any node serves any turn ----------
+    @Test
+    void handleChat_nextTurnOnAnotherNode_continuesBooking() {
+        orchestratorService.handleChat("u_001", false, "c1", "🎫 Book a Trip");
+
+        newNode().handleChat("u_001", false, "c1", "PGP to UTown");
+
+        ChatConversation.ConversationState saved = stateStore.saved.get("c1").state();
+        assertEquals("booking", saved.getIntent());
+        assertEquals("PGP", saved.getPartialData().get("fromName"));
+        assertEquals("UTown", saved.getPartialData().get("toName"));
+    }
+
+    @Test
+    void handleChat_pendingProfileUpdate_isConfirmedOnAnotherNode() {
+        User user = new User();
+        user.setUserid("u_002");
+        when(userRepository.findByUserid("u_002")).thenReturn(Optional.of(user));
+
+        ChatResponseDto asked = orchestratorService.handleChat("admin1", true, "c1", "修改 u_002 nickname=Bob");
+        assertTrue(asked.getAssistant().getText().contains("confirm"));
+
+        newNode().handleChat("admin1", true, "c1", "confirm");
+
+        assertEquals("Bob", user.getNickname());
+        verify(mongoTemplate).updateFirst(any(Query.class), argThat((Update u) ->
+                "Bob".equals(((org.bson.Document) u.getUpdateObject().get("$set")).get("nickname"))), eq(User.class));
+        verify(userRepository, never()).save(any());
+        assertNull(stateStore.saved.get("c1").state().getPendingUserUpdate());
+    }
+
+    @Test
+    void handleChat_concurrentTurnSavedFirst_stillRepliesAndKeepsNewerState() {
+        orchestratorService.handleChat("u_001", false, "c1", "🎫 Book a Trip");
+        ChatConversation.ConversationState newer = new ChatConversation.ConversationState();
+        newer.setIntent("awaiting_bus_stop");
+        // Another node saves between this turn's load and save
+        doAnswer(inv -> {
+            Optional<?> loaded = (Optional<?>) inv.callRealMethod();
+            stateStore.saved.put("c1", new ConversationStateStore.Versioned(newer, 2));
+            return loaded;
+        }).when(stateStore).load("c1");
+
+        ChatResponseDto resp = orchestratorService.handleChat("u_001", false, "c1", "Back to Menu");
+
+        assertNotNull(resp);
+        assertSame(newer, stateStore.saved.get("c1").state());
+        verify(conversationWriter, times(2)).record(eq("c1"), eq("u_001"), anyList());
     }
 
     // ---------- Complete booking flow ----------
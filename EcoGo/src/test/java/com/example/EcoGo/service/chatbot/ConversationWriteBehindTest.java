@@ -0,0 +1,328 @@
+package com.example.EcoGo.service.chatbot;
+
+import com.example.EcoGo.model.ChatConversation;
+import com.example.EcoGo.model.ChatMessageBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ConversationWriteBehindTest {
+
+    @Mock private MongoTemplate mongoTemplate;
+    @Mock private BulkOperations bulkOps;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ConversationWriteBehind writer;
+    // conversationId -> messageCount held by the fake header collection
+    private final Map<String, Long> counts = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        writer = new ConversationWriteBehind(mongoTemplate, meterRegistry);
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessageBucket.class)).thenReturn(bulkOps);
+        lenient().when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(ChatConversation.class))).thenAnswer(inv -> {
+            String conversationId = (String) inv.<Query>getArgument(0).getQueryObject().get("conversationId");
+            Document inc = (Document) inv.<Update>getArgument(1).getUpdateObject().get("$inc");
+            ChatConversation header = new ChatConversation();
+            header.setConversationId(conversationId);
+            header.setMessageCount(counts.merge(conversationId, ((Number) inc.get("messageCount")).longValue(), Long::sum));
+            return header;
+        });
+    }
+
+    private void set(String field, Object value) throws Exception {
+        Field f = ConversationWriteBehind.class.getDeclaredField(field);
+        f.setAccessible(true);
+        f.set(writer, value);
+    }
+
+    private double dropped(String reason) {
+        return meterRegistry.counter(ConversationWriteBehind.DROPPED_COUNTER, "reason", reason).count();
+    }
+
+    private void recordTurn(String conversationId, String userText) {
+        writer.record(conversationId, "u1", List.of(
+                new ChatConversation.Message("user", userText),
+                new ChatConversation.Message("assistant", "re: " + userText)));
+    }
+
+    private static List<ChatConversation.Message> added(Update update) {
+        Document addToSet = (Document) update.getUpdateObject().get("$addToSet");
+        Update.Modifier each = (Update.Modifier) addToSet.get("messages");
+        assertEquals("$each", each.getKey());
+        return Arrays.stream((Object[]) each.getValue()).map(m -> (ChatConversation.Message) m).toList();
+    }
+
+    private static List<String> texts(List<ChatConversation.Message> messages) {
+        return messages.stream().map(ChatConversation.Message::getText).toList();
+    }
+
+    // ---------- numbering and coalescing ----------
+    @Test
+    void record_onlyQueues_andFlushNumbersAndMergesTurnsIntoOneBucketWrite() {
+        recordTurn("c1", "hello");
+        recordTurn("c1", "book a trip");
+
+        // Nothing on the request path
+        verifyNoInteractions(mongoTemplate);
+
+        writer.flush();
+
+        ArgumentCaptor<Update> header = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(1)).findAndModify(any(Query.class), header.capture(),
+                any(FindAndModifyOptions.class), eq(ChatConversation.class));
+        Document headerUpdate = header.getValue().getUpdateObject();
+        assertEquals(4, ((Number) ((Document) headerUpdate.get("$inc")).get("messageCount")).intValue());
+        // State is saved through the state store, never by the write-behind
+        assertNull(((Document) headerUpdate.get("$set")).get("state"));
+        assertEquals("u1", ((Document) headerUpdate.get("$setOnInsert")).get("userId"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> bucket = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps, times(1)).upsert(query.capture(), bucket.capture());
+        verify(bulkOps).execute();
+        verifyNoMoreInteractions(ignoreStubs(mongoTemplate));
+        assertEquals("c1", query.getValue().getQueryObject().get("conversationId"));
+        assertEquals(0L, query.getValue().getQueryObject().get("bucketNo"));
+        List<ChatConversation.Message> messages = added(bucket.getValue());
+        assertEquals(List.of("hello", "re: hello", "book a trip", "re: book a trip"), texts(messages));
+        assertEquals(List.of(0L, 1L, 2L, 3L), messages.stream().map(ChatConversation.Message::getSeq).toList());
+        assertEquals(0, writer.pendingCount());
+    }
+
+    @Test
+    void flush_continuesNumberingAndSplitsAtBucketBoundary() {
+        counts.put("c1", (long) ChatMessageBucket.SIZE - 1);
+        recordTurn("c1", "hello");
+
+        writer.flush();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> bucket = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps, times(2)).upsert(query.capture(), bucket.capture());
+        assertEquals(List.of(0L, 1L), query.getAllValues().stream().map(q -> q.getQueryObject().get("bucketNo")).toList());
+        assertEquals(99L, added(bucket.getAllValues().get(0)).get(0).getSeq());
+        assertEquals(100L, added(bucket.getAllValues().get(1)).get(0).getSeq());
+    }
+
+    @Test
+    void record_turnsNumberedOnTwoNodes_keepTheirSeqsWhicheverFlushesFirst() {
+        // The state saves numbered the turns in the order they finished; the second node flushes first
+        ConversationWriteBehind otherNode = new ConversationWriteBehind(mongoTemplate, new SimpleMeterRegistry());
+        writer.record("c1", "u1", List.of(numbered("first", 0), numbered("re: first", 1)));
+        otherNode.record("c1", "u1", List.of(numbered("second", 2)));
+
+        otherNode.flush();
+        writer.flush();
+
+        ArgumentCaptor<Update> bucket = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps, times(2)).upsert(any(Query.class), bucket.capture());
+        assertEquals(List.of(2L), added(bucket.getAllValues().get(0)).stream().map(ChatConversation.Message::getSeq).toList());
+        assertEquals(List.of(0L, 1L), added(bucket.getAllValues().get(1)).stream().map(ChatConversation.Message::getSeq).toList());
+        // Already numbered, so the flush does not touch the header
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(ChatConversation.class));
+    }
+
+    @Test
+    void flush_headerUnavailable_retriesNumberingLater() throws Exception {
+        set("initialBackoffMs", 0L);
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(ChatConversation.class)))
+                .thenThrow(new RuntimeException("mongo down"))
+                .thenAnswer(inv -> {
+                    ChatConversation header = new ChatConversation();
+                    header.setMessageCount(counts.merge("c1", 2L, Long::sum));
+                    return header;
+                });
+        recordTurn("c1", "hello");
+
+        writer.flush();
+        writer.flush();
+
+        ArgumentCaptor<Update> bucket = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps).upsert(any(Query.class), bucket.capture());
+        assertEquals(List.of(0L, 1L), added(bucket.getValue()).stream().map(ChatConversation.Message::getSeq).toList());
+    }
+
+    private static ChatConversation.Message numbered(String text, long seq) {
+        ChatConversation.Message m = new ChatConversation.Message("user", text);
+        m.setSeq(seq);
+        return m;
+    }
+
+    @Test
+    void record_noMessages_isIgnored() {
+        writer.record("c1", "u1", List.of());
+
+        writer.flush();
+
+        assertEquals(0, writer.pendingCount());
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void flush_nothingPending_doesNotTouchMongo() {
+        writer.flush();
+
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void flush_splitsIntoBatches() throws Exception {
+        set("batchSize", 2);
+        for (int i = 0; i < 5; i++) {
+            recordTurn("c" + i, "hi");
+        }
+
+        writer.flush();
+
+        verify(bulkOps, times(5)).upsert(any(Query.class), any(Update.class));
+        verify(bulkOps, times(3)).execute();
+    }
+
+    // ---------- failures ----------
+    @Test
+    void flush_bucketWriteFails_retryKeepsSeqsAndOrder() throws Exception {
+        set("initialBackoffMs", 0L);
+        when(bulkOps.execute()).thenThrow(new RuntimeException("mongo down")).thenReturn(null);
+        recordTurn("c1", "first");
+
+        writer.flush();
+        assertEquals(1, writer.pendingCount());
+
+        recordTurn("c1", "second");
+        writer.flush();
+
+        // Each turn was numbered once, when recorded; the retry does not number again
+        assertEquals(4L, counts.get("c1"));
+        ArgumentCaptor<Update> bucket = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps, times(2)).upsert(any(Query.class), bucket.capture());
+        List<ChatConversation.Message> retried = added(bucket.getAllValues().get(1));
+        assertEquals(List.of("first", "re: first", "second", "re: second"), texts(retried));
+        assertEquals(List.of(0L, 1L, 2L, 3L), retried.stream().map(ChatConversation.Message::getSeq).toList());
+        assertEquals(0, writer.pendingCount());
+    }
+
+    @Test
+    void flush_failedConversation_waitsOutBackoffWhileOthersAreWritten() {
+        when(bulkOps.execute()).thenThrow(new RuntimeException("mongo down")).thenReturn(null);
+        recordTurn("c1", "hello");
+        writer.flush();
+
+        recordTurn("c2", "hi");
+        writer.flush();
+
+        // c1 is not due yet, so only c2 went out
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(bulkOps, times(2)).upsert(query.capture(), any(Update.class));
+        assertEquals("c2", query.getAllValues().get(1).getQueryObject().get("conversationId"));
+        assertEquals(1, writer.pendingCount());
+    }
+
+    @Test
+    void flush_keepsRetryingThroughLongOutage() throws Exception {
+        set("initialBackoffMs", 0L);
+        when(bulkOps.execute()).thenThrow(new RuntimeException("mongo down"));
+        recordTurn("c1", "hello");
+
+        for (int i = 0; i < 10; i++) {
+            writer.flush();
+        }
+
+        assertEquals(1, writer.pendingCount());
+        assertEquals(0.0, dropped("overflow") + dropped("shutdown"));
+        verify(bulkOps, times(10)).execute();
+    }
+
+    @Test
+    void backoff_doublesUpToTheCap() throws Exception {
+        set("initialBackoffMs", 500L);
+        set("maxBackoffMs", 30000L);
+
+        assertEquals(500, writer.backoff(1).toMillis());
+        assertEquals(1000, writer.backoff(2).toMillis());
+        assertEquals(30000, writer.backoff(10).toMillis());
+        assertEquals(30000, writer.backoff(1000).toMillis());
+    }
+
+    @Test
+    void record_bufferFull_dropsTurnAndCountsIt() throws Exception {
+        set("maxPendingMessages", 3);
+        recordTurn("c1", "first");
+
+        recordTurn("c1", "second");
+
+        assertEquals(2.0, dropped("overflow"));
+        writer.flush();
+        ArgumentCaptor<Update> bucket = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOps).upsert(any(Query.class), bucket.capture());
+        assertEquals(List.of("first", "re: first"), texts(added(bucket.getValue())));
+        assertEquals(2L, counts.get("c1"));
+    }
+
+    @Test
+    void shutdown_ignoresBackoffAndDropsWhatStillFails() {
+        when(bulkOps.execute()).thenThrow(new RuntimeException("mongo down"));
+        recordTurn("c1", "hello");
+        writer.flush();
+
+        writer.shutdown();
+
+        verify(bulkOps, times(2)).execute();
+        assertEquals(0, writer.pendingCount());
+        assertEquals(2.0, dropped("shutdown"));
+    }
+
+    @Test
+    void shutdown_writesPendingTurns() {
+        recordTurn("c1", "hello");
+
+        writer.shutdown();
+
+        verify(bulkOps).execute();
+        assertEquals(0.0, dropped("shutdown"));
+    }
+
+    @Test
+    void start_flushesOnItsOwnThread() throws Exception {
+        set("flushIntervalMs", 10L);
+        java.util.concurrent.atomic.AtomicReference<String> flushThread = new java.util.concurrent.atomic.AtomicReference<>();
+        when(bulkOps.execute()).thenAnswer(inv -> {
+            flushThread.set(Thread.currentThread().getName());
+            return null;
+        });
+        recordTurn("c1", "hello");
+
+        writer.start();
+        try {
+            verify(bulkOps, timeout(2_000)).execute();
+            assertEquals("chat-persist-flush", flushThread.get());
+        } finally {
+            writer.shutdown();
+        }
+    }
+}
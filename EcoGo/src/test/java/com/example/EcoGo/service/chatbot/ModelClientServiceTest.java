@@ -1,19 +1,34 @@
 package com.example.EcoGo.service.chatbot;
 
+import com.example.EcoGo.service.CircuitBreaker;
+import com.example.EcoGo.service.CircuitBreakerRegistry;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class ModelClientServiceTest {
 
     private ModelClientService modelClientService;
+    private CircuitBreakerRegistry circuitBreakers;
 
     @BeforeEach
     void setUp() throws Exception {
         modelClientService = new ModelClientService();
+        circuitBreakers = new CircuitBreakerRegistry(new SimpleMeterRegistry());
+        setField("circuitBreakers", circuitBreakers);
     }
 
     private void setField(String fieldName, Object value) throws Exception {
@@ -60,6 +75,76 @@ class ModelClientServiceTest {
         assertNull(result);
     }
 
+    @Test
+    void callModelForToolAsync_slowUpstream_callsOverlapWithoutCallerThreads() throws Exception {
+        HttpServer stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/v1/chat/completions", exchange -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"choices\":[{\"message\":{\"content\":\"hi\"}}]}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.start();
+        try {
+            setField("modelEnabled", true);
+            setField("modelBaseUrl", "http://127.0.0.1:" + stub.getAddress().getPort());
+            setField("modelApiKey", "test-key");
+            setField("modelName", "test-model");
+
+            // 20 requests against a 500ms upstream from a single caller thread: serial would take 10s
+            long start = System.nanoTime();
+            List<CompletableFuture<ModelClientService.ModelResult>> calls = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                calls.add(modelClientService.callModelForToolAsync("hello " + i));
+            }
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).join();
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            for (CompletableFuture<ModelClientService.ModelResult> call : calls) {
+                assertEquals("hi", call.join().text());
+            }
+            assertTrue(elapsedMs < 5_000, "took " + elapsedMs + "ms");
+        } finally {
+            stub.stop(0);
+        }
+    }
+
+    @Test
+    void callModelForToolAsync_circuitOpen_skipsModelServer() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/v1/chat/completions", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        stub.start();
+        try {
+            setField("modelEnabled", true);
+            setField("modelBaseUrl", "http://127.0.0.1:" + stub.getAddress().getPort());
+
+            // The default window opens after 5 calls at >= 50% failures
+            for (int i = 0; i < 5; i++) {
+                assertNull(modelClientService.callModelForToolAsync("hello").join());
+            }
+            CircuitBreaker breaker = circuitBreakers.forUpstream(ModelClientService.UPSTREAM, Duration.ofSeconds(3));
+            assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+            CompletableFuture<ModelClientService.ModelResult> skipped = modelClientService.callModelForToolAsync("hello");
+            assertTrue(skipped.isDone());
+            assertNull(skipped.join());
+            assertEquals(5, requests.get());
+        } finally {
+            stub.stop(0);
+        }
+    }
+
     // ---------- ModelResult record ----------
     @Test
     void modelResult_withTextOnly_shouldHaveNullToolCall() {
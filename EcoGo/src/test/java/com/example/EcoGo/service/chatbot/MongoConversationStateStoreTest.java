@@ -0,0 +1,124 @@
+package com.example.EcoGo.service.chatbot;
+
+import com.example.EcoGo.model.ChatConversation;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MongoConversationStateStoreTest {
+
+    @Mock private MongoTemplate mongoTemplate;
+
+    private MongoConversationStateStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new MongoConversationStateStore(mongoTemplate);
+    }
+
+    private static ChatConversation header(long stateVersion, String intent) {
+        ChatConversation header = new ChatConversation();
+        header.setStateVersion(stateVersion);
+        header.getState().setIntent(intent);
+        return header;
+    }
+
+    // ---------- reads ----------
+    @Test
+    void load_readsOnlyStateFields() {
+        when(mongoTemplate.findOne(any(Query.class), eq(ChatConversation.class))).thenReturn(header(4, "booking"));
+
+        ConversationStateStore.Versioned loaded = store.load("c1").orElseThrow();
+
+        assertEquals("booking", loaded.state().getIntent());
+        assertEquals(4, loaded.version());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findOne(query.capture(), eq(ChatConversation.class));
+        assertEquals(new Document("state", 1).append("stateVersion", 1), query.getValue().getFieldsObject());
+    }
+
+    @Test
+    void load_headerWithoutSavedState_isEmpty() {
+        when(mongoTemplate.findOne(any(Query.class), eq(ChatConversation.class))).thenReturn(header(0, null));
+
+        assertTrue(store.load("c1").isEmpty());
+    }
+
+    // ---------- compare-and-set ----------
+    private static ChatConversation counted(long messageCount) {
+        ChatConversation header = new ChatConversation();
+        header.setMessageCount(messageCount);
+        return header;
+    }
+
+    @Test
+    void compareAndSet_updatesOnlyTheExpectedVersionAndReservesSeqs() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ChatConversation.class))).thenReturn(counted(12));
+
+        assertEquals(OptionalLong.of(10), store.compareAndSet("c1", "u1", 3, new ChatConversation.ConversationState(), 2));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(ChatConversation.class));
+        verifyNoMoreInteractions(mongoTemplate);
+        assertEquals(3L, query.getValue().getQueryObject().get("stateVersion"));
+        assertEquals(new Document("messageCount", 1), query.getValue().getFieldsObject());
+        Document inc = (Document) update.getValue().getUpdateObject().get("$inc");
+        assertEquals(1, inc.get("stateVersion"));
+        assertEquals(2, inc.get("messageCount"));
+    }
+
+    @Test
+    void compareAndSet_staleVersion_isEmpty() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ChatConversation.class))).thenReturn(null);
+
+        assertTrue(store.compareAndSet("c1", "u1", 3, new ChatConversation.ConversationState(), 2).isEmpty());
+    }
+
+    @Test
+    void compareAndSet_firstSave_upsertsHeaderWithoutState() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ChatConversation.class))).thenReturn(counted(2));
+
+        assertEquals(OptionalLong.of(0), store.compareAndSet("c1", "u1", 0, new ChatConversation.ConversationState(), 2));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        ArgumentCaptor<FindAndModifyOptions> options = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), options.capture(),
+                eq(ChatConversation.class));
+        assertTrue(options.getValue().isUpsert());
+        // Version 0 also matches headers created by the message writer, which have no stateVersion
+        Document in = (Document) query.getValue().getQueryObject().get("stateVersion");
+        assertEquals(Arrays.asList(0L, null), in.get("$in"));
+        assertEquals("u1", ((Document) update.getValue().getUpdateObject().get("$setOnInsert")).get("userId"));
+    }
+
+    @Test
+    void compareAndSet_firstSaveRacedByAnotherNode_isEmpty() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ChatConversation.class))).thenThrow(new DuplicateKeyException("conversation_id_unique_idx"));
+
+        assertTrue(store.compareAndSet("c1", "u1", 0, new ChatConversation.ConversationState(), 2).isEmpty());
+    }
+}
@@ -1,11 +1,197 @@
 package com.example.EcoGo.service.chatbot;
 
+import com.sun.net.httpserver.HttpServer;
+import com.example.EcoGo.service.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class NusBusProviderTest {
 
+    private static final String UTOWN_BODY = "{\"ShuttleServiceResult\":{\"shuttles\":["
+            + "{\"name\":\"D2\",\"busstopcode\":\"UTOWN\",\"_etas\":[{\"eta\":3,\"plate\":\"PD123\"}]}]}}";
+
+    private HttpServer stub;
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private volatile int upstreamStatus = 200;
+    private volatile CountDownLatch upstreamGate = new CountDownLatch(0);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void stopStub() {
+        if (stub != null) {
+            stub.stop(0);
+        }
+    }
+
+    private NusBusProvider providerAgainstStub() throws Exception {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.createContext("/ShuttleService", exchange -> {
+            upstreamCalls.incrementAndGet();
+            try {
+                upstreamGate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = UTOWN_BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(upstreamStatus, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        stub.start();
+
+        NusBusProvider provider = new NusBusProvider();
+        setField(provider, "username", "u");
+        setField(provider, "password", "p");
+        setField(provider, "baseUrl", "http://127.0.0.1:" + stub.getAddress().getPort());
+        setField(provider, "meterRegistry", meterRegistry);
+        setField(provider, "circuitBreakers", new CircuitBreakerRegistry(meterRegistry));
+        return provider;
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field f = NusBusProvider.class.getDeclaredField(name);
+        f.setAccessible(true);
+        f.set(target, value);
+    }
+
+    private double cacheCount(String result) {
+        var counter = meterRegistry.find(NusBusProvider.CACHE_COUNTER).tag("result", result).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    // ---------- getArrivals cache ----------
+    @Test
+    void getArrivals_withinTtl_servedFromCache() throws Exception {
+        NusBusProvider provider = providerAgainstStub();
+
+        NusBusProvider.BusArrivalsResult first = provider.getArrivals("UTOWN", null);
+        NusBusProvider.BusArrivalsResult second = provider.getArrivals("University Town", null);
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals("D2", first.arrivals().get(0).get("route"));
+        assertEquals(first.arrivals(), second.arrivals());
+        assertEquals(1.0, cacheCount("miss"));
+        assertEquals(1.0, cacheCount("hit"));
+        assertNotNull(meterRegistry.find(NusBusProvider.FETCH_TIMER).tag("outcome", "success").timer());
+    }
+
+    @Test
+    void getArrivals_concurrentMisses_shareOneUpstreamCall() throws Exception {
+        NusBusProvider provider = providerAgainstStub();
+        upstreamGate = new CountDownLatch(1);
+        int callers = 5;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<NusBusProvider.BusArrivalsResult>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> provider.getArrivals("UTOWN", null)));
+            }
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (cacheCount("coalesced") < callers - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            upstreamGate.countDown();
+
+            for (Future<NusBusProvider.BusArrivalsResult> result : results) {
+                assertEquals(1, result.get(5, TimeUnit.SECONDS).arrivals().size());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(callers - 1.0, cacheCount("coalesced"));
+    }
+
+    @Test
+    void getArrivals_expiredAndUpstreamFails_servesStale() throws Exception {
+        NusBusProvider provider = providerAgainstStub();
+        setField(provider, "cacheTtlSeconds", 0L);
+
+        provider.getArrivals("UTOWN", null);
+        upstreamStatus = 500;
+        NusBusProvider.BusArrivalsResult result = provider.getArrivals("UTOWN", null);
+
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(1, result.arrivals().size());
+        assertEquals(1.0, cacheCount("stale"));
+        assertNotNull(meterRegistry.find(NusBusProvider.FETCH_TIMER).tag("outcome", "error").timer());
+    }
+
+    @Test
+    void getArrivals_upstreamFailsWithoutCache_returnsEmpty() throws Exception {
+        NusBusProvider provider = providerAgainstStub();
+        upstreamStatus = 503;
+
+        NusBusProvider.BusArrivalsResult result = provider.getArrivals("UTOWN", null);
+
+        assertEquals("UTOWN", result.stopName());
+        assertTrue(result.arrivals().isEmpty());
+    }
+
+    @Test
+    void getArrivals_circuitOpen_servesStaleWithoutCallingUpstream() throws Exception {
+        NusBusProvider provider = providerAgainstStub();
+        setField(provider, "cacheTtlSeconds", 0L);
+
+        provider.getArrivals("UTOWN", null);
+        upstreamStatus = 500;
+        for (int i = 0; i < 5; i++) {
+            provider.getArrivals("UTOWN", null);
+        }
+        int callsWhenOpened = upstreamCalls.get();
+        NusBusProvider.BusArrivalsResult result = provider.getArrivals("UTOWN", null);
+
+        assertEquals(callsWhenOpened, upstreamCalls.get());
+        assertEquals(1, result.arrivals().size());
+        assertEquals(1.0, meterRegistry.find("ecogo.upstream.circuit.state")
+                .tag("upstream", NusBusProvider.UPSTREAM).gauge().value());
+    }
+
+    // ---------- prefetch support ----------
+    @Test
+    void popularStopCodes_countsKnownStopsOnly() throws Exception {
+        NusBusProvider provider = providerAgainstStub();
+
+        provider.getArrivals("UTOWN", null);
+        provider.getArrivals("University Town", null);
+        provider.getArrivals("PGP", null);
+        provider.getArrivals("Somewhere Unknown", null);
+
+        assertEquals(List.of("UTOWN", "PGP"), provider.popularStopCodes(5));
+    }
+
+    @Test
+    void refreshIfExpiring_skipsFreshEntries_andRefreshesExpiringOnes() throws Exception {
+        NusBusProvider provider = providerAgainstStub();
+
+        assertTrue(provider.refreshIfExpiring("UTOWN", Duration.ofSeconds(1)).join());
+        assertFalse(provider.refreshIfExpiring("UTOWN", Duration.ofSeconds(1)).join());
+        assertTrue(provider.refreshIfExpiring("UTOWN", Duration.ofSeconds(15)).join());
+        assertEquals(2, upstreamCalls.get());
+
+        provider.getArrivals("UTOWN", null);
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(1.0, cacheCount("hit"));
+    }
+
     // ---------- isRouteName (static method) ----------
     @Test
     void isRouteName_knownRoutes_shouldReturnTrue() {
@@ -1,6 +1,8 @@
 package com.example.EcoGo.service.chatbot;
 
 import com.example.EcoGo.dto.chatbot.ChatResponseDto;
+import com.example.EcoGo.service.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -15,6 +17,7 @@ class PythonChatbotProxyServiceTest {
     @BeforeEach
     void setUp() throws Exception {
         proxyService = new PythonChatbotProxyService();
+        setField("circuitBreakers", new CircuitBreakerRegistry(new SimpleMeterRegistry()));
     }
 
     private void setField(String fieldName, Object value) throws Exception {
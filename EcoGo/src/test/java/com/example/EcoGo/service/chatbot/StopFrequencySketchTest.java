@@ -0,0 +1,68 @@
+package com.example.EcoGo.service.chatbot;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StopFrequencySketchTest {
+
+    @Test
+    void top_ordersByRecentCount() {
+        StopFrequencySketch sketch = new StopFrequencySketch();
+        record(sketch, "UTOWN", 30);
+        record(sketch, "COM3", 10);
+        record(sketch, "PGP", 20);
+
+        assertEquals(List.of("UTOWN", "PGP", "COM3"), sketch.top(5));
+        assertEquals(List.of("UTOWN", "PGP"), sketch.top(2));
+        assertTrue(sketch.estimate("UTOWN") >= 30);
+        assertEquals(0, sketch.estimate("KRB"));
+    }
+
+    @Test
+    void record_halvesCountsAfterSample() {
+        StopFrequencySketch sketch = new StopFrequencySketch();
+        record(sketch, "UTOWN", StopFrequencySketch.SAMPLE_SIZE - 1);
+        assertEquals(StopFrequencySketch.SAMPLE_SIZE - 1, sketch.estimate("UTOWN"));
+
+        sketch.record("UTOWN");
+
+        assertEquals(StopFrequencySketch.SAMPLE_SIZE / 2, sketch.estimate("UTOWN"));
+    }
+
+    @Test
+    void candidates_areBounded_andPopularCodesDisplaceRareOnes() {
+        StopFrequencySketch sketch = new StopFrequencySketch();
+        for (int i = 0; i < StopFrequencySketch.MAX_CANDIDATES; i++) {
+            sketch.record("RARE-" + i);
+        }
+        record(sketch, "UTOWN", 5);
+
+        List<String> top = sketch.top(StopFrequencySketch.MAX_CANDIDATES + 10);
+        assertEquals(StopFrequencySketch.MAX_CANDIDATES, top.size());
+        assertEquals("UTOWN", top.get(0));
+    }
+
+    @Test
+    void top_withMaxAge_leavesOutCodesNotQueriedLately() {
+        StopFrequencySketch sketch = new StopFrequencySketch();
+        long minute = 60_000_000_000L;
+        for (int i = 0; i < 50; i++) {
+            sketch.record("UTOWN", 0);
+        }
+        sketch.record("COM3", 10 * minute);
+
+        // UTOWN still has the higher count, but nobody asked for it in the last minute
+        assertEquals(List.of("UTOWN", "COM3"), sketch.top(5));
+        assertEquals(List.of("COM3"), sketch.top(5, 10 * minute + 1, minute));
+        assertEquals(List.of("UTOWN", "COM3"), sketch.top(5, 10 * minute, 10 * minute));
+    }
+
+    private static void record(StopFrequencySketch sketch, String code, int times) {
+        for (int i = 0; i < times; i++) {
+            sketch.record(code);
+        }
+    }
+}
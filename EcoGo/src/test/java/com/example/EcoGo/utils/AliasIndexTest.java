@@ -0,0 +1,126 @@
+package com.example.EcoGo.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AliasIndexTest {
+
+    private static final Map<String, String> STOPS = new LinkedHashMap<>();
+
+    static {
+        STOPS.put("PGP", "PGP");
+        STOPS.put("COM3", "COM3");
+        STOPS.put("UTOWN", "UTOWN");
+        STOPS.put("UTown", "UTOWN");
+        STOPS.put("KR-MRT", "KR-MRT");
+        STOPS.put("LT13-OPP", "LT13-OPP");
+        STOPS.put("王子岭", "PGP");
+        STOPS.put("肯特岗地铁站", "KR-MRT");
+        STOPS.put("肯特岗地铁", "KR-MRT");
+        STOPS.put("图书馆", "CLB");
+        STOPS.put("Kent Ridge MRT", "KR-MRT");
+        STOPS.put("University Town", "UTOWN");
+        STOPS.put("Central Library", "CLB");
+    }
+
+    private static AliasIndex<String> stopIndex() {
+        AliasIndex.Builder<String> builder = AliasIndex.builder();
+        STOPS.forEach(builder::add);
+        return builder.build();
+    }
+
+    // The lookup AliasIndex replaces: exact, then the first alias containing / contained in the input
+    private static String linearFind(String input) {
+        String lower = input.trim().toLowerCase(Locale.ROOT);
+        for (Map.Entry<String, String> e : STOPS.entrySet()) {
+            if (e.getKey().equalsIgnoreCase(lower)) return e.getValue();
+        }
+        for (Map.Entry<String, String> e : STOPS.entrySet()) {
+            String k = e.getKey().toLowerCase(Locale.ROOT);
+            if (k.contains(lower) || lower.contains(k)) return e.getValue();
+        }
+        return null;
+    }
+
+    @Test
+    void find_exactIgnoringCase() {
+        AliasIndex<String> index = stopIndex();
+
+        assertEquals("UTOWN", index.find("utown"));
+        assertEquals("KR-MRT", index.find(" Kent Ridge MRT "));
+        assertEquals("PGP", index.exact("王子岭"));
+        assertNull(index.exact("王子"));
+    }
+
+    @Test
+    void find_aliasInsideInput() {
+        AliasIndex<String> index = stopIndex();
+
+        assertEquals("KR-MRT", index.find("bus to kent ridge mrt please"));
+        assertEquals("KR-MRT", index.find("我在肯特岗地铁站等车"));
+        assertEquals("CLB", index.find("去图书馆"));
+    }
+
+    @Test
+    void find_inputInsideAlias() {
+        AliasIndex<String> index = stopIndex();
+
+        assertEquals("UTOWN", index.find("versity t"));
+        assertEquals("KR-MRT", index.find("肯特"));
+        assertEquals("CLB", index.find("library"));
+    }
+
+    @Test
+    void find_earliestAliasWinsAcrossBothDirections() {
+        AliasIndex<String> index = AliasIndex.<String>builder()
+                .add("she", "first")
+                .add("hers", "second")
+                .add("he", "third")
+                .build();
+
+        // "she", "he" and "hers" all occur; "she" was added first
+        assertEquals("first", index.find("ushers"));
+        // "he" and "hers" occur; "hers" was added before "he"
+        assertEquals("second", index.find("hers!"));
+        // "sh" is inside "she"
+        assertEquals("first", index.find("sh"));
+        // only "he" occurs, via a failure link from "she"
+        assertEquals("third", index.find("xshx he"));
+    }
+
+    @Test
+    void find_noMatch_returnsNull() {
+        assertNull(stopIndex().find("Jurong East"));
+        assertNull(AliasIndex.<String>builder().build().find("anything"));
+    }
+
+    @Test
+    void find_agreesWithLinearScan() {
+        AliasIndex<String> index = stopIndex();
+        List<String> inputs = new ArrayList<>(STOPS.keySet());
+        inputs.addAll(List.of("pg", "town", "mrt", "com", "com3 stop", "lt13", "-opp", "岗", "地铁", "x", "central lib"));
+        Random random = new Random(42);
+        String alphabet = "abcdefghijklmnoprstuvwxyz0123-王子岭图书馆肯特岗地铁站 ";
+        for (int i = 0; i < 2_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 1 + random.nextInt(6);
+            for (int j = 0; j < len; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            inputs.add(sb.toString());
+        }
+
+        for (String input : inputs) {
+            if (input.isBlank()) continue;
+            assertEquals(linearFind(input), index.find(input), input);
+        }
+    }
+}